@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * ConcurrentTimingStatistics collect the count, mean, standard deviation, min and max of sample times added by any
+ * number of threads at once, without locks, so that a live metric can be kept for a tag without funneling every
+ * sample through a single thread. A {@link TimingStatistics} snapshot of the samples is created on demand with
+ * {@link #getSnapshot()}.
+ * <p>
+ * The samples are spread over striped cells, in the manner of the LongAdder of later JDKs: each thread adds to a
+ * cell chosen by a per-thread hash, and a thread that finds its cell busy moves on to another cell, adding cells
+ * (up to the number of processors) as contention shows up. Each cell keeps the count, min and max of its samples,
+ * and their sum and sum of squares as exact 128-bit integers, so the mean and variance of the snapshot are
+ * calculated exactly from the sums instead of accumulating rounding errors. A cell is claimed with a CAS on its
+ * version, which also lets a snapshot read the values of each cell consistently: every sample is either entirely
+ * in a snapshot or not at all, even while samples are being added.
+ * <p>
+ * Unlike TimingStatistics built with {@link TimingStatistics#addSampleTime(long)}, no histogram is kept, so the
+ * snapshot has no percentiles. The sample times may be in any time unit, and the snapshot is in the same unit.
+ */
+public class ConcurrentTimingStatistics {
+    // the indexes of the values in each cell; the rest of the cell pads it out to its own cache lines
+    private static final int VERSION = 0;
+    private static final int COUNT = 1;
+    private static final int SUM_HIGH = 2;
+    private static final int SUM_LOW = 3;
+    private static final int SUM_OF_SQUARES_HIGH = 4;
+    private static final int SUM_OF_SQUARES_LOW = 5;
+    private static final int MIN = 6;
+    private static final int MAX = 7;
+    private static final int CELL_LENGTH = 16;
+
+    /**
+     * Cells are only added while there are fewer than the number of processors, rounded up to a power of 2.
+     */
+    private static final int MAX_CELLS = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1);
+
+    /**
+     * The hash each thread uses to pick a cell, shared by all instances. It is rehashed whenever the thread finds its
+     * cell busy, so that threads that collide spread out.
+     */
+    private static final ThreadLocal<int[]> probes = new ThreadLocal<int[]>() {
+        protected int[] initialValue() {
+            long id = Thread.currentThread().getId();
+            return new int[] { ((int) (id ^ (id >>> 32)) * 0x9E3779B9) | 1 };
+        }
+    };
+
+    /**
+     * The cells, a power of 2 in number. Cells are never removed, so a thread that still uses an older array adds
+     * to cells that are also in the current one.
+     */
+    private volatile AtomicLongArray[] cells = { newCell() };
+    private final AtomicBoolean expanding = new AtomicBoolean();
+
+    // --- Utility Methods ---
+
+    /**
+     * Adds a sample time to the statistics. This method may be called concurrently from any thread; it never blocks
+     * and doesn't allocate any objects once the cells have been created.
+     *
+     * @param elapsedTime The elapsed time of the sample.
+     * @return this ConcurrentTimingStatistics instance
+     */
+    public ConcurrentTimingStatistics addSampleTime(long elapsedTime) {
+        int[] probe = probes.get();
+        int hash = probe[0];
+        AtomicLongArray[] cells = this.cells;
+        while (true) {
+            AtomicLongArray cell = cells[hash & (cells.length - 1)];
+            long version = cell.get(VERSION);
+            if ((version & 1L) == 0L && cell.compareAndSet(VERSION, version, version + 1L)) {
+                addToCell(cell, elapsedTime);
+                //an even version releases the cell, and publishes the new values to snapshots
+                cell.lazySet(VERSION, version + 2L);
+                probe[0] = hash;
+                return this;
+            }
+
+            //another thread is adding to the cell, so pick another one, adding cells if there are too few
+            hash ^= hash << 13;
+            hash ^= hash >>> 17;
+            hash ^= hash << 5;
+            cells = (cells.length < MAX_CELLS) ? expand(cells) : this.cells;
+        }
+    }
+
+    /**
+     * Creates a TimingStatistics instance from the samples added so far. The snapshot is consistent: its count, mean,
+     * standard deviation, min and max are all calculated from the same samples. Samples added while the snapshot is
+     * created may or may not be included.
+     *
+     * @return A new TimingStatistics instance with the statistics of the samples.
+     */
+    public TimingStatistics getSnapshot() {
+        long count = 0L;
+        BigInteger sum = BigInteger.ZERO;
+        BigInteger sumOfSquares = BigInteger.ZERO;
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+
+        long[] values = new long[MAX + 1];
+        for (AtomicLongArray cell : cells) {
+            readCell(cell, values);
+            count += values[COUNT];
+            sum = sum.add(BigInteger.valueOf(values[SUM_HIGH]).shiftLeft(64)
+                                  .add(toUnsignedBigInteger(values[SUM_LOW])));
+            sumOfSquares = sumOfSquares.add(toUnsignedBigInteger(values[SUM_OF_SQUARES_HIGH]).shiftLeft(64)
+                                                    .add(toUnsignedBigInteger(values[SUM_OF_SQUARES_LOW])));
+            min = Math.min(min, values[MIN]);
+            max = Math.max(max, values[MAX]);
+        }
+
+        if (count == 0L) {
+            return new TimingStatistics();
+        }
+        //the running Q is the sum of the squared differences from the mean, (count * sumOfSquares - sum^2) / count
+        BigDecimal bigCount = BigDecimal.valueOf(count);
+        BigInteger q = sumOfSquares.multiply(BigInteger.valueOf(count)).subtract(sum.multiply(sum));
+        double mean = new BigDecimal(sum).divide(bigCount, MathContext.DECIMAL64).doubleValue();
+        double runningQ = new BigDecimal(q).divide(bigCount, MathContext.DECIMAL64).doubleValue();
+        return new TimingStatistics(mean, runningQ, max, min, (int) Math.min(count, Integer.MAX_VALUE), null);
+    }
+
+    public String toString() {
+        return getSnapshot().toString();
+    }
+
+    // --- Helper Methods ---
+
+    private static AtomicLongArray newCell() {
+        AtomicLongArray cell = new AtomicLongArray(CELL_LENGTH);
+        cell.set(MIN, Long.MAX_VALUE);
+        cell.set(MAX, Long.MIN_VALUE);
+        return cell;
+    }
+
+    /**
+     * Adds a sample to a cell, which must have been claimed by the calling thread. The values are written with
+     * ordered writes, which are made visible by the release of the cell.
+     */
+    private static void addToCell(AtomicLongArray cell, long elapsedTime) {
+        cell.lazySet(COUNT, cell.get(COUNT) + 1L);
+        //add the sample to the 128-bit two's complement sum, extending its sign into the high half
+        long sumLow = cell.get(SUM_LOW) + elapsedTime;
+        long sumHigh = cell.get(SUM_HIGH) + (elapsedTime >> 63) + (unsignedLessThan(sumLow, elapsedTime) ? 1L : 0L);
+        cell.lazySet(SUM_LOW, sumLow);
+        cell.lazySet(SUM_HIGH, sumHigh);
+
+        //square the magnitude of the sample into 128 bits, from its 32-bit halves
+        long magnitude = Math.abs(elapsedTime); //Long.MIN_VALUE stays 2^63, which is correct as an unsigned value
+        long low32 = magnitude & 0xFFFFFFFFL;
+        long high32 = magnitude >>> 32;
+        long cross = high32 * low32;
+        long squareLow = low32 * low32 + (cross << 33);
+        long squareHigh = high32 * high32 + (cross >>> 31)
+                          + (unsignedLessThan(squareLow, low32 * low32) ? 1L : 0L);
+
+        long squaresLow = cell.get(SUM_OF_SQUARES_LOW) + squareLow;
+        long squaresHigh = cell.get(SUM_OF_SQUARES_HIGH) + squareHigh
+                           + (unsignedLessThan(squaresLow, squareLow) ? 1L : 0L);
+        cell.lazySet(SUM_OF_SQUARES_LOW, squaresLow);
+        cell.lazySet(SUM_OF_SQUARES_HIGH, squaresHigh);
+
+        if (elapsedTime < cell.get(MIN)) {
+            cell.lazySet(MIN, elapsedTime);
+        }
+        if (elapsedTime > cell.get(MAX)) {
+            cell.lazySet(MAX, elapsedTime);
+        }
+    }
+
+    /**
+     * Reads the values of a cell into the values array, retrying until they are read between two releases of the
+     * cell with no sample added in between.
+     */
+    private static void readCell(AtomicLongArray cell, long[] values) {
+        for (int attempt = 0; true; attempt++) {
+            long version = cell.get(VERSION);
+            if ((version & 1L) == 0L) {
+                for (int i = COUNT; i <= MAX; i++) {
+                    values[i] = cell.get(i);
+                }
+                if (cell.get(VERSION) == version) {
+                    return;
+                }
+            }
+            //a sample is being added, which only takes a moment
+            if (attempt > 100) {
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Doubles the number of cells, unless another thread already did or is doing so.
+     *
+     * @return The cells to use from now on.
+     */
+    private AtomicLongArray[] expand(AtomicLongArray[] current) {
+        if (this.cells == current && expanding.compareAndSet(false, true)) {
+            try {
+                if (this.cells == current) {
+                    AtomicLongArray[] expanded = new AtomicLongArray[current.length * 2];
+                    System.arraycopy(current, 0, expanded, 0, current.length);
+                    for (int i = current.length; i < expanded.length; i++) {
+                        expanded[i] = newCell();
+                    }
+                    this.cells = expanded;
+                }
+            } finally {
+                expanding.set(false);
+            }
+        }
+        return this.cells;
+    }
+
+    private static boolean unsignedLessThan(long a, long b) {
+        return (a ^ Long.MIN_VALUE) < (b ^ Long.MIN_VALUE);
+    }
+
+    private static BigInteger toUnsignedBigInteger(long value) {
+        BigInteger bigValue = BigInteger.valueOf(value & Long.MAX_VALUE);
+        return (value < 0L) ? bigValue.setBit(63) : bigValue;
+    }
+}
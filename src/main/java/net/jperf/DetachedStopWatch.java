@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A DetachedStopWatch is the stopped copy of a LoggingStopWatch that is passed to a logging framework in place of the
+ * serialized String (see {@link LoggingStopWatch#newLoggedStopWatch()}). It is never modified once created, so
+ * appenders that receive one, such as the AsyncCoalescingStatisticsAppenders, may keep it without copying it.
+ */
+@SuppressWarnings("serial")
+public final class DetachedStopWatch extends StopWatch {
+
+    DetachedStopWatch(long startTime, long elapsedTime, String tag, String message, TimeUnit timeUnit) {
+        super(startTime, elapsedTime, tag, message, timeUnit);
+    }
+}
@@ -20,9 +20,30 @@ import net.jperf.helpers.MiscUtils;
 
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Represents a set of TimingStatistics calculated for a specific time period for a set of tags.
+ * <p>
+ * By default a statistics entry is kept for every distinct tag. When tags are generated from data, for example by
+ * embedding a user ID or URL in the tag, the number of tags can grow without bound. Setting a tag budget with
+ * {@link #setMaxTags(int)} bounds the memory used: the tags seen while adding StopWatches are counted with the
+ * Space-Saving heavy hitters algorithm, at most maxTags tags keep their own statistics, and the statistics of evicted
+ * tags are folded into a single entry for the {@link #getOverflowTag() overflow tag}. Frequent tags are kept, so their
+ * statistics are exact from the time they were last admitted, and no sample is ever lost from the window as a whole.
+ * <p>
+ * StopWatches are not added to the sorted statisticsByTag map directly. They are aggregated in an unordered table of
+ * primitive values, which is merged into the map by {@link #flush()}; the GroupingStatisticsIterator flushes each
+ * time slice before it is emitted. Reading the statistics flushes them first, so the map returned is always the one
+ * held by this instance, and the table is only merged once however often it is read. Rollup statistics are created
+ * when the table is merged, by merging the statistics of each tag into the statistics of its parent tags, so each
+ * StopWatch only updates the statistics of its own tag. The count, min, max and histogram of a rollup tag are the
+ * same as if every StopWatch had been added to it, but its mean and standard deviation are combined with
+ * {@link TimingStatistics#merge(TimingStatistics)}, so they may differ from those in floating point rounding.
+ * <p>
+ * All the times in the statistics are in the {@link #getTimeUnit() time unit} of the instance, which defaults to the
+ * {@link StopWatch#getDefaultTimeUnit() default time unit of StopWatches}, normally milliseconds. The elapsed time of
+ * each added StopWatch is converted to that unit.
  *
  * @author Alex Devine
  */
@@ -32,6 +53,16 @@ public class GroupedTimingStatistics implements Serializable, Cloneable {
     private long startTime;
     private long stopTime;
     private boolean createRollupStatistics;
+    private int maxTags;
+    private String overflowTag = DEFAULT_OVERFLOW_TAG;
+    private int numEvictedTags;
+    private TimeUnit timeUnit = StopWatch.getDefaultTimeUnit(); //null in instances serialized before time units
+    private transient TagStatisticsTable pendingStatistics; //StopWatches added since the statistics were last read
+
+    /**
+     * The default tag under which the statistics for tags evicted because of the tag budget are kept.
+     */
+    public static final String DEFAULT_OVERFLOW_TAG = "__other__";
 
     // --- Constructors ---
 
@@ -73,17 +104,8 @@ public class GroupedTimingStatistics implements Serializable, Cloneable {
      * @return this GroupedTimingStatistics instance
      */
     public GroupedTimingStatistics addStopWatch(StopWatch stopWatch) {
-        String tag = stopWatch.getTag();
-
-        addStopWatchToStatsByTag(tag, stopWatch);
-
-        //create rollup statistics if desired by splitting up the tag
-        if (createRollupStatistics) {
-            int indexOfDot = -1;
-            while ((indexOfDot = tag.indexOf('.', indexOfDot + 1)) >= 0) {
-                addStopWatchToStatsByTag(tag.substring(0, indexOfDot), stopWatch);
-            }
-        }
+        //rollup statistics, if desired, are created from the statistics for each tag when the statistics are read
+        addStopWatchToStatsByTag(stopWatch.getTag(), stopWatch);
 
         return this;
     }
@@ -102,6 +124,84 @@ public class GroupedTimingStatistics implements Serializable, Cloneable {
         return this;
     }
     
+    /**
+     * Merges another GroupedTimingStatistics into this one. Statistics for tags present in both are combined using
+     * {@link TimingStatistics#merge(TimingStatistics)}, and tags present only in the other instance are copied. The
+     * time window of this instance is widened to cover both windows, which allows, for example, ten adjacent 30 second
+     * windows to be combined into one 5 minute window, or the statistics for the same window from several JVMs to be
+     * combined.
+     * <p>
+     * Rollup statistics are merged like any other tag, so both instances should have been created with the same
+     * CreateRollupStatistics setting.
+     * <p>
+     * If this instance has no tag budget it takes the budget of the other instance. If the merged tags exceed the
+     * budget, the most frequent tags are kept and the rest are folded into the overflow tag.
+     * <p>
+     * If this instance has no statistics yet it takes the time unit of the other instance; otherwise both must have
+     * the same time unit.
+     *
+     * @param other The statistics to merge into this instance, may not be null. It is flushed, but not otherwise
+     *              modified.
+     * @return this GroupedTimingStatistics instance
+     * @throws IllegalArgumentException Thrown if the instances have statistics in different time units.
+     */
+    public GroupedTimingStatistics merge(GroupedTimingStatistics other) {
+        flush();
+        other.flush();
+        if (getTimeUnit() != other.getTimeUnit()) {
+            if (!statisticsByTag.isEmpty()) {
+                throw new IllegalArgumentException("Can't merge statistics in " +
+                                                   MiscUtils.timeUnitSymbol(other.getTimeUnit()) +
+                                                   " into statistics in " + MiscUtils.timeUnitSymbol(getTimeUnit()));
+            }
+            timeUnit = other.getTimeUnit();
+            pendingStatistics = null;
+        }
+        for (Map.Entry<String, TimingStatistics> tagAndStats : other.statisticsByTag.entrySet()) {
+            TimingStatistics stats = statisticsByTag.get(tagAndStats.getKey());
+            if (stats == null) {
+                statisticsByTag.put(tagAndStats.getKey(), tagAndStats.getValue().clone());
+            } else {
+                stats.merge(tagAndStats.getValue());
+            }
+        }
+
+        if (maxTags == 0 && other.maxTags > 0) {
+            maxTags = other.maxTags;
+            overflowTag = other.overflowTag;
+        }
+        numEvictedTags += other.numEvictedTags;
+        if (maxTags > 0) {
+            enforceTagBudget();
+        }
+
+        if (startTime == 0L && stopTime == 0L) {
+            //this instance has no window yet, so just take the other's
+            startTime = other.startTime;
+            stopTime = other.stopTime;
+        } else if (other.startTime != 0L || other.stopTime != 0L) {
+            startTime = Math.min(startTime, other.startTime);
+            stopTime = Math.max(stopTime, other.stopTime);
+        }
+
+        return this;
+    }
+
+    /**
+     * Merges the StopWatches added since the last flush into the statistics for each tag, creating their rollup
+     * statistics if desired. The statistics are also flushed whenever they are read, but as flushing modifies this
+     * instance a time slice should be flushed when it is complete, before it is handed to other threads.
+     *
+     * @return this GroupedTimingStatistics instance
+     */
+    public GroupedTimingStatistics flush() {
+        if (pendingStatistics != null && !pendingStatistics.isEmpty()) {
+            mergeTableIntoStatsByTag(pendingStatistics, true);
+            pendingStatistics.clear();
+        }
+        return this;
+    }
+
     /**
      * The length of time, in milliseconds, of the data window
      *  
@@ -136,12 +236,20 @@ public class GroupedTimingStatistics implements Serializable, Cloneable {
 
     // --- Bean Properties ---
 
+    /**
+     * Gets the statistics for each tag, sorted by tag. The StopWatches added since the last {@link #flush()} are
+     * flushed first, so the map returned is the one held by this instance.
+     *
+     * @return The map of tags to statistics.
+     */
     public SortedMap<String, TimingStatistics> getStatisticsByTag() {
+        flush();
         return statisticsByTag;
     }
 
     public void setStatisticsByTag(SortedMap<String, TimingStatistics> statisticsByTag) {
         this.statisticsByTag = statisticsByTag;
+        this.pendingStatistics = null;
     }
 
     public long getStartTime() {
@@ -165,23 +273,224 @@ public class GroupedTimingStatistics implements Serializable, Cloneable {
     }
 
     public void setCreateRollupStatistics(boolean createRollupStatistics) {
+        flush();
         this.createRollupStatistics = createRollupStatistics;
     }
 
+    /**
+     * Gets the tag budget, which is the maximum number of tags, not counting the overflow tag, for which separate
+     * statistics are kept.
+     *
+     * @return The maximum number of tags, or 0 if the number of tags is not bounded.
+     */
+    public int getMaxTags() {
+        return maxTags;
+    }
+
+    /**
+     * Sets the tag budget. Rollup tags count towards the budget like any other tag, and are created from the
+     * statistics of the tags that were not evicted. If more tags than this are already
+     * present, the least frequent ones are folded into the overflow tag the next time a StopWatch is added.
+     *
+     * @param maxTags The maximum number of tags, or 0 (the default) to keep statistics for every tag.
+     */
+    public void setMaxTags(int maxTags) {
+        if (maxTags < 0) {
+            throw new IllegalArgumentException("maxTags may not be negative: " + maxTags);
+        }
+        flush();
+        this.maxTags = maxTags;
+        this.pendingStatistics = null;
+    }
+
+    /**
+     * Gets the tag under which the statistics of tags evicted because of the tag budget are kept. Defaults to
+     * {@link #DEFAULT_OVERFLOW_TAG}.
+     *
+     * @return The overflow tag.
+     */
+    public String getOverflowTag() {
+        return overflowTag;
+    }
+
+    public void setOverflowTag(String overflowTag) {
+        flush();
+        this.overflowTag = overflowTag;
+        this.pendingStatistics = null;
+    }
+
+    /**
+     * Gets the time unit of the statistics.
+     *
+     * @return The time unit, one of NANOSECONDS, MICROSECONDS or MILLISECONDS.
+     */
+    public TimeUnit getTimeUnit() {
+        return (timeUnit == null) ? TimeUnit.MILLISECONDS : timeUnit;
+    }
+
+    /**
+     * Sets the time unit of the statistics. This must be set before any StopWatches are added, as the existing
+     * statistics are not converted.
+     *
+     * @param timeUnit The time unit, one of NANOSECONDS, MICROSECONDS or MILLISECONDS.
+     * @throws IllegalStateException Thrown if statistics in another time unit were already added.
+     */
+    public void setTimeUnit(TimeUnit timeUnit) {
+        MiscUtils.timeUnitSymbol(timeUnit); //checks that the unit is supported
+        flush();
+        if (timeUnit != getTimeUnit() && !statisticsByTag.isEmpty()) {
+            throw new IllegalStateException("Statistics in " + MiscUtils.timeUnitSymbol(getTimeUnit()) +
+                                            " were already added");
+        }
+        this.timeUnit = timeUnit;
+        this.pendingStatistics = null;
+    }
+
+    /**
+     * Gets the number of times a tag was evicted because of the tag budget and its statistics folded into the
+     * overflow tag. A tag that is evicted, seen again and evicted again is counted twice.
+     *
+     * @return The number of evicted tags, including those evicted from instances merged into this one.
+     */
+    public int getNumEvictedTags() {
+        flush();
+        return numEvictedTags;
+    }
+
     // --- Helper Methods ---
 
     private void addStopWatchToStatsByTag(String tag, StopWatch stopWatch) {
-        TimingStatistics stats = statisticsByTag.get(tag);
-        if (stats == null) {
-            statisticsByTag.put(tag, stats = new TimingStatistics());
+        if (pendingStatistics == null) {
+            pendingStatistics = new TagStatisticsTable(maxTags, overflowTag, getTimeUnit());
+        }
+        pendingStatistics.addSampleTime(tag, stopWatch.getElapsedTime(getTimeUnit()));
+    }
+
+    /**
+     * Helper method merges the statistics in a table of pending statistics into statisticsByTag.
+     *
+     * @param table    The table, which is not empty.
+     * @param handOver Whether the statistics may be taken from the table, which must then be cleared. Otherwise they
+     *                 are copied, leaving the table as it was.
+     */
+    private void mergeTableIntoStatsByTag(TagStatisticsTable table, boolean handOver) {
+        if (createRollupStatistics) {
+            for (Map.Entry<String, TimingStatistics> tagAndStats : rollUpTable(table, handOver).entrySet()) {
+                mergeIntoStatsByTag(tagAndStats.getKey(), tagAndStats.getValue());
+            }
+        } else {
+            for (int slot = 0; slot < table.size(); slot++) {
+                mergeIntoStatsByTag(table.getTag(slot),
+                                    handOver ? table.removeStatistics(slot) : table.getStatistics(slot));
+            }
+        }
+        if (table.getOverflowStatistics() != null) {
+            mergeIntoStatsByTag(overflowTag,
+                                handOver ? table.getOverflowStatistics() : table.getOverflowStatistics().clone());
+        }
+        numEvictedTags += table.getNumEvictedTags();
+
+        //if statistics were already present, or rollups were created, there may now be too many tags
+        if (maxTags > 0) {
+            enforceTagBudget();
         }
-        stats.addSampleTime(stopWatch.getElapsedTime());
+    }
+
+    /**
+     * Helper method creates the rollup statistics for a table of pending statistics. Every tag is a node of a prefix
+     * tree whose parent is the tag up to its last period, so the rollup for a tag covers the tag itself and all of its
+     * descendants. Nodes are processed from the longest tag to the shortest, and each node is merged into its parent
+     * once, after all of its children have been merged into it. This gives the same statistics as adding each StopWatch
+     * to every prefix of its tag, up to floating point rounding of the mean and standard deviation.
+     *
+     * @param table    The table of pending statistics.
+     * @param handOver Whether the statistics may be taken from the table rather than copied.
+     * @return The statistics for every tag and every prefix of a tag that ends before a period.
+     */
+    private Map<String, TimingStatistics> rollUpTable(TagStatisticsTable table, boolean handOver) {
+        Map<String, TimingStatistics> statsByNode = new HashMap<String, TimingStatistics>();
+        for (int slot = 0; slot < table.size(); slot++) {
+            statsByNode.put(table.getTag(slot), handOver ? table.removeStatistics(slot) : table.getStatistics(slot));
+        }
+        for (int slot = 0; slot < table.size(); slot++) {
+            String tag = table.getTag(slot);
+            int indexOfDot = tag.length();
+            while ((indexOfDot = tag.lastIndexOf('.', indexOfDot - 1)) >= 0) {
+                String parent = tag.substring(0, indexOfDot);
+                if (statsByNode.containsKey(parent)) {
+                    //the rest of this branch was already added
+                    break;
+                }
+                statsByNode.put(parent, new TimingStatistics());
+            }
+        }
+
+        List<String> nodesByLength = new ArrayList<String>(statsByNode.keySet());
+        Collections.sort(nodesByLength, new Comparator<String>() {
+            public int compare(String a, String b) {
+                return b.length() - a.length();
+            }
+        });
+        for (String node : nodesByLength) {
+            int indexOfDot = node.lastIndexOf('.');
+            if (indexOfDot >= 0) {
+                statsByNode.get(node.substring(0, indexOfDot)).merge(statsByNode.get(node));
+            }
+        }
+
+        return statsByNode;
+    }
+
+    private void mergeIntoStatsByTag(String tag, TimingStatistics stats) {
+        TimingStatistics existingStats = statisticsByTag.get(tag);
+        if (existingStats == null) {
+            statisticsByTag.put(tag, stats);
+        } else {
+            existingStats.merge(stats);
+        }
+    }
+
+    /**
+     * Helper method folds the least frequent tags into the overflow tag until no more than maxTags tags are left.
+     */
+    private void enforceTagBudget() {
+        int numTags = statisticsByTag.size() - (statisticsByTag.containsKey(overflowTag) ? 1 : 0);
+        if (numTags <= maxTags) {
+            return;
+        }
+
+        List<String> tagsByCount = new ArrayList<String>(statisticsByTag.keySet());
+        //the sort is stable, so ties are broken by tag name
+        Collections.sort(tagsByCount, new Comparator<String>() {
+            public int compare(String a, String b) {
+                int countA = statisticsByTag.get(a).getCount();
+                int countB = statisticsByTag.get(b).getCount();
+                return (countA > countB) ? -1 : ((countA == countB) ? 0 : 1);
+            }
+        });
+        int numTagsKept = 0;
+        for (String tag : tagsByCount) {
+            if (!tag.equals(overflowTag) && ++numTagsKept > maxTags) {
+                evictTag(tag);
+            }
+        }
+    }
+
+    /**
+     * Helper method removes the statistics for a tag and merges them into the statistics for the overflow tag.
+     *
+     * @param tag The tag to evict.
+     */
+    private void evictTag(String tag) {
+        mergeIntoStatsByTag(overflowTag, statisticsByTag.remove(tag));
+        numEvictedTags++;
     }
 
     // --- Object Methods ---
 
     @Override
 	public String toString() {
+        flush();
         StringBuilder retVal = new StringBuilder();
         
         int paddingToAllowForLongestTag = Math.max(getLongestTag(statisticsByTag.keySet()), "Tag".length());
@@ -194,7 +503,8 @@ public class GroupedTimingStatistics implements Serializable, Cloneable {
                 .append(MiscUtils.NEWLINE);
         //output the header
         retVal.append(String.format("%-" + paddingToAllowForLongestTag + "s%12s%12s%12s%12s%12s%12s%n",
-                                    "Tag", "Avg(ms)", "Min", "Max", "Std-Dev", "Count", "Total"));
+                                    "Tag", "Avg(" + MiscUtils.timeUnitSymbol(getTimeUnit()) + ")", "Min", "Max",
+                                    "Std-Dev", "Count", "Total"));
         //output each statistics
         for (Map.Entry<String, TimingStatistics> tagWithTimingStatistics : statisticsByTag.entrySet()) {
             String tag = tagWithTimingStatistics.getKey();
@@ -209,6 +519,10 @@ public class GroupedTimingStatistics implements Serializable, Cloneable {
                                         timingStatistics.getCount(),
                                         totalTimeForTag));
         }
+        if (numEvictedTags > 0) {
+            retVal.append(numEvictedTags).append(" evicted tags folded into ").append(overflowTag)
+                    .append(MiscUtils.NEWLINE);
+        }
 
         return retVal.toString();
         
@@ -229,10 +543,15 @@ public class GroupedTimingStatistics implements Serializable, Cloneable {
 	public GroupedTimingStatistics clone() {
         try {
             GroupedTimingStatistics retVal = (GroupedTimingStatistics) super.clone();
+            retVal.pendingStatistics = null;
             retVal.statisticsByTag = new TreeMap<String, TimingStatistics>(retVal.statisticsByTag);
             for (Map.Entry<String, TimingStatistics> tagAndStats : retVal.statisticsByTag.entrySet()) {
                 tagAndStats.setValue(tagAndStats.getValue().clone());
             }
+            //the clone gets the StopWatches that weren't flushed yet, without flushing this instance
+            if (pendingStatistics != null && !pendingStatistics.isEmpty()) {
+                retVal.mergeTableIntoStatsByTag(pendingStatistics, false);
+            }
             return retVal;
         } catch (CloneNotSupportedException cnse) {
             throw new Error("Unexpected CloneNotSupportedException");
@@ -252,15 +571,25 @@ public class GroupedTimingStatistics implements Serializable, Cloneable {
 
         return startTime == that.startTime &&
                stopTime == that.stopTime &&
-               statisticsByTag.equals(that.statisticsByTag);
+               getTimeUnit() == that.getTimeUnit() &&
+               getStatisticsByTag().equals(that.getStatisticsByTag());
     }
 
     @Override
 	public int hashCode() {
         int result;
-        result = statisticsByTag.hashCode();
+        result = getStatisticsByTag().hashCode();
         result = 31 * result + (int) (startTime ^ (startTime >>> 32));
         result = 31 * result + (int) (stopTime ^ (stopTime >>> 32));
         return result;
     }
+
+    /**
+     * Flushes the statistics before they are serialized, as the pending statistics are transient.
+     *
+     * @return This instance.
+     */
+    private Object writeReplace() {
+        return flush();
+    }
 }
@@ -18,20 +18,43 @@ package net.jperf;
 
 import net.jperf.chart.GoogleChartGenerator;
 import net.jperf.chart.StatisticsChartGenerator;
+import net.jperf.helpers.BinaryStopWatchLogIterator;
 import net.jperf.helpers.DefaultStatisticsFormatter;
+import net.jperf.helpers.ExactPercentileCollector;
 import net.jperf.helpers.GroupedTimingStatisticsCsvFormatter;
 import net.jperf.helpers.GroupedTimingStatisticsJsonFormatter;
 import net.jperf.helpers.GroupedTimingStatisticsTextFormatter;
+import net.jperf.helpers.FollowingLogStatisticsIterator;
+import net.jperf.helpers.FollowingStopWatchLogIterator;
 import net.jperf.helpers.GroupingStatisticsIterator;
+import net.jperf.helpers.JsonStopWatchParser;
+import net.jperf.helpers.LogFiles;
+import net.jperf.helpers.LogStatisticsCache;
+import net.jperf.helpers.LogTimeIndex;
+import net.jperf.helpers.LogfmtStopWatchParser;
+import net.jperf.helpers.MergingStopWatchLogIterator;
+import net.jperf.helpers.MiscUtils;
+import net.jperf.helpers.ParallelLogStatisticsIterator;
+import net.jperf.helpers.StatisticsComparison;
 import net.jperf.helpers.StatisticsFormatter;
 import net.jperf.helpers.StatsValueRetriever;
+import net.jperf.helpers.StopWatchFilter;
 import net.jperf.helpers.StopWatchLogIterator;
+import net.jperf.helpers.StopWatchParser;
+import net.jperf.helpers.StructuredStopWatchParser;
 
 import java.io.*;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 
 /**
  * LogParser provides the main method for reading a log of StopWatch output and generating statistics and graphs
@@ -41,9 +64,66 @@ import java.util.List;
  */
 public class LogParser {
     /**
-     * The input log that is being parsed.
+     * The CSV columns output by the command line when exact percentiles are calculated.
+     */
+    protected static final String EXACT_CSV_FORMAT = GroupedTimingStatisticsCsvFormatter.DEFAULT_FORMAT_STRING +
+                                                     ",p50,exactP50,p90,exactP90,p95,exactP95,p99,exactP99," +
+                                                     "p999,exactP999";
+
+    /**
+     * The input log that is being parsed, or null if the log is read from the inputFiles.
      */
     private Reader inputLog;
+    /**
+     * The log files that are being parsed, or null if the log is read from the inputLog.
+     */
+    private List<File> inputFiles;
+    /**
+     * The number of threads used to parse the inputFiles. If greater than 1, a single file is memory-mapped and parsed
+     * in chunks, and several files are parsed concurrently. Otherwise the input is read sequentially.
+     */
+    private int parallelism = 1;
+    /**
+     * Whether the single inputFile is followed as it grows, rather than parsed up to its current end.
+     */
+    private boolean follow;
+    /**
+     * The file where the position in the followed inputFile is checkpointed, or null if no checkpoint is kept.
+     */
+    private File checkpointFile;
+    /**
+     * The filter StopWatches must pass to be included in the statistics, or null if all StopWatches are included.
+     */
+    private StopWatchFilter filter;
+    /**
+     * The fully qualified class name of the StopWatchParser used to parse text logs.
+     */
+    private String stopWatchParserClassName = StopWatchParser.class.getName();
+    /**
+     * The keys a StructuredStopWatchParser maps to the StopWatch fields, or null to use the keys of the parser.
+     */
+    private String stopWatchParserFields;
+    /**
+     * Whether the time index of each input file is brought up to date before the files are parsed.
+     */
+    private boolean indexing;
+    /**
+     * Whether the statistics of each input file are cached, and read from the cache when the file hasn't changed.
+     */
+    private boolean caching;
+    /**
+     * The memory budget, in bytes, for the sample times kept to calculate exact percentiles, or 0 if exact
+     * percentiles are not calculated.
+     */
+    private long exactPercentileMemory;
+    /**
+     * The collector of the sample times for the exact percentiles, created with the statistics Iterator.
+     */
+    private ExactPercentileCollector exactPercentileCollector;
+    /**
+     * The time unit of the statistics created.
+     */
+    private TimeUnit timeUnit = StopWatch.getDefaultTimeUnit();
     /**
      * The stream where the GroupedTimingStatistics data will be printed - if null, no statistics will be printed
      */
@@ -114,6 +194,268 @@ public class LogParser {
         this.statisticsFormatter = statisticsFormatter;
     }
 
+    /**
+     * Creates a new LogParser to parse log data from a file. Unlike a LogParser created with a Reader, this LogParser
+     * can parse the log on several threads, see {@link #setParallelism(int)}.
+     *
+     * @param inputFile              The log file being parsed, which should contain {@link StopWatch} log messages.
+     * @param statisticsOutput       The stream where calculated statistics information should be written - if null,
+     *                               statistics data is not written.
+     * @param graphingOutput         The stream where graphing data should be written - if null, graphs are not written.
+     * @param timeSlice              The length of time, in milliseconds, of the timeslice of each statistics data created.
+     * @param createRollupStatistics Whether or not "rollup statistics" should be created for each timeslice of data.
+     * @param statisticsFormatter    The formatter to use to print GroupedTimingStatistics
+     */
+    public LogParser(File inputFile, PrintStream statisticsOutput, PrintStream graphingOutput,
+                     long timeSlice, boolean createRollupStatistics,
+                     StatisticsFormatter statisticsFormatter) {
+        this(Collections.singletonList(inputFile), statisticsOutput, graphingOutput,
+             timeSlice, createRollupStatistics, statisticsFormatter);
+    }
+
+    /**
+     * Creates a new LogParser to parse log data from several files, such as rotated logs or the logs of several hosts.
+     * The StopWatches from all the files are merged in start time order, so timeslices span the files. Gzipped files
+     * are decompressed transparently.
+     *
+     * @param inputFiles             The log files being parsed, which should contain {@link StopWatch} log messages.
+     * @param statisticsOutput       The stream where calculated statistics information should be written - if null,
+     *                               statistics data is not written.
+     * @param graphingOutput         The stream where graphing data should be written - if null, graphs are not written.
+     * @param timeSlice              The length of time, in milliseconds, of the timeslice of each statistics data created.
+     * @param createRollupStatistics Whether or not "rollup statistics" should be created for each timeslice of data.
+     * @param statisticsFormatter    The formatter to use to print GroupedTimingStatistics
+     * @see net.jperf.helpers.MergingStopWatchLogIterator
+     */
+    public LogParser(List<File> inputFiles, PrintStream statisticsOutput, PrintStream graphingOutput,
+                     long timeSlice, boolean createRollupStatistics,
+                     StatisticsFormatter statisticsFormatter) {
+        this((Reader) null, statisticsOutput, graphingOutput, timeSlice, createRollupStatistics, statisticsFormatter);
+        this.inputFiles = new ArrayList<File>(inputFiles);
+    }
+
+    // --- Bean Properties ---
+
+    /**
+     * Gets the number of threads used to parse the input files.
+     *
+     * @return The parallelism, 1 if the log is parsed sequentially.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the number of threads used to parse the input files. If greater than 1, and this LogParser was created with
+     * a single uncompressed File, the file is memory-mapped, split into chunks at line boundaries and the chunks are
+     * parsed concurrently. The output is identical to that of a sequential parse. If this LogParser was created with
+     * several Files, or a gzipped one, the files are decompressed and parsed concurrently. Logs read from a Reader, and
+     * a single binary stop watch log, are always parsed sequentially.
+     *
+     * @param parallelism The number of threads, must be positive.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Gets whether the input file is followed as it grows.
+     *
+     * @return The follow property.
+     */
+    public boolean isFollow() {
+        return follow;
+    }
+
+    /**
+     * Sets whether the input file is followed as it grows, like <tt>tail -F</tt>. When following, parseLog() doesn't
+     * return; the statistics for each timeslice are written as soon as the timeslice is over, and rotation or
+     * truncation of the file is detected. Only a LogParser created with a single File can follow its input.
+     *
+     * @param follow Whether to follow the input file.
+     */
+    public void setFollow(boolean follow) {
+        this.follow = follow;
+    }
+
+    /**
+     * Gets the file where the position in a followed input file is checkpointed.
+     *
+     * @return The checkpoint file, or null if no checkpoint is kept.
+     */
+    public File getCheckpointFile() {
+        return checkpointFile;
+    }
+
+    /**
+     * Sets the file where the position in a followed input file, along with the statistics of the timeslice that
+     * isn't over yet, is checkpointed after each timeslice is written. If the file exists when parsing starts, parsing
+     * resumes from the checkpoint instead of the start of the input file.
+     *
+     * @param checkpointFile The checkpoint file, or null to keep no checkpoint.
+     * @see net.jperf.helpers.LogCheckpoint
+     */
+    public void setCheckpointFile(File checkpointFile) {
+        this.checkpointFile = checkpointFile;
+    }
+
+    /**
+     * Gets the filter StopWatches must pass to be included in the statistics.
+     *
+     * @return The filter, or null if all StopWatches are included.
+     */
+    public StopWatchFilter getFilter() {
+        return filter;
+    }
+
+    /**
+     * Sets the filter StopWatches must pass to be included in the statistics, to restrict them to a time range or to
+     * some tags. The filter is applied while the log is parsed, so rejected StopWatches cost little more than the
+     * scan of their log line.
+     *
+     * @param filter The filter, or null to include all StopWatches.
+     */
+    public void setFilter(StopWatchFilter filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * Gets the class name of the StopWatchParser used to parse text logs.
+     *
+     * @return The fully qualified class name, by default that of the StopWatchParser.
+     */
+    public String getStopWatchParserClassName() {
+        return stopWatchParserClassName;
+    }
+
+    /**
+     * Sets the class name of the StopWatchParser used to parse text logs, for example that of the
+     * {@link JsonStopWatchParser} or of the {@link LogfmtStopWatchParser} to parse StopWatches logged as JSON objects
+     * or logfmt lines. The class must have a public no-arg constructor. Time indexes and the statistics cache are
+     * only used with the default StopWatchParser; binary stop watch logs are read whatever the parser.
+     *
+     * @param stopWatchParserClassName The fully qualified class name of a StopWatchParser subclass.
+     */
+    public void setStopWatchParserClassName(String stopWatchParserClassName) {
+        this.stopWatchParserClassName = stopWatchParserClassName;
+    }
+
+    /**
+     * Gets the keys mapped to the StopWatch fields by a structured StopWatchParser.
+     *
+     * @return The field mapping, or null if the keys of the parser are used.
+     */
+    public String getStopWatchParserFields() {
+        return stopWatchParserFields;
+    }
+
+    /**
+     * Sets the keys mapped to the StopWatch fields, for a StopWatchParser class that is a StructuredStopWatchParser.
+     *
+     * @param stopWatchParserFields The field mapping, for example <tt>start=ts,time=elapsed</tt>, or null to use the
+     *                              keys of the parser.
+     * @see StructuredStopWatchParser#setFields(String)
+     */
+    public void setStopWatchParserFields(String stopWatchParserFields) {
+        this.stopWatchParserFields = stopWatchParserFields;
+    }
+
+    /**
+     * Gets whether the time index of each input file is brought up to date before the files are parsed.
+     *
+     * @return The indexing property.
+     */
+    public boolean isIndexing() {
+        return indexing;
+    }
+
+    /**
+     * Sets whether the time index of each input file is brought up to date before the files are parsed. The index is
+     * a sidecar file next to the log; creating it takes one fast scan of the log, and updating it only scans the part
+     * of the log written since. Whether or not this is set, an up to date index is used to read only the part of a
+     * log that can contain StopWatches in the time range of the filter.
+     *
+     * @param indexing Whether to update the index of each input file.
+     * @see net.jperf.helpers.LogTimeIndex
+     */
+    public void setIndexing(boolean indexing) {
+        this.indexing = indexing;
+    }
+
+    /**
+     * Gets whether the statistics of each input file are cached.
+     *
+     * @return The caching property.
+     */
+    public boolean isCaching() {
+        return caching;
+    }
+
+    /**
+     * Sets whether the statistics of each timeslice of each input file are cached in a sidecar file next to the
+     * file, so that parsing an unchanged file again with the same timeslice and rollup statistics only reads the
+     * cache. With several input files, each file is parsed on its own and the statistics of the timeslices of the
+     * files are merged, so a StopWatch logged out of order stays in a timeslice of its own file, and the mean and
+     * standard deviation may differ from those of a merged parse in the last bits. The cache is not used with a
+     * filter, when exact percentiles are calculated, when following a log or with a StopWatchParser other than the
+     * default one.
+     *
+     * @param caching Whether to cache the statistics of each input file.
+     * @see LogStatisticsCache
+     */
+    public void setCaching(boolean caching) {
+        this.caching = caching;
+    }
+
+    /**
+     * Gets the memory budget for the sample times kept to calculate exact percentiles.
+     *
+     * @return The memory budget in bytes, or 0 if exact percentiles are not calculated.
+     */
+    public long getExactPercentileMemory() {
+        return exactPercentileMemory;
+    }
+
+    /**
+     * Sets whether exact percentiles are calculated, and the memory they may use. Every sample time of a time slice
+     * is then kept, spilling to a temporary file beyond the memory budget, and the exact 50th, 90th, 95th, 99th and
+     * 99.9th percentiles of each tag are set on its statistics, for the formatters to output along with the
+     * approximate percentiles of the histogram. A single log file is then parsed sequentially whatever the
+     * parallelism, and logs can't be followed.
+     *
+     * @param exactPercentileMemory The memory budget in bytes, or 0 to not calculate exact percentiles.
+     * @see ExactPercentileCollector
+     */
+    public void setExactPercentileMemory(long exactPercentileMemory) {
+        if (exactPercentileMemory < 0) {
+            throw new IllegalArgumentException("exactPercentileMemory can't be negative: " + exactPercentileMemory);
+        }
+        this.exactPercentileMemory = exactPercentileMemory;
+    }
+
+    /**
+     * Gets the time unit of the statistics created.
+     *
+     * @return The time unit, by default the {@link StopWatch#getDefaultTimeUnit() default time unit} of StopWatches.
+     */
+    public TimeUnit getTimeUnit() {
+        return timeUnit;
+    }
+
+    /**
+     * Sets the time unit of the statistics created. The elapsed times of the parsed StopWatches are converted to it,
+     * whatever the time unit they were logged in.
+     *
+     * @param timeUnit The time unit, one of NANOSECONDS, MICROSECONDS or MILLISECONDS.
+     */
+    public void setTimeUnit(TimeUnit timeUnit) {
+        MiscUtils.timeUnitSymbol(timeUnit); //checks that the unit is supported
+        this.timeUnit = timeUnit;
+    }
+
     // --- Instance Methods ---
 
     /**
@@ -125,27 +467,33 @@ public class LogParser {
             statisticsOutput.print(statisticsFormatter.header());
         }
 
-        Iterator<StopWatch> stopWatchIter = new StopWatchLogIterator(inputLog);
-
-        int i = 0;
-        for (GroupingStatisticsIterator statsIter = new GroupingStatisticsIterator(stopWatchIter,
-                                                                                   timeSlice,
-                                                                                   createRollupStatistics);
-             statsIter.hasNext();) {
-            GroupedTimingStatistics statistics = statsIter.next();
+        Iterator<GroupedTimingStatistics> statsIter;
+        try {
+            statsIter = newStatisticsIterator();
+        } catch (IOException ioe) {
+            throw new IllegalStateException("Could not open " + inputFiles, ioe);
+        }
+        try {
+            int i = 0;
+            while (statsIter.hasNext()) {
+                GroupedTimingStatistics statistics = statsIter.next();
 
-            if (statisticsOutput != null) {
-                statisticsOutput.print(statisticsFormatter.format(statistics));
-            }
+                if (statisticsOutput != null) {
+                    statisticsOutput.print(statisticsFormatter.format(statistics));
+                    statisticsOutput.flush();
+                }
 
-            if (graphingOutput != null) {
-                meanTimeChartGenerator.appendData(statistics);
-                tpsChartGenerator.appendData(statistics);
-                if ((++i % StatisticsChartGenerator.DEFAULT_MAX_DATA_POINTS == 0) ||
-                    (!statsIter.hasNext())) {
-                    printGraphOutput();
+                if (graphingOutput != null) {
+                    meanTimeChartGenerator.appendData(statistics);
+                    tpsChartGenerator.appendData(statistics);
+                    if ((++i % StatisticsChartGenerator.DEFAULT_MAX_DATA_POINTS == 0) ||
+                        (!statsIter.hasNext())) {
+                        printGraphOutput();
+                    }
                 }
             }
+        } finally {
+            closeStatisticsIterator(statsIter);
         }
         
         if (statisticsOutput != null) {
@@ -153,6 +501,289 @@ public class LogParser {
         }
     }
 
+    /**
+     * Reads all the data from the input and merges the statistics of every timeslice by tag, without writing to the
+     * output streams. The timeslice still matters: it decides which StopWatches that are logged out of order are
+     * grouped together, and so the statistics are the same as the merge of the statistics parseLog writes.
+     *
+     * @return The statistics of each tag over the whole log.
+     */
+    public SortedMap<String, TimingStatistics> aggregateStatistics() {
+        Iterator<GroupedTimingStatistics> statsIter;
+        try {
+            statsIter = newStatisticsIterator();
+        } catch (IOException ioe) {
+            throw new IllegalStateException("Could not open " + inputFiles, ioe);
+        }
+        try {
+            return StatisticsComparison.aggregate(statsIter);
+        } finally {
+            closeStatisticsIterator(statsIter);
+        }
+    }
+
+    /**
+     * Compares the statistics of a baseline log with those of a candidate log, such as the logs of two builds or of
+     * two load tests. The two logs are parsed at the same time, the baseline on a separate thread, and should be
+     * configured alike, in particular with the same timeslice, rollup statistics and filter.
+     *
+     * @param baselineParser      The parser of the baseline log.
+     * @param candidateParser     The parser of the candidate log.
+     * @param regressionThreshold The relative change, in percent, beyond which a significant change is reported.
+     * @param significanceLevel   The probability, between 0 and 1, below which a difference is significant.
+     * @return The comparison of the statistics of each tag.
+     * @see StatisticsComparison
+     */
+    public static StatisticsComparison compareLogs(final LogParser baselineParser, LogParser candidateParser,
+                                                   double regressionThreshold, double significanceLevel) {
+        FutureTask<SortedMap<String, TimingStatistics>> baselineTask =
+                new FutureTask<SortedMap<String, TimingStatistics>>(
+                        new Callable<SortedMap<String, TimingStatistics>>() {
+                            public SortedMap<String, TimingStatistics> call() {
+                                return baselineParser.aggregateStatistics();
+                            }
+                        });
+        Thread baselineThread = new Thread(baselineTask, "jperf-baseline-parser");
+        baselineThread.setDaemon(true);
+        baselineThread.start();
+
+        SortedMap<String, TimingStatistics> candidate = candidateParser.aggregateStatistics();
+        SortedMap<String, TimingStatistics> baseline;
+        try {
+            baseline = baselineTask.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while parsing the baseline log", ie);
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ee.getCause();
+            }
+            throw new IllegalStateException("Could not parse the baseline log", ee.getCause());
+        }
+        return new StatisticsComparison(baseline, candidate, regressionThreshold, significanceLevel);
+    }
+
+    /**
+     * Creates the Iterator over the GroupedTimingStatistics of each timeslice of the log. If the Iterator returned is
+     * Closeable, it is closed once the log has been parsed.
+     *
+     * @return The statistics Iterator.
+     * @throws IOException Thrown if the input file can't be opened.
+     */
+    protected Iterator<GroupedTimingStatistics> newStatisticsIterator() throws IOException {
+        if (follow) {
+            if (inputFiles == null || inputFiles.size() != 1) {
+                throw new IllegalStateException("Only a single log file can be followed");
+            }
+            if (LogFiles.isBinaryStopWatchLog(inputFiles.get(0))) {
+                throw new IllegalStateException("Binary stop watch logs can't be followed");
+            }
+            if (exactPercentileMemory > 0) {
+                throw new IllegalStateException("Exact percentiles can't be calculated for a followed log");
+            }
+            FollowingLogStatisticsIterator retVal = new FollowingLogStatisticsIterator(
+                    inputFiles.get(0), timeSlice, createRollupStatistics, checkpointFile,
+                    FollowingLogStatisticsIterator.DEFAULT_POLL_INTERVAL, filter) {
+                protected FollowingStopWatchLogIterator newStopWatchIterator(File logFile, long pollInterval,
+                                                                             StopWatchFilter filter) {
+                    return new FollowingStopWatchLogIterator(logFile, pollInterval, filter) {
+                        protected StopWatchParser newStopWatchParser() {
+                            return LogParser.this.newStopWatchParser();
+                        }
+                    };
+                }
+            };
+            retVal.setTimeUnit(timeUnit);
+            return retVal;
+        }
+        if (inputFiles == null) {
+            return withStatisticsOptions(new GroupingStatisticsIterator(newStopWatchLogIterator(inputLog, filter),
+                                                                        timeSlice, createRollupStatistics));
+        }
+        //the time index and the statistics cache are only kept for logs in the StopWatch.toString format
+        boolean defaultParser = StopWatchParser.class.getName().equals(stopWatchParserClassName);
+        if (caching && filter == null && exactPercentileMemory == 0 && defaultParser) {
+            return newCachedStatisticsIterator();
+        }
+
+        if (indexing && defaultParser) {
+            for (File inputFile : inputFiles) {
+                LogTimeIndex.update(inputFile);
+            }
+        }
+
+        //the input was opened here, so it's closed along with the Iterator
+        class ClosingGroupingStatisticsIterator extends GroupingStatisticsIterator implements Closeable {
+            private final Closeable input;
+
+            ClosingGroupingStatisticsIterator(Iterator<StopWatch> stopWatchIterator, Closeable input) {
+                super(stopWatchIterator, timeSlice, createRollupStatistics);
+                this.input = input;
+            }
+
+            public void close() throws IOException {
+                input.close();
+            }
+        }
+
+        if (inputFiles.size() == 1 && LogFiles.isBinaryStopWatchLog(inputFiles.get(0))) {
+            InputStream input = LogFiles.openInputStream(inputFiles.get(0));
+            return withStatisticsOptions(
+                    new ClosingGroupingStatisticsIterator(new BinaryStopWatchLogIterator(input, filter), input));
+        }
+        if (inputFiles.size() == 1 && !LogFiles.isGzipped(inputFiles.get(0))) {
+            if (parallelism > 1 && exactPercentileMemory == 0) {
+                ParallelLogStatisticsIterator retVal = new ParallelLogStatisticsIterator(
+                        inputFiles.get(0), timeSlice, createRollupStatistics, parallelism, filter) {
+                    protected StopWatchParser newStopWatchParser() {
+                        return LogParser.this.newStopWatchParser();
+                    }
+                };
+                retVal.setTimeUnit(timeUnit);
+                LogTimeIndex index = (filter != null && filter.isTimeRestricted() && defaultParser) ?
+                                     LogTimeIndex.read(inputFiles.get(0)) :
+                                     null;
+                if (index != null) {
+                    retVal.setRange(index.getStartOffset(filter.getFromTime()),
+                                    index.getEndOffset(filter.getToTime()));
+                }
+                return retVal;
+            }
+            Reader input = LogTimeIndex.openReader(inputFiles.get(0), defaultParser ? filter : null);
+            return withStatisticsOptions(
+                    new ClosingGroupingStatisticsIterator(newStopWatchLogIterator(input, filter), input));
+        }
+
+        MergingStopWatchLogIterator mergedStopWatches = new MergingStopWatchLogIterator(
+                inputFiles, parallelism, MergingStopWatchLogIterator.DEFAULT_BATCH_SIZE, filter, defaultParser) {
+            protected Iterator<StopWatch> newStopWatchIterator(Reader log, StopWatchFilter filter) {
+                return newStopWatchLogIterator(log, filter);
+            }
+        };
+        return withStatisticsOptions(new ClosingGroupingStatisticsIterator(mergedStopWatches, mergedStopWatches));
+    }
+
+    /**
+     * Creates a new StopWatchParser of the StopWatchParserClassName, with the StopWatchParserFields if any. It is
+     * called for each Iterator over the StopWatches of a log, as StopWatchParsers are not thread safe.
+     *
+     * @return The new StopWatchParser.
+     * @throws IllegalStateException Thrown if the parser can't be created, or if fields are set for a parser that is
+     *                               not a StructuredStopWatchParser.
+     */
+    protected StopWatchParser newStopWatchParser() {
+        StopWatchParser retVal;
+        try {
+            retVal = (StopWatchParser) Class.forName(stopWatchParserClassName).newInstance();
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not create StopWatchParser: " + e.getMessage(), e);
+        }
+        if (stopWatchParserFields != null) {
+            if (!(retVal instanceof StructuredStopWatchParser)) {
+                throw new IllegalStateException("Fields can't be mapped by " + stopWatchParserClassName);
+            }
+            ((StructuredStopWatchParser) retVal).setFields(stopWatchParserFields);
+        }
+        return retVal;
+    }
+
+    /**
+     * Helper method creates an Iterator over the StopWatches of a log, parsed with a new StopWatchParser.
+     */
+    private StopWatchLogIterator newStopWatchLogIterator(Readable log, StopWatchFilter filter) {
+        return new StopWatchLogIterator(log, filter) {
+            protected StopWatchParser newStopWatchParser() {
+                return LogParser.this.newStopWatchParser();
+            }
+        };
+    }
+
+    /**
+     * Helper method gets the statistics of each input file from its cache, parsing and caching the files that
+     * changed, and merges the statistics of the timeslices of the files.
+     */
+    private Iterator<GroupedTimingStatistics> newCachedStatisticsIterator() throws IOException {
+        SortedMap<Long, GroupedTimingStatistics> statisticsByStartTime = new TreeMap<Long, GroupedTimingStatistics>();
+        for (File inputFile : inputFiles) {
+            List<GroupedTimingStatistics> fileStatistics =
+                    LogStatisticsCache.read(inputFile, timeSlice, createRollupStatistics, timeUnit);
+            if (fileStatistics == null) {
+                fileStatistics = parseAndCache(inputFile);
+            }
+            if (inputFiles.size() == 1) {
+                return fileStatistics.iterator();
+            }
+            for (GroupedTimingStatistics statistics : fileStatistics) {
+                GroupedTimingStatistics merged = statisticsByStartTime.get(statistics.getStartTime());
+                if (merged == null) {
+                    statisticsByStartTime.put(statistics.getStartTime(), statistics);
+                } else {
+                    merged.merge(statistics);
+                }
+            }
+        }
+        return statisticsByStartTime.values().iterator();
+    }
+
+    /**
+     * Helper method parses a single input file with the options of this LogParser, and caches its statistics unless
+     * the file changed while it was parsed.
+     */
+    private List<GroupedTimingStatistics> parseAndCache(File inputFile) throws IOException {
+        long length = inputFile.length();
+        long lastModified = inputFile.lastModified();
+
+        LogParser fileParser = new LogParser(inputFile, null, null, timeSlice, createRollupStatistics,
+                                             statisticsFormatter);
+        fileParser.setParallelism(parallelism);
+        fileParser.setTimeUnit(timeUnit);
+        List<GroupedTimingStatistics> retVal = new ArrayList<GroupedTimingStatistics>();
+        Iterator<GroupedTimingStatistics> statsIter = fileParser.newStatisticsIterator();
+        try {
+            while (statsIter.hasNext()) {
+                retVal.add(statsIter.next());
+            }
+        } finally {
+            fileParser.closeStatisticsIterator(statsIter);
+        }
+
+        if (inputFile.length() == length && inputFile.lastModified() == lastModified) {
+            LogStatisticsCache.write(inputFile, timeSlice, createRollupStatistics, timeUnit, retVal);
+        }
+        return retVal;
+    }
+
+    /**
+     * Helper method sets the time unit on a statistics Iterator, and a new ExactPercentileCollector if exact
+     * percentiles are calculated.
+     */
+    private GroupingStatisticsIterator withStatisticsOptions(GroupingStatisticsIterator statsIter) {
+        statsIter.setTimeUnit(timeUnit);
+        if (exactPercentileMemory > 0) {
+            exactPercentileCollector = new ExactPercentileCollector(ExactPercentileCollector.DEFAULT_PERCENTILES,
+                                                                    exactPercentileMemory, null);
+            statsIter.setExactPercentileCollector(exactPercentileCollector);
+        }
+        return statsIter;
+    }
+
+    /**
+     * Helper method closes the statistics Iterator if it is Closeable.
+     */
+    private void closeStatisticsIterator(Iterator<GroupedTimingStatistics> statsIter) {
+        try {
+            if (statsIter instanceof Closeable) {
+                ((Closeable) statsIter).close();
+            }
+            if (exactPercentileCollector != null) {
+                exactPercentileCollector.close();
+                exactPercentileCollector = null;
+            }
+        } catch (IOException ioe) {
+            throw new IllegalStateException("Could not close " + inputFiles, ioe);
+        }
+    }
+
     protected StatisticsChartGenerator newMeanTimeChartGenerator() {
         return new GoogleChartGenerator();
     }
@@ -184,18 +815,80 @@ public class LogParser {
         	Reader input = null;
         	try {
 	            long timeSlice = getTimeSlice(argsList);
+	            TimeUnit timeUnit = getTimeUnit(argsList);
 	            boolean rollupStatistics = getRollupStatistics(argsList);
-	            StatisticsFormatter formatter = getStatisticsFormatter(argsList);
+	            List<List<File>> compareFiles = getCompareFiles(argsList);
+	            double regressionThreshold = getRegressionThreshold(argsList, compareFiles != null);
+	            double significanceLevel = getSignificanceLevel(argsList, compareFiles != null);
+	            int parallelism = getParallelism(argsList);
+	            boolean follow = getFollow(argsList);
+	            File checkpointFile = getCheckpointFile(argsList);
+	            StopWatchFilter filter = getFilter(argsList);
+	            String stopWatchParserClassName = getStopWatchParserClassName(argsList);
+	            String stopWatchParserFields = getStopWatchParserFields(argsList);
+	            boolean indexing = getIndexing(argsList);
+	            boolean caching = getCaching(argsList);
+	            long exactPercentileMemory = getExactPercentileMemory(argsList);
+	            StatisticsFormatter formatter = getStatisticsFormatter(argsList, exactPercentileMemory > 0);
 	            statisticsOutput = openStatisticsOutput(argsList);
 	            graphingOutput = openGraphingOutput(argsList);
-	            input = openInput(argsList);
+	            List<File> inputFiles = getInputFiles(argsList);
+	            if (compareFiles != null) {
+	                if (!inputFiles.isEmpty() || follow || exactPercentileMemory > 0 || graphingOutput != null) {
+	                    throw new IllegalArgumentException("--compare can't be used with logInputFiles, --follow," +
+	                                                       " --exact-percentiles or --graph");
+	                }
+	            } else if (inputFiles.isEmpty()) {
+	                if (follow) {
+	                    throw new IllegalArgumentException("--follow requires a logInputFile");
+	                }
+	                input = openInput(argsList);
+	            }
 	
 	            if (!argsList.isEmpty()) {
 	                printUnknownArgs(argsList);
 	                return 1;
 	            }
 	
-	            new LogParser(input, statisticsOutput, graphingOutput, timeSlice, rollupStatistics, formatter).parseLog();
+	            if (compareFiles != null) {
+	                LogParser[] parsers = new LogParser[2];
+	                for (int i = 0; i < parsers.length; i++) {
+	                    parsers[i] = new LogParser(compareFiles.get(i), null, null,
+	                                               timeSlice, rollupStatistics, formatter);
+	                    parsers[i].setParallelism(parallelism);
+	                    parsers[i].setFilter(filter);
+	                    parsers[i].setStopWatchParserClassName(stopWatchParserClassName);
+	                    parsers[i].setStopWatchParserFields(stopWatchParserFields);
+	                    parsers[i].setIndexing(indexing);
+	                    parsers[i].setCaching(caching);
+	                    if (timeUnit != null) {
+	                        parsers[i].setTimeUnit(timeUnit);
+	                    }
+	                }
+	                StatisticsComparison comparison = compareLogs(parsers[0], parsers[1],
+	                                                              regressionThreshold, significanceLevel);
+	                statisticsOutput.print(comparison);
+	                return comparison.getRegressions().isEmpty() ? 0 : 2;
+	            }
+
+	            LogParser logParser = !inputFiles.isEmpty() ?
+	                                  new LogParser(inputFiles, statisticsOutput, graphingOutput,
+	                                                timeSlice, rollupStatistics, formatter) :
+	                                  new LogParser(input, statisticsOutput, graphingOutput,
+	                                                timeSlice, rollupStatistics, formatter);
+	            logParser.setParallelism(parallelism);
+	            logParser.setFollow(follow);
+	            logParser.setCheckpointFile(checkpointFile);
+	            logParser.setFilter(filter);
+	            logParser.setStopWatchParserClassName(stopWatchParserClassName);
+	            logParser.setStopWatchParserFields(stopWatchParserFields);
+	            logParser.setIndexing(indexing);
+	            logParser.setCaching(caching);
+	            logParser.setExactPercentileMemory(exactPercentileMemory);
+	            if (timeUnit != null) {
+	                logParser.setTimeUnit(timeUnit);
+	            }
+	            logParser.parseLog();
         	} finally {
         		closeInput(input);
         		closeStatisticsOutput(statisticsOutput);
@@ -213,22 +906,85 @@ public class LogParser {
             System.out.println("Usage: LogParser [-o|--out|--output outputFile] " +
                                "[-g|--graph graphingOutputFile] " +
                                "[-t|--timeslice timeslice] " +
+                               "[--time-unit ms|us|ns] " +
                                "[-r] " +
-                               "[-f|--format text|csv] " +
-                               "[logInputFile]");
+                               "[-p|--parallel threads] " +
+                               "[--follow [--checkpoint checkpointFile]] " +
+                               "[--from time] [--to time] [--tags patterns] [--index] [--cache] " +
+                               "[--input-format text|json|logfmt|className [--input-fields mapping]] " +
+                               "[--exact-percentiles [--exact-percentiles-memory megabytes]] " +
+                               "[--compare baselineLog candidateLog [--threshold percent] [--significance level]] " +
+                               "[-f|--format text|csv|json|json:list|json:list-objects|json:google-datatable] " +
+                               "[logInputFile ...]");
             System.out.println("Arguments:");
-            System.out.println("  logInputFile - The log file to be parsed. If not specified, log data is read from stdin.");
+            System.out.println("  logInputFile - The log files to be parsed: files, directories or glob patterns such" +
+                               " as 'logs/*/timing.log*'. Gzipped files are decompressed, and binary stop watch logs" +
+                               " are recognized and decoded. The StopWatches from" +
+                               " several files are merged in start time order. If not specified, log data is read" +
+                               " from stdin.");
             System.out.println("  -o|--out|--output outputFile - The file where generated statistics should be written." +
                                " If not specified, statistics are written to stdout.");
             System.out.println("  -g|--graph graphingOutputFile - The file where generated perf graphs should be written." +
                                " If not specified, no graphs are written.");
             System.out.println("  -t|--timeslice timeslice - The length of time (in ms) of each timeslice for which" +
                                " statistics should be generated. Defaults to 30000 ms.");
+            System.out.println("  --time-unit ms|us|ns - The time unit of the statistics. The elapsed times of the" +
+                               " StopWatches, which are in ms unless they were logged with another unit, are" +
+                               " converted to it. Defaults to the net.jperf.timeUnit property, or ms.");
             System.out.println("  -r - Whether or not statistics rollups should be generated." +
                                " If not specified, rollups are not generated.");
-            System.out.println("  -f|--format text|csv - The format for the statistics output, either plain text or CSV." +
-                               " Defaults to text.");
-            System.out.println("                         If format is csv, then the columns output are tag, start, stop, mean, min, max, stddev, and count.");
+            System.out.println("  -p|--parallel threads - The number of threads used to parse the logInputFiles. A" +
+                               " single file is memory-mapped and split into chunks that are parsed concurrently," +
+                               " with the same output as a sequential parse; several files, or a gzipped one, are" +
+                               " decompressed and parsed concurrently. Defaults to 1; ignored when reading from stdin.");
+            System.out.println("  --follow - Follow logInputFile as it grows, writing the statistics for each timeslice" +
+                               " as soon as it is over. Rotation and truncation of the file are detected.");
+            System.out.println("  --checkpoint checkpointFile - With --follow, the file where the position in" +
+                               " logInputFile is saved after each timeslice. A restart resumes from that position.");
+            System.out.println("  --from time, --to time - Only include the StopWatches that started at or after the" +
+                               " from time and before the to time, given as yyyy-MM-dd HH:mm:ss or as milliseconds" +
+                               " since 1970.");
+            System.out.println("  --tags patterns - Only include the StopWatches whose tag matches one of the" +
+                               " comma-separated patterns, globs such as 'db.*' or regular expressions enclosed in" +
+                               " slashes such as '/db\\.(get|put)/'.");
+            System.out.println("  --index - Create or update a time index next to each logInputFile before parsing it." +
+                               " An up to date index lets --from and --to read only the matching part of a log.");
+            System.out.println("  --cache - Cache the statistics of each timeslice of each logInputFile next to the" +
+                               " file. Parsing an unchanged file again with the same timeslice and -r only reads the" +
+                               " cache. Several files are then parsed one by one and their timeslices merged. The" +
+                               " cache is not used with --from, --to, --tags, --exact-percentiles or --follow.");
+            System.out.println("  --input-format text|json|logfmt|className - The format of text logInputFiles: the" +
+                               " StopWatch.toString format, JSON objects, logfmt key=value lines, or the class name" +
+                               " of a StopWatchParser. Defaults to text. With json and logfmt, the StopWatch fields" +
+                               " are read from the start|ts|timestamp, time|elapsed|duration, tag, message|msg and" +
+                               " unit keys, and --index and --cache are ignored.");
+            System.out.println("  --input-fields mapping - With json, logfmt or another structured format, the keys" +
+                               " of the StopWatch fields, such as 'start=ts,time=elapsed|latency,tag=op,unit=u'." +
+                               " Times are milliseconds unless the unit key gives us or ns; unmapped fields keep" +
+                               " their default keys.");
+            System.out.println("  --exact-percentiles - Calculate the exact 50th, 90th, 95th, 99th and 99.9th" +
+                               " percentiles of each timeslice from every sample time, rather than only the" +
+                               " approximate percentiles of the histogram. They are output as the exactP50 to" +
+                               " exactP999 columns of the csv format, next to p50 to p999, and in the json formats." +
+                               " A single logInputFile is then parsed by one thread, and --follow is not supported.");
+            System.out.println("  --exact-percentiles-memory megabytes - The memory used to hold the sample times of" +
+                               " a timeslice; beyond it sorted runs are spilled to a temporary file. Defaults to 64.");
+            System.out.println("  --compare baselineLog candidateLog - Instead of writing the statistics of each timeslice," +
+                               " compare the statistics of each tag over the whole of two logs, parsed at the same" +
+                               " time with the same options. Each log may be a file, a directory or a glob pattern." +
+                               " The changes of the mean and of the 50th, 90th and 99th percentiles are written with" +
+                               " the p-value of a Mann-Whitney U test, and the exit status is 2 if any tag regressed.");
+            System.out.println("  --threshold percent - With --compare, a tag regressed if it is significantly slower" +
+                               " and its mean or a percentile grew by more than this percentage. Defaults to 10.");
+            System.out.println("  --significance level - With --compare, the p-value below which a change is" +
+                               " significant. Defaults to 0.05.");
+            System.out.println("  -f|--format text|csv|json|json:list|json:list-objects|json:google-datatable - The" +
+                               " format for the statistics output: plain text, CSV, or JSON as an array of arrays" +
+                               " (json or json:list), an array of objects (json:list-objects) or a Google DataTable" +
+                               " (json:google-datatable). Defaults to text.");
+            System.out.println("  If format is csv, then the columns output are tag, start, stop, mean, min, max," +
+                               " stddev and count, followed with --exact-percentiles by p50, exactP50, p90," +
+                               " exactP90, p95, exactP95, p99, exactP99, p999 and exactP999.");
             System.out.println();
             System.out.println("Note that out, stdout, err and stderr can be used as aliases to the standard output" +
                                " streams when specifying output files.");
@@ -301,6 +1057,17 @@ public class LogParser {
         }
     }
 
+    protected static TimeUnit getTimeUnit(List<String> argsList) {
+        int indexOfTimeUnit = getIndexOfArg(argsList, true, "--time-unit");
+        if (indexOfTimeUnit >= 0) {
+            String timeUnit = argsList.remove(indexOfTimeUnit + 1);
+            argsList.remove(indexOfTimeUnit);
+            return MiscUtils.parseTimeUnit(timeUnit);
+        } else {
+            return null;
+        }
+    }
+
     protected static boolean getRollupStatistics(List<String> argsList) {
         int indexOfOut = getIndexOfArg(argsList, false, "-r", "--rollup");
         if (indexOfOut >= 0) {
@@ -311,7 +1078,207 @@ public class LogParser {
         }
     }
 
+    protected static int getParallelism(List<String> argsList) {
+        int indexOfParallel = getIndexOfArg(argsList, true, "-p", "--parallel");
+        if (indexOfParallel >= 0) {
+            String parallelism = argsList.remove(indexOfParallel + 1);
+            argsList.remove(indexOfParallel);
+            int retVal = Integer.parseInt(parallelism);
+            if (retVal <= 0) {
+                throw new IllegalArgumentException("The number of parallel threads must be positive: " + parallelism);
+            }
+            return retVal;
+        } else {
+            return 1;
+        }
+    }
+
+    protected static boolean getFollow(List<String> argsList) {
+        int indexOfFollow = getIndexOfArg(argsList, false, "--follow");
+        if (indexOfFollow >= 0) {
+            argsList.remove(indexOfFollow);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    protected static File getCheckpointFile(List<String> argsList) {
+        int indexOfCheckpoint = getIndexOfArg(argsList, true, "--checkpoint");
+        if (indexOfCheckpoint >= 0) {
+            String fileName = argsList.remove(indexOfCheckpoint + 1);
+            argsList.remove(indexOfCheckpoint);
+            return new File(fileName);
+        } else {
+            return null;
+        }
+    }
+
+    protected static StopWatchFilter getFilter(List<String> argsList) {
+        long fromTime = Long.MIN_VALUE;
+        long toTime = Long.MAX_VALUE;
+        String tagPatterns = null;
+
+        int indexOfFrom = getIndexOfArg(argsList, true, "--from");
+        if (indexOfFrom >= 0) {
+            fromTime = parseTime(argsList.remove(indexOfFrom + 1));
+            argsList.remove(indexOfFrom);
+        }
+        int indexOfTo = getIndexOfArg(argsList, true, "--to");
+        if (indexOfTo >= 0) {
+            toTime = parseTime(argsList.remove(indexOfTo + 1));
+            argsList.remove(indexOfTo);
+        }
+        int indexOfTags = getIndexOfArg(argsList, true, "--tags");
+        if (indexOfTags >= 0) {
+            tagPatterns = argsList.remove(indexOfTags + 1);
+            argsList.remove(indexOfTags);
+        }
+
+        if (fromTime >= toTime) {
+            throw new IllegalArgumentException("--from must be before --to");
+        }
+        return (indexOfFrom >= 0 || indexOfTo >= 0 || indexOfTags >= 0) ?
+               new StopWatchFilter(fromTime, toTime, tagPatterns) :
+               null;
+    }
+
+    protected static boolean getIndexing(List<String> argsList) {
+        int indexOfIndex = getIndexOfArg(argsList, false, "--index");
+        if (indexOfIndex >= 0) {
+            argsList.remove(indexOfIndex);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    protected static boolean getCaching(List<String> argsList) {
+        int indexOfCache = getIndexOfArg(argsList, false, "--cache");
+        if (indexOfCache >= 0) {
+            argsList.remove(indexOfCache);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    protected static String getStopWatchParserClassName(List<String> argsList) {
+        int indexOfFormat = getIndexOfArg(argsList, true, "--input-format");
+        if (indexOfFormat >= 0) {
+            String format = argsList.remove(indexOfFormat + 1);
+            argsList.remove(indexOfFormat);
+            if ("text".equalsIgnoreCase(format)) {
+                return StopWatchParser.class.getName();
+            } else if ("json".equalsIgnoreCase(format)) {
+                return JsonStopWatchParser.class.getName();
+            } else if ("logfmt".equalsIgnoreCase(format)) {
+                return LogfmtStopWatchParser.class.getName();
+            } else {
+                return format;
+            }
+        } else {
+            return StopWatchParser.class.getName();
+        }
+    }
+
+    protected static String getStopWatchParserFields(List<String> argsList) {
+        int indexOfFields = getIndexOfArg(argsList, true, "--input-fields");
+        if (indexOfFields >= 0) {
+            String fields = argsList.remove(indexOfFields + 1);
+            argsList.remove(indexOfFields);
+            return fields;
+        } else {
+            return null;
+        }
+    }
+
+    protected static long getExactPercentileMemory(List<String> argsList) {
+        long retVal = 0L;
+        int indexOfExact = getIndexOfArg(argsList, false, "--exact-percentiles");
+        if (indexOfExact >= 0) {
+            argsList.remove(indexOfExact);
+            retVal = ExactPercentileCollector.DEFAULT_MEMORY_BUDGET;
+        }
+        int indexOfMemory = getIndexOfArg(argsList, true, "--exact-percentiles-memory");
+        if (indexOfMemory >= 0) {
+            String megabytes = argsList.remove(indexOfMemory + 1);
+            argsList.remove(indexOfMemory);
+            if (retVal == 0L) {
+                throw new IllegalArgumentException("--exact-percentiles-memory requires --exact-percentiles");
+            }
+            retVal = Long.parseLong(megabytes) * 1024L * 1024L;
+            if (retVal <= 0L) {
+                throw new IllegalArgumentException("The exact percentiles memory must be positive: " + megabytes);
+            }
+        }
+        return retVal;
+    }
+
+    protected static List<List<File>> getCompareFiles(List<String> argsList) {
+        int indexOfCompare = getIndexOfArg(argsList, true, "--compare");
+        if (indexOfCompare >= 0) {
+            if (indexOfCompare + 2 >= argsList.size()) {
+                throw new IllegalArgumentException("--compare requires a baselineLog and a candidateLog");
+            }
+            List<List<File>> retVal = new ArrayList<List<File>>();
+            for (int i = 0; i < 2; i++) {
+                String log = argsList.remove(indexOfCompare + 1);
+                List<File> files = LogFiles.expand(log);
+                if (files.isEmpty()) {
+                    throw new IllegalArgumentException("No log files match " + log);
+                }
+                retVal.add(files);
+            }
+            argsList.remove(indexOfCompare);
+            return retVal;
+        } else {
+            return null;
+        }
+    }
+
+    protected static double getRegressionThreshold(List<String> argsList, boolean compare) {
+        int indexOfThreshold = getIndexOfArg(argsList, true, "--threshold");
+        if (indexOfThreshold >= 0) {
+            String threshold = argsList.remove(indexOfThreshold + 1);
+            argsList.remove(indexOfThreshold);
+            if (!compare) {
+                throw new IllegalArgumentException("--threshold requires --compare");
+            }
+            return Double.parseDouble(threshold);
+        } else {
+            return StatisticsComparison.DEFAULT_REGRESSION_THRESHOLD;
+        }
+    }
+
+    protected static double getSignificanceLevel(List<String> argsList, boolean compare) {
+        int indexOfSignificance = getIndexOfArg(argsList, true, "--significance");
+        if (indexOfSignificance >= 0) {
+            String significance = argsList.remove(indexOfSignificance + 1);
+            argsList.remove(indexOfSignificance);
+            if (!compare) {
+                throw new IllegalArgumentException("--significance requires --compare");
+            }
+            return Double.parseDouble(significance);
+        } else {
+            return StatisticsComparison.DEFAULT_SIGNIFICANCE_LEVEL;
+        }
+    }
+
+    protected static long parseTime(String time) {
+        for (int i = 0; i < time.length(); i++) {
+            if (!Character.isDigit(time.charAt(i))) {
+                return MiscUtils.parseDateIso8601(time);
+            }
+        }
+        return Long.parseLong(time);
+    }
+
     protected static StatisticsFormatter getStatisticsFormatter(List<String> argsList) {
+        return getStatisticsFormatter(argsList, false);
+    }
+
+    protected static StatisticsFormatter getStatisticsFormatter(List<String> argsList, boolean exactPercentiles) {
         int indexOfFormat = getIndexOfArg(argsList, true, "-f", "--format");
         if (indexOfFormat >= 0) {
             String formatString = argsList.remove(indexOfFormat + 1);
@@ -319,9 +1286,11 @@ public class LogParser {
             if ("text".equalsIgnoreCase(formatString)) {
                 return new DefaultStatisticsFormatter(new GroupedTimingStatisticsTextFormatter());
             } else if ("csv".equalsIgnoreCase(formatString)) {
-                return new DefaultStatisticsFormatter(new GroupedTimingStatisticsCsvFormatter());
+                return new DefaultStatisticsFormatter(exactPercentiles ?
+                                                      new GroupedTimingStatisticsCsvFormatter(false, EXACT_CSV_FORMAT) :
+                                                      new GroupedTimingStatisticsCsvFormatter());
             } else if (formatString.startsWith("json")) {
-                return new GroupedTimingStatisticsJsonFormatter(formatString);
+                return new GroupedTimingStatisticsJsonFormatter(formatString, exactPercentiles);
             } else {
                 throw new IllegalArgumentException("Unknown format type: " + formatString);
             }
@@ -339,6 +1308,23 @@ public class LogParser {
         }
     }
 
+    protected static List<File> getInputFiles(List<String> argsList) {
+        List<File> retVal = new ArrayList<File>();
+        for (Iterator<String> iter = argsList.iterator(); iter.hasNext();) {
+            String arg = iter.next();
+            //anything left that looks like an option is reported as an unknown argument
+            if (!arg.startsWith("-")) {
+                iter.remove();
+                List<File> files = LogFiles.expand(arg);
+                if (files.isEmpty()) {
+                    throw new IllegalArgumentException("No log files match " + arg);
+                }
+                retVal.addAll(files);
+            }
+        }
+        return retVal;
+    }
+
     protected static void printUnknownArgs(List<String> argsList) {
         System.out.println("Unknown arguments: ");
         for (String arg : argsList) {
@@ -16,6 +16,11 @@
  */
 package net.jperf;
 
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
 /**
  * A LoggingStopWatch prevents the need to explicitly send the StopWatch string to a Logger when stopping. Instead,
  * all of the stop() and lap() methods themselves are responsible for persisting the StopWatch:
@@ -31,6 +36,18 @@ package net.jperf;
  */
 @SuppressWarnings("serial")
 public class LoggingStopWatch extends StopWatch {
+    /**
+     * Whether each subclass overrides one of the stop methods, in which case the stopTiming methods call them.
+     */
+    private static final ConcurrentMap<Class<?>, Boolean> stopOverriddenByClass =
+            new ConcurrentHashMap<Class<?>, Boolean>();
+    /**
+     * Whether each subclass overrides log(String, Throwable) below the class that declares logStopWatch, in which
+     * case the stopTiming methods call log so that logStopWatch doesn't bypass the override.
+     */
+    private static final ConcurrentMap<Class<?>, Boolean> logOverriddenByClass =
+            new ConcurrentHashMap<Class<?>, Boolean>();
+
 	/**
      * This threshold determines if a log call will be made. Only elapsed times greater than this amount will be logged.
      */
@@ -195,7 +212,8 @@ public class LoggingStopWatch extends StopWatch {
     public String getTag() {
     	long timeThreshold = getTimeThreshold(); // so that child classes can override
     	return isNormalAndSlowSuffixesEnabled() ? 
-                super.getTag() + (getElapsedTime() >= timeThreshold ? getSlowSuffix() : getNormalSuffix()) : 
+                super.getTag() + (getElapsedTime(TimeUnit.MILLISECONDS) >= timeThreshold ?
+                                  getSlowSuffix() : getNormalSuffix()) : 
                 super.getTag(); 
     }
 
@@ -211,6 +229,12 @@ public class LoggingStopWatch extends StopWatch {
         return this;
     }
 
+    // Just overridden to make use of covariant return types
+    public LoggingStopWatch setTimeUnit(TimeUnit timeUnit) {
+        super.setTimeUnit(timeUnit);
+        return this;
+    }
+
     // --- Stop/Lap/Helper Methods ---
     /**
      * This stop method is overridden to perform the logging itself instead of needing to make a separate call to
@@ -264,6 +288,108 @@ public class LoggingStopWatch extends StopWatch {
         return stop(exception);
     }
 
+    /**
+     * This stopTiming method is overridden to log this StopWatch like {@link #stop()}. Unlike stop(), no String is
+     * built unless the StopWatch is actually logged, that is unless its elapsed time reaches the time threshold and
+     * {@link #isLogging()} returns true, so this is the cheaper method to use when most StopWatches are filtered out.
+     * <p>
+     * If a subclass overrides one of the stop methods, this method calls stop() instead, so that the subclass still
+     * sees every StopWatch being stopped, for example when it is stopped by a TimedCallable or the timing aspects.
+     *
+     * @return The elapsed time, in the time unit of this StopWatch
+     */
+    public long stopTiming() {
+        if (overridesStopMethods()) {
+            stop();
+            return getElapsedTime();
+        }
+        long retVal = super.stopTiming();
+        doLogLazily(null);
+        return retVal;
+    }
+
+    /**
+     * Identical to {@link #stop(Throwable)}, but returns the elapsed time instead of this.toString(), and only
+     * renders the StopWatch if its elapsed time reaches the time threshold.
+     *
+     * @param exception The exception that was thrown by the timed code block
+     * @return The elapsed time, in the time unit of this StopWatch
+     */
+    public long stopTiming(Throwable exception) {
+        if (overridesStopMethods()) {
+            stop(exception);
+            return getElapsedTime();
+        }
+        long retVal = super.stopTiming();
+        doLogLazily(exception);
+        return retVal;
+    }
+
+    /**
+     * This stopTiming method is overridden to call {@link #stop(String)} if a subclass overrides one of the stop
+     * methods, like {@link #stopTiming()}.
+     *
+     * @param tag The grouping tag for this StopWatch
+     * @return The elapsed time, in the time unit of this StopWatch
+     */
+    public long stopTiming(String tag) {
+        if (overridesStopMethods()) {
+            stop(tag);
+            return getElapsedTime();
+        }
+        return super.stopTiming(tag);
+    }
+
+    /**
+     * This stopTiming method is overridden to call {@link #stop(String, String)} if a subclass overrides one of the
+     * stop methods, like {@link #stopTiming()}.
+     *
+     * @param tag     The grouping tag for this StopWatch
+     * @param message A descriptive message about the code being timed, may be null
+     * @return The elapsed time, in the time unit of this StopWatch
+     */
+    public long stopTiming(String tag, String message) {
+        if (overridesStopMethods()) {
+            stop(tag, message);
+            return getElapsedTime();
+        }
+        return super.stopTiming(tag, message);
+    }
+
+    /**
+     * Identical to {@link #stopTiming(String)}, but also allows you to specify an exception to be logged.
+     *
+     * @param tag       The grouping tag for this StopWatch
+     * @param exception The exception that was thrown by the timed code block
+     * @return The elapsed time, in the time unit of this StopWatch
+     */
+    public long stopTiming(String tag, Throwable exception) {
+        if (overridesStopMethods()) {
+            stop(tag, exception);
+            return getElapsedTime();
+        }
+        setTag(tag);
+        return stopTiming(exception);
+    }
+
+    /**
+     * Identical to {@link #stopTiming(String, String)}, but also allows you to specify an exception to be logged.
+     *
+     * @param tag       The grouping tag for this StopWatch
+     * @param message   A descriptive message about the timed block
+     * @param exception The exception that was thrown by the timed code block
+     * @return The elapsed time, in the time unit of this StopWatch
+     */
+    public long stopTiming(String tag, String message, Throwable exception) {
+        if (overridesStopMethods()) {
+            stop(tag, message, exception);
+            return getElapsedTime();
+        }
+        setTag(tag);
+        setMessage(message);
+        return stopTiming(exception);
+    }
+
     /**
      * Identical to {@link #lap(String)}, but also allows you to specify an exception to be logged.
      *
@@ -317,6 +443,35 @@ public class LoggingStopWatch extends StopWatch {
         }
     }
 
+    /**
+     * This method is called by the stopTiming methods to persist the StopWatch once it has been decided that it
+     * will be logged. The default implementation renders the StopWatch using toString() and passes it to
+     * {@link #log(String, Throwable)}; subclasses that log the StopWatch object itself rather than the String can
+     * override this method so that the String is never built. If a further subclass overrides log(String, Throwable)
+     * but not this method, the stopTiming methods call log instead, so that the override still sees every StopWatch.
+     *
+     * @param exception An exception, if any, that was also passed to the stopTiming method - may be null.
+     */
+    protected void logStopWatch(Throwable exception) {
+        log(toString(), exception);
+    }
+
+    /**
+     * Creates a stopped, detached copy of this StopWatch that subclasses can pass to their logging framework as the
+     * log message object in place of the serialized String. Appenders that understand StopWatches, such as the
+     * AsyncCoalescingStatisticsAppenders, can then read the timing data directly instead of parsing it back out of
+     * the String, while all other appenders just render the copy using toString(), which gives the same text as
+     * the String returned from the stop and lap methods. The copy is never modified once created, so it stays valid
+     * even if this StopWatch is restarted while the logging event is still being processed, and appenders may keep it
+     * without copying it again.
+     *
+     * @return A new DetachedStopWatch with the same start time, elapsed time, tag, message and time unit as this
+     *         instance.
+     */
+    protected StopWatch newLoggedStopWatch() {
+        return new DetachedStopWatch(getStartTime(), getElapsedTime(), getTag(), getMessage(), getTimeUnit());
+    }
+
     // --- Object Methods ---
     
     public LoggingStopWatch clone() {
@@ -330,10 +485,81 @@ public class LoggingStopWatch extends StopWatch {
     	//getTag() should take care of appending the correct tag, and should already be part of stopWatchAsString
         //Otherwise we default to the backward-compatible behavior: namely:
     	//in most cases timeThreshold will be 0, so just short circuit out as fast as possible
-    	long elapsedTime = getElapsedTime(); // to allow for subclasses to override this value
+    	long elapsedTime = getElapsedTime(TimeUnit.MILLISECONDS); // to allow for subclasses to override this value
     	long timeThreshold = getTimeThreshold(); // to allow for subclasses to override this value
     	if (timeThreshold == 0 || isNormalAndSlowSuffixesEnabled() || elapsedTime >= timeThreshold) {
             log(stopWatchAsString, exception);
         }
     }
+
+    // Helper method checks the time threshold and, for normal log messages, isLogging() before anything is rendered
+    private void doLogLazily(Throwable exception) {
+        long timeThreshold = getTimeThreshold(); // to allow for subclasses to override this value
+        if ((timeThreshold == 0 || isNormalAndSlowSuffixesEnabled() ||
+             getElapsedTime(TimeUnit.MILLISECONDS) >= timeThreshold) &&
+            (exception != null || isLogging())) {
+            if (overridesLogMethod()) {
+                log(toString(), exception);
+            } else {
+                logStopWatch(exception);
+            }
+        }
+    }
+
+    // Helper method checks whether the class of this StopWatch declares any stop method of its own, in which case the
+    // stopTiming methods have to go through the stop methods. The answer is cached for each class.
+    private boolean overridesStopMethods() {
+        Class<?> clazz = getClass();
+        Boolean retVal = stopOverriddenByClass.get(clazz);
+        if (retVal == null) {
+            retVal = Boolean.FALSE;
+            try {
+                for (Method method : clazz.getMethods()) {
+                    if ("stop".equals(method.getName()) &&
+                        method.getDeclaringClass() != LoggingStopWatch.class &&
+                        method.getDeclaringClass() != StopWatch.class) {
+                        retVal = Boolean.TRUE;
+                        break;
+                    }
+                }
+            } catch (Exception e) {
+                //if we can't tell, be safe and always call stop
+                retVal = Boolean.TRUE;
+            }
+            stopOverriddenByClass.put(clazz, retVal);
+        }
+        return retVal;
+    }
+
+    // Helper method checks whether the class of this StopWatch overrides log(String, Throwable) in a subclass of the
+    // class that declares logStopWatch, which would then bypass the override. The answer is cached for each class.
+    private boolean overridesLogMethod() {
+        Class<?> clazz = getClass();
+        Boolean retVal = logOverriddenByClass.get(clazz);
+        if (retVal == null) {
+            try {
+                Class<?> logClass = getDeclaringClass(clazz, "log", String.class, Throwable.class);
+                Class<?> logStopWatchClass = getDeclaringClass(clazz, "logStopWatch", Throwable.class);
+                retVal = logClass != logStopWatchClass && logStopWatchClass.isAssignableFrom(logClass);
+            } catch (Exception e) {
+                //if we can't tell, be safe and always call log
+                retVal = Boolean.TRUE;
+            }
+            logOverriddenByClass.put(clazz, retVal);
+        }
+        return retVal;
+    }
+
+    // Helper method finds the most derived class, starting at clazz, that declares the specified method
+    private static Class<?> getDeclaringClass(Class<?> clazz, String methodName, Class<?>... parameterTypes) {
+        for (Class<?> declaringClass = clazz; declaringClass != null; declaringClass = declaringClass.getSuperclass()) {
+            try {
+                declaringClass.getDeclaredMethod(methodName, parameterTypes);
+                return declaringClass;
+            } catch (NoSuchMethodException nsme) {
+                //try the superclass
+            }
+        }
+        return LoggingStopWatch.class;
+    }
 }
@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This LoggingStopWatch reports itself directly to a {@link TimingRegistry} instead of a logging framework, so no log
+ * event is created and the StopWatch is never rendered as a String by the stopTiming methods. The various
+ * constructors allow you to specify the registry to use, which defaults to the registry named
+ * "net.jperf.TimingLogger". The time threshold and the normal and slow suffixes work as for any other
+ * LoggingStopWatch; exceptions passed to the stop and lap methods are ignored.
+ */
+@SuppressWarnings("serial")
+public class RegistryStopWatch extends LoggingStopWatch {
+    private transient TimingRegistry registry;
+
+    // --- Constructors ---
+
+    /**
+     * Creates a RegistryStopWatch with a blank tag, no message and started at the instant of creation, reporting to
+     * the default TimingRegistry.
+     */
+    public RegistryStopWatch() {
+        this("", null, TimingRegistry.getRegistry());
+    }
+
+    /**
+     * Creates a RegistryStopWatch with a blank tag, no message and started at the instant of creation, reporting to
+     * the specified TimingRegistry.
+     *
+     * @param registry The TimingRegistry to which this StopWatch is reported in one of the stop or lap methods.
+     */
+    public RegistryStopWatch(TimingRegistry registry) {
+        this("", null, registry);
+    }
+
+    /**
+     * Creates a RegistryStopWatch with the tag specified, no message and started at the instant of creation,
+     * reporting to the default TimingRegistry.
+     *
+     * @param tag The tag name for this timing call. Tags are used to group timing logs, thus each block
+     *            of code being timed should have a unique tag. Note that tags can take a hierarchical
+     *            format using dot notation.
+     */
+    public RegistryStopWatch(String tag) {
+        this(tag, null, TimingRegistry.getRegistry());
+    }
+
+    /**
+     * Creates a RegistryStopWatch with the tag specified, no message and started at the instant of creation,
+     * reporting to the specified TimingRegistry.
+     *
+     * @param tag      The tag name for this timing call. Tags are used to group timing logs, thus each block
+     *                 of code being timed should have a unique tag. Note that tags can take a hierarchical
+     *                 format using dot notation.
+     * @param registry The TimingRegistry to which this StopWatch is reported in one of the stop or lap methods.
+     */
+    public RegistryStopWatch(String tag, TimingRegistry registry) {
+        this(tag, null, registry);
+    }
+
+    /**
+     * Creates a RegistryStopWatch with the tag and message specified and started at the instant of creation,
+     * reporting to the default TimingRegistry.
+     *
+     * @param tag     The tag name for this timing call. Tags are used to group timing logs, thus each block
+     *                of code being timed should have a unique tag. Note that tags can take a hierarchical
+     *                format using dot notation.
+     * @param message Additional text to be printed with the logging statement of this StopWatch.
+     */
+    public RegistryStopWatch(String tag, String message) {
+        this(tag, message, TimingRegistry.getRegistry());
+    }
+
+    /**
+     * Creates a RegistryStopWatch with the tag and message specified and started at the instant of creation,
+     * reporting to the specified TimingRegistry.
+     *
+     * @param tag      The tag name for this timing call. Tags are used to group timing logs, thus each block
+     *                 of code being timed should have a unique tag. Note that tags can take a hierarchical
+     *                 format using dot notation.
+     * @param message  Additional text to be printed with the logging statement of this StopWatch.
+     * @param registry The TimingRegistry to which this StopWatch is reported in one of the stop or lap methods.
+     */
+    public RegistryStopWatch(String tag, String message, TimingRegistry registry) {
+        this(System.currentTimeMillis(), -1L, tag, message, registry);
+    }
+
+    /**
+     * This constructor is mainly used for creation of StopWatch instances from logs and for testing. Users should
+     * normally not call this constructor in client code.
+     *
+     * @param startTime   The start time in milliseconds
+     * @param elapsedTime The elapsed time in milliseconds
+     * @param tag         The tag used to group timing logs of the same code block
+     * @param message     Additional message text
+     * @param registry    The TimingRegistry to which this StopWatch is reported in one of the stop or lap methods.
+     */
+    public RegistryStopWatch(long startTime, long elapsedTime, String tag, String message, TimingRegistry registry) {
+        super(startTime, elapsedTime, tag, message);
+        this.registry = registry;
+    }
+
+    // --- Bean Methods ---
+
+    /**
+     * Gets the TimingRegistry to which this StopWatch is reported when one of the stop or lap methods is called.
+     *
+     * @return The TimingRegistry of this StopWatch.
+     */
+    public TimingRegistry getRegistry() { return registry; }
+
+    /**
+     * Sets the TimingRegistry to which this StopWatch is reported.
+     *
+     * @param registry The TimingRegistry this instance should report to. May not be null.
+     * @return this instance, for use with method chaining if desired
+     */
+    public RegistryStopWatch setRegistry(TimingRegistry registry) {
+        this.registry = registry;
+        return this;
+    }
+
+    // Just overridden to make use of covariant return types
+    public RegistryStopWatch setTimeThreshold(long timeThreshold) {
+        super.setTimeThreshold(timeThreshold);
+        return this;
+    }
+
+    // Just overridden to make use of covariant return types
+    public RegistryStopWatch setTag(String tag) {
+        super.setTag(tag);
+        return this;
+    }
+
+    // Just overridden to make use of covariant return types
+    public RegistryStopWatch setMessage(String message) {
+        super.setMessage(message);
+        return this;
+    }
+
+    // Just overridden to make use of covariant return types
+    public RegistryStopWatch setTimeUnit(TimeUnit timeUnit) {
+        super.setTimeUnit(timeUnit);
+        return this;
+    }
+
+    // Just overridden to make use of covariant return types
+    public RegistryStopWatch setNormalAndSlowSuffixesEnabled(boolean normalAndSlowSuffixesEnabled) {
+        super.setNormalAndSlowSuffixesEnabled(normalAndSlowSuffixesEnabled);
+        return this;
+    }
+
+    // Just overridden to make use of covariant return types
+    public RegistryStopWatch setNormalSuffix(String normalSuffix) {
+        super.setNormalSuffix(normalSuffix);
+        return this;
+    }
+
+    // Just overridden to make use of covariant return types
+    public RegistryStopWatch setSlowSuffix(String slowSuffix) {
+        super.setSlowSuffix(slowSuffix);
+        return this;
+    }
+
+    // --- Helper Methods ---
+
+    /**
+     * This method returns true if the registry of this StopWatch is started.
+     *
+     * @return true if this StopWatch will be recorded when one of the stop or lap methods is called.
+     */
+    public boolean isLogging() {
+        return registry.isStarted();
+    }
+
+    /**
+     * The log method is overridden to record this StopWatch in the TimingRegistry. The String is not used.
+     *
+     * @param stopWatchAsString The stringified view of the stop watch, ignored.
+     * @param exception         An exception, if any, that was passed to the stop or lap method, ignored.
+     */
+    protected void log(String stopWatchAsString, Throwable exception) {
+        registry.record(this);
+    }
+
+    /**
+     * Overridden to record this StopWatch in the TimingRegistry without rendering it as a String.
+     *
+     * @param exception An exception, if any, that was passed to the stopTiming method, ignored.
+     */
+    protected void logStopWatch(Throwable exception) {
+        registry.record(this);
+    }
+
+    // --- Object Methods ---
+
+    public RegistryStopWatch clone() {
+        return (RegistryStopWatch) super.clone();
+    }
+
+    private void writeObject(ObjectOutputStream stream) throws IOException {
+        stream.defaultWriteObject();
+        stream.writeUTF(registry.getName());
+    }
+
+    private void readObject(ObjectInputStream stream) throws IOException, ClassNotFoundException {
+        stream.defaultReadObject();
+        this.registry = TimingRegistry.getRegistry(stream.readUTF());
+    }
+}
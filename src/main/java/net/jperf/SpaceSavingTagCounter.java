@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf;
+
+import java.util.Arrays;
+
+/**
+ * This class implements the counters of the Space-Saving heavy hitters algorithm (Metwally, Agrawal and El Abbadi)
+ * that {@link TagStatisticsTable} uses to bound the number of tags it keeps. At most <tt>capacity</tt> tags are
+ * monitored, each identified by the slot it occupies in the table. When a tag that is not monitored arrives and all
+ * counters are in use, the tag with the smallest count is evicted and the new tag takes over its slot and its counter,
+ * incremented by one. Any tag whose true frequency is more than 1/capacity of all the counted events is therefore
+ * guaranteed to be monitored.
+ * <p>
+ * The counters are kept in a binary min-heap of slots so that both incrementing a counter and finding the tag to evict
+ * take O(log capacity) time. This class is not thread safe.
+ */
+class SpaceSavingTagCounter {
+    /**
+     * The maximum number of tags monitored.
+     */
+    private final int capacity;
+    /**
+     * The count for each slot.
+     */
+    private long[] counts;
+    /**
+     * The slots, arranged as a min-heap on their counts.
+     */
+    private int[] heap;
+    /**
+     * The position of each slot in the heap.
+     */
+    private int[] heapIndexes;
+    /**
+     * The number of slots in use.
+     */
+    private int size;
+
+    /**
+     * Creates a new, empty counter.
+     *
+     * @param capacity The maximum number of tags monitored, must be positive.
+     */
+    SpaceSavingTagCounter(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        int initialLength = Math.min(capacity, 16);
+        this.counts = new long[initialLength];
+        this.heap = new int[initialLength];
+        this.heapIndexes = new int[initialLength];
+    }
+
+    /**
+     * Starts counting a new slot with a count of 1.
+     *
+     * @param slot The slot, which must be equal to the number of slots already in use.
+     */
+    void add(int slot) {
+        if (size == counts.length) {
+            int newLength = Math.min(capacity, size * 2);
+            counts = Arrays.copyOf(counts, newLength);
+            heap = Arrays.copyOf(heap, newLength);
+            heapIndexes = Arrays.copyOf(heapIndexes, newLength);
+        }
+        counts[slot] = 1L;
+        heap[size] = slot;
+        heapIndexes[slot] = size;
+        siftUp(size++);
+    }
+
+    /**
+     * Counts another occurrence of the tag in the specified slot.
+     *
+     * @param slot The slot of the tag.
+     */
+    void increment(int slot) {
+        counts[slot]++;
+        siftDown(heapIndexes[slot]);
+    }
+
+    /**
+     * Returns the slot with the smallest count, which is the slot to evict when a new tag arrives and all counters are
+     * in use. The new tag then takes over the slot and is counted with {@link #increment(int)}, so that its count
+     * includes the possible overestimate inherited from the evicted tag.
+     *
+     * @return The slot with the smallest count.
+     */
+    int getMinSlot() {
+        return heap[0];
+    }
+
+    /**
+     * Returns the number of slots currently in use.
+     *
+     * @return The number of slots, at most the capacity.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the maximum number of tags monitored.
+     *
+     * @return The capacity.
+     */
+    int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Removes all counters.
+     */
+    void clear() {
+        size = 0;
+    }
+
+    // --- Helper Methods ---
+
+    private void siftUp(int index) {
+        int slot = heap[index];
+        long count = counts[slot];
+        while (index > 0) {
+            int parentIndex = (index - 1) >>> 1;
+            int parent = heap[parentIndex];
+            if (counts[parent] <= count) {
+                break;
+            }
+            heap[index] = parent;
+            heapIndexes[parent] = index;
+            index = parentIndex;
+        }
+        heap[index] = slot;
+        heapIndexes[slot] = index;
+    }
+
+    private void siftDown(int index) {
+        int slot = heap[index];
+        long count = counts[slot];
+        int half = size >>> 1;
+        while (index < half) {
+            int childIndex = (index << 1) + 1;
+            int child = heap[childIndex];
+            int rightIndex = childIndex + 1;
+            if (rightIndex < size && counts[heap[rightIndex]] < counts[child]) {
+                child = heap[childIndex = rightIndex];
+            }
+            if (count <= counts[child]) {
+                break;
+            }
+            heap[index] = child;
+            heapIndexes[child] = index;
+            index = childIndex;
+        }
+        heap[index] = slot;
+        heapIndexes[slot] = index;
+    }
+}
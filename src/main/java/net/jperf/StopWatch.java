@@ -16,7 +16,11 @@
  */
 package net.jperf;
 
+import net.jperf.helpers.JperfProperties;
+import net.jperf.helpers.MiscUtils;
+
 import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The StopWatch class is used to time code blocks in Perf4J. The general usage pattern is to create a StopWatch
@@ -35,6 +39,12 @@ import java.io.Serializable;
  * Note that a StopWatch is reusable. That is, you can call <tt>start()</tt> and <tt>stop()</tt> in succession
  * and the <tt>getElapsedTime()</tt> method will refer to the time since the most recent <tt>start()</tt> call.
  * <p/>
+ * The elapsed time is kept in milliseconds by default. Code blocks that take well under a millisecond, which would all
+ * be timed as 0 ms, can be timed in microseconds or nanoseconds instead by setting the {@link #setTimeUnit(TimeUnit)
+ * time unit} of the StopWatch, or for all StopWatches with the "net.jperf.timeUnit" property in jperf.properties or
+ * {@link #setDefaultTimeUnit(TimeUnit)}. The String form of such a StopWatch ends with an extra <tt>unit[us]</tt>
+ * field.
+ * <p/>
  * In general, most clients will find it simpler and cleaner to use the {@link LoggingStopWatch} class or one of its
  * subclasses in preference to this class.
  *
@@ -45,13 +55,23 @@ public class StopWatch implements Serializable, Cloneable {
 
 	public static final String DEFAULT_LOGGER_NAME = "net.jperf.TimingLogger";
 
-    private static final long NANOS_IN_A_MILLI = 1000000L;
+    /**
+     * The jperf.properties key used to configure the default time unit of StopWatches and statistics: "ms" (the
+     * default), "us" or "ns".
+     */
+    public static final String TIME_UNIT_CONFIG_KEY = "net.jperf.timeUnit";
+
+    static final long NANOS_IN_A_MILLI = 1000000L;
+
+    private static volatile TimeUnit defaultTimeUnit =
+            MiscUtils.parseTimeUnit(JperfProperties.INSTANCE.getProperty(TIME_UNIT_CONFIG_KEY, "ms"));
 
     private long startTime;
     private long nanoStartTime;
     private long elapsedTime;
     private String tag;
     private String message;
+    private TimeUnit timeUnit; //null in StopWatches serialized before time units were added, meaning milliseconds
 
     /**
      * Creates a StopWatch with a blank tag, no message and started at the instant of creation.
@@ -87,16 +107,33 @@ public class StopWatch implements Serializable, Cloneable {
      * not be called by third party code; it is intended to allow for deserialization of StopWatch logs.
      *
      * @param startTime   The start time in milliseconds
-     * @param elapsedTime The elapsed time in milliseconds
+     * @param elapsedTime The elapsed time in milliseconds, or -1 to create a running StopWatch, which is timed in the
+     *                    {@link #getDefaultTimeUnit() default time unit}
      * @param tag         The tag used to group timing logs of the same code block
      * @param message     Additional message text
      */
     public StopWatch(long startTime, long elapsedTime, String tag, String message) {
+        this(startTime, elapsedTime, tag, message, (elapsedTime == -1L) ? defaultTimeUnit : TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates a StopWatch with a specified start and elapsed time, tag, message and time unit. This constructor should
+     * normally not be called by third party code; it is intended to allow for deserialization of StopWatch logs.
+     *
+     * @param startTime   The start time in milliseconds
+     * @param elapsedTime The elapsed time in the specified time unit
+     * @param tag         The tag used to group timing logs of the same code block
+     * @param message     Additional message text
+     * @param timeUnit    The time unit of the elapsed time, one of NANOSECONDS, MICROSECONDS or MILLISECONDS
+     */
+    public StopWatch(long startTime, long elapsedTime, String tag, String message, TimeUnit timeUnit) {
+        MiscUtils.timeUnitSymbol(timeUnit); //checks that the unit is supported
         this.startTime = startTime;
         this.nanoStartTime = (elapsedTime == -1L) ? System.nanoTime() : -1L;
         this.elapsedTime = elapsedTime;
         this.tag = tag;
         this.message = message;
+        this.timeUnit = timeUnit;
     }
 
     // --- Bean Properties ---
@@ -109,17 +146,72 @@ public class StopWatch implements Serializable, Cloneable {
     public long getStartTime() { return startTime; }
 
     /**
-     * Gets the time in milliseconds between when this StopWatch was last started and stopped. Is <tt>stop()</tt> was
+     * Gets the time between when this StopWatch was last started and stopped. Is <tt>stop()</tt> was
      * not called, then the time returned is the time since the StopWatch was started.
      *
-     * @return The elapsed time in milliseconds.
+     * @return The elapsed time in the {@link #getTimeUnit() time unit} of this StopWatch, milliseconds by default.
      */
     public long getElapsedTime() {
         return (elapsedTime == -1L) ?
-               (System.nanoTime() - nanoStartTime) / NANOS_IN_A_MILLI :
+               getTimeUnit().convert(System.nanoTime() - nanoStartTime, TimeUnit.NANOSECONDS) :
                elapsedTime;
     }
 
+    /**
+     * Gets the elapsed time converted to the specified time unit. Converting to a coarser unit truncates the time.
+     *
+     * @param unit The time unit of the returned value.
+     * @return The elapsed time in the specified unit.
+     */
+    public long getElapsedTime(TimeUnit unit) {
+        return unit.convert(getElapsedTime(), getTimeUnit());
+    }
+
+    /**
+     * Gets the time unit in which the elapsed time of this StopWatch is measured.
+     *
+     * @return The time unit, one of NANOSECONDS, MICROSECONDS or MILLISECONDS.
+     */
+    public TimeUnit getTimeUnit() {
+        return (timeUnit == null) ? TimeUnit.MILLISECONDS : timeUnit;
+    }
+
+    /**
+     * Sets the time unit in which the elapsed time of this StopWatch is measured. This should normally be called before
+     * the StopWatch is stopped; the elapsed time of a stopped StopWatch is converted to the new unit.
+     *
+     * @param timeUnit The time unit, one of NANOSECONDS, MICROSECONDS or MILLISECONDS.
+     * @return this instance, for method chaining if desired
+     */
+    public StopWatch setTimeUnit(TimeUnit timeUnit) {
+        MiscUtils.timeUnitSymbol(timeUnit); //checks that the unit is supported
+        if (elapsedTime != -1L) {
+            elapsedTime = timeUnit.convert(elapsedTime, getTimeUnit());
+        }
+        this.timeUnit = timeUnit;
+        return this;
+    }
+
+    /**
+     * Gets the time unit of newly created, running StopWatches.
+     *
+     * @return The default time unit, milliseconds unless configured otherwise.
+     */
+    public static TimeUnit getDefaultTimeUnit() {
+        return defaultTimeUnit;
+    }
+
+    /**
+     * Sets the time unit of newly created, running StopWatches. StopWatches created with an explicit elapsed time are
+     * always in milliseconds unless another unit is passed to their constructor.
+     *
+     * @param timeUnit The time unit, one of NANOSECONDS, MICROSECONDS or MILLISECONDS.
+     */
+    public static void setDefaultTimeUnit(TimeUnit timeUnit) {
+        MiscUtils.timeUnitSymbol(timeUnit); //checks that the unit is supported
+        defaultTimeUnit = timeUnit;
+    }
+
     /**
      * Gets the tag used to group this StopWatch instance with other instances used to time the same code block.
      *
@@ -201,7 +293,7 @@ public class StopWatch implements Serializable, Cloneable {
      * @return this.toString(), which is a message suitable for logging
      */
     public String stop() {
-        elapsedTime = (System.nanoTime() - nanoStartTime) / NANOS_IN_A_MILLI;
+        elapsedTime = getTimeUnit().convert(System.nanoTime() - nanoStartTime, TimeUnit.NANOSECONDS);
         return this.toString();
     }
 
@@ -229,6 +321,43 @@ public class StopWatch implements Serializable, Cloneable {
         return stop();
     }
 
+    /**
+     * Stops this StopWatch like {@link #stop()}, but returns the elapsed time instead of this.toString(), so no
+     * String is built. This is useful where the message returned from stop() would just be thrown away, for example
+     * with a {@link LoggingStopWatch}, which only renders the StopWatch if it is actually logged when it is stopped
+     * with this method.
+     *
+     * @return The elapsed time, in the time unit of this StopWatch
+     */
+    public long stopTiming() {
+        elapsedTime = getTimeUnit().convert(System.nanoTime() - nanoStartTime, TimeUnit.NANOSECONDS);
+        return elapsedTime;
+    }
+
+    /**
+     * Identical to {@link #stopTiming()}, but also sets the grouping tag of this StopWatch.
+     *
+     * @param tag The grouping tag for this StopWatch
+     * @return The elapsed time, in the time unit of this StopWatch
+     */
+    public long stopTiming(String tag) {
+        setTag(tag);
+        return stopTiming();
+    }
+
+    /**
+     * Identical to {@link #stopTiming()}, but also sets the grouping tag and message of this StopWatch.
+     *
+     * @param tag     The grouping tag for this StopWatch
+     * @param message A descriptive message about the code being timed, may be null
+     * @return The elapsed time, in the time unit of this StopWatch
+     */
+    public long stopTiming(String tag, String message) {
+        setTag(tag);
+        setMessage(message);
+        return stopTiming();
+    }
+
     /**
      * The lap method is useful when using a single StopWatch to time multiple consecutive blocks. It calls stop()
      * and then immediately calls start(), e.g.:
@@ -280,10 +409,13 @@ public class StopWatch implements Serializable, Cloneable {
     
     public String toString() {
     	String message = getMessage();
+    	TimeUnit timeUnit = getTimeUnit();
+    	//the unit comes last, so that patterns matching the fields of earlier versions still match
     	return "start[" + getStartTime() +
         "] time[" + getElapsedTime() +
         "] tag[" + getTag() +
-        ((message == null) ? "]" : "] message[" + message + "]");
+        ((message == null) ? "]" : "] message[" + message + "]") +
+        ((timeUnit == TimeUnit.MILLISECONDS) ? "" : " unit[" + MiscUtils.timeUnitSymbol(timeUnit) + "]");
     }
 
     public StopWatch clone() {
@@ -319,6 +451,9 @@ public class StopWatch implements Serializable, Cloneable {
         if (tag != null ? !tag.equals(stopWatch.tag) : stopWatch.tag != null) {
             return false;
         }
+        if (getTimeUnit() != stopWatch.getTimeUnit()) {
+            return false;
+        }
 
         return true;
     }
@@ -329,6 +464,7 @@ public class StopWatch implements Serializable, Cloneable {
         result = 31 * result + (int) (elapsedTime ^ (elapsedTime >>> 32));
         result = 31 * result + (tag != null ? tag.hashCode() : 0);
         result = 31 * result + (message != null ? message.hashCode() : 0);
+        result = 31 * result + getTimeUnit().hashCode();
         return result;
     }
 }
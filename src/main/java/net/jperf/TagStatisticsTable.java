@@ -0,0 +1,357 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class is the aggregation-time representation of the statistics in a {@link GroupedTimingStatistics}. Adding a
+ * sample time for a tag costs one hash probe and a few primitive array updates: the tags are kept in an open
+ * addressing hash table with linear probing, and the statistics for each tag are kept in parallel primitive arrays
+ * indexed by the tag's slot, with the same running mean and variance that {@link TimingStatistics} keeps. Nothing is
+ * allocated for a sample unless it is the first one for a tag. Each tag String is stored once per table, and lookups
+ * compare the cached String hash codes and the references before falling back to String.equals.
+ * <p>
+ * When a tag budget is set, the table holds at most that many tags and uses a {@link SpaceSavingTagCounter} to decide
+ * which tag to evict. The statistics of evicted tags are accumulated in a single overflow TimingStatistics.
+ * <p>
+ * The table is unordered; the sorted TimingStatistics map is only built when the statistics are flushed or read.
+ * This class is not thread safe.
+ */
+class TagStatisticsTable {
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The tag budget, or 0 if the number of tags is not bounded.
+     */
+    private final int maxTags;
+    /**
+     * The tag under which evicted tags are accumulated.
+     */
+    private final String overflowTag;
+    /**
+     * The time unit of the sample times.
+     */
+    private final TimeUnit timeUnit;
+    /**
+     * The open addressing hash table. Each position holds the slot of a tag plus one, or 0 if the position is empty.
+     */
+    private int[] index;
+    /**
+     * The tag in each slot, along with its hash code.
+     */
+    private String[] tags;
+    private int[] hashes;
+    /**
+     * The statistics for each slot, as in TimingStatistics.
+     */
+    private int[] counts;
+    private double[] means;
+    private double[] runningQs;
+    private long[] mins;
+    private long[] maxes;
+    private TimingHistogram[] histograms;
+    /**
+     * The number of slots in use.
+     */
+    private int size;
+    /**
+     * The Space-Saving counters used to pick the tag to evict, or null if the number of tags is not bounded.
+     */
+    private SpaceSavingTagCounter tagCounter;
+    /**
+     * The statistics of the evicted tags, or null if no tag has been evicted.
+     */
+    private TimingStatistics overflowStatistics;
+    /**
+     * The number of times a tag has been evicted.
+     */
+    private int numEvictedTags;
+
+    /**
+     * Creates a new, empty table.
+     *
+     * @param maxTags     The tag budget, or 0 if the number of tags is not bounded.
+     * @param overflowTag The tag under which evicted tags are accumulated.
+     * @param timeUnit    The time unit of the sample times, which sets the range of the histograms.
+     */
+    TagStatisticsTable(int maxTags, String overflowTag, TimeUnit timeUnit) {
+        this.maxTags = maxTags;
+        this.overflowTag = overflowTag;
+        this.timeUnit = timeUnit;
+        int capacity = (maxTags > 0) ? Math.min(maxTags, INITIAL_CAPACITY) : INITIAL_CAPACITY;
+        this.index = new int[Integer.highestOneBit(capacity * 2 - 1) << 1];
+        this.tags = new String[capacity];
+        this.hashes = new int[capacity];
+        this.counts = new int[capacity];
+        this.means = new double[capacity];
+        this.runningQs = new double[capacity];
+        this.mins = new long[capacity];
+        this.maxes = new long[capacity];
+        this.histograms = new TimingHistogram[capacity];
+        if (maxTags > 0) {
+            this.tagCounter = new SpaceSavingTagCounter(maxTags);
+        }
+    }
+
+    /**
+     * Updates the statistics for a tag with a new sample time.
+     *
+     * @param tag         The tag, may not be null.
+     * @param elapsedTime The sample time.
+     */
+    void addSampleTime(String tag, long elapsedTime) {
+        int hash = tag.hashCode();
+        int slot = findSlot(tag, hash);
+        if (slot < 0) {
+            if (tagCounter != null && tag.equals(overflowTag)) {
+                getOrCreateOverflowStatistics().addSampleTime(elapsedTime, timeUnit);
+                return;
+            }
+            slot = newSlot(tag, hash);
+        } else if (tagCounter != null) {
+            tagCounter.increment(slot);
+        }
+
+        //this is the same arithmetic as TimingStatistics.addSampleTime, so the results are identical
+        int count = ++counts[slot];
+        double diffFromMean = elapsedTime - means[slot];
+        means[slot] = means[slot] + (diffFromMean / count);
+        runningQs[slot] = runningQs[slot] + (((count - 1) * Math.pow(diffFromMean, 2.0)) / count);
+        if (count == 1) {
+            mins[slot] = elapsedTime;
+            maxes[slot] = elapsedTime;
+        } else {
+            if (elapsedTime < mins[slot]) {
+                mins[slot] = elapsedTime;
+            }
+            if (elapsedTime > maxes[slot]) {
+                maxes[slot] = elapsedTime;
+            }
+        }
+
+        TimingHistogram histogram = histograms[slot];
+        if (histogram == null && TimingStatistics.getHistogramSignificantDigits() > 0) {
+            histograms[slot] = histogram = new TimingHistogram(
+                    TimingStatistics.getHistogramSignificantDigits(),
+                    TimingStatistics.getHistogramHighestTrackableValue(timeUnit));
+        }
+        if (histogram != null) {
+            histogram.recordValue(elapsedTime);
+        }
+    }
+
+    /**
+     * Returns the number of tags in the table, not counting the overflow tag.
+     *
+     * @return The number of tags.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns true if no sample time has been added since the table was created or cleared.
+     *
+     * @return Whether the table is empty.
+     */
+    boolean isEmpty() {
+        return size == 0 && overflowStatistics == null;
+    }
+
+    /**
+     * Gets the tag in a slot.
+     *
+     * @param slot The slot, between 0 and size() - 1.
+     * @return The tag.
+     */
+    String getTag(int slot) {
+        return tags[slot];
+    }
+
+    /**
+     * Creates a TimingStatistics for the tag in a slot. The histogram, if any, is handed over to the TimingStatistics,
+     * so this may only be called once per slot before the table is cleared.
+     *
+     * @param slot The slot, between 0 and size() - 1.
+     * @return The statistics of the tag.
+     */
+    TimingStatistics removeStatistics(int slot) {
+        TimingStatistics retVal = new TimingStatistics(means[slot], runningQs[slot], maxes[slot], mins[slot],
+                                                       counts[slot], histograms[slot]);
+        histograms[slot] = null;
+        return retVal;
+    }
+
+    /**
+     * Creates a TimingStatistics for the tag in a slot, leaving the table unchanged. The histogram, if any, is copied.
+     *
+     * @param slot The slot, between 0 and size() - 1.
+     * @return The statistics of the tag.
+     */
+    TimingStatistics getStatistics(int slot) {
+        return new TimingStatistics(means[slot], runningQs[slot], maxes[slot], mins[slot], counts[slot],
+                                    (histograms[slot] == null) ? null : histograms[slot].clone());
+    }
+
+    /**
+     * Gets the statistics of the evicted tags.
+     *
+     * @return The statistics, or null if no tag has been evicted.
+     */
+    TimingStatistics getOverflowStatistics() {
+        return overflowStatistics;
+    }
+
+    /**
+     * Gets the number of times a tag has been evicted because of the tag budget.
+     *
+     * @return The number of evicted tags.
+     */
+    int getNumEvictedTags() {
+        return numEvictedTags;
+    }
+
+    /**
+     * Removes all tags, keeping the allocated arrays so the table can be reused.
+     */
+    void clear() {
+        Arrays.fill(index, 0);
+        Arrays.fill(tags, 0, size, null);
+        Arrays.fill(histograms, 0, size, null);
+        size = 0;
+        if (tagCounter != null) {
+            tagCounter.clear();
+        }
+        overflowStatistics = null;
+        numEvictedTags = 0;
+    }
+
+    // --- Helper Methods ---
+
+    /**
+     * Helper method spreads the bits of a String hash code so that tags that differ only in their last characters
+     * don't cluster in the table.
+     */
+    private static int spread(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private int findSlot(String tag, int hash) {
+        int mask = index.length - 1;
+        for (int position = spread(hash) & mask; ; position = (position + 1) & mask) {
+            int slot = index[position] - 1;
+            if (slot < 0) {
+                return -1;
+            }
+            if (hashes[slot] == hash && (tags[slot] == tag || tags[slot].equals(tag))) {
+                return slot;
+            }
+        }
+    }
+
+    private int newSlot(String tag, int hash) {
+        int slot;
+        if (tagCounter != null && size == maxTags) {
+            //the table is full, so the new tag takes over the slot of the least frequent tag
+            slot = tagCounter.getMinSlot();
+            getOrCreateOverflowStatistics().merge(removeStatistics(slot));
+            numEvictedTags++;
+            removeFromIndex(slot);
+            tagCounter.increment(slot);
+        } else {
+            if (size == tags.length) {
+                grow();
+            }
+            slot = size++;
+            if (tagCounter != null) {
+                tagCounter.add(slot);
+            }
+        }
+
+        tags[slot] = tag;
+        hashes[slot] = hash;
+        counts[slot] = 0;
+        means[slot] = 0.0;
+        runningQs[slot] = 0.0;
+        addToIndex(slot);
+        return slot;
+    }
+
+    private void addToIndex(int slot) {
+        int mask = index.length - 1;
+        int position = spread(hashes[slot]) & mask;
+        while (index[position] != 0) {
+            position = (position + 1) & mask;
+        }
+        index[position] = slot + 1;
+    }
+
+    /**
+     * Helper method removes a slot from the hash table, shifting back any following entries of the same probe
+     * sequence so that lookups don't need tombstones.
+     */
+    private void removeFromIndex(int slot) {
+        int mask = index.length - 1;
+        int position = spread(hashes[slot]) & mask;
+        while (index[position] != slot + 1) {
+            position = (position + 1) & mask;
+        }
+
+        for (int next = (position + 1) & mask; index[next] != 0; next = (next + 1) & mask) {
+            int home = spread(hashes[index[next] - 1]) & mask;
+            //the entry at next can move to the hole if the hole is between its home position and next
+            if (((next - home) & mask) >= ((next - position) & mask)) {
+                index[position] = index[next];
+                position = next;
+            }
+        }
+        index[position] = 0;
+    }
+
+    private void grow() {
+        int capacity = tags.length * 2;
+        if (maxTags > 0) {
+            capacity = Math.min(capacity, maxTags);
+        }
+        tags = Arrays.copyOf(tags, capacity);
+        hashes = Arrays.copyOf(hashes, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+        means = Arrays.copyOf(means, capacity);
+        runningQs = Arrays.copyOf(runningQs, capacity);
+        mins = Arrays.copyOf(mins, capacity);
+        maxes = Arrays.copyOf(maxes, capacity);
+        histograms = Arrays.copyOf(histograms, capacity);
+
+        //keep the hash table at most half full
+        if (capacity * 2 > index.length) {
+            index = new int[Integer.highestOneBit(capacity * 2 - 1) << 1];
+            for (int slot = 0; slot < size; slot++) {
+                addToIndex(slot);
+            }
+        }
+    }
+
+    private TimingStatistics getOrCreateOverflowStatistics() {
+        if (overflowStatistics == null) {
+            overflowStatistics = new TimingStatistics();
+        }
+        return overflowStatistics;
+    }
+}
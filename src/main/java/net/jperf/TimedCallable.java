@@ -44,6 +44,18 @@ public class TimedCallable<V> implements Callable<V>, Serializable {
         this.stopWatch = stopWatch;
     }
 
+    /**
+     * Wraps the existing Callable in order to time its call method, reporting the execution time directly to a
+     * TimingRegistry with a {@link RegistryStopWatch} rather than logging it.
+     *
+     * @param task     The existing Callable whose call method is to be timed and executed. May not be null.
+     * @param tag      The tag of the StopWatch that times the call method.
+     * @param registry The TimingRegistry to which the execution time is reported. May not be null.
+     */
+    public TimedCallable(Callable<V> task, String tag, TimingRegistry registry) {
+        this(task, new RegistryStopWatch(tag, registry));
+    }
+
     /**
      * Gets the Callable task that is wrapped by this TimedCallable.
      *
@@ -70,7 +82,7 @@ public class TimedCallable<V> implements Callable<V>, Serializable {
             stopWatch.start();
             return wrappedTask.call();
         } finally {
-            stopWatch.stop();
+            stopWatch.stopTiming();
         }
     }
 }
@@ -43,6 +43,18 @@ public class TimedRunnable implements Runnable, Serializable {
         this.stopWatch = stopWatch;
     }
 
+    /**
+     * Wraps the existing Runnable in order to time its run method, reporting the execution time directly to a
+     * TimingRegistry with a {@link RegistryStopWatch} rather than logging it.
+     *
+     * @param task     The existing Runnable whose run method is to be timed and executed. May not be null.
+     * @param tag      The tag of the StopWatch that times the run method.
+     * @param registry The TimingRegistry to which the execution time is reported. May not be null.
+     */
+    public TimedRunnable(Runnable task, String tag, TimingRegistry registry) {
+        this(task, new RegistryStopWatch(tag, registry));
+    }
+
     /**
      * Gets the Runnable task that is wrapped by this TimedRunnable.
      *
@@ -69,7 +81,7 @@ public class TimedRunnable implements Runnable, Serializable {
             stopWatch.start();
             wrappedTask.run();
         } finally {
-            stopWatch.stop();
+            stopWatch.stopTiming();
         }
     }
 }
@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A TimingHistogram records the distribution of elapsed times so that percentiles can be calculated. It uses the
+ * log-linear bucketing scheme made popular by HdrHistogram: values are grouped into buckets covering successive
+ * powers of 2, and each bucket is split linearly into enough sub-buckets to keep the requested number of
+ * significant decimal digits. The relative error of any reported percentile is therefore bounded, regardless of
+ * whether the timed code takes 2 ms or 2 hours.
+ * <p>
+ * The histogram never holds more counts than are needed for the highest trackable value. The counts array starts
+ * small and grows as larger values are recorded, so the common case of fast operations uses little memory, and once
+ * the largest values have been seen recording does not allocate. Values larger than the highest trackable value are
+ * recorded as the highest trackable value.
+ * <p>
+ * This class is not thread safe.
+ */
+public class TimingHistogram implements Serializable, Cloneable {
+    private static final long serialVersionUID = -1383456206410563853L;
+
+    /**
+     * The number of significant decimal digits kept for recorded values, between 1 and 5.
+     */
+    private final int significantDigits;
+    /**
+     * The highest value, in milliseconds, that can be recorded without clamping.
+     */
+    private final long highestTrackableValue;
+
+    //these values are derived from significantDigits and highestTrackableValue
+    private final int subBucketHalfCountMagnitude;
+    private final int subBucketHalfCount;
+    private final long subBucketMask;
+    private final int leadingZeroCountBase;
+    private final int maxCountsLength;
+
+    private long[] counts;
+    private long totalCount;
+
+    // --- Constructors ---
+
+    /**
+     * Creates a new, empty histogram.
+     *
+     * @param significantDigits     The number of significant decimal digits to which values are kept, between 1
+     *                              and 5. For example, with 2 digits recorded values are accurate to within 1%.
+     * @param highestTrackableValue The highest value that will be tracked without clamping, must be at least 2.
+     */
+    public TimingHistogram(int significantDigits, long highestTrackableValue) {
+        if (significantDigits < 1 || significantDigits > 5) {
+            throw new IllegalArgumentException("significantDigits must be between 1 and 5: " + significantDigits);
+        }
+        if (highestTrackableValue < 2) {
+            throw new IllegalArgumentException("highestTrackableValue must be at least 2: " + highestTrackableValue);
+        }
+
+        this.significantDigits = significantDigits;
+        this.highestTrackableValue = highestTrackableValue;
+
+        long largestValueWithSingleUnitResolution = 2 * (long) Math.pow(10, significantDigits);
+        int subBucketCountMagnitude = (int) Math.ceil(Math.log(largestValueWithSingleUnitResolution) / Math.log(2));
+        subBucketHalfCountMagnitude = subBucketCountMagnitude - 1;
+        subBucketHalfCount = 1 << subBucketHalfCountMagnitude;
+        int subBucketCount = 1 << subBucketCountMagnitude;
+        subBucketMask = subBucketCount - 1;
+        leadingZeroCountBase = 64 - subBucketHalfCountMagnitude - 1;
+
+        maxCountsLength = countsIndex(highestTrackableValue) + 1;
+        counts = new long[Math.min(subBucketCount, maxCountsLength)];
+    }
+
+    // --- Utility Methods ---
+
+    /**
+     * Records a single value.
+     *
+     * @param value The value to record. Negative values are recorded as 0, and values above the highest trackable
+     *              value are recorded as the highest trackable value.
+     * @return this TimingHistogram
+     */
+    public TimingHistogram recordValue(long value) {
+        return recordValues(value, 1L);
+    }
+
+    /**
+     * Records the same value multiple times.
+     *
+     * @param value The value to record, clamped as in {@link #recordValue(long)}.
+     * @param count The number of times the value should be recorded.
+     * @return this TimingHistogram
+     */
+    public TimingHistogram recordValues(long value, long count) {
+        int index = countsIndex(Math.max(0L, Math.min(value, highestTrackableValue)));
+        if (index >= counts.length) {
+            growCounts(index + 1);
+        }
+        counts[index] += count;
+        totalCount += count;
+        return this;
+    }
+
+    /**
+     * Gets the value at the specified percentile. The returned value is the highest value that is equivalent (i.e.
+     * within the precision of this histogram) to the value below which the specified percentage of recorded values
+     * fall.
+     *
+     * @param percentile The percentile, between 0.0 and 100.0.
+     * @return The value at the percentile, or 0 if no values have been recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0L;
+        }
+
+        double requestedPercentile = Math.max(0.0, Math.min(percentile, 100.0));
+        long countAtPercentile = (long) Math.ceil((requestedPercentile / 100.0) * totalCount);
+        countAtPercentile = Math.max(countAtPercentile, 1L);
+
+        long cumulativeCount = 0;
+        for (int i = 0; i < counts.length; i++) {
+            cumulativeCount += counts[i];
+            if (cumulativeCount >= countAtPercentile) {
+                return highestEquivalentValue(valueFromIndex(i));
+            }
+        }
+        return highestTrackableValue;
+    }
+
+    /**
+     * Adds all of the values recorded in another histogram to this one. The other histogram must have been created
+     * with the same significant digits; if it has a higher highest trackable value, its larger values are clamped.
+     *
+     * @param other The histogram whose counts are added to this one, may not be null.
+     * @return this TimingHistogram
+     */
+    public TimingHistogram add(TimingHistogram other) {
+        if (other.significantDigits != significantDigits) {
+            throw new IllegalArgumentException("Cannot add histograms with different significant digits: "
+                                               + significantDigits + " and " + other.significantDigits);
+        }
+        for (int i = 0; i < other.counts.length; i++) {
+            if (other.counts[i] != 0) {
+                if (i < maxCountsLength) {
+                    if (i >= counts.length) {
+                        growCounts(i + 1);
+                    }
+                    counts[i] += other.counts[i];
+                    totalCount += other.counts[i];
+                } else {
+                    recordValues(highestTrackableValue, other.counts[i]);
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Compares the values recorded in this histogram with those recorded in another with a Mann-Whitney U test, the
+     * rank-sum test that doesn't assume the values are normally distributed. The test is computed from the counts
+     * alone: values in the same bucket are treated as ties, and U is approximated by a normal distribution with the
+     * variance corrected for ties, which is accurate for all but a handful of samples.
+     *
+     * @param other The histogram to compare with, which must have been created with the same significant digits.
+     * @return The standard score of U: positive if the values of this histogram tend to be larger than those of the
+     *         other one, negative if they tend to be smaller, and 0 if either histogram is empty.
+     */
+    public double getRankSumZScore(TimingHistogram other) {
+        if (other.significantDigits != significantDigits) {
+            throw new IllegalArgumentException("Cannot compare histograms with different significant digits: "
+                                               + significantDigits + " and " + other.significantDigits);
+        }
+        if (totalCount == 0 || other.totalCount == 0) {
+            return 0.0;
+        }
+
+        //u counts the pairs where the value of this histogram is larger, plus half the ties
+        double u = 0.0;
+        double tieCorrection = 0.0;
+        long otherCountBelow = 0L;
+        for (int i = 0; i < Math.max(counts.length, other.counts.length); i++) {
+            double count = (i < counts.length) ? counts[i] : 0L;
+            double otherCount = (i < other.counts.length) ? other.counts[i] : 0L;
+            u += count * (otherCountBelow + otherCount / 2.0);
+            double ties = count + otherCount;
+            tieCorrection += ties * ties * ties - ties;
+            otherCountBelow += (long) otherCount;
+        }
+
+        double n1 = totalCount;
+        double n2 = other.totalCount;
+        double n = n1 + n2;
+        double variance = (n1 * n2 / 12.0) * ((n + 1.0) - tieCorrection / (n * (n - 1.0)));
+        return (variance > 0.0) ? (u - n1 * n2 / 2.0) / Math.sqrt(variance) : 0.0;
+    }
+
+    /**
+     * Removes all recorded values, keeping the memory already allocated.
+     */
+    public void reset() {
+        Arrays.fill(counts, 0L);
+        totalCount = 0;
+    }
+
+    // --- Bean Properties ---
+
+    public int getSignificantDigits() {
+        return significantDigits;
+    }
+
+    public long getHighestTrackableValue() {
+        return highestTrackableValue;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    // --- Helper Methods ---
+
+    private int countsIndex(long value) {
+        int bucketIndex = leadingZeroCountBase - Long.numberOfLeadingZeros(value | subBucketMask);
+        int subBucketIndex = (int) (value >>> bucketIndex);
+        return ((bucketIndex + 1) << subBucketHalfCountMagnitude) + (subBucketIndex - subBucketHalfCount);
+    }
+
+    private long valueFromIndex(int index) {
+        int bucketIndex = (index >> subBucketHalfCountMagnitude) - 1;
+        int subBucketIndex = (index & (subBucketHalfCount - 1)) + subBucketHalfCount;
+        if (bucketIndex < 0) {
+            subBucketIndex -= subBucketHalfCount;
+            bucketIndex = 0;
+        }
+        return ((long) subBucketIndex) << bucketIndex;
+    }
+
+    private long highestEquivalentValue(long value) {
+        int bucketIndex = leadingZeroCountBase - Long.numberOfLeadingZeros(value | subBucketMask);
+        return value + (1L << bucketIndex) - 1;
+    }
+
+    private void growCounts(int minimumLength) {
+        int newLength = Math.min(Math.max(minimumLength, counts.length * 2), maxCountsLength);
+        counts = Arrays.copyOf(counts, newLength);
+    }
+
+    // --- Object Methods ---
+
+    public String toString() {
+        return "p50[" + getValueAtPercentile(50.0) +
+               "] p90[" + getValueAtPercentile(90.0) +
+               "] p99[" + getValueAtPercentile(99.0) +
+               "] p999[" + getValueAtPercentile(99.9) +
+               "] count[" + getTotalCount() + "]";
+    }
+
+    public TimingHistogram clone() {
+        try {
+            TimingHistogram retVal = (TimingHistogram) super.clone();
+            retVal.counts = counts.clone();
+            return retVal;
+        } catch (CloneNotSupportedException cnse) {
+            throw new Error("Unexpected CloneNotSupportedException");
+        }
+    }
+
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TimingHistogram)) {
+            return false;
+        }
+
+        TimingHistogram that = (TimingHistogram) o;
+        if (significantDigits != that.significantDigits || totalCount != that.totalCount) {
+            return false;
+        }
+        //arrays may differ in length depending on growth, so compare the shared prefix and then the tails
+        int commonLength = Math.min(counts.length, that.counts.length);
+        for (int i = 0; i < commonLength; i++) {
+            if (counts[i] != that.counts[i]) {
+                return false;
+            }
+        }
+        long[] longer = (counts.length > that.counts.length) ? counts : that.counts;
+        for (int i = commonLength; i < longer.length; i++) {
+            if (longer[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int hashCode() {
+        int result = significantDigits;
+        result = 31 * result + (int) (totalCount ^ (totalCount >>> 32));
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] != 0) {
+                result = 31 * result + i;
+                result = 31 * result + (int) (counts[i] ^ (counts[i] >>> 32));
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A TimingRecordSink receives the timing data of a stopped {@link TimingScope} as primitive values, without a
+ * StopWatch or String being created. The {@link net.jperf.helpers.GenericAsyncCoalescingStatisticsAppender} and the
+ * log4j and logback AsyncCoalescingStatisticsAppenders are TimingRecordSinks that aggregate the records along with
+ * the StopWatches logged to them.
+ * <p>
+ * Each record carries the time unit of its elapsed time, so that it isn't truncated before it is aggregated: a
+ * TimingScope records the nanoseconds it measured, which the aggregators convert to the time unit of their
+ * statistics.
+ * <p>
+ * Implementations are called from the timed threads, so they must be thread safe, and they should not allocate any
+ * objects when a record is accepted.
+ */
+public interface TimingRecordSink {
+    /**
+     * Records the timing data of a timed code block.
+     *
+     * @param tag         The grouping tag of the timed block.
+     * @param startTime   The start time of the block, in milliseconds since the epoch.
+     * @param elapsedTime The elapsed time of the block, in the specified time unit.
+     * @param timeUnit    The time unit of the elapsed time, one of NANOSECONDS, MICROSECONDS or MILLISECONDS.
+     */
+    void record(String tag, long startTime, long elapsedTime, TimeUnit timeUnit);
+}
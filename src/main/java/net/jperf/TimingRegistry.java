@@ -0,0 +1,352 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf;
+
+import net.jperf.chart.StatisticsChartGenerator;
+import net.jperf.helpers.GenericAsyncCoalescingStatisticsAppender;
+import net.jperf.helpers.GenericAsyncCoalescingStatisticsAppender.GroupedTimingStatisticsHandler;
+import net.jperf.helpers.GenericAsyncCoalescingStatisticsAppender.RollupStatisticsHandler;
+import net.jperf.helpers.GroupedTimingStatisticsFormatter;
+import net.jperf.helpers.JperfProperties;
+import net.jperf.helpers.StatisticsExposingMBean;
+
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A TimingRegistry aggregates timed code blocks into GroupedTimingStatistics in-process, without going through a
+ * logging framework. StopWatches are reported to it with {@link #record(StopWatch)}, or by using a
+ * {@link RegistryStopWatch}, which the AOP aspects in net.jperf.aop and the {@link TimedCallable} and
+ * {@link TimedRunnable} wrappers can also use. A registry is a {@link TimingRecordSink} too, so the scopes of a
+ * {@link TimingScopePool} created with it record without allocating. For example:
+ * <pre>
+ * TimingRegistry registry = TimingRegistry.getRegistry();
+ * registry.addConsumer(TimingRegistry.newMBeanConsumer(mBean));
+ * ...
+ * StopWatch stopWatch = new RegistryStopWatch("codeBlock", registry);
+ * ...code being timed...
+ * stopWatch.stop();
+ * </pre>
+ * The aggregation is done by a {@link GenericAsyncCoalescingStatisticsAppender}, so recording never blocks: the
+ * StopWatch is queued and grouped into time slices on a separate thread, exactly as the
+ * AsyncCoalescingStatisticsAppenders do for logged StopWatches. The statistics of each time slice are passed to
+ * every consumer added to the registry, such as the JMX {@link StatisticsExposingMBean}, a
+ * {@link StatisticsChartGenerator}, a {@link GroupedTimingStatisticsFormatter} writing to a stream, or any other
+ * GroupedTimingStatisticsHandler, for example one that logs the statistics to the appenders of a logging framework.
+ * Consumers that are {@link RollupStatisticsHandler}s are also passed the rollup statistics.
+ * <p>
+ * Registries obtained from {@link #getRegistry(String)} are shared by name, like loggers, and are started when they
+ * are first obtained, with the time slice given by the {@link #TIME_SLICE_CONFIG_KEY} property. Other registries are
+ * created with the constructor and must be started explicitly. The aggregation options are set on the
+ * {@link #getAggregator() aggregator} and take effect when the registry is next started.
+ */
+public class TimingRegistry implements TimingRecordSink {
+    /**
+     * The name of the default registry, the same as the default logger name of StopWatches.
+     */
+    public static final String DEFAULT_REGISTRY_NAME = StopWatch.DEFAULT_LOGGER_NAME;
+    /**
+     * The property in jperf.properties giving the time slice of the registries obtained from
+     * {@link #getRegistry(String)}, in milliseconds. Defaults to 30000.
+     */
+    public static final String TIME_SLICE_CONFIG_KEY = "net.jperf.registry.timeSlice";
+
+    /**
+     * The registries obtained from getRegistry, by name.
+     */
+    private static final ConcurrentMap<String, TimingRegistry> registries =
+            new ConcurrentHashMap<String, TimingRegistry>();
+
+    private final String name;
+    private final GenericAsyncCoalescingStatisticsAppender aggregator = new GenericAsyncCoalescingStatisticsAppender();
+    private final List<GroupedTimingStatisticsHandler> consumers =
+            new CopyOnWriteArrayList<GroupedTimingStatisticsHandler>();
+    private final Publisher publisher = new Publisher();
+    private volatile boolean started;
+
+    /**
+     * Creates a new, unstarted TimingRegistry that isn't shared by name.
+     *
+     * @param name The name of the registry, used to name its aggregating thread.
+     */
+    public TimingRegistry(String name) {
+        this.name = name;
+        aggregator.setName(name);
+    }
+
+    /**
+     * Gets the default registry, which is started the first time it is obtained.
+     *
+     * @return The registry named {@link #DEFAULT_REGISTRY_NAME}.
+     */
+    public static TimingRegistry getRegistry() {
+        return getRegistry(DEFAULT_REGISTRY_NAME);
+    }
+
+    /**
+     * Gets the registry with the specified name, creating and starting it if it doesn't exist yet.
+     *
+     * @param name The name of the registry.
+     * @return The registry, which is the same instance for every call with the same name.
+     */
+    public static TimingRegistry getRegistry(String name) {
+        TimingRegistry registry = registries.get(name);
+        if (registry == null) {
+            TimingRegistry newRegistry = new TimingRegistry(name);
+            newRegistry.getAggregator().setTimeSlice(
+                    Long.parseLong(JperfProperties.INSTANCE.getProperty(TIME_SLICE_CONFIG_KEY, "30000")));
+            registry = registries.putIfAbsent(name, newRegistry);
+            if (registry == null) {
+                registry = newRegistry;
+                registry.start();
+            }
+        }
+        return registry;
+    }
+
+    // --- Bean Properties ---
+
+    /**
+     * Gets the name of this registry.
+     *
+     * @return The name of this registry.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the aggregator that groups the records of this registry into time slices. Its options, such as the
+     * TimeSlice, MaxTags, RollupTimeSlices and QueueSize, may be changed while the registry is stopped; they take
+     * effect when it is next started. The aggregator must not be started or stopped directly.
+     *
+     * @return The aggregator of this registry.
+     */
+    public GenericAsyncCoalescingStatisticsAppender getAggregator() {
+        return aggregator;
+    }
+
+    /**
+     * Gets whether this registry is currently aggregating records.
+     *
+     * @return true if the registry has been started and not stopped since.
+     */
+    public boolean isStarted() {
+        return started;
+    }
+
+    /**
+     * Gets the number of records discarded because the queue of the aggregator was full, since this registry was
+     * last started.
+     *
+     * @return The number of discarded records.
+     */
+    public int getNumDiscardedRecords() {
+        return aggregator.getNumDiscardedMessages();
+    }
+
+    // --- Consumers ---
+
+    /**
+     * Adds a consumer that is passed the statistics of each time slice, and its error method is called when records
+     * are discarded. Consumers may be added and removed at any time.
+     *
+     * @param consumer The consumer to add, may not be null.
+     * @return this TimingRegistry.
+     */
+    public TimingRegistry addConsumer(GroupedTimingStatisticsHandler consumer) {
+        if (consumer == null) {
+            throw new IllegalArgumentException("The consumer may not be null");
+        }
+        consumers.add(consumer);
+        return this;
+    }
+
+    /**
+     * Removes a consumer added with {@link #addConsumer}.
+     *
+     * @param consumer The consumer to remove.
+     * @return true if the consumer had been added.
+     */
+    public boolean removeConsumer(GroupedTimingStatisticsHandler consumer) {
+        return consumers.remove(consumer);
+    }
+
+    /**
+     * Gets the consumers of this registry.
+     *
+     * @return The current consumers, as a list that can't be modified.
+     */
+    public List<GroupedTimingStatisticsHandler> getConsumers() {
+        return Collections.unmodifiableList(consumers);
+    }
+
+    /**
+     * Creates a consumer that updates the attributes of a StatisticsExposingMBean with the statistics of each time
+     * slice. The MBean must be registered with an MBeanServer separately.
+     *
+     * @param mBean The MBean to update.
+     * @return The new consumer.
+     */
+    public static GroupedTimingStatisticsHandler newMBeanConsumer(final StatisticsExposingMBean mBean) {
+        return new ConsumerAdapter() {
+            public void handle(GroupedTimingStatistics statistics) {
+                mBean.updateCurrentTimingStatistics(statistics);
+            }
+        };
+    }
+
+    /**
+     * Creates a consumer that appends the statistics of each time slice to the data of a chart.
+     *
+     * @param chartGenerator The chart generator to append the statistics to.
+     * @return The new consumer.
+     */
+    public static GroupedTimingStatisticsHandler newChartConsumer(final StatisticsChartGenerator chartGenerator) {
+        return new ConsumerAdapter() {
+            public void handle(GroupedTimingStatistics statistics) {
+                chartGenerator.appendData(statistics);
+            }
+        };
+    }
+
+    /**
+     * Creates a consumer that formats the statistics of each time slice and prints them to a stream.
+     *
+     * @param formatter The formatter of the statistics, such as a GroupedTimingStatisticsCsvFormatter.
+     * @param out       The stream to which the formatted statistics are printed.
+     * @return The new consumer.
+     */
+    public static GroupedTimingStatisticsHandler newFormattingConsumer(final GroupedTimingStatisticsFormatter formatter,
+                                                                       final PrintStream out) {
+        return new ConsumerAdapter() {
+            public void handle(GroupedTimingStatistics statistics) {
+                out.print(formatter.format(statistics));
+                out.flush();
+            }
+        };
+    }
+
+    // --- Lifecycle Methods ---
+
+    /**
+     * Starts aggregating records with the current options of the aggregator. Starting a registry that is already
+     * started restarts it.
+     *
+     * @return this TimingRegistry.
+     */
+    public synchronized TimingRegistry start() {
+        if (started) {
+            stop();
+        }
+        aggregator.start(publisher);
+        started = true;
+        return this;
+    }
+
+    /**
+     * Stops aggregating, passing the statistics of the last, partial time slice to the consumers. Records are ignored
+     * while the registry is stopped.
+     */
+    public synchronized void stop() {
+        if (started) {
+            started = false;
+            aggregator.stop();
+        }
+    }
+
+    // --- Recording Methods ---
+
+    /**
+     * Records a stopped StopWatch. A copy of the StopWatch is queued, so it may be restarted once this method
+     * returns. The StopWatch is ignored if the registry isn't started.
+     *
+     * @param stopWatch The StopWatch to record, may not be null.
+     */
+    public void record(StopWatch stopWatch) {
+        if (started) {
+            aggregator.append(stopWatch);
+        }
+    }
+
+    /**
+     * Records a timed block without creating a StopWatch. Nothing is allocated unless the record has to be discarded
+     * because the queue is full. The record is ignored if the registry isn't started. The elapsed time is converted to
+     * the time unit of the aggregated statistics, so it may be given in a finer unit than theirs.
+     *
+     * @param tag         The grouping tag of the timed block.
+     * @param startTime   The start time of the block, in milliseconds since the epoch.
+     * @param elapsedTime The elapsed time of the block, in the specified time unit.
+     * @param timeUnit    The time unit of the elapsed time, one of NANOSECONDS, MICROSECONDS or MILLISECONDS.
+     */
+    public void record(String tag, long startTime, long elapsedTime, TimeUnit timeUnit) {
+        if (started) {
+            aggregator.record(tag, startTime, elapsedTime, timeUnit);
+        }
+    }
+
+    public String toString() {
+        return "TimingRegistry[name=" + name + ", started=" + started + ", consumers=" + consumers.size() + "]";
+    }
+
+    // --- Support Classes ---
+
+    /**
+     * Base class of the consumers created by the factory methods, which ignore errors.
+     */
+    private abstract static class ConsumerAdapter implements GroupedTimingStatisticsHandler {
+        public void error(String errorMessage) { }
+    }
+
+    /**
+     * The handler of the aggregator, which passes the statistics and errors on to each consumer.
+     */
+    private class Publisher implements RollupStatisticsHandler {
+        public void handle(GroupedTimingStatistics statistics) {
+            for (GroupedTimingStatisticsHandler consumer : consumers) {
+                try {
+                    consumer.handle(statistics);
+                } catch (Exception e) {
+                    consumer.error("Error passing statistics to the consumer: " + e.getMessage());
+                }
+            }
+        }
+
+        public void handleRollup(GroupedTimingStatistics statistics, long rollupTimeSlice) {
+            for (GroupedTimingStatisticsHandler consumer : consumers) {
+                if (consumer instanceof RollupStatisticsHandler) {
+                    try {
+                        ((RollupStatisticsHandler) consumer).handleRollup(statistics, rollupTimeSlice);
+                    } catch (Exception e) {
+                        consumer.error("Error passing rollup statistics to the consumer: " + e.getMessage());
+                    }
+                }
+            }
+        }
+
+        public void error(String errorMessage) {
+            for (GroupedTimingStatisticsHandler consumer : consumers) {
+                consumer.error(errorMessage);
+            }
+        }
+    }
+}
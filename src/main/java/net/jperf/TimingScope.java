@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf;
+
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A TimingScope times a single code block, like a StopWatch, but it is owned by a {@link TimingScopePool} and reused
+ * once it is stopped, so timing a block doesn't allocate any objects. Scopes are obtained from
+ * {@link TimingScopePool#start(String)}; a reference to a scope must not be kept once it has been stopped, as it
+ * may already be timing another block.
+ * <p>
+ * A TimingScope is confined to the thread that started it. Its timing uses the same clocks as StopWatch: the start
+ * time is taken from System.currentTimeMillis() and the elapsed time is measured with System.nanoTime(). The elapsed
+ * time is passed to the TimingRecordSink in nanoseconds, so the sink isn't limited to millisecond precision.
+ */
+public final class TimingScope implements Closeable {
+    private final TimingScopePool.ScopeStack stack;
+    private final TimingRecordSink sink;
+    private String tag;
+    private long startTime;
+    private long nanoStartTime;
+    private long timeThreshold;
+    private boolean running;
+
+    TimingScope(TimingScopePool.ScopeStack stack, TimingRecordSink sink) {
+        this.stack = stack;
+        this.sink = sink;
+    }
+
+    // --- Bean Properties ---
+
+    /**
+     * Gets the grouping tag of the timed block.
+     *
+     * @return The tag this scope was started with, or null once it has been stopped.
+     */
+    public String getTag() {
+        return tag;
+    }
+
+    /**
+     * Gets the time this scope was started.
+     *
+     * @return The start time, in milliseconds since the epoch.
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Gets whether this scope is currently timing a block.
+     *
+     * @return true if this scope has been started and not yet stopped.
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    // --- Start/Stop Methods ---
+
+    /**
+     * Stops timing the block, passes it to the TimingRecordSink of the pool if its elapsed time reaches the time
+     * threshold, and returns this scope to the pool. Calling stop on a scope that was already stopped has no effect.
+     *
+     * @return The elapsed time, in milliseconds, or -1 if this scope was already stopped.
+     * @throws IllegalStateException if this scope isn't stopped by the thread that started it, or if a scope started
+     *                               after it is still running.
+     */
+    public long stop() {
+        if (!running) {
+            return -1L;
+        }
+        long elapsedNanos = System.nanoTime() - nanoStartTime;
+        long elapsedTime = elapsedNanos / StopWatch.NANOS_IN_A_MILLI;
+        stack.pop(this);
+        running = false;
+        String tag = this.tag;
+        //the pooled scope must not hold on to the tag once it's stopped
+        this.tag = null;
+        if (elapsedTime >= timeThreshold) {
+            sink.record(tag, startTime, elapsedNanos, TimeUnit.NANOSECONDS);
+        }
+        return elapsedTime;
+    }
+
+    /**
+     * Identical to {@link #stop()}, so that scopes can be used in a try-with-resources statement.
+     */
+    public void close() {
+        stop();
+    }
+
+    public String toString() {
+        return "TimingScope[tag=" + tag + ", running=" + running + "]";
+    }
+
+    // --- Helper Methods ---
+
+    TimingScope start(String tag, long timeThreshold) {
+        this.tag = tag;
+        this.timeThreshold = timeThreshold;
+        this.running = true;
+        this.startTime = System.currentTimeMillis();
+        this.nanoStartTime = System.nanoTime();
+        return this;
+    }
+}
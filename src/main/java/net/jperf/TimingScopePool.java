@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf;
+
+/**
+ * A TimingScopePool hands out reusable {@link TimingScope}s for timing code on hot paths without allocating any
+ * objects. Each thread has its own stack of preallocated scopes, so starting and stopping a scope never synchronizes
+ * with other threads; when a scope is stopped its timing data is passed as primitive values to the
+ * {@link TimingRecordSink} of the pool, and the scope is returned to the thread's stack to be reused. For example:
+ * <pre>
+ * TimingScopePool timing = new TimingScopePool(appender);
+ * ...
+ * TimingScope scope = timing.start("codeBlock");
+ * try {
+ *     ...code being timed...
+ * } finally {
+ *     scope.stop();
+ * }
+ * </pre>
+ * TimingScope implements Closeable, so on Java 7 and later it may also be used in a try-with-resources statement.
+ * <p>
+ * Scopes may be nested, but they must be stopped by the thread that started them, in the reverse order they were
+ * started. New scopes are only allocated the first time a thread starts one, or nests them deeper than it has before.
+ */
+public class TimingScopePool {
+    /**
+     * The number of scopes initially preallocated for each thread.
+     */
+    private static final int INITIAL_DEPTH = 8;
+
+    private final TimingRecordSink sink;
+    private final long timeThreshold;
+    /**
+     * The stack of scopes of each thread.
+     */
+    private final ThreadLocal<ScopeStack> scopeStacks = new ThreadLocal<ScopeStack>() {
+        protected ScopeStack initialValue() {
+            return new ScopeStack();
+        }
+    };
+
+    /**
+     * Creates a TimingScopePool whose scopes pass every timed block to the sink.
+     *
+     * @param sink The sink that receives the timing data of stopped scopes, may not be null.
+     */
+    public TimingScopePool(TimingRecordSink sink) {
+        this(sink, 0L);
+    }
+
+    /**
+     * Creates a TimingScopePool whose scopes only pass blocks that take at least timeThreshold milliseconds to the
+     * sink, like a {@link LoggingStopWatch} with a time threshold.
+     *
+     * @param sink          The sink that receives the timing data of stopped scopes, may not be null.
+     * @param timeThreshold The default time threshold of the scopes, in milliseconds.
+     */
+    public TimingScopePool(TimingRecordSink sink, long timeThreshold) {
+        if (sink == null) {
+            throw new IllegalArgumentException("The TimingRecordSink may not be null");
+        }
+        this.sink = sink;
+        this.timeThreshold = timeThreshold;
+    }
+
+    /**
+     * Gets the sink that receives the timing data of stopped scopes.
+     *
+     * @return The TimingRecordSink of this pool.
+     */
+    public TimingRecordSink getSink() {
+        return sink;
+    }
+
+    /**
+     * Gets the default time threshold of the scopes of this pool.
+     *
+     * @return The time threshold, in milliseconds. Blocks that take less time are not passed to the sink.
+     */
+    public long getTimeThreshold() {
+        return timeThreshold;
+    }
+
+    /**
+     * Starts timing a code block with the default time threshold of this pool.
+     *
+     * @param tag The grouping tag of the timed block.
+     * @return The started scope, which must be stopped by the calling thread.
+     */
+    public TimingScope start(String tag) {
+        return scopeStacks.get().push().start(tag, timeThreshold);
+    }
+
+    /**
+     * Starts timing a code block with the specified time threshold.
+     *
+     * @param tag           The grouping tag of the timed block.
+     * @param timeThreshold The time threshold, in milliseconds. If the block takes less time it is not passed to the
+     *                      sink.
+     * @return The started scope, which must be stopped by the calling thread.
+     */
+    public TimingScope start(String tag, long timeThreshold) {
+        return scopeStacks.get().push().start(tag, timeThreshold);
+    }
+
+    // --- Support Classes ---
+    /**
+     * The preallocated scopes of a single thread. Scopes below depth are started, the others are free.
+     */
+    final class ScopeStack {
+        private final Thread owner = Thread.currentThread();
+        private TimingScope[] scopes = new TimingScope[INITIAL_DEPTH];
+        private int depth = 0;
+
+        ScopeStack() {
+            for (int i = 0; i < scopes.length; i++) {
+                scopes[i] = new TimingScope(this, sink);
+            }
+        }
+
+        TimingScope push() {
+            if (depth == scopes.length) {
+                TimingScope[] grownScopes = new TimingScope[scopes.length * 2];
+                System.arraycopy(scopes, 0, grownScopes, 0, scopes.length);
+                for (int i = scopes.length; i < grownScopes.length; i++) {
+                    grownScopes[i] = new TimingScope(this, sink);
+                }
+                scopes = grownScopes;
+            }
+            return scopes[depth++];
+        }
+
+        void pop(TimingScope scope) {
+            if (Thread.currentThread() != owner) {
+                throw new IllegalStateException("A TimingScope must be stopped by the thread that started it");
+            }
+            if (depth == 0 || scopes[depth - 1] != scope) {
+                throw new IllegalStateException("TimingScopes must be stopped in the reverse order they were started");
+            }
+            depth--;
+        }
+    }
+}
@@ -16,11 +16,28 @@
  */
 package net.jperf;
 
+import net.jperf.helpers.JperfProperties;
+
 import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
 
 /**
  * TimingStatistics represent a set of statistical measures over a set of timing data, such as a collection of
  * StopWatch instances.
+ * <p>
+ * In addition to the mean, standard deviation, min, max and count, TimingStatistics built up with
+ * {@link #addSampleTime(long)} keep a {@link TimingHistogram} of the sample times so that percentiles such as the
+ * median or the 99th percentile can be reported. The histogram precision and range are configured with the
+ * "net.jperf.histogram.significantDigits" and "net.jperf.histogram.highestTrackableValue" properties in
+ * jperf.properties, or with {@link #setHistogramSignificantDigits(int)} and
+ * {@link #setHistogramHighestTrackableValue(long)}. Setting the significant digits to 0 disables the histogram.
+ * <p>
+ * TimingStatistics don't have a time unit of their own: the sample times are in the time unit of the
+ * {@link GroupedTimingStatistics#getTimeUnit() GroupedTimingStatistics} they belong to, milliseconds by default.
+ * <p>
+ * The exact values of some percentiles, calculated from every sample time by an
+ * {@link net.jperf.helpers.ExactPercentileCollector}, may also be set on TimingStatistics, so that the approximate
+ * percentiles from the histogram can be checked against them.
  *
  * @author Alex Devine
  */
@@ -31,6 +48,25 @@ public class TimingStatistics implements Serializable, Cloneable {
     private long max;
     private long min;
     private int count;
+    private TimingHistogram histogram; //created on the first sample when histograms are enabled
+    private double[] exactPercentiles; //the percentiles whose exact values are known, may be null
+    private long[] exactPercentileValues;
+
+    /**
+     * The jperf.properties key used to configure the default histogram significant digits.
+     */
+    public static final String HISTOGRAM_SIGNIFICANT_DIGITS_CONFIG_KEY = "net.jperf.histogram.significantDigits";
+    /**
+     * The jperf.properties key used to configure the default histogram highest trackable value, in milliseconds.
+     */
+    public static final String HISTOGRAM_HIGHEST_TRACKABLE_VALUE_CONFIG_KEY =
+            "net.jperf.histogram.highestTrackableValue";
+
+    private static volatile int histogramSignificantDigits =
+            Integer.parseInt(JperfProperties.INSTANCE.getProperty(HISTOGRAM_SIGNIFICANT_DIGITS_CONFIG_KEY, "2"));
+    private static volatile long histogramHighestTrackableValue =
+            Long.parseLong(JperfProperties.INSTANCE.getProperty(HISTOGRAM_HIGHEST_TRACKABLE_VALUE_CONFIG_KEY,
+                                                                "3600000"));
 
     // --- Constructors ---
     /**
@@ -41,10 +77,12 @@ public class TimingStatistics implements Serializable, Cloneable {
     /**
      * Creates a TimingStatistics object with the specified data.
      *
-     * @param mean              The mean execution time, in ms, of the underlying time records.
-     * @param standardDeviation The standard deviation, in ms, of the underlying time records.
-     * @param max               The maximum value in ms of the logged execution times.
-     * @param min               The minimum value in ms of the logged execution times.
+     * @param mean              The mean execution time of the underlying time records, in the time unit of the
+     *                          statistics.
+     * @param standardDeviation The standard deviation of the underlying time records, in the time unit of the
+     *                          statistics.
+     * @param max               The maximum value of the logged execution times, in the time unit of the statistics.
+     * @param min               The minimum value of the logged execution times, in the time unit of the statistics.
      * @param count             The total number of executions that were timed.
      */
     public TimingStatistics(double mean, double standardDeviation, long max, long min, int count) {
@@ -55,6 +93,26 @@ public class TimingStatistics implements Serializable, Cloneable {
         this.count = count;
     }
 
+    /**
+     * Creates a TimingStatistics object from the running values kept by {@link TagStatisticsTable}, or calculated
+     * from its striped cells by {@link ConcurrentTimingStatistics#getSnapshot()}.
+     *
+     * @param mean      The mean execution time.
+     * @param runningQ  The running sum of squared differences from the mean.
+     * @param max       The maximum execution time.
+     * @param min       The minimum execution time.
+     * @param count     The number of executions.
+     * @param histogram The histogram of execution times, may be null. It is not copied.
+     */
+    TimingStatistics(double mean, double runningQ, long max, long min, int count, TimingHistogram histogram) {
+        this.mean = mean;
+        this.runningQ = runningQ;
+        this.max = max;
+        this.min = min;
+        this.count = count;
+        this.histogram = histogram;
+    }
+
     // --- Utility Methods ---
     /**
      * This method updates the calculated statistics with a new logged execution time.
@@ -63,6 +121,18 @@ public class TimingStatistics implements Serializable, Cloneable {
      * @return this TimingStatistics instance
      */
     public TimingStatistics addSampleTime(long elapsedTime) {
+        return addSampleTime(elapsedTime, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Updates the statistics with a new execution time in the specified unit, which sets the range of the histogram
+     * if it is created by this call.
+     *
+     * @param elapsedTime The elapsed time being used to update the statistics.
+     * @param timeUnit    The time unit of the elapsed time.
+     * @return this TimingStatistics instance
+     */
+    TimingStatistics addSampleTime(long elapsedTime, TimeUnit timeUnit) {
         count++;
 
         double diffFromMean = elapsedTime - mean;
@@ -83,9 +153,108 @@ public class TimingStatistics implements Serializable, Cloneable {
             }
         }
 
+        if (histogram == null && histogramSignificantDigits > 0) {
+            histogram = new TimingHistogram(histogramSignificantDigits, getHistogramHighestTrackableValue(timeUnit));
+        }
+        if (histogram != null) {
+            histogram.recordValue(elapsedTime);
+        }
+
         return this;
     }
 
+    /**
+     * Merges the statistics from another TimingStatistics instance into this one. The result is the same (up to
+     * floating point rounding) as if every sample added to the other instance had also been added to this one, so
+     * partial statistics calculated on different threads, in adjacent time windows or in different JVMs can be
+     * combined. The mean and standard deviation are combined using the parallel variance algorithm of Chan et al.
+     * <p>
+     * The merged instance only has a histogram if every non-empty input had one.
+     *
+     * @param other The statistics to merge into this instance, may not be null. It is not modified.
+     * @return this TimingStatistics instance
+     */
+    public TimingStatistics merge(TimingStatistics other) {
+        if (other.count == 0) {
+            return this;
+        }
+        if (count == 0) {
+            mean = other.mean;
+            runningQ = other.runningQ;
+            min = other.min;
+            max = other.max;
+            count = other.count;
+            histogram = (other.histogram == null) ? null : other.histogram.clone();
+            return this;
+        }
+
+        double combinedCount = (double) count + other.count;
+        double diffFromMean = other.mean - mean;
+        mean = mean + diffFromMean * (other.count / combinedCount);
+        runningQ = runningQ + other.runningQ
+                   + diffFromMean * diffFromMean * ((count * (double) other.count) / combinedCount);
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        count += other.count;
+
+        if (histogram != null && other.histogram != null) {
+            histogram.add(other.histogram);
+        } else {
+            histogram = null;
+        }
+        //exact percentiles can't be combined
+        exactPercentiles = null;
+        exactPercentileValues = null;
+
+        return this;
+    }
+
+    /**
+     * Gets the sample time at the specified percentile. The value is accurate to the number of significant digits
+     * kept by the histogram, and is never larger than {@link #getMax()}.
+     *
+     * @param percentile The percentile, between 0.0 and 100.0. For example, 99.9 returns the sample time that 99.9%
+     *                   of the samples did not exceed.
+     * @return The sample time at the percentile in the time unit of the statistics, or 0 if no histogram is available
+     *         because there were no samples, histograms are disabled, or these statistics were created from summary
+     *         values.
+     */
+    public long getPercentile(double percentile) {
+        return (histogram == null) ? 0L : Math.min(histogram.getValueAtPercentile(percentile), max);
+    }
+
+    /**
+     * Gets the exact sample time at the specified percentile, if it was set with
+     * {@link #setExactPercentiles(double[], long[])}.
+     *
+     * @param percentile The percentile, between 0.0 and 100.0.
+     * @return The exact sample time at the percentile in the time unit of the statistics, or -1 if it is not known.
+     */
+    public long getExactPercentile(double percentile) {
+        if (exactPercentiles != null) {
+            for (int i = 0; i < exactPercentiles.length; i++) {
+                if (exactPercentiles[i] == percentile) {
+                    return exactPercentileValues[i];
+                }
+            }
+        }
+        return -1L;
+    }
+
+    /**
+     * Sets the exact sample times at some percentiles. They are cleared if other statistics are merged into these.
+     *
+     * @param percentiles The percentiles, between 0.0 and 100.0.
+     * @param values      The sample time at each percentile, in the time unit of the statistics.
+     */
+    public void setExactPercentiles(double[] percentiles, long[] values) {
+        if (percentiles.length != values.length) {
+            throw new IllegalArgumentException("There must be one value for each percentile");
+        }
+        this.exactPercentiles = percentiles.clone();
+        this.exactPercentileValues = values.clone();
+    }
+
     // --- Bean Properties ---
 
     public double getMean() {
@@ -108,6 +277,71 @@ public class TimingStatistics implements Serializable, Cloneable {
         return count;
     }
 
+    /**
+     * Gets the histogram of sample times.
+     *
+     * @return The histogram, or null if no histogram is being kept.
+     */
+    public TimingHistogram getHistogram() {
+        return histogram;
+    }
+
+    /**
+     * Returns the number of significant digits kept by the histograms of newly created TimingStatistics.
+     *
+     * @return The number of significant digits, between 1 and 5, or 0 if histograms are disabled.
+     */
+    public static int getHistogramSignificantDigits() {
+        return histogramSignificantDigits;
+    }
+
+    /**
+     * Sets the number of significant digits kept by the histograms of newly created TimingStatistics. Higher values
+     * give more precise percentiles at the cost of more memory per tag.
+     *
+     * @param significantDigits The number of significant digits, between 1 and 5, or 0 to disable histograms.
+     */
+    public static void setHistogramSignificantDigits(int significantDigits) {
+        if (significantDigits < 0 || significantDigits > 5) {
+            throw new IllegalArgumentException("significantDigits must be between 0 and 5: " + significantDigits);
+        }
+        histogramSignificantDigits = significantDigits;
+    }
+
+    /**
+     * Returns the highest sample time, in ms, that the histograms of newly created TimingStatistics track without
+     * clamping. Histograms of sample times in microseconds or nanoseconds track the same time in that unit.
+     *
+     * @return The highest trackable value.
+     */
+    public static long getHistogramHighestTrackableValue() {
+        return histogramHighestTrackableValue;
+    }
+
+    /**
+     * Returns the highest sample time that the histograms of newly created TimingStatistics track without clamping,
+     * converted to the specified time unit.
+     *
+     * @param timeUnit The time unit of the sample times.
+     * @return The highest trackable value in that unit.
+     */
+    static long getHistogramHighestTrackableValue(TimeUnit timeUnit) {
+        return timeUnit.convert(histogramHighestTrackableValue, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sets the highest sample time, in ms, that the histograms of newly created TimingStatistics track without
+     * clamping. Larger sample times are counted as this value when calculating percentiles. Defaults to 1 hour.
+     *
+     * @param highestTrackableValue The highest trackable value, must be at least 2.
+     */
+    public static void setHistogramHighestTrackableValue(long highestTrackableValue) {
+        if (highestTrackableValue < 2) {
+            throw new IllegalArgumentException("highestTrackableValue must be at least 2: " + highestTrackableValue);
+        }
+        histogramHighestTrackableValue = highestTrackableValue;
+    }
+
     // --- Object Methods ---
 
     public String toString() {
@@ -120,7 +354,11 @@ public class TimingStatistics implements Serializable, Cloneable {
 
     public TimingStatistics clone() {
         try {
-            return (TimingStatistics) super.clone();
+            TimingStatistics retVal = (TimingStatistics) super.clone();
+            if (histogram != null) {
+                retVal.histogram = histogram.clone();
+            }
+            return retVal;
         } catch (CloneNotSupportedException cnse) {
             throw new Error("Unexpected CloneNotSupportedException");
         }
@@ -83,7 +83,7 @@ public class AgnosticTimingAspect {
                 tag = (exceptionThrown == null) ? tag + ".success" : tag + ".failure";
             }
 
-            stopWatch.stop(tag, message);
+            stopWatch.stopTiming(tag, message);
         }
     }
 
@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.aop;
+
+import net.jperf.RegistryStopWatch;
+import net.jperf.TimingRegistry;
+
+/**
+ * This TimingAspect implementation reports StopWatches directly to a {@link TimingRegistry}, bypassing any logging
+ * framework. To use this interceptor in your code, you should add this class name to the
+ * {@link javax.interceptor.Interceptors} annotation on the EJB to be profiled.
+ */
+public class RegistryEjbTimingAspect extends AbstractEjbTimingAspect {
+    protected RegistryStopWatch newStopWatch(String loggerName, String levelName) {
+        return new RegistryStopWatch(TimingRegistry.getRegistry(loggerName));
+    }
+}
@@ -25,8 +25,9 @@
  * }
  * </pre>
  * Timing code can then be enabled using the concrete subclasses of {@link net.jperf.aop.AbstractTimingAspect}, such
- * as the log4j {@link net.jperf.log4j.aop.TimingAspect}. You will need to use an aspect framework such as AspectJ
- * or Spring AOP to enable these aspects.
+ * as the log4j {@link net.jperf.log4j.aop.TimingAspect}, or the {@link net.jperf.aop.RegistryTimingAspect}, which
+ * reports the StopWatches directly to a {@link net.jperf.TimingRegistry} without a logging framework. You will need
+ * to use an aspect framework such as AspectJ or Spring AOP to enable these aspects.
  * <p>
  * In addition, if you are using an aspect framework that doesn't use the AspectJ annotations, you can wrap or subclass
  * {@link net.jperf.aop.AgnosticTimingAspect} in a manner to work with your framework's requirements.
@@ -20,6 +20,8 @@ import net.jperf.LoggingStopWatch;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * This LoggingStopWatch uses an Apache Commons Logging Log instance to persist the StopWatch messages.
  *
@@ -337,6 +339,12 @@ public class CommonsLogStopWatch extends LoggingStopWatch {
         super.setMessage(message);
         return this;
     }
+
+    // Just overridden to make use of covariant return types
+    public CommonsLogStopWatch setTimeUnit(TimeUnit timeUnit) {
+        super.setTimeUnit(timeUnit);
+        return this;
+    }
     
     // Just overridden to make use of covariant return types
     public CommonsLogStopWatch setNormalAndSlowSuffixesEnabled(boolean normalAndSlowSuffixesEnabled) {
@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import net.jperf.StopWatch;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The BinaryStopWatchLogIterator class reads a log written by a {@link BinaryStopWatchLogWriter} and returns its
+ * StopWatches with each call to next(), in the order they were written. It is the binary counterpart of the
+ * {@link StopWatchLogIterator}.
+ * <p>
+ * If a filter is specified, StopWatches it rejects are skipped without creating them: the tag patterns are checked
+ * once for each tag of the tag table, and the messages of rejected StopWatches are not decoded. As with a
+ * StopWatchLogIterator, an IOException from the stream is treated like the end of the log, and so is a partial record
+ * at the end of the log, which is what a writer that crashed leaves behind.
+ */
+public class BinaryStopWatchLogIterator implements Iterator<StopWatch> {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final InputStream in;
+    private final StopWatchFilter filter;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    /**
+     * The tag table, indexed by tag id. Id 0 is the null tag.
+     */
+    private final List<String> tags = new ArrayList<String>();
+    /**
+     * Whether the filter accepts each tag of the tag table, indexed by tag id.
+     */
+    private final List<Boolean> acceptedTags = new ArrayList<Boolean>();
+    private long previousStartTime;
+    private TimeUnit timeUnit;
+    private boolean headerRead;
+    /**
+     * The next StopWatch to be returned, or null if it hasn't been read yet.
+     */
+    private StopWatch nextStopWatch;
+    private boolean ended;
+
+    /**
+     * Creates a new BinaryStopWatchLogIterator to read the specified stream.
+     *
+     * @param in The binary log. It doesn't need to be buffered.
+     */
+    public BinaryStopWatchLogIterator(InputStream in) {
+        this(in, null);
+    }
+
+    /**
+     * Creates a new BinaryStopWatchLogIterator to read the specified stream, returning only the StopWatches that pass
+     * the specified filter.
+     *
+     * @param in     The binary log. It doesn't need to be buffered.
+     * @param filter The filter StopWatches must pass, or null to return all StopWatches.
+     */
+    public BinaryStopWatchLogIterator(InputStream in, StopWatchFilter filter) {
+        this.in = in;
+        this.filter = filter;
+        resetTagTable();
+    }
+
+    /**
+     * Returns whether a stream starts with the header of a binary stop watch log. The stream must support mark, and is
+     * reset to where it was.
+     *
+     * @param in The stream to check.
+     * @return true if the stream is a binary stop watch log.
+     * @throws IOException Thrown if the stream can't be read.
+     */
+    public static boolean isBinaryStopWatchLog(InputStream in) throws IOException {
+        in.mark(BinaryStopWatchLogWriter.MAGIC.length);
+        try {
+            for (byte magicByte : BinaryStopWatchLogWriter.MAGIC) {
+                if (in.read() != magicByte) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            in.reset();
+        }
+    }
+
+    public boolean hasNext() {
+        if (nextStopWatch == null && !ended) {
+            nextStopWatch = readNext();
+            ended = (nextStopWatch == null);
+        }
+        return nextStopWatch != null;
+    }
+
+    public StopWatch next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        StopWatch retVal = nextStopWatch;
+        nextStopWatch = null;
+        return retVal;
+    }
+
+    /**
+     * Remove is not supported.
+     *
+     * @throws UnsupportedOperationException Always thrown.
+     */
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    // --- Helper Methods ---
+
+    /**
+     * Reads records until the next StopWatch the filter accepts.
+     *
+     * @return The StopWatch, or null at the end of the log.
+     * @throws IllegalStateException Thrown if the stream isn't a binary stop watch log.
+     */
+    private StopWatch readNext() {
+        try {
+            if (!headerRead) {
+                readHeader(readByte());
+                headerRead = true;
+            }
+
+            while (true) {
+                int type = readByte();
+                switch (type) {
+                    case BinaryStopWatchLogWriter.TAG_RECORD:
+                        String tag = new String(readBytes((int) readVarLong()), BinaryStopWatchLogWriter.UTF_8);
+                        tags.add(tag);
+                        acceptedTags.add(filter == null || filter.acceptsTag(tag));
+                        break;
+                    case BinaryStopWatchLogWriter.TIME_UNIT_RECORD:
+                        long unitIndex = readVarLong();
+                        if (unitIndex < 0 || unitIndex >= BinaryStopWatchLogWriter.TIME_UNITS.length) {
+                            throw new IllegalStateException("Unknown time unit " + unitIndex +
+                                                            " in binary stop watch log");
+                        }
+                        timeUnit = BinaryStopWatchLogWriter.TIME_UNITS[(int) unitIndex];
+                        break;
+                    case BinaryStopWatchLogWriter.STOPWATCH_RECORD:
+                    case BinaryStopWatchLogWriter.MESSAGE_STOPWATCH_RECORD:
+                        int tagId = (int) readVarLong();
+                        if (tagId >= tags.size()) {
+                            throw new IllegalStateException("Undefined tag id " + tagId + " in binary stop watch log");
+                        }
+                        long startTime = previousStartTime + unzigzag(readVarLong());
+                        long elapsedTime = unzigzag(readVarLong());
+                        previousStartTime = startTime;
+                        boolean accepted = acceptedTags.get(tagId) &&
+                                           (filter == null || filter.acceptsStartTime(startTime));
+                        String message = null;
+                        if (type == BinaryStopWatchLogWriter.MESSAGE_STOPWATCH_RECORD) {
+                            int length = (int) readVarLong();
+                            if (accepted) {
+                                message = new String(readBytes(length), BinaryStopWatchLogWriter.UTF_8);
+                            } else {
+                                skipBytes(length);
+                            }
+                        }
+                        if (accepted) {
+                            return new StopWatch(startTime, elapsedTime, tags.get(tagId), message, timeUnit);
+                        }
+                        break;
+                    default:
+                        //a header starting over in the middle of the log
+                        readHeader(type);
+                }
+            }
+        } catch (IOException ioe) {
+            //either an EOFException in a partial last record, or an IOException from the stream, which
+            //StopWatchLogIterator also treats like the end of the input
+            return null;
+        }
+    }
+
+    private void readHeader(int firstByte) throws IOException {
+        byte[] magic = BinaryStopWatchLogWriter.MAGIC;
+        boolean valid = (firstByte == magic[0]);
+        for (int i = 1; i < magic.length && valid; i++) {
+            valid = (readByte() == magic[i]);
+        }
+        if (!valid) {
+            throw new IllegalStateException("Not a binary stop watch log, or corrupt record type " + firstByte);
+        }
+        int version = readByte();
+        if (version != BinaryStopWatchLogWriter.VERSION) {
+            throw new IllegalStateException("Unsupported binary stop watch log version " + version);
+        }
+        resetTagTable();
+    }
+
+    private void resetTagTable() {
+        tags.clear();
+        acceptedTags.clear();
+        tags.add(null);
+        acceptedTags.add(filter == null || filter.getTagPatterns() == null);
+        previousStartTime = 0L;
+        timeUnit = TimeUnit.MILLISECONDS;
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private boolean fill() throws IOException {
+        limit = in.read(buffer);
+        position = 0;
+        if (limit <= 0) {
+            limit = 0;
+            return false;
+        }
+        return true;
+    }
+
+    private int readByte() throws IOException {
+        if (position == limit && !fill()) {
+            throw new EOFException();
+        }
+        return buffer[position++] & 0xff;
+    }
+
+    private long readVarLong() throws IOException {
+        long retVal = 0L;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            retVal |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return retVal;
+            }
+        }
+        throw new IllegalStateException("Malformed number in binary stop watch log");
+    }
+
+    private byte[] readBytes(int length) throws IOException {
+        byte[] retVal = new byte[length];
+        int read = 0;
+        while (read < length) {
+            if (position == limit && !fill()) {
+                throw new EOFException();
+            }
+            int chunk = Math.min(length - read, limit - position);
+            System.arraycopy(buffer, position, retVal, read, chunk);
+            position += chunk;
+            read += chunk;
+        }
+        return retVal;
+    }
+
+    private void skipBytes(int length) throws IOException {
+        while (length > 0) {
+            if (position == limit && !fill()) {
+                throw new EOFException();
+            }
+            int chunk = Math.min(length, limit - position);
+            position += chunk;
+            length -= chunk;
+        }
+    }
+}
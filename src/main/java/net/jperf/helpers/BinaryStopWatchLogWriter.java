@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import net.jperf.StopWatch;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes StopWatches to an OutputStream in the binary stop watch log format, which is read back by a
+ * {@link BinaryStopWatchLogIterator}. A StopWatch usually takes 4 to 6 bytes instead of the 60 to 120 characters of
+ * its String form, and neither writing nor reading it involves any formatting or parsing.
+ * <p>
+ * The log starts with a header: the 4 {@link #MAGIC} bytes "JPSW" followed by the {@link #VERSION} byte. Each record
+ * that follows starts with a type byte:
+ * <ul>
+ * <li>{@link #TAG_RECORD} defines the next tag of the tag table: the length of the tag in UTF-8 bytes, then the bytes.
+ * Tags get consecutive ids starting at 1, in the order they are defined, and are defined before the first StopWatch
+ * that uses them.
+ * <li>{@link #STOPWATCH_RECORD} is a StopWatch without a message: the id of its tag, or 0 for a null tag, the
+ * difference between its start time and the start time of the previous StopWatch, and its elapsed time.
+ * <li>{@link #MESSAGE_STOPWATCH_RECORD} is a StopWatch with a message: the same fields followed by the length of the
+ * message in UTF-8 bytes and the bytes.
+ * <li>{@link #TIME_UNIT_RECORD} sets the time unit of the elapsed times of the StopWatches that follow: 0 for
+ * milliseconds, 1 for microseconds or 2 for nanoseconds. The time unit is milliseconds until it is first set, so logs
+ * of millisecond StopWatches never contain this record.
+ * <li>A header in the middle of the log resets the tag table, the previous start time and the time unit, so logs that
+ * are appended to by several writers, or simply concatenated, are still valid.
+ * </ul>
+ * All the numbers are variable length: 7 bits per byte, least significant first, with the high bit set on every byte
+ * but the last. Start time differences and elapsed times, which may be negative, are zigzag encoded first so small
+ * negative numbers stay short.
+ * <p>
+ * The tag table holds at most {@link #MAX_TAGS} tags; if a log uses more, a new header is written and the table starts
+ * over. Records are buffered, and only written out whole unless a single record is longer than the buffer, so a log
+ * cut short by a crash at worst loses its last, partial record. Instances are thread safe.
+ */
+public class BinaryStopWatchLogWriter implements Closeable, Flushable {
+    /**
+     * The bytes at the start of every binary stop watch log.
+     */
+    public static final byte[] MAGIC = {'J', 'P', 'S', 'W'};
+    /**
+     * The version of the format, written after the MAGIC bytes.
+     */
+    public static final int VERSION = 1;
+    /**
+     * The type byte of a tag definition.
+     */
+    public static final int TAG_RECORD = 1;
+    /**
+     * The type byte of a StopWatch without a message.
+     */
+    public static final int STOPWATCH_RECORD = 2;
+    /**
+     * The type byte of a StopWatch with a message.
+     */
+    public static final int MESSAGE_STOPWATCH_RECORD = 3;
+    /**
+     * The type byte of a change of the time unit.
+     */
+    public static final int TIME_UNIT_RECORD = 4;
+    /**
+     * The maximum number of tags in the tag table before it is reset.
+     */
+    public static final int MAX_TAGS = 1 << 16;
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+    /**
+     * The time units, indexed by the number that stands for them in a TIME_UNIT_RECORD.
+     */
+    static final TimeUnit[] TIME_UNITS = {TimeUnit.MILLISECONDS, TimeUnit.MICROSECONDS, TimeUnit.NANOSECONDS};
+    private static final int BUFFER_SIZE = 1 << 13;
+    /**
+     * The longest a StopWatch record can be without its message: a type byte and three 10 byte numbers.
+     */
+    private static final int MAX_FIXED_RECORD_LENGTH = 31;
+
+    private final OutputStream out;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int count;
+    /**
+     * The ids of the tags in the tag table.
+     */
+    private final Map<String, Integer> tagIds = new HashMap<String, Integer>();
+    private long previousStartTime;
+    private TimeUnit timeUnit;
+    private boolean closed;
+
+    /**
+     * Creates a BinaryStopWatchLogWriter and writes the log header.
+     *
+     * @param out The stream to write to. It doesn't need to be buffered.
+     * @throws IOException Thrown if the header can't be written.
+     */
+    public BinaryStopWatchLogWriter(OutputStream out) throws IOException {
+        this.out = out;
+        writeHeader();
+    }
+
+    /**
+     * Writes a StopWatch, defining its tag first if it isn't in the tag table yet.
+     *
+     * @param stopWatch The StopWatch to write.
+     * @throws IOException Thrown if the buffered records can't be written.
+     */
+    public synchronized void write(StopWatch stopWatch) throws IOException {
+        if (closed) {
+            throw new IOException("Writer is closed");
+        }
+
+        int tagId = 0;
+        String tag = stopWatch.getTag();
+        if (tag != null) {
+            Integer id = tagIds.get(tag);
+            if (id == null) {
+                if (tagIds.size() == MAX_TAGS) {
+                    writeHeader();
+                }
+                byte[] tagBytes = tag.getBytes(UTF_8);
+                ensureCapacity(1 + 5 + tagBytes.length);
+                writeByte(TAG_RECORD);
+                writeVarLong(tagBytes.length);
+                writeBytes(tagBytes);
+                id = tagIds.size() + 1;
+                tagIds.put(tag, id);
+            }
+            tagId = id;
+        }
+
+        TimeUnit stopWatchTimeUnit = stopWatch.getTimeUnit();
+        if (stopWatchTimeUnit != timeUnit) {
+            ensureCapacity(2);
+            writeByte(TIME_UNIT_RECORD);
+            writeVarLong(Arrays.asList(TIME_UNITS).indexOf(stopWatchTimeUnit));
+            timeUnit = stopWatchTimeUnit;
+        }
+
+        String message = stopWatch.getMessage();
+        byte[] messageBytes = (message == null) ? null : message.getBytes(UTF_8);
+        ensureCapacity(MAX_FIXED_RECORD_LENGTH + ((messageBytes == null) ? 0 : 5 + messageBytes.length));
+        writeByte((messageBytes == null) ? STOPWATCH_RECORD : MESSAGE_STOPWATCH_RECORD);
+        writeVarLong(tagId);
+        writeVarLong(zigzag(stopWatch.getStartTime() - previousStartTime));
+        writeVarLong(zigzag(stopWatch.getElapsedTime()));
+        if (messageBytes != null) {
+            writeVarLong(messageBytes.length);
+            writeBytes(messageBytes);
+        }
+        previousStartTime = stopWatch.getStartTime();
+    }
+
+    /**
+     * Writes out the buffered records and flushes the underlying stream.
+     *
+     * @throws IOException Thrown if the records can't be written.
+     */
+    public synchronized void flush() throws IOException {
+        if (!closed) {
+            flushBuffer();
+            out.flush();
+        }
+    }
+
+    /**
+     * Writes out the buffered records and closes the underlying stream.
+     *
+     * @throws IOException Thrown if the records can't be written or the stream can't be closed.
+     */
+    public synchronized void close() throws IOException {
+        if (!closed) {
+            try {
+                flushBuffer();
+            } finally {
+                closed = true;
+                out.close();
+            }
+        }
+    }
+
+    // --- Helper Methods ---
+
+    private void writeHeader() throws IOException {
+        ensureCapacity(MAGIC.length + 1);
+        writeBytes(MAGIC);
+        writeByte(VERSION);
+        tagIds.clear();
+        previousStartTime = 0L;
+        timeUnit = TimeUnit.MILLISECONDS;
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * Writes out the buffered records if the next record, of the specified maximum length, wouldn't fit in the buffer.
+     */
+    private void ensureCapacity(int recordLength) throws IOException {
+        if (count + recordLength > buffer.length) {
+            flushBuffer();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    private void writeByte(int value) throws IOException {
+        if (count == buffer.length) {
+            flushBuffer();
+        }
+        buffer[count++] = (byte) value;
+    }
+
+    private void writeVarLong(long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            writeByte((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        writeByte((int) value);
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        if (bytes.length > buffer.length - count) {
+            flushBuffer();
+            if (bytes.length > buffer.length) {
+                out.write(bytes);
+                return;
+            }
+        }
+        System.arraycopy(bytes, 0, buffer, count, bytes.length);
+        count += bytes.length;
+    }
+}
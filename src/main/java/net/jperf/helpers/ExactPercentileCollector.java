@@ -0,0 +1,439 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import net.jperf.GroupedTimingStatistics;
+import net.jperf.TimingStatistics;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * An ExactPercentileCollector keeps every sample time of the current time slice, by tag, so that exact percentiles
+ * can be calculated when the time slice is over, rather than the approximate ones given by the
+ * {@link net.jperf.TimingHistogram}. It is meant for offline analysis, where the {@link GroupingStatisticsIterator}
+ * feeds it; exact percentiles are too expensive to keep for live statistics.
+ * <p>
+ * Sample times are kept in growable primitive arrays. When the arrays would take more than the memory budget, the
+ * sample times of every tag are sorted and spilled as a run to a temporary file, and the arrays are released. When
+ * the time slice is over, the percentiles of each tag are selected from its sorted samples, or found with a merge of
+ * the sorted runs and the samples still in memory. The percentile of n samples is the sample at the rank
+ * ceil(percentile / 100 * n) in ascending order, as in the TimingHistogram. With rollup statistics, the percentiles of
+ * a rollup tag are calculated from the samples of all the tags it covers.
+ * <p>
+ * Instances are not thread safe, and must be closed to delete the temporary file.
+ */
+public class ExactPercentileCollector implements Closeable {
+    /**
+     * The percentiles calculated by default: the same as the percentiles in the default output of the formatters.
+     */
+    public static final double[] DEFAULT_PERCENTILES = {50.0, 90.0, 95.0, 99.0, 99.9};
+    /**
+     * The default memory budget, in bytes.
+     */
+    public static final long DEFAULT_MEMORY_BUDGET = 64L << 20;
+    /**
+     * The number of sample times read from a spilled run at a time.
+     */
+    private static final int BLOCK_LENGTH = 1 << 12;
+
+    private final double[] percentiles;
+    private final long memoryBudget;
+    private final File tempDirectory;
+    private final SortedMap<String, Samples> samplesByTag = new TreeMap<String, Samples>();
+    /**
+     * The total length of the sample arrays in memory.
+     */
+    private long allocatedSamples;
+    /**
+     * The file sorted runs are spilled to, created on the first spill.
+     */
+    private File spillFile;
+    private RandomAccessFile spillFileAccess;
+    private long spillFileLength;
+    private int spillCount;
+
+    /**
+     * Creates an ExactPercentileCollector for the {@link #DEFAULT_PERCENTILES} with the
+     * {@link #DEFAULT_MEMORY_BUDGET}, which spills to the default temporary directory.
+     */
+    public ExactPercentileCollector() {
+        this(DEFAULT_PERCENTILES, DEFAULT_MEMORY_BUDGET, null);
+    }
+
+    /**
+     * Creates an ExactPercentileCollector.
+     *
+     * @param percentiles   The percentiles to calculate, between 0.0 and 100.0.
+     * @param memoryBudget  The number of bytes the sample times may take in memory before they are spilled to disk.
+     * @param tempDirectory The directory of the temporary file, or null for the default temporary directory.
+     */
+    public ExactPercentileCollector(double[] percentiles, long memoryBudget, File tempDirectory) {
+        for (double percentile : percentiles) {
+            if (!(percentile >= 0.0 && percentile <= 100.0)) {
+                throw new IllegalArgumentException("percentiles must be between 0 and 100: " + percentile);
+            }
+        }
+        if (memoryBudget <= 0) {
+            throw new IllegalArgumentException("memoryBudget must be positive: " + memoryBudget);
+        }
+        this.percentiles = percentiles.clone();
+        this.memoryBudget = memoryBudget;
+        this.tempDirectory = tempDirectory;
+    }
+
+    // --- Bean Properties ---
+
+    public double[] getPercentiles() {
+        return percentiles.clone();
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Gets the number of times the samples were spilled to disk since this collector was created.
+     *
+     * @return The number of spills.
+     */
+    public int getSpillCount() {
+        return spillCount;
+    }
+
+    // --- Instance Methods ---
+
+    /**
+     * Adds a sample time to the current time slice.
+     *
+     * @param tag         The tag of the StopWatch.
+     * @param elapsedTime The elapsed time of the StopWatch.
+     * @throws IllegalStateException Thrown if the samples can't be spilled to disk.
+     */
+    public void addSampleTime(String tag, long elapsedTime) {
+        Samples samples = samplesByTag.get(tag);
+        if (samples == null) {
+            samples = new Samples();
+            samplesByTag.put(tag, samples);
+        }
+        if (samples.size == samples.values.length) {
+            if ((allocatedSamples + samples.values.length) * 8L > memoryBudget && allocatedSamples > 0) {
+                spill();
+            }
+            allocatedSamples += samples.grow();
+        }
+        samples.values[samples.size++] = elapsedTime;
+        samples.sorted = false;
+    }
+
+    /**
+     * Ends the current time slice: sets the exact percentiles of each tag of the statistics of the time slice, then
+     * discards the samples. Tags whose count doesn't match the samples collected, such as the overflow tag of a tag
+     * budget, are left without exact percentiles.
+     *
+     * @param statistics The statistics of the time slice.
+     * @throws IllegalStateException Thrown if the spilled samples can't be read.
+     */
+    public void completeWindow(GroupedTimingStatistics statistics) {
+        try {
+            for (Map.Entry<String, TimingStatistics> tagAndStats : statistics.flush().getStatisticsByTag().entrySet()) {
+                List<Samples> sources = getSources(tagAndStats.getKey(), statistics.isCreateRollupStatistics());
+                long count = 0L;
+                for (Samples samples : sources) {
+                    count += samples.getCount();
+                }
+                if (count > 0 && count == tagAndStats.getValue().getCount()) {
+                    tagAndStats.getValue().setExactPercentiles(percentiles, select(sources, count));
+                }
+            }
+        } catch (IOException ioe) {
+            throw new IllegalStateException("Could not read spilled samples from " + spillFile, ioe);
+        } finally {
+            reset();
+        }
+    }
+
+    /**
+     * Discards the samples of the current time slice.
+     */
+    public void reset() {
+        samplesByTag.clear();
+        allocatedSamples = 0L;
+        spillFileLength = 0L;
+        if (spillFileAccess != null) {
+            try {
+                spillFileAccess.setLength(0L);
+            } catch (IOException ioe) {
+                //the old runs are simply overwritten
+            }
+        }
+    }
+
+    /**
+     * Discards the samples and deletes the temporary file.
+     *
+     * @throws IOException Thrown if the temporary file can't be closed.
+     */
+    public void close() throws IOException {
+        samplesByTag.clear();
+        allocatedSamples = 0L;
+        if (spillFileAccess != null) {
+            try {
+                spillFileAccess.close();
+            } finally {
+                spillFileAccess = null;
+                spillFile.delete();
+            }
+        }
+    }
+
+    // --- Helper Methods ---
+
+    /**
+     * Helper method gets the samples a tag's percentiles are calculated from: its own, and with rollup statistics,
+     * those of every tag it covers.
+     */
+    private List<Samples> getSources(String tag, boolean rollup) {
+        List<Samples> retVal = new ArrayList<Samples>();
+        Samples samples = samplesByTag.get(tag);
+        if (samples != null) {
+            retVal.add(samples);
+        }
+        if (rollup) {
+            //'/' is the character after '.', so this is every tag that starts with the tag and a period
+            retVal.addAll(samplesByTag.subMap(tag + ".", tag + "/").values());
+        }
+        return retVal;
+    }
+
+    /**
+     * Helper method selects the samples at the percentile ranks, directly if all the samples are in a single array,
+     * or with a merge of the sorted arrays and runs otherwise.
+     */
+    private long[] select(List<Samples> sources, long count) throws IOException {
+        long[] ranks = new long[percentiles.length];
+        for (int i = 0; i < percentiles.length; i++) {
+            ranks[i] = Math.min(Math.max((long) Math.ceil((percentiles[i] / 100.0) * count), 1L), count);
+        }
+        long[] retVal = new long[percentiles.length];
+
+        if (sources.size() == 1 && sources.get(0).runOffsets.isEmpty()) {
+            Samples samples = sources.get(0);
+            samples.sort();
+            for (int i = 0; i < ranks.length; i++) {
+                retVal[i] = samples.values[(int) ranks[i] - 1];
+            }
+            return retVal;
+        }
+
+        //visit the ranks in ascending order, in a single merge
+        Integer[] rankOrder = new Integer[ranks.length];
+        for (int i = 0; i < rankOrder.length; i++) {
+            rankOrder[i] = i;
+        }
+        final long[] finalRanks = ranks;
+        Arrays.sort(rankOrder, new Comparator<Integer>() {
+            public int compare(Integer index1, Integer index2) {
+                return Long.valueOf(finalRanks[index1]).compareTo(finalRanks[index2]);
+            }
+        });
+
+        Comparator<Cursor> valueOrder = new Comparator<Cursor>() {
+            public int compare(Cursor cursor1, Cursor cursor2) {
+                return Long.valueOf(cursor1.value).compareTo(cursor2.value);
+            }
+        };
+        PriorityQueue<Cursor> cursors = new PriorityQueue<Cursor>(Math.max(sources.size(), 1), valueOrder);
+        for (Samples samples : sources) {
+            samples.sort();
+            addCursor(cursors, new Cursor(samples.values, samples.size));
+            for (int i = 0; i < samples.runOffsets.size(); i++) {
+                addCursor(cursors, new RunCursor(samples.runOffsets.get(i), samples.runLengths.get(i)));
+            }
+        }
+
+        long rank = 0L;
+        int next = 0;
+        while (next < rankOrder.length && !cursors.isEmpty()) {
+            Cursor cursor = cursors.poll();
+            rank++;
+            while (next < rankOrder.length && ranks[rankOrder[next]] == rank) {
+                retVal[rankOrder[next++]] = cursor.value;
+            }
+            addCursor(cursors, cursor);
+        }
+        return retVal;
+    }
+
+    private void addCursor(PriorityQueue<Cursor> cursors, Cursor cursor) throws IOException {
+        if (cursor.advance()) {
+            cursors.add(cursor);
+        }
+    }
+
+    /**
+     * Helper method sorts the samples of every tag, appends them to the spill file as runs and releases the arrays.
+     */
+    private void spill() {
+        try {
+            if (spillFileAccess == null) {
+                spillFile = File.createTempFile("jperf-percentiles", ".tmp", tempDirectory);
+                spillFile.deleteOnExit();
+                spillFileAccess = new RandomAccessFile(spillFile, "rw");
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(BLOCK_LENGTH * 8);
+            spillFileAccess.seek(spillFileLength);
+            for (Samples samples : samplesByTag.values()) {
+                if (samples.size == 0) {
+                    continue;
+                }
+                samples.sort();
+                samples.runOffsets.add(spillFileLength);
+                samples.runLengths.add(samples.size);
+                for (int i = 0; i < samples.size; i += BLOCK_LENGTH) {
+                    int length = Math.min(BLOCK_LENGTH, samples.size - i);
+                    buffer.clear();
+                    buffer.asLongBuffer().put(samples.values, i, length);
+                    spillFileAccess.write(buffer.array(), 0, length * 8);
+                }
+                spillFileLength += samples.size * 8L;
+                samples.release();
+            }
+            allocatedSamples = 0L;
+            spillCount++;
+        } catch (IOException ioe) {
+            throw new IllegalStateException("Could not spill samples to " + spillFile, ioe);
+        }
+    }
+
+    /**
+     * The samples of a tag: those in memory, in an array, and the offsets and lengths of the sorted runs spilled to
+     * the temporary file.
+     */
+    private static class Samples {
+        private static final long[] EMPTY = new long[0];
+
+        long[] values = EMPTY;
+        int size;
+        boolean sorted = true;
+        final List<Long> runOffsets = new ArrayList<Long>(0);
+        final List<Integer> runLengths = new ArrayList<Integer>(0);
+
+        long getCount() {
+            long retVal = size;
+            for (int runLength : runLengths) {
+                retVal += runLength;
+            }
+            return retVal;
+        }
+
+        /**
+         * Grows the array, returning the number of elements added.
+         */
+        int grow() {
+            int newLength = Math.max(16, values.length * 2);
+            int retVal = newLength - values.length;
+            values = Arrays.copyOf(values, newLength);
+            return retVal;
+        }
+
+        void sort() {
+            if (!sorted) {
+                Arrays.sort(values, 0, size);
+                sorted = true;
+            }
+        }
+
+        void release() {
+            values = EMPTY;
+            size = 0;
+            sorted = true;
+        }
+    }
+
+    /**
+     * Walks a sorted array of samples during a merge.
+     */
+    private static class Cursor {
+        long[] block;
+        int length;
+        int position = -1;
+        long value;
+
+        Cursor(long[] block, int length) {
+            this.block = block;
+            this.length = length;
+        }
+
+        /**
+         * Moves to the next sample.
+         *
+         * @return false if there are no more samples.
+         */
+        boolean advance() throws IOException {
+            if (++position >= length) {
+                return false;
+            }
+            value = block[position];
+            return true;
+        }
+    }
+
+    /**
+     * Walks a sorted run in the spill file during a merge, reading it a block at a time.
+     */
+    private class RunCursor extends Cursor {
+        private final byte[] bytes;
+        private long offset;
+        private int remaining;
+
+        RunCursor(long offset, int length) {
+            super(new long[Math.min(BLOCK_LENGTH, length)], 0);
+            this.bytes = new byte[block.length * 8];
+            this.offset = offset;
+            this.remaining = length;
+        }
+
+        boolean advance() throws IOException {
+            if (position + 1 >= length) {
+                if (remaining == 0) {
+                    return false;
+                }
+                length = Math.min(block.length, remaining);
+                spillFileAccess.seek(offset);
+                spillFileAccess.readFully(bytes, 0, length * 8);
+                ByteBuffer.wrap(bytes).asLongBuffer().get(block, 0, length);
+                offset += length * 8L;
+                remaining -= length;
+                position = -1;
+            }
+            return super.advance();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import net.jperf.GroupedTimingStatistics;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This Iterator follows a growing log file with a {@link FollowingStopWatchLogIterator} and returns the
+ * GroupedTimingStatistics of each time slice as soon as it is over: either when a StopWatch from a later time slice is
+ * read, or when no new StopWatch has been written by the end of the time slice. Time slices without any StopWatch are
+ * skipped. hasNext() blocks until the next time slice is over, and returns false once the Iterator is closed.
+ * <p>
+ * If a checkpoint file is specified, the Iterator resumes from the {@link LogCheckpoint} in it, if any, and writes a
+ * new checkpoint for each time slice once the caller is done with it, that is on the following call to hasNext() or
+ * close(). A restart after a crash therefore returns the time slices after the last one fully handled, and reads only
+ * the part of the log written since that time slice.
+ */
+public class FollowingLogStatisticsIterator implements Iterator<GroupedTimingStatistics>, Closeable {
+    /**
+     * The default time, in milliseconds, to wait before polling the log file again once its end has been reached.
+     */
+    public static final long DEFAULT_POLL_INTERVAL = 1000L;
+
+    private final FollowingStopWatchLogIterator stopWatchIterator;
+    private final GroupingStatisticsIterator groupingIterator;
+    /**
+     * The file where checkpoints are written, or null if no checkpoints are written.
+     */
+    private final File checkpointFile;
+    /**
+     * The checkpoint taken after the last time slice returned, written once the caller is done with that time slice.
+     */
+    private LogCheckpoint pendingCheckpoint;
+    /**
+     * The next GroupedTimingStatistics to be returned, or null if it hasn't been read yet.
+     */
+    private GroupedTimingStatistics nextGroupedTimingStatistics;
+
+    /**
+     * Creates a FollowingLogStatisticsIterator.
+     *
+     * @param logFile                The log file to follow.
+     * @param timeSlice              The length of each time slice, in milliseconds.
+     * @param createRollupStatistics Whether or not entries for "rollup" tags should be created
+     * @param checkpointFile         The file where checkpoints are read and written, or null to always start at the
+     *                               beginning of the log without writing checkpoints.
+     * @param pollInterval           The time, in milliseconds, to wait before polling the log file again once its end
+     *                               has been reached.
+     * @throws IOException Thrown if the checkpoint or the log file can't be read.
+     */
+    public FollowingLogStatisticsIterator(File logFile, long timeSlice, boolean createRollupStatistics,
+                                          File checkpointFile, long pollInterval) throws IOException {
+        this(logFile, timeSlice, createRollupStatistics, checkpointFile, pollInterval, null);
+    }
+
+    /**
+     * Creates a FollowingLogStatisticsIterator that only counts the StopWatches that pass a filter. A checkpoint
+     * should only be resumed with the filter it was written with.
+     *
+     * @param logFile                The log file to follow.
+     * @param timeSlice              The length of each time slice, in milliseconds.
+     * @param createRollupStatistics Whether or not entries for "rollup" tags should be created
+     * @param checkpointFile         The file where checkpoints are read and written, or null to always start at the
+     *                               beginning of the log without writing checkpoints.
+     * @param pollInterval           The time, in milliseconds, to wait before polling the log file again once its end
+     *                               has been reached.
+     * @param filter                 The filter StopWatches must pass, or null to count all StopWatches.
+     * @throws IOException Thrown if the checkpoint or the log file can't be read.
+     */
+    public FollowingLogStatisticsIterator(File logFile, long timeSlice, boolean createRollupStatistics,
+                                          File checkpointFile, long pollInterval, StopWatchFilter filter)
+            throws IOException {
+        this.stopWatchIterator = newStopWatchIterator(logFile, pollInterval, filter);
+        this.groupingIterator = new GroupingStatisticsIterator(stopWatchIterator, timeSlice, createRollupStatistics);
+        this.checkpointFile = checkpointFile;
+
+        LogCheckpoint checkpoint = (checkpointFile == null) ? null : LogCheckpoint.read(checkpointFile);
+        if (checkpoint != null) {
+            //if the log was rotated since the checkpoint, the rest of the old file is lost, but the new file is read
+            //into the same open time slice
+            stopWatchIterator.seek(checkpoint.getFingerprint(),
+                                   checkpoint.getLineOffset(),
+                                   checkpoint.getStopWatchesReadFromLine());
+            groupingIterator.resume(checkpoint.getCurrentStatistics(), checkpoint.getNextTimeSliceEndTime());
+        }
+    }
+
+    public boolean hasNext() {
+        writePendingCheckpoint();
+
+        while (nextGroupedTimingStatistics == null && groupingIterator.hasNext()) {
+            GroupedTimingStatistics statistics = groupingIterator.next();
+            if (!stopWatchIterator.hasNext()) {
+                //the Iterator was closed, so the time slice may not be over
+                return false;
+            }
+            if (checkpointFile != null) {
+                pendingCheckpoint = new LogCheckpoint(stopWatchIterator.getFingerprint(),
+                                                      stopWatchIterator.getLineOffset(),
+                                                      stopWatchIterator.getStopWatchesReadFromLine(),
+                                                      groupingIterator.getNextTimeSliceEndTime(),
+                                                      groupingIterator.getCurrentStatistics());
+            }
+            if (!statistics.getStatisticsByTag().isEmpty()) {
+                nextGroupedTimingStatistics = statistics;
+            } else {
+                writePendingCheckpoint();
+            }
+        }
+        return nextGroupedTimingStatistics != null;
+    }
+
+    public GroupedTimingStatistics next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        GroupedTimingStatistics retVal = nextGroupedTimingStatistics;
+        nextGroupedTimingStatistics = null;
+        return retVal;
+    }
+
+    /**
+     * Sets the time unit of the statistics returned, by default the {@link net.jperf.StopWatch#getDefaultTimeUnit()
+     * default time unit} of StopWatches. This should be called before hasNext() or next(); the statistics of the time
+     * slice resumed from a checkpoint in another time unit keep their time unit.
+     *
+     * @param timeUnit The time unit, one of NANOSECONDS, MICROSECONDS or MILLISECONDS.
+     */
+    public void setTimeUnit(TimeUnit timeUnit) {
+        groupingIterator.setTimeUnit(timeUnit);
+    }
+
+    /**
+     * Remove is not supported.
+     *
+     * @throws UnsupportedOperationException Always thrown.
+     */
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Writes the checkpoint for the last time slice returned, if any, and closes the log file. This may be called
+     * from another thread to stop a thread blocked in hasNext().
+     *
+     * @throws IOException Thrown if the checkpoint can't be written or the file can't be closed.
+     */
+    public void close() throws IOException {
+        stopWatchIterator.close();
+        if (nextGroupedTimingStatistics == null) {
+            writePendingCheckpoint();
+        }
+    }
+
+    /**
+     * This helper method could potentially be overridden to follow the log with a different StopWatch Iterator, for
+     * example one with a different StopWatchParser.
+     *
+     * @param logFile      The log file to follow.
+     * @param pollInterval The time, in milliseconds, to wait before polling the log file again.
+     * @param filter       The filter StopWatches must pass, or null to return all StopWatches.
+     * @return A new FollowingStopWatchLogIterator.
+     */
+    protected FollowingStopWatchLogIterator newStopWatchIterator(File logFile, long pollInterval,
+                                                                 StopWatchFilter filter) {
+        return new FollowingStopWatchLogIterator(logFile, pollInterval, filter);
+    }
+
+    // --- Helper Methods ---
+
+    private synchronized void writePendingCheckpoint() {
+        if (pendingCheckpoint != null) {
+            try {
+                pendingCheckpoint.write(checkpointFile);
+            } catch (IOException ioe) {
+                throw new IllegalStateException("Could not write checkpoint " + checkpointFile, ioe);
+            }
+            pendingCheckpoint = null;
+        }
+    }
+}
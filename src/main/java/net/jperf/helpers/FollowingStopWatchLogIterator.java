@@ -0,0 +1,440 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import net.jperf.StopWatch;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.regex.Matcher;
+
+/**
+ * This Iterator follows a growing log file, like <tt>tail -F</tt>, and returns the StopWatches written to it. When the
+ * end of the file is reached, the file is polled for new data, and a null StopWatch is returned after each poll that
+ * found none, so that a {@link GroupingStatisticsIterator} can close a time slice once it is over.
+ * <p>
+ * The file is identified by its first bytes. Once the open file has been read to its end, if the file at the log
+ * path starts with different bytes, or is shorter than what has been read, the log is considered rotated or truncated
+ * and the file at the log path is read from its start. A final line without a line terminator is not read until the
+ * terminator is written, so it is lost if the file is rotated without one.
+ * <p>
+ * The position of the next StopWatch to read, along with the identity of the file, can be saved with
+ * {@link #getFingerprint()}, {@link #getLineOffset()} and {@link #getStopWatchesReadFromLine()}, and restored with
+ * {@link #seek(byte[], long, int)}. Lines are decoded with the platform default charset.
+ */
+public class FollowingStopWatchLogIterator implements Iterator<StopWatch>, Closeable {
+    /**
+     * The number of bytes at the start of the file used to identify it.
+     */
+    public static final int FINGERPRINT_LENGTH = 1024;
+
+    /**
+     * The log file followed.
+     */
+    private final File logFile;
+    /**
+     * The time, in milliseconds, to wait before polling the file again once its end has been reached.
+     */
+    private final long pollInterval;
+    private final Charset charset = Charset.defaultCharset();
+    /**
+     * This StopWatchParser is used to pull out StopWatches from the lines of the file.
+     */
+    private final StopWatchParser stopWatchParser;
+    /**
+     * The open file, and its first bytes.
+     */
+    private RandomAccessFile input;
+    private byte[] fingerprint = new byte[0];
+    /**
+     * Whether the fingerprint may still be extended as lines are read. It is cleared once the fingerprint reaches
+     * FINGERPRINT_LENGTH, or once the open file no longer starts with it.
+     */
+    private boolean extendingFingerprint;
+    /**
+     * The bytes read from the file that haven't been returned as a line yet, between readBufferStart and
+     * readBufferEnd. The file offset of readBuffer[readBufferStart] is position.
+     */
+    private byte[] readBuffer = new byte[8192];
+    private int readBufferStart;
+    private int readBufferEnd;
+    private long position;
+    /**
+     * The line currently being scanned, or null if the next line must be read, along with its file offset.
+     */
+    private String currentLine;
+    private long currentLineOffset;
+    /**
+     * The index in the currentLine where the scan for the next StopWatch starts, and the number of StopWatches
+     * returned from it.
+     */
+    private final int[] currentLineIndex = new int[1];
+    private Matcher currentMatcher;
+    private int stopWatchesReadFromLine;
+    /**
+     * The number of StopWatches to skip on the next line read, after a seek.
+     */
+    private int stopWatchesToSkip;
+    private volatile boolean closed;
+
+    /**
+     * Creates a FollowingStopWatchLogIterator that starts at the beginning of the log file. The file need not exist
+     * yet.
+     *
+     * @param logFile      The log file to follow.
+     * @param pollInterval The time, in milliseconds, to wait before polling the file again once its end has been
+     *                     reached.
+     */
+    public FollowingStopWatchLogIterator(File logFile, long pollInterval) {
+        this(logFile, pollInterval, null);
+    }
+
+    /**
+     * Creates a FollowingStopWatchLogIterator that starts at the beginning of the log file and only returns the
+     * StopWatches that pass a filter. The file need not exist yet.
+     *
+     * @param logFile      The log file to follow.
+     * @param pollInterval The time, in milliseconds, to wait before polling the file again once its end has been
+     *                     reached.
+     * @param filter       The filter StopWatches must pass, or null to return all StopWatches.
+     */
+    public FollowingStopWatchLogIterator(File logFile, long pollInterval, StopWatchFilter filter) {
+        this.logFile = logFile;
+        this.pollInterval = pollInterval;
+        this.stopWatchParser = newStopWatchParser();
+        this.stopWatchParser.setFilter(filter);
+    }
+
+    /**
+     * Returns true until this Iterator is closed, as more StopWatches may always be written to the log.
+     *
+     * @return Whether this Iterator is still open.
+     */
+    public boolean hasNext() {
+        return !closed;
+    }
+
+    /**
+     * Returns the next StopWatch in the log. If there is none, this method waits for the poll interval and returns
+     * null if there is still none.
+     *
+     * @return The next StopWatch, or null if there was no new StopWatch.
+     */
+    public StopWatch next() {
+        if (closed) {
+            throw new NoSuchElementException();
+        }
+
+        try {
+            while (true) {
+                if (currentLine != null) {
+                    StopWatch retVal = scanCurrentLine();
+                    if (retVal != null) {
+                        stopWatchesReadFromLine++;
+                        if (stopWatchesReadFromLine > stopWatchesToSkip) {
+                            return retVal;
+                        }
+                        continue;
+                    }
+                    currentLine = null;
+                    stopWatchesToSkip = 0;
+                }
+
+                if (readLine()) {
+                    continue;
+                }
+                if (reopenIfRotated()) {
+                    continue;
+                }
+
+                Thread.sleep(pollInterval);
+                return null;
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            closed = true;
+            return null;
+        } catch (IOException ioe) {
+            if (closed) {
+                //the file was closed by another thread
+                return null;
+            }
+            throw new IllegalStateException("Could not read " + logFile, ioe);
+        }
+    }
+
+    /**
+     * Remove is not supported.
+     *
+     * @throws UnsupportedOperationException Always thrown.
+     */
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Closes the log file. hasNext() returns false once this Iterator is closed.
+     *
+     * @throws IOException Thrown if the file can't be closed.
+     */
+    public void close() throws IOException {
+        closed = true;
+        if (input != null) {
+            input.close();
+        }
+    }
+
+    /**
+     * Gets the first bytes of the file currently being read, which identify it.
+     *
+     * @return The fingerprint of the file, at most {@link #FINGERPRINT_LENGTH} bytes.
+     */
+    public byte[] getFingerprint() {
+        return fingerprint.clone();
+    }
+
+    /**
+     * Gets the offset of the line containing the next StopWatch to be returned.
+     *
+     * @return The file offset of the line.
+     */
+    public long getLineOffset() {
+        return (currentLine != null) ? currentLineOffset : position;
+    }
+
+    /**
+     * Gets the number of StopWatches already returned from the line at {@link #getLineOffset()}.
+     *
+     * @return The number of StopWatches to skip on that line when resuming.
+     */
+    public int getStopWatchesReadFromLine() {
+        return (currentLine != null) ? stopWatchesReadFromLine : 0;
+    }
+
+    /**
+     * Moves to a position saved earlier. If the file at the log path no longer starts with the saved fingerprint, or
+     * is shorter than the saved offset, it is read from its start instead.
+     *
+     * @param savedFingerprint      The fingerprint of the file the position was saved for.
+     * @param lineOffset            The offset of the line containing the next StopWatch to return.
+     * @param stopWatchesToSkip     The number of StopWatches to skip on that line.
+     * @return Whether the saved position was restored.
+     * @throws IOException Thrown if the file can't be read.
+     */
+    public boolean seek(byte[] savedFingerprint, long lineOffset, int stopWatchesToSkip) throws IOException {
+        if (!open() || !startsWith(readFingerprint(input), savedFingerprint) || input.length() < lineOffset) {
+            return false;
+        }
+
+        input.seek(lineOffset);
+        position = lineOffset;
+        readBufferStart = readBufferEnd = 0;
+        currentLine = null;
+        this.stopWatchesToSkip = stopWatchesToSkip;
+        return true;
+    }
+
+    /**
+     * This helper method could potentially be overridden to return a different type of StopWatchParser that is used
+     * to parse the lines of the log.
+     *
+     * @return A new StopWatchParser to use to parse log messages.
+     */
+    protected StopWatchParser newStopWatchParser() {
+        return new StopWatchParser();
+    }
+
+    // --- Helper Methods ---
+
+    private StopWatch scanCurrentLine() {
+        if (stopWatchParser.isScannable()) {
+            return stopWatchParser.scanStopWatch(currentLine, currentLineIndex[0], currentLineIndex);
+        }
+        while (currentMatcher.find(currentLineIndex[0])) {
+            currentLineIndex[0] = currentMatcher.end();
+            StopWatch retVal = stopWatchParser.parseStopWatchFromLogMatch(currentMatcher);
+            if (stopWatchParser.accepts(retVal)) {
+                return retVal;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Helper method reads the next complete line into currentLine.
+     *
+     * @return false if the file isn't open or there is no complete line to read yet.
+     */
+    private boolean readLine() throws IOException {
+        if (input == null && !open()) {
+            return false;
+        }
+
+        int lineEnd = indexOfNewline(readBufferStart);
+        while (lineEnd < 0) {
+            //move the partial line to the start of the buffer, growing it if the line fills it, and read more
+            int searchFrom = readBufferEnd - readBufferStart;
+            if (readBufferStart > 0) {
+                System.arraycopy(readBuffer, readBufferStart, readBuffer, 0, searchFrom);
+                readBufferStart = 0;
+                readBufferEnd = searchFrom;
+            } else if (readBufferEnd == readBuffer.length) {
+                readBuffer = Arrays.copyOf(readBuffer, readBuffer.length * 2);
+            }
+            int numRead = input.read(readBuffer, readBufferEnd, readBuffer.length - readBufferEnd);
+            if (numRead <= 0) {
+                return false;
+            }
+            readBufferEnd += numRead;
+            lineEnd = indexOfNewline(searchFrom);
+        }
+
+        int length = lineEnd - readBufferStart;
+        if (length > 0 && readBuffer[lineEnd - 1] == '\r') {
+            length--;
+        }
+        currentLine = new String(readBuffer, readBufferStart, length, charset);
+        currentLineOffset = position;
+        currentLineIndex[0] = 0;
+        stopWatchesReadFromLine = 0;
+        if (!stopWatchParser.isScannable()) {
+            currentMatcher = stopWatchParser.getPattern().matcher(currentLine);
+        }
+        position += lineEnd + 1 - readBufferStart;
+        readBufferStart = lineEnd + 1;
+
+        //only the first lines can extend the fingerprint, so the rest of the file is read without any seeks
+        if (extendingFingerprint && position > fingerprint.length) {
+            extendingFingerprint = extendFingerprint() && fingerprint.length < FINGERPRINT_LENGTH;
+        }
+        return true;
+    }
+
+    private int indexOfNewline(int from) {
+        for (int i = from; i < readBufferEnd; i++) {
+            if (readBuffer[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Helper method checks, once the open file has been read to its end, whether the file at the log path is a
+     * different file or has been truncated, and if so opens it from its start.
+     *
+     * @return true if the file was reopened, or if there turned out to be more data in the open file.
+     */
+    private boolean reopenIfRotated() throws IOException {
+        if (input == null || !logFile.exists()) {
+            //if the file was rotated, keep the old one until the new one is created
+            return false;
+        }
+
+        RandomAccessFile pathFile = new RandomAccessFile(logFile, "r");
+        try {
+            if (extendFingerprint() &&
+                startsWith(readFingerprint(pathFile), fingerprint) && pathFile.length() >= position) {
+                return false;
+            }
+        } finally {
+            pathFile.close();
+        }
+
+        //data may have been written to the old file since its end was reached
+        if (input.length() > position + (readBufferEnd - readBufferStart)) {
+            return true;
+        }
+        input.close();
+        input = null;
+        return open();
+    }
+
+    /**
+     * Helper method opens the file at the log path, from its start.
+     *
+     * @return false if the file doesn't exist.
+     */
+    private boolean open() throws IOException {
+        if (input != null) {
+            input.close();
+            input = null;
+        }
+        if (!logFile.exists()) {
+            return false;
+        }
+
+        input = new RandomAccessFile(logFile, "r");
+        fingerprint = readFingerprint(input);
+        extendingFingerprint = fingerprint.length < FINGERPRINT_LENGTH;
+        input.seek(0L);
+        position = 0L;
+        readBufferStart = readBufferEnd = 0;
+        currentLine = null;
+        stopWatchesToSkip = 0;
+        return true;
+    }
+
+    /**
+     * Helper method reads more of the first bytes of the open file into the fingerprint if it is shorter than
+     * FINGERPRINT_LENGTH.
+     *
+     * @return false if the open file no longer starts with the fingerprint, because it was truncated and rewritten.
+     */
+    private boolean extendFingerprint() throws IOException {
+        byte[] fileStart = readFingerprint(input);
+        if (!startsWith(fileStart, fingerprint)) {
+            return false;
+        }
+        fingerprint = fileStart;
+        return true;
+    }
+
+    /**
+     * Helper method reads the first bytes of a file, leaving its file pointer unchanged.
+     */
+    private static byte[] readFingerprint(RandomAccessFile file) throws IOException {
+        long filePointer = file.getFilePointer();
+        byte[] retVal = new byte[(int) Math.min(FINGERPRINT_LENGTH, file.length())];
+        file.seek(0L);
+        file.readFully(retVal);
+        file.seek(filePointer);
+        return retVal;
+    }
+
+    /**
+     * Helper method returns whether the first bytes of a file are those of a fingerprint. A file shorter than the
+     * fingerprint doesn't match it.
+     */
+    private static boolean startsWith(byte[] fileStart, byte[] fingerprint) {
+        if (fileStart.length < fingerprint.length) {
+            return false;
+        }
+        for (int i = 0; i < fingerprint.length; i++) {
+            if (fileStart[i] != fingerprint[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -16,24 +16,29 @@
  */
 package net.jperf.helpers;
 
+import net.jperf.DetachedStopWatch;
 import net.jperf.StopWatch;
 import net.jperf.GroupedTimingStatistics;
+import net.jperf.TimingRecordSink;
 
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.NoSuchElementException;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class provides the implementation for the AsyncCoalescingStatisticsAppenders made available for different
  * logging frameworks. This class itself is generic in that it does not use any logging-framework-specific APIs, but
  * is intended to be wrapped by classes that DO use those specific APIs.
+ * <p>
+ * The appender is also a {@link TimingRecordSink}, so the timing records of {@link net.jperf.TimingScope}s can be
+ * passed to it directly, bypassing the logging framework. Records are queued on a separate ring buffer of primitive
+ * values and aggregated with the logged StopWatches.
  *
  * @see net.jperf.log4j.AsyncCoalescingStatisticsAppender
  */
-public class GenericAsyncCoalescingStatisticsAppender {
+public class GenericAsyncCoalescingStatisticsAppender implements TimingRecordSink {
 
     /**
      * The GroupedTimingStatisticsHandler defines a callback interface so that logging-framework-specific
@@ -58,6 +63,14 @@ public class GenericAsyncCoalescingStatisticsAppender {
         void error(String errorMessage);
     }
 
+    /**
+     * Handlers that implement this interface are also sent the coarser "rollup" statistics configured with the
+     * RollupTimeSlices option. The rollup statistics are derived by merging the statistics for each TimeSlice, so
+     * StopWatches are only parsed and aggregated once no matter how many resolutions are needed.
+     */
+    public interface RollupStatisticsHandler
+            extends GroupedTimingStatisticsHandler, RollupStatisticsAggregator.RollupHandler { }
+
     // --- configuration options ---
     /**
      * The name of this appender.
@@ -71,10 +84,26 @@ public class GenericAsyncCoalescingStatisticsAppender {
      * CreateRollupStatistics option
      */
     private boolean createRollupStatistics = false;
+    /**
+     * MaxTags option, the tag budget of each time slice
+     */
+    private int maxTags = 0;
+    /**
+     * OverflowTag option
+     */
+    private String overflowTag = GroupedTimingStatistics.DEFAULT_OVERFLOW_TAG;
     /**
      * The QueueSize option, used to set the capacity of the loggedMessages queue
      */
     private int queueSize = 1024;
+    /**
+     * The WaitStrategy option, used by the draining thread when the loggedMessages queue is empty
+     */
+    private String waitStrategy = MpscRingBuffer.PARK.toString();
+    /**
+     * RollupTimeSlices option, a comma-separated list of coarser time slices in milliseconds
+     */
+    private String rollupTimeSlices = "";
     /**
      * Wait time for queue to clear when shutting down, in milliseconds.
      */
@@ -92,21 +121,43 @@ public class GenericAsyncCoalescingStatisticsAppender {
      */
     private GroupedTimingStatisticsHandler handler = null;
     /**
-     * StopWatch log messages are pushed onto this queue, which is initialized in start().
+     * StopWatch log messages are pushed onto this queue, which is initialized in start(). Each element is either a
+     * StopWatch, if the logging framework handed us the StopWatch object itself, or a String that still needs to be
+     * parsed. The queue is a lock-free ring buffer so that application threads logging StopWatches never contend on
+     * a lock.
+     */
+    private MpscRingBuffer<Object> loggedMessages = null;
+    /**
+     * Timing records passed to the record method are pushed onto this queue, which is initialized in start(). Unlike
+     * loggedMessages it holds primitive values, so that recording doesn't allocate any objects.
+     */
+    private TimingRecordRingBuffer recordedTimings = null;
+    /**
+     * The strategy used by the drainingThread to wait for messages and records. It is created in start().
      */
-    private BlockingQueue<String> loggedMessages = null;
+    private MpscRingBuffer.WaitStrategy drainingWaitStrategy;
     /**
      * This parser is used to convert String log messages to StopWatches
      */
     private StopWatchParser stopWatchParser;
+    /**
+     * This aggregator builds the rollup statistics, if any RollupTimeSlices are configured. It is created in start()
+     * and is only used by the drainingThread.
+     */
+    private RollupStatisticsAggregator rollupAggregator;
     /**
      * This thread pumps logs from the loggedMessages queue. It is created in start().
      */
     private Thread drainingThread = null;
     /**
-     * This int keeps track of the total number of messages that had to be discarded due to the queue being full.
+     * This keeps track of the total number of messages that had to be discarded due to the queue being full. It is
+     * incremented by any of the logging threads.
+     */
+    private final AtomicInteger numDiscardedMessages = new AtomicInteger();
+    /**
+     * This keeps track of the total number of tags evicted from time slices because of the MaxTags option.
      */
-    private volatile int numDiscardedMessages = 0;
+    private volatile long numEvictedTags = 0L;
 
     // --- options ---
     /**
@@ -177,11 +228,55 @@ public class GenericAsyncCoalescingStatisticsAppender {
         this.createRollupStatistics = createRollupStatistics;
     }
 
+    /**
+     * The <b>MaxTags</b> option bounds the number of tags for which separate statistics are kept in each time slice.
+     * This protects against tags that are generated from unbounded data such as user IDs or URLs. The most frequent
+     * tags are kept, found using the Space-Saving algorithm, and the statistics for the rest are folded into the
+     * OverflowTag. Rollup tags count towards the budget. The number of evicted tags can be accessed using the
+     * {@link #getNumEvictedTags()} method. Defaults to 0, meaning the number of tags is not bounded.
+     *
+     * @return The MaxTags option.
+     */
+    public int getMaxTags() {
+        return maxTags;
+    }
+
+    /**
+     * Sets the value of the <b>MaxTags</b> option.
+     *
+     * @param maxTags The new MaxTags option, or 0 to keep statistics for every tag.
+     */
+    public void setMaxTags(int maxTags) {
+        if (maxTags < 0) {
+            throw new IllegalArgumentException("MaxTags may not be negative: " + maxTags);
+        }
+        this.maxTags = maxTags;
+    }
+
+    /**
+     * The <b>OverflowTag</b> option is the tag under which the statistics for tags evicted because of the MaxTags
+     * option are reported. Defaults to "__other__".
+     *
+     * @return The OverflowTag option.
+     */
+    public String getOverflowTag() {
+        return overflowTag;
+    }
+
+    /**
+     * Sets the value of the <b>OverflowTag</b> option.
+     *
+     * @param overflowTag The new OverflowTag option.
+     */
+    public void setOverflowTag(String overflowTag) {
+        this.overflowTag = overflowTag;
+    }
+
     /**
      * The <b>QueueSize</b> option is used to control the size of the internal queue used by this appender to store
-     * logged messages before they are sent to downstream appenders. Defaults to 1024. If set too small and the queue
-     * fills up, then logged StopWatches will be discarded. The number of discarded messages can be accessed using the
-     * {@link #getNumDiscardedMessages()} method.
+     * logged messages before they are sent to downstream appenders. Defaults to 1024, and is rounded up to the next
+     * power of 2. If set too small and the queue fills up, then logged StopWatches will be discarded. The number of
+     * discarded messages can be accessed using the {@link #getNumDiscardedMessages()} method.
      *
      * @return The QueueSize option.
      */
@@ -198,6 +293,58 @@ public class GenericAsyncCoalescingStatisticsAppender {
         this.queueSize = queueSize;
     }
 
+    /**
+     * The <b>RollupTimeSlices</b> option is a comma-separated list of time slices, in milliseconds, that are longer
+     * than the TimeSlice, for example "60000,3600000". For each one, the GroupedTimingStatistics created for each
+     * TimeSlice are merged into GroupedTimingStatistics covering the longer window, which are passed to the handler if
+     * it is a {@link RollupStatisticsHandler}. Each rollup time slice must be a multiple of the TimeSlice and of any
+     * shorter rollup time slices. Defaults to empty, meaning no rollups are created.
+     *
+     * @return The RollupTimeSlices option.
+     */
+    public String getRollupTimeSlices() {
+        return rollupTimeSlices;
+    }
+
+    /**
+     * Sets the value of the <b>RollupTimeSlices</b> option.
+     *
+     * @param rollupTimeSlices The new RollupTimeSlices option.
+     */
+    public void setRollupTimeSlices(String rollupTimeSlices) {
+        //validate eagerly so a misconfiguration is reported when the option is set
+        RollupStatisticsAggregator.parseTimeSlices(rollupTimeSlices);
+        this.rollupTimeSlices = (rollupTimeSlices == null) ? "" : rollupTimeSlices;
+    }
+
+    /**
+     * The <b>WaitStrategy</b> option determines how the internal draining thread waits for new messages when the
+     * queue is empty. It is one of:
+     * <ul>
+     * <li>park - spin briefly, then yield, then park the thread for short periods. Uses very little CPU when idle.
+     * <li>yield - spin briefly, then repeatedly yield the CPU.
+     * <li>spin - busy spin. Lowest latency, but uses a full CPU core at all times.
+     * </ul>
+     * Defaults to park. Application threads never wait regardless of this option; if the queue is full the
+     * StopWatch is discarded.
+     *
+     * @return The WaitStrategy option.
+     */
+    public String getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    /**
+     * Sets the value of the <b>WaitStrategy</b> option.
+     *
+     * @param waitStrategy The new WaitStrategy option, one of park, yield or spin.
+     */
+    public void setWaitStrategy(String waitStrategy) {
+        //validate eagerly so a misconfiguration is reported when the option is set
+        MpscRingBuffer.waitStrategyForName(waitStrategy);
+        this.waitStrategy = waitStrategy;
+    }
+
     /**
      * The <b>ShutdownWaitMillis</b> option is used to control how long this class will block, waiting for the queue
      * to drain, when shutting-down the Appender.
@@ -222,7 +369,10 @@ public class GenericAsyncCoalescingStatisticsAppender {
 
     /**
      * The <b>StopWatchParserClassName</b> option is used to determine the class used to parse stop watch messages
-     * into StopWatch instances. This defaults to the standard "StopWatchParser" class.
+     * into StopWatch instances. This defaults to the standard "StopWatchParser" class. Set it to
+     * net.jperf.helpers.JsonStopWatchParser or net.jperf.helpers.LogfmtStopWatchParser to aggregate StopWatches logged
+     * as JSON objects or logfmt lines with the keys of the StructuredStopWatchParser DEFAULT_FIELDS; other keys can be
+     * mapped by a subclass whose no-arg constructor passes them to its superclass.
      *
      * @return The StopWatchParserClassName option.
      */
@@ -246,7 +396,16 @@ public class GenericAsyncCoalescingStatisticsAppender {
      * @return The number of discarded messages.
      */
     public int getNumDiscardedMessages() {
-        return numDiscardedMessages;
+        return numDiscardedMessages.get();
+    }
+
+    /**
+     * Returns the total number of tags that have been evicted from time slices because of the MaxTags option.
+     *
+     * @return The number of evicted tags.
+     */
+    public long getNumEvictedTags() {
+        return numEvictedTags;
     }
 
     // --- main lifecycle methods ---
@@ -264,8 +423,12 @@ public class GenericAsyncCoalescingStatisticsAppender {
 
         this.handler = handler;
         stopWatchParser = newStopWatchParser();
-        numDiscardedMessages = 0;
-        loggedMessages = new ArrayBlockingQueue<String>(getQueueSize());
+        rollupAggregator = newRollupStatisticsAggregator();
+        numDiscardedMessages.set(0);
+        numEvictedTags = 0L;
+        drainingWaitStrategy = MpscRingBuffer.waitStrategyForName(waitStrategy);
+        loggedMessages = new MpscRingBuffer<Object>(getQueueSize(), drainingWaitStrategy);
+        recordedTimings = new TimingRecordRingBuffer(getQueueSize());
 
         drainingThread = new Thread(new Dispatcher(), "jperf-async-stats-appender-sink-" + getName());
         drainingThread.setDaemon(true);
@@ -282,12 +445,54 @@ public class GenericAsyncCoalescingStatisticsAppender {
         //Do a quick check to cull out any messages not meant for us
         if (stopWatchParser.isPotentiallyValid(message)) {
             if (!loggedMessages.offer(message)) {
-                ++numDiscardedMessages;
+                numDiscardedMessages.incrementAndGet();
                 handler.error(message);
             }
         }
     }
 
+    /**
+     * This append method should be called instead of {@link #append(String)} when the logging framework passes the
+     * StopWatch object itself as the log message, as is done by the LoggingStopWatch subclasses. The StopWatch is
+     * aggregated directly, skipping the String formatting and parsing round trip.
+     *
+     * @param stopWatch The logged StopWatch, may not be null. A copy of it is queued, so the caller is free to restart
+     *                  or otherwise modify the StopWatch once this method returns. A {@link DetachedStopWatch}, as
+     *                  logged by the LoggingStopWatch subclasses, is never modified, so it is queued without a copy.
+     */
+    public void append(StopWatch stopWatch) {
+        StopWatch queuedStopWatch = (stopWatch instanceof DetachedStopWatch) ?
+                                    stopWatch :
+                                    new StopWatch(stopWatch.getStartTime(),
+                                                  stopWatch.getElapsedTime(),
+                                                  stopWatch.getTag(),
+                                                  stopWatch.getMessage(),
+                                                  stopWatch.getTimeUnit());
+        if (!loggedMessages.offer(queuedStopWatch)) {
+            numDiscardedMessages.incrementAndGet();
+            handler.error(queuedStopWatch.toString());
+        }
+    }
+
+    /**
+     * This method may be called by any thread to aggregate a timing record without creating a StopWatch or a log
+     * message, for example by a {@link net.jperf.TimingScope} stopped with this appender as its sink. Nothing is
+     * allocated unless the record has to be discarded because the queue is full. The elapsed time is converted to the
+     * time unit of the statistics when the record is aggregated.
+     *
+     * @param tag         The grouping tag of the timed block.
+     * @param startTime   The start time of the block, in milliseconds since the epoch.
+     * @param elapsedTime The elapsed time of the block, in the specified time unit.
+     * @param timeUnit    The time unit of the elapsed time, one of NANOSECONDS, MICROSECONDS or MILLISECONDS.
+     */
+    public void record(String tag, long startTime, long elapsedTime, TimeUnit timeUnit) {
+        MiscUtils.timeUnitSymbol(timeUnit); //checks that the unit is supported
+        if (!recordedTimings.offer(tag, startTime, elapsedTime, timeUnit)) {
+            numDiscardedMessages.incrementAndGet();
+            handler.error(new StopWatch(startTime, elapsedTime, tag, null, timeUnit).toString());
+        }
+    }
+
     /**
      * This method should be called on shutdown to flush any pending messages in the queue and create a final
      * GroupedTimingStatistics instance if necessary.
@@ -307,14 +512,19 @@ public class GenericAsyncCoalescingStatisticsAppender {
             //wait for the draining thread to finish
             drainingThread.join(shutdownWaitMillis);
             drainingThread.interrupt();
-            if (loggedMessages.size() > 0) {
-                handler.error("Shutdown, queued/undrained stopwatch count: " + loggedMessages.size());
+            if (loggedMessages.size() + recordedTimings.size() > 0) {
+                handler.error("Shutdown, queued/undrained stopwatch count: "
+                              + (loggedMessages.size() + recordedTimings.size()));
             }
         } catch (Exception e) {
             handler.error("Unexpected error stopping AsyncCoalescingStatisticsAppender draining thread: "
                     + e.getMessage());
         } finally {
-            loggedMessages.clear();
+            //only the draining thread may remove messages from the queue while it is running
+            if (!drainingThread.isAlive()) {
+                loggedMessages.clear();
+                recordedTimings.clear();
+            }
         }
     }
 
@@ -331,38 +541,91 @@ public class GenericAsyncCoalescingStatisticsAppender {
         }
     }
 
+    /**
+     * Helper method creates the RollupStatisticsAggregator used to build rollup statistics from the statistics for
+     * each time slice.
+     *
+     * @return The aggregator, or null if no rollups are configured or the handler can't receive them.
+     */
+    private RollupStatisticsAggregator newRollupStatisticsAggregator() {
+        long[] rollupTimeSliceValues = RollupStatisticsAggregator.parseTimeSlices(rollupTimeSlices);
+        if (rollupTimeSliceValues.length == 0) {
+            return null;
+        }
+        if (!(handler instanceof RollupStatisticsHandler)) {
+            handler.error("RollupTimeSlices " + rollupTimeSlices + " ignored, the handler is not a "
+                          + RollupStatisticsHandler.class.getName());
+            return null;
+        }
+
+        final RollupStatisticsHandler rollupHandler = (RollupStatisticsHandler) handler;
+        return new RollupStatisticsAggregator(timeSlice, rollupTimeSliceValues,
+                                              new RollupStatisticsAggregator.RollupHandler() {
+            public void handleRollup(GroupedTimingStatistics statistics, long rollupTimeSlice) {
+                try {
+                    rollupHandler.handleRollup(statistics, rollupTimeSlice);
+                } catch (Exception e) {
+                    handler.error("Error calling the RollupStatisticsHandler: " + e.getMessage());
+                }
+            }
+        });
+    }
+
     // --- Support Classes ---
     /**
      * This Dispatcher Runnable uses a StopWatchesFromQueueIterator to pull StopWatch logging message off the
      * loggedMessages queue, which are grouped to create GroupedTimingStatistics by the GroupingStatisticsIterator.
-     * The GroupedTimingStatisticsHandler is then called to deal with the created GroupedTimingStatistics.
+     * The GroupedTimingStatisticsHandler is then called to deal with the created GroupedTimingStatistics, and the
+     * statistics are merged into any rollup windows.
      */
     private class Dispatcher implements Runnable {
         public void run() {
             GroupingStatisticsIterator statsIterator =
                     new GroupingStatisticsIterator(new StopWatchesFromQueueIterator(),
                                                    timeSlice,
-                                                   createRollupStatistics);
+                                                   createRollupStatistics,
+                                                   maxTags,
+                                                   overflowTag);
+            RollupStatisticsAggregator rollupAggregator =
+                    GenericAsyncCoalescingStatisticsAppender.this.rollupAggregator;
 
             while (statsIterator.hasNext()) {
+                GroupedTimingStatistics statistics = statsIterator.next();
+                numEvictedTags += statistics.getNumEvictedTags();
                 try {
-                    handler.handle(statsIterator.next());
+                    handler.handle(statistics);
                 } catch (Exception e) {
                     handler.error("Error calling the GroupedTimingStatisticsHandler: " + e.getMessage());
                 }
+                if (rollupAggregator != null) {
+                    rollupAggregator.add(statistics);
+                }
+            }
+
+            //we're shutting down, so send out the partial rollup windows just like the last partial time slice
+            if (rollupAggregator != null) {
+                rollupAggregator.flush();
             }
         }
     }
 
     /**
-     * This helper class pulls StopWatch log messages off the loggedMessages queue and exposes them through the
-     * Iterator interface.
+     * This helper class pulls StopWatch log messages off the loggedMessages queue, and the timing records off the
+     * recordedTimings queue, and exposes them through the Iterator interface.
      */
     private class StopWatchesFromQueueIterator implements Iterator<StopWatch> {
+        /**
+         * The maximum number of messages removed from the loggedMessages queue in a single batch.
+         */
+        private static final int DRAIN_BATCH_SIZE = 256;
         /**
          * Messages are drained to this list in blocks.
          */
-        private LinkedList<String> drainedMessages = new LinkedList<String>();
+        private ArrayList<Object> drainedMessages = new ArrayList<Object>(DRAIN_BATCH_SIZE);
+        /**
+         * The index of the next message to be processed in drainedMessages.
+         */
+        private int drainedMessagesIndex;
         /**
          * Keeps track of the NEXT stop watch we will return.
          */
@@ -405,26 +668,22 @@ public class GenericAsyncCoalescingStatisticsAppender {
         }
 
         private StopWatch getNext() {
-            if (done) {
-                //if we already found out we're done, short circuit so we won't block
-                return null;
-            }
-
             while (true) {
-                if (drainedMessages.isEmpty()) {
-                    loggedMessages.drainTo(drainedMessages, 64);
+                if (drainedMessagesIndex == drainedMessages.size()) {
+                    if (done) {
+                        //if we already found out we're done, short circuit so we won't block
+                        return null;
+                    }
+                    drainedMessages.clear();
+                    drainedMessagesIndex = 0;
 
-                    //drainTo is more efficient but it doesn't block, so if we're still empty call take() to block
-                    if (drainedMessages.isEmpty()) {
-                        //then wait for a message to show up
+                    //drainTo is more efficient but it doesn't wait, so if we're still empty we wait for messages
+                    if (drain() == 0) {
                         try {
-                            String message = loggedMessages.poll(timeSlice, TimeUnit.MILLISECONDS);
-                            if (message == null) {
+                            if (!awaitMessages()) {
                                 // no new messages, but want to indicate to check the timeslice
                                 timeSliceOver = true;
                                 return null;
-                            } else {
-                                drainedMessages.add(message);
                             }
                         } catch (InterruptedException ie) {
                             //someone interrupted us, we're done
@@ -434,16 +693,22 @@ public class GenericAsyncCoalescingStatisticsAppender {
                     }
                 }
 
-                while (!drainedMessages.isEmpty()) {
-                    String message = drainedMessages.removeFirst();
-                    if (message.length() == 0) {
+                while (drainedMessagesIndex < drainedMessages.size()) {
+                    Object message = drainedMessages.get(drainedMessagesIndex);
+                    drainedMessages.set(drainedMessagesIndex++, null);
+                    if (message instanceof StopWatch) {
+                        //no parsing necessary, the logging framework passed us the StopWatch itself
+                        return (StopWatch) message;
+                    }
+                    if (((String) message).length() == 0) {
                         //the empty message is pushed onto the queue by the enclosing class' close() method
-                        //to indicate that we're done
+                        //to indicate that we're done, but the records queued before it are still aggregated
                         done = true;
-                        return null;
+                        recordedTimings.drainTo(drainedMessages, Integer.MAX_VALUE);
+                        continue;
                     }
 
-                    StopWatch parsedStopWatch = stopWatchParser.parseStopWatch(message);
+                    StopWatch parsedStopWatch = stopWatchParser.parseStopWatch((String) message);
                     if (parsedStopWatch != null) {
                         return parsedStopWatch;
                     }
@@ -451,5 +716,31 @@ public class GenericAsyncCoalescingStatisticsAppender {
                 }
             }
         }
+
+        /**
+         * Drains a batch from both queues into drainedMessages, and returns the number of elements drained.
+         */
+        private int drain() {
+            return loggedMessages.drainTo(drainedMessages, DRAIN_BATCH_SIZE) +
+                   recordedTimings.drainTo(drainedMessages, DRAIN_BATCH_SIZE);
+        }
+
+        /**
+         * Waits up to the time slice for messages or records to show up in either queue, and drains them.
+         *
+         * @return false if nothing showed up before the time slice was over.
+         */
+        private boolean awaitMessages() throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeSlice);
+            for (int attempt = 0; true; attempt++) {
+                drainingWaitStrategy.idle(attempt);
+                if (drain() > 0) {
+                    return true;
+                }
+                if (System.nanoTime() - deadline >= 0) {
+                    return false;
+                }
+            }
+        }
     }
 }
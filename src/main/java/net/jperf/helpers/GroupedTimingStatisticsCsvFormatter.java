@@ -20,6 +20,8 @@ import net.jperf.TimingStatistics;
 import net.jperf.GroupedTimingStatistics;
 
 import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * This helper formatter class outputs {@link net.jperf.GroupedTimingStatistics} in a comma-separated value format.
@@ -39,6 +41,28 @@ public class GroupedTimingStatisticsCsvFormatter implements GroupedTimingStatist
      */
     public static final String DEFAULT_FORMAT_STRING = "tag,start,stop,mean,min,max,stddev,count";
 
+    /**
+     * Matches percentile config names, such as p99 or codeBlock1P999. Group 1 is the (possibly empty) tag and group 2
+     * is the percentile digits.
+     */
+    protected static final Pattern PERCENTILE_PATTERN = Pattern.compile("(.*)[pP](\\d{2,4})");
+
+    /**
+     * Matches exact percentile config names, such as exactP99 or codeBlock1ExactP999. Group 1 is the (possibly empty)
+     * tag and group 2 is the percentile digits.
+     */
+    protected static final Pattern EXACT_PERCENTILE_PATTERN = Pattern.compile("(.*?)[eE]xact[pP](\\d{2,4})");
+
+    /**
+     * The retriever of the non-pivoted "unit" value, which is the time unit of the GroupedTimingStatistics rather than
+     * a value of the TimingStatistics, so it is appended by the format method itself.
+     */
+    private static final TimingStatsValueRetriever TIME_UNIT_RETRIEVER = new TimingStatsValueRetriever() {
+        public void appendValue(String tag, String start, String stop, long windowLength,
+                                TimingStatistics timingStats,
+                                StringBuilder toAppend) { }
+    };
+
     //whether or not the output is pivoted
     private boolean pivot;
 
@@ -64,9 +88,13 @@ public class GroupedTimingStatisticsCsvFormatter implements GroupedTimingStatist
      *                     for each tagged TimingStatistics item contained in the GroupedTimingStatisitcs).
      * @param configString The config string defines which values will be output, and should be a comma-separated list
      *                     of the values. Possible values if pivot is false are
-     *                     tag, start, stop, mean, min, max, stddev, count and tps. If pivot is true the possible
-     *                     values are start, stop, and then one of the statistics prefixed with the tag name. For
-     *                     example, a possible configString could be "start,stop,codeBlock1Mean,codeBlock2Max".
+     *                     tag, start, stop, unit, mean, min, max, stddev, count, tps, the percentiles p50, p90, p95,
+     *                     p99 and p999, and the exact percentiles exactP50 to exactP999, which are empty unless
+     *                     they were calculated by an {@link ExactPercentileCollector}. The unit is the symbol of the
+     *                     time unit of the times, "ms" unless the statistics were kept in "us" or "ns". If pivot is
+     *                     true the possible values are start, stop, unit, and then one of the statistics prefixed with
+     *                     the tag name. For example, a possible configString could be
+     *                     "start,stop,codeBlock1Mean,codeBlock2Max".
      */
     public GroupedTimingStatisticsCsvFormatter(boolean pivot, String configString) {
         this.pivot = pivot;
@@ -99,6 +127,7 @@ public class GroupedTimingStatisticsCsvFormatter implements GroupedTimingStatist
         String stopTime = formatDate(stats.getStopTime());
         long windowLength = stats.getStopTime() - stats.getStartTime();
 
+        String timeUnit = MiscUtils.timeUnitSymbol(stats.getTimeUnit());
         StringBuilder retVal = new StringBuilder();
 
         if (pivot) {
@@ -119,7 +148,11 @@ public class GroupedTimingStatisticsCsvFormatter implements GroupedTimingStatist
                     if (i > 0) {
                         retVal.append(',');
                     }
-                    valueRetrievers[i].appendValue(tag, startTime, stopTime, windowLength, timingStats, retVal);
+                    if (valueRetrievers[i] == TIME_UNIT_RETRIEVER) {
+                        retVal.append(timeUnit);
+                    } else {
+                        valueRetrievers[i].appendValue(tag, startTime, stopTime, windowLength, timingStats, retVal);
+                    }
                 }
                 retVal.append(MiscUtils.NEWLINE);
             }
@@ -130,6 +163,17 @@ public class GroupedTimingStatisticsCsvFormatter implements GroupedTimingStatist
 
     // --- helper methods ---
 
+    /**
+     * Converts the digits following the "p" in a percentile config name to a percentile: the first 2 digits are the
+     * whole percent and any remaining digits are decimals, so "p50" is 50.0, "p99" is 99.0 and "p999" is 99.9.
+     *
+     * @param digits The digits, 2 to 4 of them.
+     * @return The percentile.
+     */
+    protected static double parsePercentile(String digits) {
+        return Double.parseDouble(digits.substring(0, 2) + "." + digits.substring(2) + "0");
+    }
+
     /**
      * Formats the specified time in yyyy-MM-dd HH:mm:ss format. Subclasses may override to give a different output.
      *
@@ -163,6 +207,37 @@ public class GroupedTimingStatisticsCsvFormatter implements GroupedTimingStatist
                     toAppend.append(stop);
                 }
             };
+        } else if ("unit".equalsIgnoreCase(configName)) {
+            return new GroupedTimingStatisticsValueRetriever() {
+                public void appendValue(String start, String stop, long windowLength,
+                                        GroupedTimingStatistics stats, StringBuilder toAppend) {
+                    toAppend.append(MiscUtils.timeUnitSymbol(stats.getTimeUnit()));
+                }
+            };
+        } else if (EXACT_PERCENTILE_PATTERN.matcher(configName).matches()) {
+            Matcher matcher = EXACT_PERCENTILE_PATTERN.matcher(configName);
+            matcher.matches();
+            final String tag = matcher.group(1);
+            final double percentile = parsePercentile(matcher.group(2));
+            return new GroupedTimingStatisticsValueRetriever() {
+                public void appendValue(String start, String stop, long windowLength,
+                                        GroupedTimingStatistics stats, StringBuilder toAppend) {
+                    TimingStatistics timingStats = stats.getStatisticsByTag().get(tag);
+                    appendExactPercentile(timingStats, percentile, toAppend);
+                }
+            };
+        } else if (PERCENTILE_PATTERN.matcher(configName).matches()) {
+            Matcher matcher = PERCENTILE_PATTERN.matcher(configName);
+            matcher.matches();
+            final String tag = matcher.group(1);
+            final double percentile = parsePercentile(matcher.group(2));
+            return new GroupedTimingStatisticsValueRetriever() {
+                public void appendValue(String start, String stop, long windowLength,
+                                        GroupedTimingStatistics stats, StringBuilder toAppend) {
+                    TimingStatistics timingStats = stats.getStatisticsByTag().get(tag);
+                    toAppend.append((timingStats == null) ? "" : timingStats.getPercentile(percentile));
+                }
+            };
         } else if (configName.toLowerCase().endsWith("mean")) {
             final String tag = configName.substring(0, configName.length() - "mean".length());
             return new GroupedTimingStatisticsValueRetriever() {
@@ -259,6 +334,8 @@ public class GroupedTimingStatisticsCsvFormatter implements GroupedTimingStatist
                     toAppend.append(stop);
                 }
             };
+        } else if ("unit".equals(configName)) {
+            return TIME_UNIT_RETRIEVER;
         } else if ("mean".equals(configName)) {
             return new TimingStatsValueRetriever() {
                 public void appendValue(String tag, String start, String stop, long windowLength,
@@ -307,11 +384,40 @@ public class GroupedTimingStatisticsCsvFormatter implements GroupedTimingStatist
                     toAppend.append((timingStats.getCount() * 1000.0) / windowLength);
                 }
             };
+        } else if (configName.matches("p\\d{2,4}")) {
+            final double percentile = parsePercentile(configName.substring(1));
+            return new TimingStatsValueRetriever() {
+                public void appendValue(String tag, String start, String stop, long windowLength,
+                                        TimingStatistics timingStats,
+                                        StringBuilder toAppend) {
+                    toAppend.append(timingStats.getPercentile(percentile));
+                }
+            };
+        } else if (configName.matches("exact[pP]\\d{2,4}")) {
+            final double percentile = parsePercentile(configName.substring("exactp".length()));
+            return new TimingStatsValueRetriever() {
+                public void appendValue(String tag, String start, String stop, long windowLength,
+                                        TimingStatistics timingStats,
+                                        StringBuilder toAppend) {
+                    appendExactPercentile(timingStats, percentile, toAppend);
+                }
+            };
         } else {
             throw new IllegalArgumentException("Unknown CSV format config string: " + configName);
         }
     }
 
+    /**
+     * Helper method appends the exact value of a percentile, or nothing if it isn't known.
+     */
+    private static void appendExactPercentile(TimingStatistics timingStats, double percentile,
+                                              StringBuilder toAppend) {
+        long value = (timingStats == null) ? -1L : timingStats.getExactPercentile(percentile);
+        if (value >= 0) {
+            toAppend.append(value);
+        }
+    }
+
     // --- Helper interfaces ---
 
     protected static interface TimingStatsValueRetriever {
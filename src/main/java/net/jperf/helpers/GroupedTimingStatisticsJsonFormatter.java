@@ -17,6 +17,7 @@
 package net.jperf.helpers;
 
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import net.jperf.TimingStatistics;
 import net.jperf.GroupedTimingStatistics;
@@ -43,17 +44,21 @@ import net.jperf.GroupedTimingStatistics;
  * 	<li>6 = Standard Deviation
  * 	<li>7 = Count
  * 	<li>8 = Transaction Per Second
+ * 	<li>9 - 13 = 50th, 90th, 95th, 99th and 99.9th Percentiles
+ * 	<li>14 - 18 = Exact 50th, 90th, 95th, 99th and 99.9th Percentiles, only if the formatter outputs exact percentiles
  * </ul>
  * <pre>
- * [["tag",new Date(0000000),new Date(0000000), 0, 0, 0, 0, 0, 0], ...]
+ * [["tag",new Date(0000000),new Date(0000000), 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0], ...]
  * </pre>
  * This format can be converted to a Google <a href="https://developers.google.com/chart/interactive/docs/reference#DataTable">DataTable</a> using the helper function 
  * <code><a href="https://developers.google.com/chart/interactive/docs/reference#google.visualization.arraytodatatable">google.visualization.arrayToDataTable()</a></code>
 
  * <h6>List-Objects Format</h6>
  * <pre>
- * [{tag:"name",startTime:new Date(0000000),stopTime:new Date(0000000),mean:0,min:0.max:0,stddev:0,count:0,tps:0}, ...]
+ * [{tag:"name",startTime:new Date(0000000),stopTime:new Date(0000000),mean:0,min:0.max:0,stddev:0,count:0,tps:0,p50:0,p90:0,p95:0,p99:0,p999:0}, ...]
  * </pre>
+ * The times are in the time unit of the statistics. In this format, statistics that are not kept in milliseconds have
+ * a {@code unit} property after the stopTime, {@code 'us'} or {@code 'ns'}.
  * 
  * <h6>Google DataTable Format</h6>
  * Google DataTable format is designed for use with Google Visualization API.
@@ -69,9 +74,12 @@ import net.jperf.GroupedTimingStatistics;
  *        {id: 'max', label: 'Max', type: 'number'},
  *        {id: 'stddev', label: 'Standard Deviation', type: 'number'},
  *        {id: 'count', label: 'Count', type: 'number'},
- *        {id: 'tps', label: 'Transactions Per Second', type: 'number'}
+ *        {id: 'tps', label: 'Transactions Per Second', type: 'number'},
+ *        {id: 'p50', label: '50th Percentile', type: 'number'},
+ *        ...
+ *        {id: 'p999', label: '99.9th Percentile', type: 'number'}
  *       ],
- * rows: [{c:[{v: 'tag'}, {v: new Date(0000000)},{v: new Date(0000000)},{v: 0},{v: 0},{v: 0},{v: 0},{v: 0},{v: 0}]}
+ * rows: [{c:[{v: 'tag'}, {v: new Date(0000000)},{v: new Date(0000000)},{v: 0},{v: 0},{v: 0},{v: 0},{v: 0},{v: 0},{v: 0},{v: 0},{v: 0},{v: 0},{v: 0}]}
  *      ]
  * }
  * </pre>
@@ -100,7 +108,22 @@ public class GroupedTimingStatisticsJsonFormatter implements StatisticsFormatter
 		}
 	}
 
+	/**
+	 * The percentiles output after the TPS value, in order.
+	 */
+	private static final StatsValueRetriever[] PERCENTILE_RETRIEVERS = {
+		StatsValueRetriever.P50_VALUE_RETRIEVER,
+		StatsValueRetriever.P90_VALUE_RETRIEVER,
+		StatsValueRetriever.P95_VALUE_RETRIEVER,
+		StatsValueRetriever.P99_VALUE_RETRIEVER,
+		StatsValueRetriever.P999_VALUE_RETRIEVER
+	};
+
 	private final JsonFormat format;
+	/**
+	 * Whether the exact percentiles are output after the approximate ones.
+	 */
+	private final boolean exactPercentiles;
 	private boolean isFirst = true;
 	
 	 // --- Constructors ---
@@ -110,6 +133,7 @@ public class GroupedTimingStatisticsJsonFormatter implements StatisticsFormatter
 	 */
 	public GroupedTimingStatisticsJsonFormatter() {
 		this.format = JsonFormat.LIST;
+		this.exactPercentiles = false;
 	}
 
 	/**
@@ -119,6 +143,20 @@ public class GroupedTimingStatisticsJsonFormatter implements StatisticsFormatter
 	 * @throws IllegalArgumentException if {@code jsonFormat} is not one of the supported format types
 	 */
 	public GroupedTimingStatisticsJsonFormatter(String jsonFormat) {
+		this(jsonFormat, false);
+	}
+
+	/**
+	 * Construct JSON formatter that may also output the exact 50th, 90th, 95th, 99th and 99.9th percentiles calculated
+	 * by an {@link ExactPercentileCollector}, after the approximate ones. They are named exactP50 to exactP999, and are
+	 * null if they weren't calculated for a tag.
+	 * @see JsonFormat
+	 * @param jsonFormat json format type, not {@code null}
+	 * @param exactPercentiles whether the exact percentiles are output
+	 * @throws IllegalArgumentException if {@code jsonFormat} is not one of the supported format types
+	 */
+	public GroupedTimingStatisticsJsonFormatter(String jsonFormat, boolean exactPercentiles) {
+		this.exactPercentiles = exactPercentiles;
 		String[] parts = jsonFormat.split(":");
 		String formatId = JsonFormat.LIST.id;
 		switch (parts.length) {
@@ -139,7 +177,7 @@ public class GroupedTimingStatisticsJsonFormatter implements StatisticsFormatter
 		case GOOGLE_DATA_TABLE:
 			return formatGoogleDataTableRow(stats);
 		case LIST_OBJECTS:
-			formatListObjects(stats);
+			return formatListObjects(stats);
 		default:
 			return formatList(stats);
 		}
@@ -172,6 +210,14 @@ public class GroupedTimingStatisticsJsonFormatter implements StatisticsFormatter
 			retVal.append("{v:").append(timingStats.getStandardDeviation()).append("},");
 			retVal.append("{v:").append(timingStats.getCount()).append("},");
 			retVal.append("{v:").append(StatsValueRetriever.TPS_VALUE_RETRIEVER.getStatsValue(timingStats, stats.getWindowLength())).append("}");
+			for (StatsValueRetriever percentileRetriever : PERCENTILE_RETRIEVERS) {
+				retVal.append(",{v:").append(percentileRetriever.getStatsValue(timingStats, stats.getWindowLength())).append("}");
+			}
+			if (exactPercentiles) {
+				for (StatsValueRetriever percentileRetriever : PERCENTILE_RETRIEVERS) {
+					retVal.append(",{v:").append(getExactPercentile(timingStats, percentileRetriever)).append("}");
+				}
+			}
 			retVal.append("]}");
 		}
 		return retVal.toString();
@@ -195,12 +241,25 @@ public class GroupedTimingStatisticsJsonFormatter implements StatisticsFormatter
 			retVal.append("{tag:'").append(jsonize(tag)).append("',");
 			retVal.append("startTime:new Date(").append(stats.getStartTime()).append("),");
 			retVal.append("stopTime:new Date(").append(stats.getStopTime()).append("),");
+			if (stats.getTimeUnit() != TimeUnit.MILLISECONDS) {
+				retVal.append("unit:'").append(MiscUtils.timeUnitSymbol(stats.getTimeUnit())).append("',");
+			}
 			retVal.append("mean:").append(timingStats.getMean()).append(",");
 			retVal.append("min:").append(timingStats.getMin()).append(",");
 			retVal.append("max:").append(timingStats.getMax()).append(",");
 			retVal.append("stddev:").append(timingStats.getStandardDeviation()).append(",");
 			retVal.append("count:").append(timingStats.getCount()).append(",");
 			retVal.append("tps:").append(StatsValueRetriever.TPS_VALUE_RETRIEVER.getStatsValue(timingStats, stats.getWindowLength()));
+			for (StatsValueRetriever percentileRetriever : PERCENTILE_RETRIEVERS) {
+				retVal.append(",").append(percentileRetriever.getValueName().toLowerCase()).append(":");
+				retVal.append(percentileRetriever.getStatsValue(timingStats, stats.getWindowLength()));
+			}
+			if (exactPercentiles) {
+				for (StatsValueRetriever percentileRetriever : PERCENTILE_RETRIEVERS) {
+					retVal.append(",exact").append(percentileRetriever.getValueName()).append(":");
+					retVal.append(getExactPercentile(timingStats, percentileRetriever));
+				}
+			}
 			retVal.append("}");
 		}
 		return retVal.toString();
@@ -230,6 +289,14 @@ public class GroupedTimingStatisticsJsonFormatter implements StatisticsFormatter
 			retVal.append(timingStats.getStandardDeviation()).append(",");
 			retVal.append(timingStats.getCount()).append(",");
 			retVal.append(StatsValueRetriever.TPS_VALUE_RETRIEVER.getStatsValue(timingStats, stats.getWindowLength()));
+			for (StatsValueRetriever percentileRetriever : PERCENTILE_RETRIEVERS) {
+				retVal.append(",").append(percentileRetriever.getStatsValue(timingStats, stats.getWindowLength()));
+			}
+			if (exactPercentiles) {
+				for (StatsValueRetriever percentileRetriever : PERCENTILE_RETRIEVERS) {
+					retVal.append(",").append(getExactPercentile(timingStats, percentileRetriever));
+				}
+			}
 			retVal.append("]");
 		}
 		return retVal.toString();
@@ -249,7 +316,21 @@ public class GroupedTimingStatisticsJsonFormatter implements StatisticsFormatter
 			retVal.append("{id: 'max', label:'Max', type: 'number'},").append(MiscUtils.NEWLINE);
 			retVal.append("{id: 'stddev', label:'Standard Deviation', type: 'number'},").append(MiscUtils.NEWLINE);
 			retVal.append("{id: 'count', label:'Count', type: 'number'},").append(MiscUtils.NEWLINE);
-			retVal.append("{id: 'tps', label:'Transactions Per Second', type: 'number'}],").append(MiscUtils.NEWLINE);
+			retVal.append("{id: 'tps', label:'Transactions Per Second', type: 'number'},").append(MiscUtils.NEWLINE);
+			retVal.append("{id: 'p50', label:'50th Percentile', type: 'number'},").append(MiscUtils.NEWLINE);
+			retVal.append("{id: 'p90', label:'90th Percentile', type: 'number'},").append(MiscUtils.NEWLINE);
+			retVal.append("{id: 'p95', label:'95th Percentile', type: 'number'},").append(MiscUtils.NEWLINE);
+			retVal.append("{id: 'p99', label:'99th Percentile', type: 'number'},").append(MiscUtils.NEWLINE);
+			retVal.append("{id: 'p999', label:'99.9th Percentile', type: 'number'}");
+			if (exactPercentiles) {
+				retVal.append(",").append(MiscUtils.NEWLINE);
+				retVal.append("{id: 'exactP50', label:'Exact 50th Percentile', type: 'number'},").append(MiscUtils.NEWLINE);
+				retVal.append("{id: 'exactP90', label:'Exact 90th Percentile', type: 'number'},").append(MiscUtils.NEWLINE);
+				retVal.append("{id: 'exactP95', label:'Exact 95th Percentile', type: 'number'},").append(MiscUtils.NEWLINE);
+				retVal.append("{id: 'exactP99', label:'Exact 99th Percentile', type: 'number'},").append(MiscUtils.NEWLINE);
+				retVal.append("{id: 'exactP999', label:'Exact 99.9th Percentile', type: 'number'}");
+			}
+			retVal.append("],").append(MiscUtils.NEWLINE);
 			retVal.append("rows: [").append(MiscUtils.NEWLINE);
 			break;
 		default:
@@ -270,6 +351,18 @@ public class GroupedTimingStatisticsJsonFormatter implements StatisticsFormatter
 	}
 	
 	// --- Helper Methods ---
+
+	/**
+	 * Gets the exact value of the percentile of a percentile retriever as a JSON value.
+	 * @param timingStats timing statistics
+	 * @param percentileRetriever the retriever of the approximate percentile
+	 * @return the exact percentile, or {@code null} if it wasn't calculated
+	 */
+	private static Long getExactPercentile(TimingStatistics timingStats, StatsValueRetriever percentileRetriever) {
+		double percentile = ((StatsValueRetriever.PercentileValueRetriever) percentileRetriever).getPercentile();
+		long value = timingStats.getExactPercentile(percentile);
+		return (value < 0) ? null : value;
+	}
 	
 	/**
 	 * JSONize a string value, performing any character escaping as needed.
@@ -21,6 +21,7 @@ import net.jperf.StopWatch;
 
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This Iterator wraps a {@link StopWatchLogIterator} to return a single {@link GroupedTimingStatistics} object for
@@ -47,6 +48,18 @@ public class
      * Whether or not entries for "rollup" tags should be created in each GroupedTimingStatistics returned.
      */
     private boolean createRollupStatistics;
+    /**
+     * The tag budget of each GroupedTimingStatistics returned, or 0 if the number of tags is not bounded.
+     */
+    private int maxTags;
+    /**
+     * The tag under which the statistics for tags evicted because of the tag budget are kept.
+     */
+    private String overflowTag;
+    /**
+     * The time unit of each GroupedTimingStatistics returned.
+     */
+    private TimeUnit timeUnit = StopWatch.getDefaultTimeUnit();
 
     /**
      * This hasNext is really a tri-state var - null indicates I don't know if there's a next one or not.
@@ -59,11 +72,16 @@ public class
     /**
      * Keeps track of the CURRENT GroupedTimingStatistics while we iterate over the underlying StopWatches
      */
-    private GroupedTimingStatistics currentGroupedTimingStatistics = new GroupedTimingStatistics();
+    private GroupedTimingStatistics currentGroupedTimingStatistics;
     /**
      * The end time, in milliseconds since the epoch, of the next time slice.
      */
     private long nextTimeSliceEndTime = 0L;
+    /**
+     * Collects the sample times of the current time slice to calculate exact percentiles, or null if they aren't
+     * calculated.
+     */
+    private ExactPercentileCollector exactPercentileCollector;
 
     /**
      * Creates a GroupingStatisticsIterator that groups StopWatch instances pulled from the specified
@@ -91,10 +109,34 @@ public class
     public GroupingStatisticsIterator(Iterator<StopWatch> stopWatchIterator,
                                       long timeSlice,
                                       boolean createRollupStatistics) {
+        this(stopWatchIterator, timeSlice, createRollupStatistics, 0, GroupedTimingStatistics.DEFAULT_OVERFLOW_TAG);
+    }
+
+    /**
+     * Creates a GroupingStatisticsIterator that groups StopWatch instances pulled from the specified
+     * stopWatchIterator into GroupedTimingStatistics that keep statistics for at most maxTags tags each.
+     *
+     * @param stopWatchIterator      The StopWatch Iterator that provides the StopWatch instances. If stopWatchIterator
+     *                               returns a null value, will check to see if a timeslice is over and return
+     *                               GroupedTimingStatistics if necessary.
+     * @param timeSlice              The length of each time slice, in milliseconds.
+     * @param createRollupStatistics Whether or not entries for "rollup" tags should be created
+     * @param maxTags                The tag budget of each time slice, or 0 to keep statistics for every tag.
+     * @param overflowTag            The tag under which the statistics for tags evicted because of the tag budget
+     *                               are kept.
+     * @see GroupedTimingStatistics#setMaxTags(int)
+     */
+    public GroupingStatisticsIterator(Iterator<StopWatch> stopWatchIterator,
+                                      long timeSlice,
+                                      boolean createRollupStatistics,
+                                      int maxTags,
+                                      String overflowTag) {
         this.stopWatchIterator = stopWatchIterator;
         this.timeSlice = timeSlice;
         this.createRollupStatistics = createRollupStatistics;
-        this.currentGroupedTimingStatistics.setCreateRollupStatistics(createRollupStatistics);
+        this.maxTags = maxTags;
+        this.overflowTag = overflowTag;
+        this.currentGroupedTimingStatistics = newGroupedTimingStatistics();
     }
 
     public boolean hasNext() {
@@ -131,6 +173,83 @@ public class
         return retVal;
     }
 
+    /**
+     * Gets the statistics of the time slice that is currently being grouped, which will be returned once a StopWatch
+     * past its end is found. Together with {@link #getNextTimeSliceEndTime()}, this is the state that must be saved to
+     * resume grouping later with {@link #resume(GroupedTimingStatistics, long)}. It is only consistent with the
+     * StopWatches pulled from the underlying Iterator right after a call to next(), before hasNext() is called again.
+     *
+     * @return The statistics of the current time slice, which may be empty.
+     */
+    public GroupedTimingStatistics getCurrentStatistics() {
+        return currentGroupedTimingStatistics;
+    }
+
+    /**
+     * Gets the end time of the time slice that is currently being grouped.
+     *
+     * @return The end time, in milliseconds since the epoch, or 0 if no StopWatch has been grouped yet.
+     */
+    public long getNextTimeSliceEndTime() {
+        return nextTimeSliceEndTime;
+    }
+
+    /**
+     * Resumes grouping from a state saved with {@link #getCurrentStatistics()} and
+     * {@link #getNextTimeSliceEndTime()}. The StopWatches that follow are added to the saved statistics until the end
+     * of the time slice. This must be called before the first call to hasNext() or next().
+     *
+     * @param currentStatistics    The saved statistics of the current time slice.
+     * @param nextTimeSliceEndTime The saved end time of the current time slice.
+     */
+    public void resume(GroupedTimingStatistics currentStatistics, long nextTimeSliceEndTime) {
+        this.currentGroupedTimingStatistics = currentStatistics;
+        this.nextTimeSliceEndTime = nextTimeSliceEndTime;
+    }
+
+    /**
+     * Gets the time unit of the statistics returned.
+     *
+     * @return The time unit, by default the {@link StopWatch#getDefaultTimeUnit() default time unit} of StopWatches.
+     */
+    public TimeUnit getTimeUnit() {
+        return timeUnit;
+    }
+
+    /**
+     * Sets the time unit of the statistics returned. This should be called before the first call to hasNext() or
+     * next(); the statistics of a time slice resumed from a checkpoint in another time unit keep their time unit.
+     *
+     * @param timeUnit The time unit, one of NANOSECONDS, MICROSECONDS or MILLISECONDS.
+     */
+    public void setTimeUnit(TimeUnit timeUnit) {
+        MiscUtils.timeUnitSymbol(timeUnit); //checks that the unit is supported
+        this.timeUnit = timeUnit;
+        if (currentGroupedTimingStatistics.getStatisticsByTag().isEmpty()) {
+            currentGroupedTimingStatistics.setTimeUnit(timeUnit);
+        }
+    }
+
+    /**
+     * Gets the collector that calculates the exact percentiles of each time slice.
+     *
+     * @return The collector, or null if exact percentiles are not calculated.
+     */
+    public ExactPercentileCollector getExactPercentileCollector() {
+        return exactPercentileCollector;
+    }
+
+    /**
+     * Sets a collector to calculate the exact percentiles of each time slice, which are set on the TimingStatistics
+     * returned along with the approximate ones. This must be called before the first call to hasNext() or next(), and
+     * the caller remains responsible for closing the collector.
+     *
+     * @param exactPercentileCollector The collector, or null to not calculate exact percentiles.
+     */
+    public void setExactPercentileCollector(ExactPercentileCollector exactPercentileCollector) {
+        this.exactPercentileCollector = exactPercentileCollector;
+    }
+
     /**
      * Remove is not supported.
      *
@@ -162,31 +281,29 @@ public class
                 //then we're over a new time boundary, so update the current timing statistics and return it.
                 currentGroupedTimingStatistics.setStartTime(nextTimeSliceEndTime - timeSlice);
                 currentGroupedTimingStatistics.setStopTime(nextTimeSliceEndTime);
-                GroupedTimingStatistics retVal = currentGroupedTimingStatistics;
+                GroupedTimingStatistics retVal = completeTimeSlice();
 
                 //set the state for the next slice
-                currentGroupedTimingStatistics = new GroupedTimingStatistics();
-                currentGroupedTimingStatistics.setCreateRollupStatistics(createRollupStatistics);
+                currentGroupedTimingStatistics = newGroupedTimingStatistics();
                 if (stopWatch != null) {
                 	// only add if we got a new stopwatch, not if timeslice just expired
-                	currentGroupedTimingStatistics.addStopWatch(stopWatch);
+                	addStopWatch(stopWatch);
                 }                
                 nextTimeSliceEndTime = ((startTime / timeSlice) * timeSlice) + timeSlice;
                 return retVal;
             } else if (stopWatch != null) {
-                currentGroupedTimingStatistics.addStopWatch(stopWatch);
+                addStopWatch(stopWatch);
             }
         }
 
         //if here then there are no more stopwatches left, so clean up the last batch
-        if (!currentGroupedTimingStatistics.getStatisticsByTag().isEmpty()) {
+        if (!currentGroupedTimingStatistics.flush().getStatisticsByTag().isEmpty()) {
             currentGroupedTimingStatistics.setStartTime(nextTimeSliceEndTime - timeSlice);
             currentGroupedTimingStatistics.setStopTime(nextTimeSliceEndTime);
-            GroupedTimingStatistics retVal = currentGroupedTimingStatistics;
+            GroupedTimingStatistics retVal = completeTimeSlice();
 
             //create an empty GroupedTimingStatistics so we know to return null in the next call to this method.
-            currentGroupedTimingStatistics = new GroupedTimingStatistics();
-            currentGroupedTimingStatistics.setCreateRollupStatistics(createRollupStatistics);
+            currentGroupedTimingStatistics = newGroupedTimingStatistics();
 
             return retVal;
         } else {
@@ -194,4 +311,43 @@ public class
             return null;
         }
     }
+
+    /**
+     * Helper method adds a StopWatch to the current time slice.
+     */
+    private void addStopWatch(StopWatch stopWatch) {
+        currentGroupedTimingStatistics.addStopWatch(stopWatch);
+        if (exactPercentileCollector != null) {
+            TimeUnit timeUnit = currentGroupedTimingStatistics.getTimeUnit();
+            exactPercentileCollector.addSampleTime(stopWatch.getTag(), stopWatch.getElapsedTime(timeUnit));
+        }
+    }
+
+    /**
+     * Helper method finishes the statistics of the current time slice, whose start and stop times have been set. The
+     * statistics are flushed, so they are complete and reading them doesn't modify them.
+     *
+     * @return The statistics of the current time slice.
+     */
+    private GroupedTimingStatistics completeTimeSlice() {
+        currentGroupedTimingStatistics.flush();
+        if (exactPercentileCollector != null) {
+            exactPercentileCollector.completeWindow(currentGroupedTimingStatistics);
+        }
+        return currentGroupedTimingStatistics;
+    }
+
+    /**
+     * Helper method creates the empty GroupedTimingStatistics for a new time slice.
+     *
+     * @return The new GroupedTimingStatistics, configured with the rollup, tag budget and time unit options.
+     */
+    private GroupedTimingStatistics newGroupedTimingStatistics() {
+        GroupedTimingStatistics retVal = new GroupedTimingStatistics();
+        retVal.setCreateRollupStatistics(createRollupStatistics);
+        retVal.setMaxTags(maxTags);
+        retVal.setOverflowTag(overflowTag);
+        retVal.setTimeUnit(timeUnit);
+        return retVal;
+    }
 }
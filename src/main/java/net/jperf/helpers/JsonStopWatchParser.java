@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+/**
+ * This StopWatchParser parses StopWatches from JSON objects, such as the lines
+ * <tt>{"ts":1226696052000,"elapsed":123,"tag":"db.get","msg":"cache miss"}</tt> written by a JSON layout. The top level
+ * keys of each object are mapped to the StopWatch fields as described by {@link StructuredStopWatchParser}; nested
+ * objects and arrays are skipped. Any text before an object on a line, such as the prefix of a log layout, is
+ * ignored, and every object on a line is parsed.
+ * <p>
+ * The objects are scanned leniently, without being validated: an object that is not well formed yields the fields
+ * read before the error.
+ */
+public class JsonStopWatchParser extends StructuredStopWatchParser {
+
+    /**
+     * Creates a JsonStopWatchParser that maps the {@link #DEFAULT_FIELDS}.
+     */
+    public JsonStopWatchParser() {
+        super();
+    }
+
+    /**
+     * Creates a JsonStopWatchParser that maps the specified keys to the StopWatch fields.
+     *
+     * @param fields The field mapping, for example <tt>start=ts,time=elapsed</tt>.
+     */
+    public JsonStopWatchParser(String fields) {
+        super(fields);
+    }
+
+    public boolean isPotentiallyValid(String message) {
+        return message.indexOf('{') >= 0;
+    }
+
+    protected int startRecord(String text, int fromIndex) {
+        int retVal = text.indexOf('{', fromIndex);
+        return (retVal < 0) ? -1 : retVal + 1;
+    }
+
+    protected int nextField(String text, int index, int[] bounds) {
+        int length = text.length();
+        index = skipSeparators(text, index);
+        if (index >= length || text.charAt(index) != '"') {
+            //the closing brace, or the end of a malformed object
+            bounds[0] = (index < length) ? index + 1 : length;
+            return -1;
+        }
+
+        int keyStart = index + 1;
+        int keyEnd = indexOfClosingQuote(text, keyStart, bounds);
+        index = (keyEnd < 0) ? length : skipWhitespace(text, keyEnd + 1);
+        if (index >= length || text.charAt(index) != ':') {
+            bounds[0] = Math.min(index + 1, length);
+            return -1;
+        }
+        index = skipWhitespace(text, index + 1);
+        if (index >= length) {
+            bounds[0] = length;
+            return -1;
+        }
+
+        int valueStart;
+        int valueEnd;
+        char c = text.charAt(index);
+        if (c == '"') {
+            valueStart = index + 1;
+            valueEnd = indexOfClosingQuote(text, valueStart, bounds);
+            if (valueEnd < 0) {
+                bounds[0] = length;
+                return -1;
+            }
+            index = valueEnd + 1;
+        } else {
+            valueStart = index;
+            index = (c == '{' || c == '[') ? skipStructure(text, index, bounds) : skipLiteral(text, index);
+            valueEnd = index;
+            //an unquoted null is no value, not the text "null"
+            bounds[4] = (valueEnd - valueStart == 4 && text.startsWith("null", valueStart)) ? -1 : 0;
+        }
+
+        bounds[0] = keyStart;
+        bounds[1] = keyEnd;
+        bounds[2] = valueStart;
+        bounds[3] = valueEnd;
+        return index;
+    }
+
+    // --- Helper Methods ---
+
+    private static int skipWhitespace(String text, int index) {
+        int length = text.length();
+        while (index < length && text.charAt(index) <= ' ') {
+            index++;
+        }
+        return index;
+    }
+
+    private static int skipSeparators(String text, int index) {
+        int length = text.length();
+        while (index < length && (text.charAt(index) <= ' ' || text.charAt(index) == ',')) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Returns the index just past a number, true, false or null.
+     */
+    private static int skipLiteral(String text, int index) {
+        int length = text.length();
+        while (index < length) {
+            char c = text.charAt(index);
+            if (c == ',' || c == '}' || c == ']' || c <= ' ') {
+                break;
+            }
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Returns the index just past the object or array starting at index, skipping strings so that braces and
+     * brackets in them are not counted, or the length of the text if it isn't closed.
+     */
+    private static int skipStructure(String text, int index, int[] bounds) {
+        int length = text.length();
+        int depth = 0;
+        while (index < length) {
+            char c = text.charAt(index);
+            if (c == '"') {
+                index = indexOfClosingQuote(text, index + 1, bounds);
+                if (index < 0) {
+                    return length;
+                }
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if ((c == '}' || c == ']') && --depth == 0) {
+                return index + 1;
+            }
+            index++;
+        }
+        return length;
+    }
+}
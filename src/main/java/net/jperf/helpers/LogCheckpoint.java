@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import net.jperf.GroupedTimingStatistics;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * A LogCheckpoint records how far a followed log has been parsed: the identity of the log file and the position of
+ * the next StopWatch to read, as in {@link FollowingStopWatchLogIterator}, and the statistics of the time slice that
+ * was open, as in {@link GroupingStatisticsIterator}. Resuming from a checkpoint continues exactly where the parse
+ * left off, without reading the log from its start.
+ */
+public class LogCheckpoint implements Serializable {
+    private static final long serialVersionUID = -2931876140562473120L;
+
+    private byte[] fingerprint;
+    private long lineOffset;
+    private int stopWatchesReadFromLine;
+    private long nextTimeSliceEndTime;
+    private GroupedTimingStatistics currentStatistics;
+
+    /**
+     * Creates a LogCheckpoint.
+     *
+     * @param fingerprint             The first bytes of the log file.
+     * @param lineOffset              The offset of the line containing the next StopWatch to read.
+     * @param stopWatchesReadFromLine The number of StopWatches already read from that line.
+     * @param nextTimeSliceEndTime    The end time of the open time slice, or 0 if there is none.
+     * @param currentStatistics       The statistics of the open time slice. They are copied, so they may continue to
+     *                                be updated.
+     */
+    public LogCheckpoint(byte[] fingerprint, long lineOffset, int stopWatchesReadFromLine,
+                         long nextTimeSliceEndTime, GroupedTimingStatistics currentStatistics) {
+        this.fingerprint = fingerprint;
+        this.lineOffset = lineOffset;
+        this.stopWatchesReadFromLine = stopWatchesReadFromLine;
+        this.nextTimeSliceEndTime = nextTimeSliceEndTime;
+        this.currentStatistics = currentStatistics.clone();
+    }
+
+    // --- Bean Properties ---
+
+    public byte[] getFingerprint() {
+        return fingerprint;
+    }
+
+    public long getLineOffset() {
+        return lineOffset;
+    }
+
+    public int getStopWatchesReadFromLine() {
+        return stopWatchesReadFromLine;
+    }
+
+    public long getNextTimeSliceEndTime() {
+        return nextTimeSliceEndTime;
+    }
+
+    public GroupedTimingStatistics getCurrentStatistics() {
+        return currentStatistics;
+    }
+
+    // --- Instance Methods ---
+
+    /**
+     * Writes this checkpoint to a file. The checkpoint is first written to a temporary file which then replaces the
+     * file, so a crash while writing leaves the previous checkpoint intact.
+     *
+     * @param checkpointFile The file to write.
+     * @throws IOException Thrown if the file can't be written.
+     */
+    public void write(File checkpointFile) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(this);
+        out.close();
+
+        File tempFile = new File(checkpointFile.getPath() + ".tmp");
+        FileOutputStream fileOut = new FileOutputStream(tempFile);
+        try {
+            bytes.writeTo(fileOut);
+            fileOut.getFD().sync();
+        } finally {
+            fileOut.close();
+        }
+        //renameTo doesn't replace an existing file on every platform
+        if (!tempFile.renameTo(checkpointFile) && !(checkpointFile.delete() && tempFile.renameTo(checkpointFile))) {
+            throw new IOException("Could not replace " + checkpointFile + " with " + tempFile);
+        }
+    }
+
+    /**
+     * Reads a checkpoint written by {@link #write(File)}.
+     *
+     * @param checkpointFile The file to read.
+     * @return The checkpoint, or null if the file doesn't exist.
+     * @throws IOException Thrown if the file can't be read or doesn't contain a checkpoint.
+     */
+    public static LogCheckpoint read(File checkpointFile) throws IOException {
+        if (!checkpointFile.exists()) {
+            return null;
+        }
+
+        ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(checkpointFile)));
+        try {
+            return (LogCheckpoint) in.readObject();
+        } catch (ClassNotFoundException cnfe) {
+            throw new IOException("Could not read checkpoint " + checkpointFile + ": " + cnfe);
+        } catch (ClassCastException cce) {
+            throw new IOException(checkpointFile + " is not a checkpoint");
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Static utility functions to find and open log files: expanding directories and glob patterns into the log files
+ * they contain, transparently decompressing gzipped logs, and recognizing binary stop watch logs.
+ */
+public class LogFiles {
+    /**
+     * The size of the buffers used to read and decompress log files.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Finds the log files a path refers to:
+     * <ul>
+     * <li>If the path is a directory, the files directly in it, excluding hidden files and the sidecar files of the
+     * {@link LogTimeIndex} and the {@link LogStatisticsCache}.
+     * <li>If the path contains glob characters in any of its components, the files and the contents of the
+     * directories that match it. <tt>*</tt> matches any characters and <tt>?</tt> any single character within a path
+     * component, <tt>[abc]</tt> or <tt>[!abc]</tt> a character in or not in the brackets, and <tt>{a,b}</tt> either
+     * of the comma-separated alternatives. For example, <tt>logs/host*&#47;timing.log*</tt>. Sidecar files are not
+     * matched by wildcards either.
+     * <li>Otherwise, the path itself, even if it doesn't exist.
+     * </ul>
+     * The files are returned sorted by path.
+     *
+     * @param path The path to expand.
+     * @return The log files, possibly empty if a glob pattern matches nothing.
+     */
+    public static List<File> expand(String path) {
+        File file = new File(path);
+        if (file.isDirectory()) {
+            return listLogFiles(file);
+        }
+        if (!isGlob(path)) {
+            return Collections.singletonList(file);
+        }
+
+        String[] components = path.split((File.separatorChar == '/') ? "/" : "[/\\\\]", -1);
+        List<File> retVal = new ArrayList<File>();
+        if (components[0].length() == 0) {
+            expand(new File(File.separator), components, 1, retVal);
+        } else {
+            expand(null, components, 0, retVal);
+        }
+        return retVal;
+    }
+
+    /**
+     * Returns whether a path contains any glob characters.
+     *
+     * @param path The path to check.
+     * @return true if the path is a glob pattern rather than a plain path.
+     */
+    public static boolean isGlob(String path) {
+        for (int i = 0; i < path.length(); i++) {
+            switch (path.charAt(i)) {
+                case '*':
+                case '?':
+                case '[':
+                case '{':
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether a file is gzipped, based on its first bytes rather than its name, as rotated logs aren't always
+     * named consistently.
+     *
+     * @param logFile The file to check.
+     * @return true if the file starts with the gzip magic number.
+     * @throws IOException Thrown if the file can't be read.
+     */
+    public static boolean isGzipped(File logFile) throws IOException {
+        InputStream in = new FileInputStream(logFile);
+        try {
+            return isGzipped(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns whether a file is a {@link BinaryStopWatchLogWriter binary stop watch log}, possibly gzipped, based on
+     * its first bytes.
+     *
+     * @param logFile The file to check.
+     * @return true if the file, once decompressed, starts with the binary stop watch log header.
+     * @throws IOException Thrown if the file can't be read.
+     */
+    public static boolean isBinaryStopWatchLog(File logFile) throws IOException {
+        InputStream in = openInputStream(logFile);
+        try {
+            return BinaryStopWatchLogIterator.isBinaryStopWatchLog(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Opens a buffered InputStream on a log file, decompressing the file if it is gzipped. The stream supports mark.
+     *
+     * @param logFile The file to open.
+     * @return The InputStream, which the caller must close.
+     * @throws IOException Thrown if the file can't be opened.
+     */
+    public static InputStream openInputStream(File logFile) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(logFile), BUFFER_SIZE);
+        try {
+            in.mark(2);
+            boolean gzipped = isGzipped(in);
+            in.reset();
+            if (gzipped) {
+                in = new BufferedInputStream(new GZIPInputStream(in, BUFFER_SIZE), BUFFER_SIZE);
+            }
+            return in;
+        } catch (IOException ioe) {
+            in.close();
+            throw ioe;
+        }
+    }
+
+    /**
+     * Opens a buffered Reader on a log file, decompressing the file if it is gzipped. Like the FileReader LogParser
+     * uses, the Reader decodes the log with the platform default charset.
+     *
+     * @param logFile The file to open.
+     * @return The Reader, which the caller must close.
+     * @throws IOException Thrown if the file can't be opened.
+     */
+    public static Reader openReader(File logFile) throws IOException {
+        return new BufferedReader(new InputStreamReader(openInputStream(logFile)), BUFFER_SIZE);
+    }
+
+    // --- Helper Methods ---
+
+    private static boolean isGzipped(InputStream in) throws IOException {
+        return in.read() == (GZIPInputStream.GZIP_MAGIC & 0xff) && in.read() == (GZIPInputStream.GZIP_MAGIC >>> 8);
+    }
+
+    /**
+     * Helper method adds the files matching the path components from the specified index on, relative to the
+     * specified directory, or to the current directory if it is null.
+     */
+    private static void expand(File directory, String[] components, int index, List<File> matches) {
+        if (index == components.length) {
+            if (directory.isDirectory()) {
+                matches.addAll(listLogFiles(directory));
+            } else if (directory.isFile()) {
+                matches.add(directory);
+            }
+            return;
+        }
+
+        String component = components[index];
+        if (!isGlob(component)) {
+            expand((directory == null) ? new File(component) : new File(directory, component),
+                   components, index + 1, matches);
+            return;
+        }
+
+        String[] names = ((directory == null) ? new File(".") : directory).list();
+        if (names == null) {
+            return;
+        }
+        Arrays.sort(names);
+        Pattern pattern = globToPattern(component);
+        for (String name : names) {
+            //as in a shell, wildcards don't match hidden files
+            if (pattern.matcher(name).matches() && !(name.startsWith(".") && !component.startsWith(".")) &&
+                !(index == components.length - 1 && isSidecar(name))) {
+                expand((directory == null) ? new File(name) : new File(directory, name),
+                       components, index + 1, matches);
+            }
+        }
+    }
+
+    private static List<File> listLogFiles(File directory) {
+        List<File> retVal = new ArrayList<File>();
+        String[] names = directory.list();
+        if (names != null) {
+            Arrays.sort(names);
+            for (String name : names) {
+                File file = new File(directory, name);
+                if (!name.startsWith(".") && !isSidecar(name) && file.isFile()) {
+                    retVal.add(file);
+                }
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Helper method returns whether a file name is that of an index or cache file kept next to a log.
+     */
+    private static boolean isSidecar(String name) {
+        return name.endsWith(LogTimeIndex.FILE_SUFFIX) || name.endsWith(LogStatisticsCache.FILE_SUFFIX) ||
+               name.endsWith(LogStatisticsCache.FILE_SUFFIX + LogStatisticsCache.TEMP_FILE_SUFFIX);
+    }
+
+    /**
+     * Helper method converts the glob pattern for a single path component to a regular expression.
+     */
+    static Pattern globToPattern(String glob) {
+        StringBuilder regex = new StringBuilder();
+        boolean inAlternatives = false;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            switch (c) {
+                case '*':
+                    regex.append(".*");
+                    break;
+                case '?':
+                    regex.append('.');
+                    break;
+                case '[':
+                    int end = glob.indexOf(']', i + 2);
+                    if (end < 0) {
+                        regex.append("\\[");
+                    } else {
+                        String chars = glob.substring(i + 1, end);
+                        regex.append('[');
+                        if (chars.charAt(0) == '!') {
+                            regex.append('^');
+                            chars = chars.substring(1);
+                        }
+                        regex.append(chars.replace("\\", "\\\\").replace("[", "\\[")).append(']');
+                        i = end;
+                    }
+                    break;
+                case '{':
+                    regex.append("(?:");
+                    inAlternatives = true;
+                    break;
+                case '}':
+                    regex.append(inAlternatives ? ")" : "\\}");
+                    inAlternatives = false;
+                    break;
+                case ',':
+                    regex.append(inAlternatives ? "|" : ",");
+                    break;
+                default:
+                    regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        if (inAlternatives) {
+            throw new IllegalArgumentException("Unclosed '{' in glob pattern " + glob);
+        }
+        return Pattern.compile(regex.toString());
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import net.jperf.GroupedTimingStatistics;
+import net.jperf.StopWatch;
+import net.jperf.TimingStatistics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * A LogStatisticsCache keeps the GroupedTimingStatistics of each time slice of a log file in a sidecar file next to
+ * the log, so that parsing the same log again, for example with another formatter, only reads the cached statistics.
+ * The statistics are cached for each combination of time slice length, rollup statistics, histogram settings and time
+ * unit they were computed with, and only the statistics of a matching combination are ever returned, so they are
+ * exactly those a parse of the log would give.
+ * <p>
+ * The length, the last modified time and a fingerprint of the start of the log are stored in the cache file, and the
+ * cache is ignored once the log has changed. It is meant for logs that are no longer written to, such as rotated logs;
+ * the cache of a log that is still being written is replaced at every parse. Gzipped and binary logs are cached like
+ * text logs.
+ * <p>
+ * Each entry of the cache file holds the serialized statistics of every time slice, compressed.
+ */
+public class LogStatisticsCache {
+    /**
+     * The suffix appended to the name of a log file to get the name of its cache file.
+     */
+    public static final String FILE_SUFFIX = ".tagg";
+    /**
+     * The suffix appended to the name of a cache file while it is being replaced.
+     */
+    static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    private static final int MAGIC = 0x4a505441; //"JPTA"
+    private static final int VERSION = 2;
+
+    // --- Static Methods ---
+
+    /**
+     * Gets the sidecar file where the statistics of a log file are cached.
+     *
+     * @param logFile The log file.
+     * @return The cache file, in the same directory as the log.
+     */
+    public static File getCacheFile(File logFile) {
+        return new File(logFile.getPath() + FILE_SUFFIX);
+    }
+
+    /**
+     * Reads the cached statistics of a log file, computed with the specified options, with the current histogram
+     * settings of {@link TimingStatistics} and in the {@link StopWatch#getDefaultTimeUnit() default time unit}.
+     *
+     * @param logFile                The log file.
+     * @param timeSlice              The length of each time slice, in milliseconds.
+     * @param createRollupStatistics Whether the statistics include rollup statistics.
+     * @return The statistics of each time slice, in order, or null if the log has changed since they were cached or
+     *         if no statistics were cached with these options.
+     * @throws IOException Thrown if the files can't be read.
+     */
+    public static List<GroupedTimingStatistics> read(File logFile, long timeSlice, boolean createRollupStatistics)
+            throws IOException {
+        return read(logFile, timeSlice, createRollupStatistics, StopWatch.getDefaultTimeUnit());
+    }
+
+    /**
+     * Reads the cached statistics of a log file, computed with the specified options and with the current histogram
+     * settings of {@link TimingStatistics}.
+     *
+     * @param logFile                The log file.
+     * @param timeSlice              The length of each time slice, in milliseconds.
+     * @param createRollupStatistics Whether the statistics include rollup statistics.
+     * @param timeUnit               The time unit of the statistics.
+     * @return The statistics of each time slice, in order, or null if the log has changed since they were cached or
+     *         if no statistics were cached with these options.
+     * @throws IOException Thrown if the files can't be read.
+     */
+    public static List<GroupedTimingStatistics> read(File logFile, long timeSlice, boolean createRollupStatistics,
+                                                     TimeUnit timeUnit) throws IOException {
+        File cacheFile = getCacheFile(logFile);
+        if (!cacheFile.isFile()) {
+            return null;
+        }
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+        try {
+            if (!readHeader(in, logFile)) {
+                return null;
+            }
+            while (true) {
+                boolean matches = readKey(in, timeSlice, createRollupStatistics, timeUnit);
+                byte[] entry = new byte[in.readInt()];
+                in.readFully(entry);
+                if (matches) {
+                    return deserialize(entry);
+                }
+            }
+        } catch (EOFException eofe) {
+            //the end of the cache, or an entry only partially written
+            return null;
+        } catch (ObjectStreamException ose) {
+            //the cache was written by an incompatible version of JPerf
+            return null;
+        } catch (ZipException ze) {
+            //a corrupt entry
+            return null;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Caches the statistics of a log file, computed with the specified options, with the current histogram
+     * settings of {@link TimingStatistics} and in the {@link StopWatch#getDefaultTimeUnit() default time unit}. The
+     * statistics cached for the log with other options are kept, unless the log has changed since they were cached.
+     * The log must not have changed since the statistics were computed.
+     *
+     * @param logFile                The log file.
+     * @param timeSlice              The length of each time slice, in milliseconds.
+     * @param createRollupStatistics Whether the statistics include rollup statistics.
+     * @param statistics             The statistics of each time slice, in order.
+     * @throws IOException Thrown if the files can't be read or the cache can't be written.
+     */
+    public static void write(File logFile, long timeSlice, boolean createRollupStatistics,
+                             List<GroupedTimingStatistics> statistics) throws IOException {
+        write(logFile, timeSlice, createRollupStatistics, StopWatch.getDefaultTimeUnit(), statistics);
+    }
+
+    /**
+     * Caches the statistics of a log file, computed with the specified options and with the current histogram
+     * settings of {@link TimingStatistics}. The statistics cached for the log with other options are kept, unless the
+     * log has changed since they were cached. The log must not have changed since the statistics were computed.
+     *
+     * @param logFile                The log file.
+     * @param timeSlice              The length of each time slice, in milliseconds.
+     * @param createRollupStatistics Whether the statistics include rollup statistics.
+     * @param timeUnit               The time unit of the statistics.
+     * @param statistics             The statistics of each time slice, in order.
+     * @throws IOException Thrown if the files can't be read or the cache can't be written.
+     */
+    public static void write(File logFile, long timeSlice, boolean createRollupStatistics, TimeUnit timeUnit,
+                             List<GroupedTimingStatistics> statistics) throws IOException {
+        File cacheFile = getCacheFile(logFile);
+        ByteArrayOutputStream otherEntries = new ByteArrayOutputStream();
+        if (cacheFile.isFile()) {
+            copyOtherEntries(cacheFile, logFile, timeSlice, createRollupStatistics, timeUnit, otherEntries);
+        }
+
+        //the new cache is written next to the old one and then renamed, so a reader never sees a partial cache
+        File tempFile = new File(cacheFile.getPath() + TEMP_FILE_SUFFIX);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try {
+            int fingerprintLength = (int) Math.min(LogTimeIndex.FINGERPRINT_LENGTH, logFile.length());
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(logFile.length());
+            out.writeLong(logFile.lastModified());
+            out.writeInt(fingerprintLength);
+            out.writeLong(LogTimeIndex.checksum(logFile, fingerprintLength));
+
+            otherEntries.writeTo(out);
+            out.writeLong(timeSlice);
+            out.writeBoolean(createRollupStatistics);
+            out.writeInt(TimingStatistics.getHistogramSignificantDigits());
+            out.writeLong(TimingStatistics.getHistogramHighestTrackableValue());
+            out.writeUTF(MiscUtils.timeUnitSymbol(timeUnit));
+            byte[] entry = serialize(statistics);
+            out.writeInt(entry.length);
+            out.write(entry);
+        } finally {
+            out.close();
+        }
+        if (!tempFile.renameTo(cacheFile)) {
+            //renameTo doesn't replace an existing file on every platform
+            cacheFile.delete();
+            if (!tempFile.renameTo(cacheFile)) {
+                tempFile.delete();
+                throw new IOException("Could not replace " + cacheFile);
+            }
+        }
+    }
+
+    // --- Helper Methods ---
+
+    /**
+     * Helper method reads the header of a cache file, and checks that the log hasn't changed since it was written.
+     */
+    private static boolean readHeader(DataInputStream in, File logFile) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            return false;
+        }
+        long logLength = in.readLong();
+        long lastModified = in.readLong();
+        int fingerprintLength = in.readInt();
+        long fingerprint = in.readLong();
+        return logLength == logFile.length() &&
+               lastModified == logFile.lastModified() &&
+               fingerprintLength <= logLength &&
+               fingerprint == LogTimeIndex.checksum(logFile, fingerprintLength);
+    }
+
+    /**
+     * Helper method reads the options an entry was computed with, and returns whether they are the specified ones.
+     */
+    private static boolean readKey(DataInputStream in, long timeSlice, boolean createRollupStatistics,
+                                   TimeUnit timeUnit) throws IOException {
+        boolean retVal = (in.readLong() == timeSlice);
+        retVal &= (in.readBoolean() == createRollupStatistics);
+        retVal &= (in.readInt() == TimingStatistics.getHistogramSignificantDigits());
+        retVal &= (in.readLong() == TimingStatistics.getHistogramHighestTrackableValue());
+        retVal &= in.readUTF().equals(MiscUtils.timeUnitSymbol(timeUnit));
+        return retVal;
+    }
+
+    /**
+     * Helper method copies the complete entries of a valid cache file, except the one with the specified options.
+     */
+    private static void copyOtherEntries(File cacheFile, File logFile, long timeSlice, boolean createRollupStatistics,
+                                         TimeUnit timeUnit, ByteArrayOutputStream otherEntries) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+        DataOutputStream out = new DataOutputStream(otherEntries);
+        try {
+            if (!readHeader(in, logFile)) {
+                return;
+            }
+            while (true) {
+                long entryTimeSlice = in.readLong();
+                boolean entryRollup = in.readBoolean();
+                int entrySignificantDigits = in.readInt();
+                long entryHighestTrackableValue = in.readLong();
+                String entryTimeUnit = in.readUTF();
+                byte[] entry = new byte[in.readInt()];
+                in.readFully(entry);
+                boolean replaced = entryTimeSlice == timeSlice &&
+                                   entryRollup == createRollupStatistics &&
+                                   entrySignificantDigits == TimingStatistics.getHistogramSignificantDigits() &&
+                                   entryHighestTrackableValue == TimingStatistics.getHistogramHighestTrackableValue() &&
+                                   entryTimeUnit.equals(MiscUtils.timeUnitSymbol(timeUnit));
+                if (!replaced) {
+                    out.writeLong(entryTimeSlice);
+                    out.writeBoolean(entryRollup);
+                    out.writeInt(entrySignificantDigits);
+                    out.writeLong(entryHighestTrackableValue);
+                    out.writeUTF(entryTimeUnit);
+                    out.writeInt(entry.length);
+                    out.write(entry);
+                }
+            }
+        } catch (EOFException eofe) {
+            //the end of the cache; a partial last entry is dropped
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] serialize(List<GroupedTimingStatistics> statistics) throws IOException {
+        ByteArrayOutputStream retVal = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(new DeflaterOutputStream(retVal));
+        out.writeInt(statistics.size());
+        for (GroupedTimingStatistics timeSlice : statistics) {
+            out.writeObject(timeSlice);
+        }
+        out.close();
+        return retVal.toByteArray();
+    }
+
+    private static List<GroupedTimingStatistics> deserialize(byte[] entry) throws IOException {
+        ObjectInputStream in = new ObjectInputStream(new InflaterInputStream(new ByteArrayInputStream(entry))) {
+            protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+                //only the classes GroupedTimingStatistics are made of are expected in a cache
+                String name = desc.getName();
+                if (!name.startsWith("net.jperf.") && !name.startsWith("java.") && !name.startsWith("[")) {
+                    throw new InvalidClassException(name, "Unexpected class in a statistics cache");
+                }
+                return super.resolveClass(desc);
+            }
+        };
+        try {
+            int count = in.readInt();
+            List<GroupedTimingStatistics> retVal = new ArrayList<GroupedTimingStatistics>(count);
+            for (int i = 0; i < count; i++) {
+                retVal.add((GroupedTimingStatistics) in.readObject());
+            }
+            return retVal;
+        } catch (ClassNotFoundException cnfe) {
+            throw new InvalidClassException(cnfe.getMessage());
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,516 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * A LogTimeIndex is a sparse index of the start times in a log file, kept in a sidecar file next to the log. The log is
+ * divided into blocks of whole lines of about {@link #DEFAULT_BLOCK_SIZE} bytes, and the index records the byte range
+ * and the smallest and largest StopWatch start time of each block. As StopWatches are logged when they stop, start
+ * times in a log are only roughly in order, so the index finds, by binary search over the running maximum and the
+ * trailing minimum of the block start times, the exact range of blocks that can contain StopWatches in a time range:
+ * every block before the range only has earlier StopWatches, and every block after it only later ones.
+ * <p>
+ * The index is updated incrementally: {@link #update(File)} only scans the part of the log written since the last
+ * update, and appends the new blocks to the sidecar file. A fingerprint of the start of the log is stored in the index,
+ * so an index is ignored once its log has been rotated or rewritten. Gzipped logs are not indexed.
+ * <p>
+ * Start times are found by scanning the raw bytes of the log for <tt>start[</tt> followed by digits, so the log must be
+ * in an ASCII-compatible charset. The scan may count text that isn't a StopWatch, which only widens the range of a
+ * block, so the ranges found are always safe.
+ */
+public class LogTimeIndex {
+    /**
+     * The default approximate number of bytes in each block of the log.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+    /**
+     * The suffix appended to the name of a log file to get the name of its index file.
+     */
+    public static final String FILE_SUFFIX = ".tidx";
+    /**
+     * The number of bytes at the start of the log whose checksum identifies the log.
+     */
+    public static final int FINGERPRINT_LENGTH = 1024;
+
+    private static final int MAGIC = 0x4a505449; //"JPTI"
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 4 + 4 + 4 + 4 + 8;
+    private static final int BLOCK_LENGTH = 8 + 8 + 8 + 8;
+    private static final byte[] START_FIELD = {'s', 't', 'a', 'r', 't', '['};
+
+    private final int blockSize;
+    private final int fingerprintLength;
+    private final long fingerprint;
+    /**
+     * The start offset, end offset, and smallest and largest start time of each block. Blocks are contiguous.
+     */
+    private long[] blockStarts;
+    private long[] blockEnds;
+    private long[] minStartTimes;
+    private long[] maxStartTimes;
+    private int blockCount;
+    /**
+     * The largest start time in each block and all the blocks before it, and the smallest start time in each block
+     * and all the blocks after it, computed when they're first needed.
+     */
+    private long[] runningMaxStartTimes;
+    private long[] trailingMinStartTimes;
+    /**
+     * The length of the log when it was checked against this index.
+     */
+    private long logLength;
+
+    private LogTimeIndex(int blockSize, int fingerprintLength, long fingerprint) {
+        this.blockSize = blockSize;
+        this.fingerprintLength = fingerprintLength;
+        this.fingerprint = fingerprint;
+        this.blockStarts = new long[16];
+        this.blockEnds = new long[16];
+        this.minStartTimes = new long[16];
+        this.maxStartTimes = new long[16];
+    }
+
+    // --- Static Methods ---
+
+    /**
+     * Gets the sidecar file where the index of a log file is kept.
+     *
+     * @param logFile The log file.
+     * @return The index file, in the same directory as the log.
+     */
+    public static File getIndexFile(File logFile) {
+        return new File(logFile.getPath() + FILE_SUFFIX);
+    }
+
+    /**
+     * Reads the index of a log file from its sidecar file.
+     *
+     * @param logFile The log file.
+     * @return The index, or null if there is no index file or it isn't an index of this log file.
+     * @throws IOException Thrown if the files can't be read.
+     */
+    public static LogTimeIndex read(File logFile) throws IOException {
+        File indexFile = getIndexFile(logFile);
+        if (!indexFile.isFile()) {
+            return null;
+        }
+
+        LogTimeIndex retVal;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            retVal = new LogTimeIndex(in.readInt(), in.readInt(), in.readLong());
+            //a block only partially written when the index was last updated is ignored
+            long blocks = (indexFile.length() - HEADER_LENGTH) / BLOCK_LENGTH;
+            for (long i = 0; i < blocks; i++) {
+                retVal.addBlock(in.readLong(), in.readLong(), in.readLong(), in.readLong());
+            }
+        } catch (EOFException eofe) {
+            return null;
+        } finally {
+            in.close();
+        }
+
+        return retVal.matches(logFile) ? retVal : null;
+    }
+
+    /**
+     * Brings the index of a log file up to date with the log, using the {@link #DEFAULT_BLOCK_SIZE}.
+     *
+     * @param logFile The log file.
+     * @return The updated index, or null if the log is gzipped or binary.
+     * @throws IOException Thrown if the log can't be read or the index can't be written.
+     */
+    public static LogTimeIndex update(File logFile) throws IOException {
+        return update(logFile, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Brings the index of a log file up to date with the log. If there is a valid index for the log, only the lines
+     * written since it was last updated are scanned, and the new blocks are appended to the index file. Otherwise
+     * the whole log is scanned and a new index file is written.
+     *
+     * @param logFile   The log file.
+     * @param blockSize The approximate number of bytes in each block, used if a new index is created.
+     * @return The updated index, or null if the log is gzipped or binary.
+     * @throws IOException Thrown if the log can't be read or the index can't be written.
+     */
+    public static LogTimeIndex update(File logFile, int blockSize) throws IOException {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize must be positive: " + blockSize);
+        }
+        if (LogFiles.isGzipped(logFile) || LogFiles.isBinaryStopWatchLog(logFile)) {
+            return null;
+        }
+
+        LogTimeIndex retVal = read(logFile);
+        if (retVal == null || retVal.blockCount == 0) {
+            int fingerprintLength = (int) Math.min(FINGERPRINT_LENGTH, logFile.length());
+            retVal = new LogTimeIndex(blockSize, fingerprintLength, checksum(logFile, fingerprintLength));
+            retVal.scan(logFile, 0L);
+            retVal.writeHeader(getIndexFile(logFile));
+            retVal.appendBlocks(getIndexFile(logFile), 0);
+        } else {
+            int firstNewBlock = retVal.blockCount;
+            retVal.scan(logFile, retVal.getIndexedLength());
+            retVal.appendBlocks(getIndexFile(logFile), firstNewBlock);
+        }
+        retVal.logLength = logFile.length();
+        retVal.runningMaxStartTimes = null;
+        retVal.trailingMinStartTimes = null;
+        return retVal;
+    }
+
+    /**
+     * Opens a buffered Reader on a log file like {@link LogFiles#openReader(File)}, but if the filter restricts the
+     * start times and the log has a valid index, the Reader only covers the lines that can contain StopWatches the
+     * filter accepts.
+     *
+     * @param logFile The log file.
+     * @param filter  The filter StopWatches will have to pass, may be null.
+     * @return The Reader, which the caller must close.
+     * @throws IOException Thrown if the log or its index can't be read.
+     */
+    public static Reader openReader(File logFile, StopWatchFilter filter) throws IOException {
+        LogTimeIndex index = (filter != null && filter.isTimeRestricted()) ? read(logFile) : null;
+        if (index == null) {
+            return LogFiles.openReader(logFile);
+        }
+        return openReader(logFile, index.getStartOffset(filter.getFromTime()), index.getEndOffset(filter.getToTime()));
+    }
+
+    /**
+     * Opens a buffered Reader on a range of a log file, decoding it with the platform default charset.
+     *
+     * @param logFile     The log file.
+     * @param startOffset The offset of the first byte read.
+     * @param endOffset   The offset past the last byte read.
+     * @return The Reader, which the caller must close.
+     * @throws IOException Thrown if the log can't be opened.
+     */
+    public static Reader openReader(File logFile, final long startOffset, final long endOffset) throws IOException {
+        FileInputStream fileIn = new FileInputStream(logFile);
+        fileIn.getChannel().position(startOffset);
+        InputStream rangeIn = new FilterInputStream(fileIn) {
+            private long remaining = endOffset - startOffset;
+
+            public int read() throws IOException {
+                if (remaining <= 0) {
+                    return -1;
+                }
+                int retVal = super.read();
+                remaining--;
+                return retVal;
+            }
+
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                if (remaining <= 0) {
+                    return -1;
+                }
+                int retVal = super.read(buffer, offset, (int) Math.min(length, remaining));
+                if (retVal > 0) {
+                    remaining -= retVal;
+                }
+                return retVal;
+            }
+
+            public long skip(long n) throws IOException {
+                long retVal = super.skip(Math.min(n, remaining));
+                remaining -= retVal;
+                return retVal;
+            }
+
+            public int available() throws IOException {
+                return (int) Math.min(super.available(), remaining);
+            }
+
+            public boolean markSupported() {
+                return false;
+            }
+        };
+        return new BufferedReader(new InputStreamReader(rangeIn), 1 << 16);
+    }
+
+    // --- Bean Properties ---
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * Gets the length of the part of the log covered by the index. This is always the offset of the start of a line.
+     *
+     * @return The offset past the last indexed block.
+     */
+    public long getIndexedLength() {
+        return (blockCount == 0) ? 0L : blockEnds[blockCount - 1];
+    }
+
+    // --- Instance Methods ---
+
+    /**
+     * Gets the offset from which the log must be read to find every StopWatch that started at or after a time.
+     *
+     * @param fromTime The start time.
+     * @return The offset of the first block whose StopWatches may have started at or after fromTime, or the
+     *         indexed length of the log if no indexed block has such StopWatches.
+     */
+    public long getStartOffset(long fromTime) {
+        computeRanges();
+        //the running maxima never decrease, so the first block reaching fromTime can be binary searched
+        int low = 0;
+        int high = blockCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (runningMaxStartTimes[middle] >= fromTime) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return (low < blockCount) ? blockStarts[low] : getIndexedLength();
+    }
+
+    /**
+     * Gets the offset up to which the log must be read to find every StopWatch that started before a time.
+     *
+     * @param toTime The end time, exclusive.
+     * @return The offset of the first block from which all StopWatches started at or after toTime, or Long.MAX_VALUE
+     *         if the end of the log isn't indexed yet, and so must be read.
+     */
+    public long getEndOffset(long toTime) {
+        if (logLength > getIndexedLength()) {
+            return Long.MAX_VALUE;
+        }
+        computeRanges();
+        //the trailing minima never decrease either
+        int low = 0;
+        int high = blockCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (trailingMinStartTimes[middle] >= toTime) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return (low < blockCount) ? blockStarts[low] : getIndexedLength();
+    }
+
+    // --- Helper Methods ---
+
+    /**
+     * Helper method checks that this index was created for the specified log, and that the log hasn't been
+     * truncated since.
+     */
+    private boolean matches(File logFile) throws IOException {
+        logLength = logFile.length();
+        return logLength >= getIndexedLength() &&
+               logLength >= fingerprintLength &&
+               checksum(logFile, fingerprintLength) == fingerprint;
+    }
+
+    private void addBlock(long start, long end, long minStartTime, long maxStartTime) {
+        if (blockCount == blockStarts.length) {
+            int newLength = blockCount * 2;
+            blockStarts = Arrays.copyOf(blockStarts, newLength);
+            blockEnds = Arrays.copyOf(blockEnds, newLength);
+            minStartTimes = Arrays.copyOf(minStartTimes, newLength);
+            maxStartTimes = Arrays.copyOf(maxStartTimes, newLength);
+        }
+        blockStarts[blockCount] = start;
+        blockEnds[blockCount] = end;
+        minStartTimes[blockCount] = minStartTime;
+        maxStartTimes[blockCount] = maxStartTime;
+        blockCount++;
+    }
+
+    private void computeRanges() {
+        if (runningMaxStartTimes != null) {
+            return;
+        }
+        runningMaxStartTimes = new long[blockCount];
+        trailingMinStartTimes = new long[blockCount];
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < blockCount; i++) {
+            runningMaxStartTimes[i] = max = Math.max(max, maxStartTimes[i]);
+        }
+        long min = Long.MAX_VALUE;
+        for (int i = blockCount - 1; i >= 0; i--) {
+            trailingMinStartTimes[i] = min = Math.min(min, minStartTimes[i]);
+        }
+    }
+
+    /**
+     * Helper method scans the complete lines of the log from the specified offset, which must be the start of a line,
+     * and adds a block each time more than blockSize bytes of lines have been scanned. The last block ends with the
+     * last complete line, so a line still being written is indexed by a later update.
+     */
+    private void scan(File logFile, long fromOffset) throws IOException {
+        FileInputStream in = new FileInputStream(logFile);
+        try {
+            in.getChannel().position(fromOffset);
+            byte[] buffer = new byte[1 << 16];
+
+            long blockStart = fromOffset;
+            long blockMin = Long.MAX_VALUE;
+            long blockMax = Long.MIN_VALUE;
+            long lineMin = Long.MAX_VALUE;
+            long lineMax = Long.MIN_VALUE;
+            long lineStart = fromOffset;
+            boolean afterCarriageReturn = false;
+            //the state of the search for start[digits]: the number of bytes of START_FIELD matched, or -1 in the digits
+            int matched = 0;
+            long startTime = 0L;
+            int digits = 0;
+            boolean overflow = false;
+
+            long offset = fromOffset;
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                for (int i = 0; i < read; i++, offset++) {
+                    byte b = buffer[i];
+
+                    //a '\r' ends a line unless it's followed by '\n', so that line starts after the next byte
+                    boolean lineStarts = afterCarriageReturn && b != '\n';
+                    afterCarriageReturn = (b == '\r');
+                    if (b == '\n' || lineStarts) {
+                        blockMin = Math.min(blockMin, lineMin);
+                        blockMax = Math.max(blockMax, lineMax);
+                        lineMin = Long.MAX_VALUE;
+                        lineMax = Long.MIN_VALUE;
+                        long nextLineStart = (b == '\n') ? offset + 1 : offset;
+                        lineStart = nextLineStart;
+                        if (nextLineStart - blockStart >= blockSize) {
+                            addBlock(blockStart, nextLineStart, blockMin, blockMax);
+                            blockStart = nextLineStart;
+                            blockMin = Long.MAX_VALUE;
+                            blockMax = Long.MIN_VALUE;
+                        }
+                    }
+
+                    if (matched < 0) {
+                        if (b >= '0' && b <= '9') {
+                            //the parser can't parse a start time that doesn't fit in a long either
+                            overflow |= startTime > (Long.MAX_VALUE - (b - '0')) / 10;
+                            startTime = startTime * 10 + (b - '0');
+                            digits++;
+                            continue;
+                        }
+                        if (b == ']' && digits > 0 && !overflow) {
+                            lineMin = Math.min(lineMin, startTime);
+                            lineMax = Math.max(lineMax, startTime);
+                        }
+                        matched = 0;
+                    }
+                    if (b == START_FIELD[matched]) {
+                        if (++matched == START_FIELD.length) {
+                            matched = -1;
+                            startTime = 0L;
+                            digits = 0;
+                            overflow = false;
+                        }
+                    } else {
+                        matched = (b == 's') ? 1 : 0;
+                    }
+                }
+            }
+
+            //the lines after the last line start are left for the next update
+            if (lineStart > blockStart) {
+                addBlock(blockStart, lineStart, blockMin, blockMax);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private void writeHeader(File indexFile) throws IOException {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(indexFile));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(blockSize);
+            out.writeInt(fingerprintLength);
+            out.writeLong(fingerprint);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void appendBlocks(File indexFile, int fromBlock) throws IOException {
+        //drop any block left partially written by an earlier update
+        RandomAccessFile file = new RandomAccessFile(indexFile, "rw");
+        try {
+            file.setLength(HEADER_LENGTH + (long) fromBlock * BLOCK_LENGTH);
+        } finally {
+            file.close();
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile, true)));
+        try {
+            for (int i = fromBlock; i < blockCount; i++) {
+                out.writeLong(blockStarts[i]);
+                out.writeLong(blockEnds[i]);
+                out.writeLong(minStartTimes[i]);
+                out.writeLong(maxStartTimes[i]);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Gets the CRC32 checksum of the first bytes of a log file, which identifies it.
+     */
+    static long checksum(File logFile, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        DataInputStream in = new DataInputStream(new FileInputStream(logFile));
+        try {
+            in.readFully(bytes);
+        } finally {
+            in.close();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+/**
+ * This StopWatchParser parses StopWatches from logfmt lines of space separated <tt>key=value</tt> pairs, such as
+ * <tt>level=info ts=1226696052000 elapsed=123 tag=db.get msg="cache miss"</tt>. Values may be double quoted, with the
+ * escape sequences of JSON strings. The keys are mapped to the StopWatch fields as described by
+ * {@link StructuredStopWatchParser}. Each line is a single record; words without an <tt>=</tt>, such as the prefix of
+ * a log layout, are ignored.
+ */
+public class LogfmtStopWatchParser extends StructuredStopWatchParser {
+
+    /**
+     * Creates a LogfmtStopWatchParser that maps the {@link #DEFAULT_FIELDS}.
+     */
+    public LogfmtStopWatchParser() {
+        super();
+    }
+
+    /**
+     * Creates a LogfmtStopWatchParser that maps the specified keys to the StopWatch fields.
+     *
+     * @param fields The field mapping, for example <tt>start=ts,time=elapsed</tt>.
+     */
+    public LogfmtStopWatchParser(String fields) {
+        super(fields);
+    }
+
+    public boolean isPotentiallyValid(String message) {
+        return message.indexOf('=') >= 0;
+    }
+
+    protected int startRecord(String text, int fromIndex) {
+        return (fromIndex < text.length()) ? fromIndex : -1;
+    }
+
+    protected int nextField(String text, int index, int[] bounds) {
+        int length = text.length();
+        while (true) {
+            while (index < length && text.charAt(index) <= ' ') {
+                index++;
+            }
+            if (index >= length) {
+                bounds[0] = length;
+                return -1;
+            }
+
+            int keyStart = index;
+            while (index < length && text.charAt(index) > ' ' && text.charAt(index) != '=') {
+                index++;
+            }
+            int keyEnd = index;
+            if (index >= length || text.charAt(index) != '=' || keyEnd == keyStart) {
+                //a word that isn't a pair is skipped
+                while (index < length && text.charAt(index) > ' ') {
+                    index++;
+                }
+                continue;
+            }
+
+            int valueStart = index + 1;
+            int valueEnd;
+            if (valueStart < length && text.charAt(valueStart) == '"') {
+                valueStart++;
+                valueEnd = indexOfClosingQuote(text, valueStart, bounds);
+                if (valueEnd < 0) {
+                    valueEnd = length;
+                }
+                index = Math.min(valueEnd + 1, length);
+            } else {
+                bounds[4] = 0;
+                valueEnd = valueStart;
+                while (valueEnd < length && text.charAt(valueEnd) > ' ') {
+                    valueEnd++;
+                }
+                index = valueEnd;
+            }
+
+            bounds[0] = keyStart;
+            bounds[1] = keyEnd;
+            bounds[2] = valueStart;
+            bounds[3] = valueEnd;
+            return index;
+        }
+    }
+}
@@ -0,0 +1,366 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import net.jperf.StopWatch;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This Iterator reads the StopWatches from several log files and merges them in start time order, so that a
+ * {@link GroupingStatisticsIterator} wrapping it computes time slices across all the files, as if they were a single
+ * log. Each file is expected to be in roughly start time order, as a log is; the StopWatches of a file are returned in
+ * the order they appear in it, and StopWatches with the same start time in different files are returned in the order
+ * the files were specified.
+ * <p>
+ * The merge only compares the next StopWatch of each file, so a log split into several files is merged back into its
+ * original order only if the start times in each file never go backwards. A StopWatch logged out of order is returned
+ * after the StopWatches of the other files that start before the StopWatch preceding it in its own file, so it may
+ * fall in a different time slice than in the unsplit log, and the statistics may differ.
+ * <p>
+ * Files are opened with {@link LogTimeIndex#openReader(File, StopWatchFilter)}, so gzipped files are decompressed
+ * transparently, and only part of a file with an up to date time index is read if the filter has a time range, unless
+ * time indexes are turned off because the files are parsed with another format than the one they are indexed with. Each
+ * file is read in batches of StopWatches by a {@link StopWatchLogIterator}, or a {@link BinaryStopWatchLogIterator} if
+ * it is a binary stop watch log, so text and binary logs can be merged. The batches of all the files are read and
+ * parsed on a thread pool, with the next batch of each file read ahead while the current one is merged. Instances
+ * must be closed to release the files and the threads.
+ */
+public class MergingStopWatchLogIterator implements Iterator<StopWatch>, Closeable {
+    /**
+     * The default number of StopWatches read from a file at a time.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 512;
+
+    /**
+     * The files being merged, each with the batch it is currently being merged from.
+     */
+    private final List<Source> sources = new ArrayList<Source>();
+    /**
+     * The files that still have StopWatches, ordered by the start time of their next StopWatch.
+     */
+    private final PriorityQueue<Source> heads;
+    /**
+     * The number of StopWatches read from a file at a time.
+     */
+    private final int batchSize;
+    /**
+     * The filter StopWatches must pass, or null if all StopWatches are returned.
+     */
+    private final StopWatchFilter filter;
+    /**
+     * Whether files are opened with their time index, if they have one, when the filter has a time range.
+     */
+    private final boolean useTimeIndexes;
+    /**
+     * The thread pool that reads and parses the files, or null if they're parsed on the calling thread.
+     */
+    private final ExecutorService executor;
+    /**
+     * Whether the first batch of each file has been waited for and the heads populated.
+     */
+    private boolean started;
+
+    /**
+     * Creates a MergingStopWatchLogIterator.
+     *
+     * @param logFiles    The log files to merge.
+     * @param parallelism The number of threads used to read and parse the files. If 1, the files are parsed on the
+     *                    thread calling hasNext() and next().
+     */
+    public MergingStopWatchLogIterator(List<File> logFiles, int parallelism) {
+        this(logFiles, parallelism, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Creates a MergingStopWatchLogIterator.
+     *
+     * @param logFiles    The log files to merge.
+     * @param parallelism The number of threads used to read and parse the files. If 1, the files are parsed on the
+     *                    thread calling hasNext() and next().
+     * @param batchSize   The number of StopWatches read from a file at a time.
+     */
+    public MergingStopWatchLogIterator(List<File> logFiles, int parallelism, int batchSize) {
+        this(logFiles, parallelism, batchSize, null);
+    }
+
+    /**
+     * Creates a MergingStopWatchLogIterator that only returns the StopWatches that pass a filter.
+     *
+     * @param logFiles    The log files to merge.
+     * @param parallelism The number of threads used to read and parse the files. If 1, the files are parsed on the
+     *                    thread calling hasNext() and next().
+     * @param batchSize   The number of StopWatches read from a file at a time.
+     * @param filter      The filter StopWatches must pass, or null to return all StopWatches.
+     */
+    public MergingStopWatchLogIterator(List<File> logFiles, int parallelism, int batchSize, StopWatchFilter filter) {
+        this(logFiles, parallelism, batchSize, filter, true);
+    }
+
+    /**
+     * Creates a MergingStopWatchLogIterator that only returns the StopWatches that pass a filter.
+     *
+     * @param logFiles       The log files to merge.
+     * @param parallelism    The number of threads used to read and parse the files. If 1, the files are parsed on the
+     *                       thread calling hasNext() and next().
+     * @param batchSize      The number of StopWatches read from a file at a time.
+     * @param filter         The filter StopWatches must pass, or null to return all StopWatches.
+     * @param useTimeIndexes Whether the time indexes of the files are used to skip the parts outside the time range of
+     *                       the filter. Time indexes are built with the default StopWatchParser, so this should be
+     *                       false if {@link #newStopWatchIterator} parses another format, such as JSON.
+     */
+    public MergingStopWatchLogIterator(List<File> logFiles, int parallelism, int batchSize, StopWatchFilter filter,
+                                       boolean useTimeIndexes) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        this.batchSize = batchSize;
+        this.filter = filter;
+        this.useTimeIndexes = useTimeIndexes;
+        this.heads = new PriorityQueue<Source>(Math.max(1, logFiles.size()), new Comparator<Source>() {
+            public int compare(Source source1, Source source2) {
+                long startTime1 = source1.head.getStartTime();
+                long startTime2 = source2.head.getStartTime();
+                if (startTime1 != startTime2) {
+                    return (startTime1 < startTime2) ? -1 : 1;
+                }
+                return source1.index - source2.index;
+            }
+        });
+        this.executor = (parallelism == 1) ? null : Executors.newFixedThreadPool(
+                Math.min(parallelism, Math.max(1, logFiles.size())),
+                new ThreadFactory() {
+                    private final AtomicInteger threadNumber = new AtomicInteger();
+
+                    public Thread newThread(Runnable runnable) {
+                        Thread retVal = new Thread(runnable, "jperf-log-merger-" + threadNumber.incrementAndGet());
+                        retVal.setDaemon(true);
+                        return retVal;
+                    }
+                });
+
+        for (File logFile : logFiles) {
+            Source source = new Source(logFile, sources.size());
+            sources.add(source);
+            //all the files start being read right away
+            source.fetchBatch();
+        }
+    }
+
+    public boolean hasNext() {
+        start();
+        return !heads.isEmpty();
+    }
+
+    public StopWatch next() {
+        start();
+        Source source = heads.poll();
+        if (source == null) {
+            throw new NoSuchElementException();
+        }
+        StopWatch retVal = source.head;
+        if (source.advance()) {
+            heads.add(source);
+        }
+        return retVal;
+    }
+
+    /**
+     * Remove is not supported.
+     *
+     * @throws UnsupportedOperationException Always thrown.
+     */
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Stops the reading threads and closes the files.
+     *
+     * @throws IOException Thrown if a file can't be closed.
+     */
+    public void close() throws IOException {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        IOException exception = null;
+        for (Source source : sources) {
+            try {
+                source.closeInput();
+            } catch (IOException ioe) {
+                exception = ioe;
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    /**
+     * This helper method could potentially be overridden to parse the log files with a different Iterator, for
+     * example a StopWatchLogIterator with a different StopWatchParser. It is called once for each file, on the
+     * thread that first reads it.
+     *
+     * @param log    The Reader over a log file.
+     * @param filter The filter StopWatches must pass, or null to return all StopWatches.
+     * @return A new Iterator over the StopWatches in the log.
+     */
+    protected Iterator<StopWatch> newStopWatchIterator(Reader log, StopWatchFilter filter) {
+        return new StopWatchLogIterator(log, filter);
+    }
+
+    // --- Helper Methods ---
+
+    private void start() {
+        if (!started) {
+            started = true;
+            for (Source source : sources) {
+                if (source.advance()) {
+                    heads.add(source);
+                }
+            }
+        }
+    }
+
+    /**
+     * One of the files being merged. Only one batch of a file is read at a time, so the input and Iterator of a
+     * Source are never used by two threads at once.
+     */
+    private class Source implements Callable<List<StopWatch>> {
+        final File logFile;
+        /**
+         * The position of the file in the list of files, which orders StopWatches with the same start time.
+         */
+        final int index;
+        volatile Closeable input;
+        Iterator<StopWatch> stopWatches;
+        /**
+         * The batch being read ahead, or null once the end of the file has been reached.
+         */
+        Future<List<StopWatch>> nextBatch;
+        List<StopWatch> batch;
+        int batchIndex;
+        /**
+         * The next StopWatch to be returned from this file.
+         */
+        StopWatch head;
+
+        Source(File logFile, int index) {
+            this.logFile = logFile;
+            this.index = index;
+        }
+
+        /**
+         * Reads the next batch. The file is opened with the first batch, and closed once its last StopWatch is read.
+         */
+        public List<StopWatch> call() throws IOException {
+            if (stopWatches == null) {
+                if (LogFiles.isBinaryStopWatchLog(logFile)) {
+                    InputStream in = LogFiles.openInputStream(logFile);
+                    input = in;
+                    stopWatches = new BinaryStopWatchLogIterator(in, filter);
+                } else {
+                    Reader reader = useTimeIndexes ?
+                                    LogTimeIndex.openReader(logFile, filter) :
+                                    LogFiles.openReader(logFile);
+                    input = reader;
+                    stopWatches = newStopWatchIterator(reader, filter);
+                }
+            }
+            List<StopWatch> retVal = new ArrayList<StopWatch>(batchSize);
+            while (retVal.size() < batchSize && stopWatches.hasNext()) {
+                retVal.add(stopWatches.next());
+            }
+            if (retVal.size() < batchSize) {
+                closeInput();
+            }
+            return retVal;
+        }
+
+        void fetchBatch() {
+            FutureTask<List<StopWatch>> task = new FutureTask<List<StopWatch>>(this);
+            if (executor == null) {
+                task.run();
+            } else {
+                executor.execute(task);
+            }
+            nextBatch = task;
+        }
+
+        /**
+         * Moves to the next StopWatch of the file.
+         *
+         * @return false if there are no more StopWatches in the file.
+         */
+        boolean advance() {
+            while (batch == null || batchIndex == batch.size()) {
+                if (nextBatch == null) {
+                    head = null;
+                    return false;
+                }
+                batch = get(nextBatch);
+                batchIndex = 0;
+                if (batch.size() < batchSize) {
+                    nextBatch = null;
+                } else {
+                    fetchBatch();
+                }
+            }
+            head = batch.get(batchIndex++);
+            return true;
+        }
+
+        void closeInput() throws IOException {
+            Closeable toClose = input;
+            if (toClose != null) {
+                toClose.close();
+            }
+        }
+
+        private List<StopWatch> get(Future<List<StopWatch>> future) {
+            try {
+                return future.get();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while parsing " + logFile, ie);
+            } catch (ExecutionException ee) {
+                throw new IllegalStateException("Could not parse " + logFile, ee.getCause());
+            }
+        }
+    }
+}
@@ -18,7 +18,11 @@ package net.jperf.helpers;
 
 import net.jperf.GroupedTimingStatistics;
 
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
 import java.util.Calendar;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Miscellaneous static utility functions, mainly having to do with String parsing/formatting.
@@ -96,6 +100,69 @@ public class MiscUtils {
         return MiscUtils.padIntToTwoDigits(second, retVal).toString();
     }
 
+    /**
+     * Parses a date/time in the yyyy-MM-dd HH:mm:ss format written by {@link #formatDateIso8601(long)}, in the time
+     * zone of GroupedTimingStatistics. A 'T' may separate the date and time, and the seconds, or the whole time, may
+     * be omitted.
+     *
+     * @param dateTime The date/time to parse.
+     * @return The time in milliseconds since 1970.
+     * @throws IllegalArgumentException Thrown if dateTime is not in one of the accepted formats.
+     */
+    public static long parseDateIso8601(String dateTime) {
+        String normalized = dateTime.trim().replace('T', ' ');
+        for (String format : new String[]{"yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd HH:mm", "yyyy-MM-dd"}) {
+            SimpleDateFormat dateFormat = new SimpleDateFormat(format);
+            dateFormat.setTimeZone(GroupedTimingStatistics.getTimeZone());
+            dateFormat.setLenient(false);
+            ParsePosition position = new ParsePosition(0);
+            Date date = dateFormat.parse(normalized, position);
+            if (date != null && position.getIndex() == normalized.length()) {
+                return date.getTime();
+            }
+        }
+        throw new IllegalArgumentException("Could not parse date/time " + dateTime + ", expected yyyy-MM-dd HH:mm:ss");
+    }
+
+    /**
+     * Gets the symbol of one of the time units StopWatches and statistics can be kept in, as written in StopWatch
+     * log messages and statistics headers.
+     *
+     * @param timeUnit The time unit, one of NANOSECONDS, MICROSECONDS or MILLISECONDS.
+     * @return "ns", "us" or "ms".
+     */
+    public static String timeUnitSymbol(TimeUnit timeUnit) {
+        switch (timeUnit) {
+        case NANOSECONDS:
+            return "ns";
+        case MICROSECONDS:
+            return "us";
+        case MILLISECONDS:
+            return "ms";
+        default:
+            throw new IllegalArgumentException("Unsupported time unit " + timeUnit + ", expected ns, us or ms");
+        }
+    }
+
+    /**
+     * Parses the symbol of a time unit, the reverse of {@link #timeUnitSymbol(TimeUnit)}.
+     *
+     * @param symbol "ns", "us" or "ms", case insensitive. The names of the TimeUnit constants are also accepted.
+     * @return The matching TimeUnit.
+     * @throws IllegalArgumentException if the symbol is not recognized.
+     */
+    public static TimeUnit parseTimeUnit(String symbol) {
+        String trimmedSymbol = symbol.trim();
+        for (TimeUnit timeUnit : new TimeUnit[] { TimeUnit.NANOSECONDS, TimeUnit.MICROSECONDS,
+                                                  TimeUnit.MILLISECONDS }) {
+            if (timeUnitSymbol(timeUnit).equalsIgnoreCase(trimmedSymbol) ||
+                timeUnit.name().equalsIgnoreCase(trimmedSymbol)) {
+                return timeUnit;
+            }
+        }
+        throw new IllegalArgumentException("Unknown time unit: " + symbol + ", expected ns, us or ms");
+    }
+
     /**
      * Splits a string using the specified delimiter, and also trims all the resultant strings in the returned array.
      * This is useful for setting multi-valued options on appenders.
@@ -0,0 +1,353 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded, lock-free, multi-producer/single-consumer ring buffer. Any number of threads may call
+ * {@link #offer(Object)} concurrently, but only a single thread may call the consumer methods
+ * {@link #poll(long, TimeUnit)} and {@link #drainTo(Collection, int)}.
+ * <p>
+ * The slots of the ring are pre-allocated when the buffer is created. A producer claims a slot by advancing the
+ * producer sequence with a compare-and-set, then publishes its element by writing it into the claimed slot. The
+ * consumer treats a non-null slot as published, so no additional availability flags are needed. The producer and
+ * consumer sequences are padded to reduce false sharing between the producer and consumer threads.
+ * <p>
+ * Unlike an ArrayBlockingQueue, producers never block and never take a lock: if the ring is full, offer simply
+ * returns false. The consumer waits for new elements using a configurable {@link WaitStrategy}.
+ *
+ * @param <E> The type of element held in this ring buffer.
+ */
+public class MpscRingBuffer<E> {
+
+    /**
+     * A WaitStrategy determines how the consumer thread waits when the ring buffer is empty.
+     */
+    public interface WaitStrategy {
+        /**
+         * Called repeatedly by the consumer while it waits for an element to be published.
+         *
+         * @param attempt The number of times this method has already been called during the current wait, starting
+         *                at 0.
+         * @throws InterruptedException if the consumer thread was interrupted while waiting.
+         */
+        void idle(int attempt) throws InterruptedException;
+    }
+
+    /**
+     * The busy-spin wait strategy gives the lowest latency but burns a full CPU core while the buffer is empty. It
+     * should only be used when a core can be dedicated to the consumer thread.
+     */
+    public static final WaitStrategy SPIN = new WaitStrategy() {
+        public void idle(int attempt) throws InterruptedException {
+            checkInterrupted();
+        }
+        public String toString() { return "spin"; }
+    };
+
+    /**
+     * The yield wait strategy spins briefly and then calls Thread.yield() to give other threads a chance to run.
+     */
+    public static final WaitStrategy YIELD = new WaitStrategy() {
+        public void idle(int attempt) throws InterruptedException {
+            checkInterrupted();
+            if (attempt > SPIN_TRIES) {
+                Thread.yield();
+            }
+        }
+        public String toString() { return "yield"; }
+    };
+
+    /**
+     * The park wait strategy spins briefly, then yields, and finally parks the consumer thread for short periods.
+     * This strategy uses very little CPU when the buffer is idle, and is the default.
+     */
+    public static final WaitStrategy PARK = new WaitStrategy() {
+        public void idle(int attempt) throws InterruptedException {
+            checkInterrupted();
+            if (attempt > SPIN_TRIES + YIELD_TRIES) {
+                LockSupport.parkNanos(PARK_NANOS);
+            } else if (attempt > SPIN_TRIES) {
+                Thread.yield();
+            }
+        }
+        public String toString() { return "park"; }
+    };
+
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 100;
+    private static final long PARK_NANOS = 100000L; //0.1 ms
+
+    /**
+     * The slots of the ring. A null slot is either free or claimed-but-not-yet-published.
+     */
+    private final AtomicReferenceArray<E> slots;
+    /**
+     * Used to convert a sequence number to a slot index, capacity is always a power of 2.
+     */
+    private final int mask;
+    /**
+     * The next sequence number to be claimed by a producer.
+     */
+    private final PaddedAtomicLong producerSequence = new PaddedAtomicLong();
+    /**
+     * The next sequence number to be read by the consumer.
+     */
+    private final PaddedAtomicLong consumerSequence = new PaddedAtomicLong();
+    /**
+     * Producer-side cache of the consumer sequence, so producers don't read the consumer's cache line on every offer.
+     */
+    private final PaddedAtomicLong consumerSequenceCache = new PaddedAtomicLong();
+    /**
+     * The strategy used by the consumer when it must wait for elements.
+     */
+    private final WaitStrategy waitStrategy;
+
+    /**
+     * Creates a new ring buffer using the {@link #PARK} wait strategy.
+     *
+     * @param minimumCapacity The minimum number of elements that can be held. The actual capacity is rounded up to
+     *                        the next power of 2.
+     */
+    public MpscRingBuffer(int minimumCapacity) {
+        this(minimumCapacity, PARK);
+    }
+
+    /**
+     * Creates a new ring buffer.
+     *
+     * @param minimumCapacity The minimum number of elements that can be held. The actual capacity is rounded up to
+     *                        the next power of 2.
+     * @param waitStrategy    The strategy the consumer uses to wait for new elements, may not be null.
+     */
+    public MpscRingBuffer(int minimumCapacity, WaitStrategy waitStrategy) {
+        if (minimumCapacity <= 0 || minimumCapacity > (1 << 30)) {
+            throw new IllegalArgumentException("Invalid ring buffer capacity: " + minimumCapacity);
+        }
+        if (waitStrategy == null) {
+            throw new IllegalArgumentException("The wait strategy may not be null");
+        }
+        int capacity = 1;
+        while (capacity < minimumCapacity) {
+            capacity <<= 1;
+        }
+        this.slots = new AtomicReferenceArray<E>(capacity);
+        this.mask = capacity - 1;
+        this.waitStrategy = waitStrategy;
+    }
+
+    /**
+     * Returns the wait strategy with the specified name, one of "spin", "yield" or "park" (case insensitive).
+     *
+     * @param name The name of the wait strategy.
+     * @return The matching WaitStrategy.
+     * @throws IllegalArgumentException if the name is not recognized.
+     */
+    public static WaitStrategy waitStrategyForName(String name) {
+        for (WaitStrategy waitStrategy : new WaitStrategy[] { SPIN, YIELD, PARK }) {
+            if (waitStrategy.toString().equalsIgnoreCase(name)) {
+                return waitStrategy;
+            }
+        }
+        throw new IllegalArgumentException("Unknown wait strategy: " + name + ", expected spin, yield or park");
+    }
+
+    /**
+     * Gets the capacity of this buffer.
+     *
+     * @return The maximum number of elements this buffer can hold.
+     */
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Gets the approximate number of elements in this buffer. The returned value may be stale by the time it is
+     * returned if producers or the consumer are active.
+     *
+     * @return The approximate number of elements held, including claimed but not yet published slots.
+     */
+    public int size() {
+        long size = producerSequence.get() - consumerSequence.get();
+        return (int) Math.max(0L, Math.min(size, getCapacity()));
+    }
+
+    /**
+     * Gets whether this buffer is empty, subject to the same caveats as {@link #size()}.
+     *
+     * @return true if there are no elements in the buffer.
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    // --- producer methods ---
+
+    /**
+     * Adds an element to this buffer if there is room. This method may be called concurrently from any thread, and
+     * it never blocks.
+     *
+     * @param element The element to add, may not be null.
+     * @return true if the element was added, false if the buffer was full.
+     */
+    public boolean offer(E element) {
+        if (element == null) {
+            throw new NullPointerException();
+        }
+        int capacity = mask + 1;
+        long sequence;
+        do {
+            sequence = producerSequence.get();
+            if (sequence - capacity >= consumerSequenceCache.get()) {
+                //the cached value says we're full, refresh it from the real consumer sequence and check again
+                long consumed = consumerSequence.get();
+                consumerSequenceCache.lazySet(consumed);
+                if (sequence - capacity >= consumed) {
+                    return false;
+                }
+            }
+        } while (!producerSequence.compareAndSet(sequence, sequence + 1));
+
+        //publish: the consumer won't read the slot until it is non-null
+        slots.lazySet((int) sequence & mask, element);
+        return true;
+    }
+
+    /**
+     * Adds an element to this buffer, waiting for room if necessary. The calling thread spins, yields and then parks
+     * while the buffer is full, independent of the consumer's wait strategy.
+     *
+     * @param element The element to add, may not be null.
+     * @throws InterruptedException if the calling thread was interrupted while waiting.
+     */
+    public void put(E element) throws InterruptedException {
+        for (int attempt = 0; !offer(element); attempt++) {
+            PARK.idle(attempt);
+        }
+    }
+
+    // --- consumer methods ---
+
+    /**
+     * Removes and returns the next element, waiting up to the specified time for one to be published. Only the single
+     * consumer thread may call this method.
+     *
+     * @param timeout How long to wait before giving up, in units of unit.
+     * @param unit    The TimeUnit of the timeout parameter.
+     * @return The next element, or null if the timeout expired before an element was available.
+     * @throws InterruptedException if the consumer thread was interrupted while waiting.
+     */
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        E element = poll();
+        if (element != null) {
+            return element;
+        }
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (int attempt = 0; true; attempt++) {
+            waitStrategy.idle(attempt);
+            if ((element = poll()) != null) {
+                return element;
+            }
+            if (System.nanoTime() - deadline >= 0) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Removes and returns the next element if one is available, without waiting. Only the single consumer thread may
+     * call this method.
+     *
+     * @return The next element, or null if the buffer is empty.
+     */
+    public E poll() {
+        long sequence = consumerSequence.get();
+        int index = (int) sequence & mask;
+        E element = slots.get(index);
+        if (element == null) {
+            return null;
+        }
+        slots.lazySet(index, null);
+        consumerSequence.lazySet(sequence + 1);
+        return element;
+    }
+
+    /**
+     * Removes up to maxElements available elements from this buffer in a single batch and adds them to the specified
+     * collection. This method does not wait. Only the single consumer thread may call this method.
+     *
+     * @param collection  The collection to which elements are added.
+     * @param maxElements The maximum number of elements to transfer.
+     * @return The number of elements transferred.
+     */
+    public int drainTo(Collection<? super E> collection, int maxElements) {
+        long sequence = consumerSequence.get();
+        int drained = 0;
+        while (drained < maxElements) {
+            int index = (int) (sequence + drained) & mask;
+            E element = slots.get(index);
+            if (element == null) {
+                break;
+            }
+            slots.lazySet(index, null);
+            collection.add(element);
+            drained++;
+        }
+        if (drained > 0) {
+            //a single release of the consumer sequence for the whole batch
+            consumerSequence.lazySet(sequence + drained);
+        }
+        return drained;
+    }
+
+    /**
+     * Removes all available elements from this buffer. Only the single consumer thread may call this method, or any
+     * thread once the consumer has stopped.
+     */
+    public void clear() {
+        while (poll() != null) { }
+    }
+
+    // --- Helper Methods ---
+
+    private static void checkInterrupted() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    // --- Support Classes ---
+
+    /**
+     * An AtomicLong padded with unused fields so that neighbouring sequences are unlikely to share a cache line.
+     */
+    @SuppressWarnings("unused")
+    static class PaddedAtomicLong extends AtomicLong {
+        private static final long serialVersionUID = 1L;
+        private long p1, p2, p3, p4, p5, p6, p7;
+
+        public long sumPaddingToPreventOptimisation() {
+            return p1 + p2 + p3 + p4 + p5 + p6 + p7;
+        }
+    }
+}
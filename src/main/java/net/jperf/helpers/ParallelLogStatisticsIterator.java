@@ -0,0 +1,604 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import net.jperf.GroupedTimingStatistics;
+import net.jperf.StopWatch;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+
+/**
+ * This Iterator returns the same GroupedTimingStatistics as a {@link GroupingStatisticsIterator} wrapping a
+ * {@link StopWatchLogIterator} over a log file, but parses the file on several threads. The file is memory-mapped and
+ * split into chunks at line boundaries. Each chunk is parsed on a thread pool into one GroupedTimingStatistics per
+ * time slice, and the chunks are then stitched together in file order.
+ * <p>
+ * Like GroupingStatisticsIterator, a StopWatch belongs to the time slice of the latest start time seen so far in the
+ * log, so each time slice is a contiguous run of StopWatches in the file. The statistics of a time slice that lies
+ * entirely within one chunk are used as they are. A time slice that spans a chunk boundary is parsed again from its
+ * first to its last StopWatch, so that its samples are added in log order and its statistics are exactly those the
+ * sequential parse computes, rather than a merge of partial statistics that could differ in the last bits of the mean
+ * and standard deviation. Only a bounded number of chunks is parsed ahead of the StopWatches being returned.
+ * <p>
+ * Lines are decoded with the platform default charset, like the FileReader LogParser uses, and end at a '\n' or a
+ * '\r'. Instances must be closed to release the file and the threads.
+ */
+public class ParallelLogStatisticsIterator implements Iterator<GroupedTimingStatistics>, Closeable {
+    /**
+     * The smallest chunk size used when the chunk size is picked from the file size.
+     */
+    public static final int MIN_CHUNK_SIZE = 1 << 20;
+    /**
+     * The largest chunk size used when the chunk size is picked from the file size.
+     */
+    public static final int MAX_CHUNK_SIZE = 64 << 20;
+
+    /**
+     * The log file being parsed.
+     */
+    private final File logFile;
+    /**
+     * The length of each time slice, in milliseconds.
+     */
+    private final long timeSlice;
+    /**
+     * Whether or not entries for "rollup" tags should be created in each GroupedTimingStatistics returned.
+     */
+    private final boolean createRollupStatistics;
+    /**
+     * The time unit of each GroupedTimingStatistics returned.
+     */
+    private TimeUnit timeUnit = StopWatch.getDefaultTimeUnit();
+    /**
+     * The number of chunks parsed ahead of the statistics being returned.
+     */
+    private final int maxChunksInFlight;
+    /**
+     * The open file, its length and the length of each chunk.
+     */
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel fileChannel;
+    private final long fileLength;
+    private final long chunkSize;
+    /**
+     * The offset at or past which no line is parsed, the length of the file unless a range has been set.
+     */
+    private long rangeEndOffset;
+    private final Charset charset = Charset.defaultCharset();
+    /**
+     * The threads that parse chunks and time slices.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * The filter StopWatches must pass, or null if all StopWatches are parsed.
+     */
+    private final StopWatchFilter filter;
+    /**
+     * The chunks being parsed, in file order, and the offset of the next chunk to submit.
+     */
+    private final LinkedList<Future<Chunk>> chunksInFlight = new LinkedList<Future<Chunk>>();
+    private long nextChunkOffset = 0L;
+    /**
+     * The time slices ready to be returned, in order.
+     */
+    private final LinkedList<Future<GroupedTimingStatistics>> timeSlices =
+            new LinkedList<Future<GroupedTimingStatistics>>();
+    /**
+     * The time slice whose last StopWatch hasn't been found yet, or null before the first StopWatch.
+     */
+    private Segment openTimeSlice;
+
+    /**
+     * Creates a ParallelLogStatisticsIterator that picks the chunk size from the length of the file.
+     *
+     * @param logFile                The log file to parse.
+     * @param timeSlice              The length of each time slice, in milliseconds.
+     * @param createRollupStatistics Whether or not entries for "rollup" tags should be created
+     * @param parallelism            The number of threads to parse the file with.
+     * @throws IOException Thrown if the file can't be opened.
+     */
+    public ParallelLogStatisticsIterator(File logFile, long timeSlice, boolean createRollupStatistics,
+                                         int parallelism) throws IOException {
+        this(logFile, timeSlice, createRollupStatistics, parallelism, null);
+    }
+
+    /**
+     * Creates a ParallelLogStatisticsIterator that picks the chunk size from the length of the file, and only parses
+     * the StopWatches that pass a filter.
+     *
+     * @param logFile                The log file to parse.
+     * @param timeSlice              The length of each time slice, in milliseconds.
+     * @param createRollupStatistics Whether or not entries for "rollup" tags should be created
+     * @param parallelism            The number of threads to parse the file with.
+     * @param filter                 The filter StopWatches must pass, or null to parse all StopWatches.
+     * @throws IOException Thrown if the file can't be opened.
+     */
+    public ParallelLogStatisticsIterator(File logFile, long timeSlice, boolean createRollupStatistics,
+                                         int parallelism, StopWatchFilter filter) throws IOException {
+        this(logFile, timeSlice, createRollupStatistics, parallelism,
+             Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, logFile.length() / (parallelism * 4L))), filter);
+    }
+
+    /**
+     * Creates a ParallelLogStatisticsIterator.
+     *
+     * @param logFile                The log file to parse.
+     * @param timeSlice              The length of each time slice, in milliseconds.
+     * @param createRollupStatistics Whether or not entries for "rollup" tags should be created
+     * @param parallelism            The number of threads to parse the file with.
+     * @param chunkSize              The number of bytes in each chunk. The last line of a chunk extends past this.
+     * @throws IOException Thrown if the file can't be opened.
+     */
+    public ParallelLogStatisticsIterator(File logFile, long timeSlice, boolean createRollupStatistics,
+                                         int parallelism, long chunkSize) throws IOException {
+        this(logFile, timeSlice, createRollupStatistics, parallelism, chunkSize, null);
+    }
+
+    /**
+     * Creates a ParallelLogStatisticsIterator that only parses the StopWatches that pass a filter.
+     *
+     * @param logFile                The log file to parse.
+     * @param timeSlice              The length of each time slice, in milliseconds.
+     * @param createRollupStatistics Whether or not entries for "rollup" tags should be created
+     * @param parallelism            The number of threads to parse the file with.
+     * @param chunkSize              The number of bytes in each chunk. The last line of a chunk extends past this.
+     * @param filter                 The filter StopWatches must pass, or null to parse all StopWatches.
+     * @throws IOException Thrown if the file can't be opened.
+     */
+    public ParallelLogStatisticsIterator(File logFile, long timeSlice, boolean createRollupStatistics,
+                                         int parallelism, long chunkSize, StopWatchFilter filter) throws IOException {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+        }
+        this.logFile = logFile;
+        this.timeSlice = timeSlice;
+        this.createRollupStatistics = createRollupStatistics;
+        this.maxChunksInFlight = parallelism * 2;
+        this.randomAccessFile = new RandomAccessFile(logFile, "r");
+        this.fileChannel = randomAccessFile.getChannel();
+        this.fileLength = fileChannel.size();
+        this.rangeEndOffset = fileLength;
+        this.chunkSize = chunkSize;
+        this.filter = filter;
+        this.executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread retVal = new Thread(runnable, "jperf-log-parser-" + threadNumber.incrementAndGet());
+                retVal.setDaemon(true);
+                return retVal;
+            }
+        });
+    }
+
+    public boolean hasNext() {
+        while (timeSlices.isEmpty() && (openTimeSlice != null || nextChunkOffset < rangeEndOffset ||
+                                        !chunksInFlight.isEmpty())) {
+            submitChunks();
+            if (chunksInFlight.isEmpty()) {
+                //all the chunks have been stitched together, so the open time slice ends at the end of the file
+                closeTimeSlice(Long.MAX_VALUE, 0);
+            } else {
+                stitchChunk(get(chunksInFlight.removeFirst()));
+            }
+        }
+        return !timeSlices.isEmpty();
+    }
+
+    public GroupedTimingStatistics next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return get(timeSlices.removeFirst());
+    }
+
+    /**
+     * Remove is not supported.
+     *
+     * @throws UnsupportedOperationException Always thrown.
+     */
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Restricts the parse to the lines that start in a range of the file, such as the range a {@link LogTimeIndex}
+     * gives for the time range of a filter. Both offsets should be the start of a line. This must be called before
+     * hasNext() or next().
+     *
+     * @param startOffset The offset of the first line to parse.
+     * @param endOffset   The offset past the last line to parse, Long.MAX_VALUE to parse up to the end of the file.
+     */
+    public void setRange(long startOffset, long endOffset) {
+        if (!chunksInFlight.isEmpty() || !timeSlices.isEmpty() || openTimeSlice != null) {
+            throw new IllegalStateException("The range must be set before the file is parsed");
+        }
+        nextChunkOffset = startOffset;
+        rangeEndOffset = Math.min(fileLength, endOffset);
+    }
+
+    /**
+     * Sets the time unit of the statistics returned, by default the {@link StopWatch#getDefaultTimeUnit() default
+     * time unit} of StopWatches. This must be called before hasNext() or next().
+     *
+     * @param timeUnit The time unit, one of NANOSECONDS, MICROSECONDS or MILLISECONDS.
+     */
+    public void setTimeUnit(TimeUnit timeUnit) {
+        if (!chunksInFlight.isEmpty() || !timeSlices.isEmpty() || openTimeSlice != null) {
+            throw new IllegalStateException("The time unit must be set before the file is parsed");
+        }
+        MiscUtils.timeUnitSymbol(timeUnit); //checks that the unit is supported
+        this.timeUnit = timeUnit;
+    }
+
+    /**
+     * Stops the parsing threads and closes the log file.
+     *
+     * @throws IOException Thrown if the file can't be closed.
+     */
+    public void close() throws IOException {
+        executor.shutdownNow();
+        randomAccessFile.close();
+    }
+
+    /**
+     * This helper method could potentially be overridden to return a different type of StopWatchParser that is used
+     * to parse the lines of the log. It is called once for each chunk, as StopWatchParsers are not thread safe.
+     *
+     * @return A new StopWatchParser to use to parse log messages.
+     */
+    protected StopWatchParser newStopWatchParser() {
+        return new StopWatchParser();
+    }
+
+    // --- Helper Methods ---
+
+    /**
+     * Helper method submits chunks to the executor until enough are in flight or the file has been split entirely.
+     */
+    private void submitChunks() {
+        while (chunksInFlight.size() < maxChunksInFlight && nextChunkOffset < rangeEndOffset) {
+            final long start = nextChunkOffset;
+            final long end = Math.min(rangeEndOffset, start + chunkSize);
+            chunksInFlight.add(executor.submit(new Callable<Chunk>() {
+                public Chunk call() throws Exception {
+                    return parseChunk(start, end);
+                }
+            }));
+            nextChunkOffset = end;
+        }
+    }
+
+    /**
+     * Helper method parses the StopWatches on the lines that start between the specified offsets into one
+     * GroupedTimingStatistics for each time slice, computing the time slices as if the chunk were the whole log.
+     */
+    private Chunk parseChunk(long start, long end) throws IOException {
+        Chunk retVal = new Chunk();
+        LineScanner scanner = new LineScanner(start, end);
+        Segment currentSegment = null;
+        StopWatch stopWatch;
+        while ((stopWatch = scanner.next()) != null) {
+            long startTime = stopWatch.getStartTime();
+            if (currentSegment == null || startTime >= currentSegment.timeSliceEndTime) {
+                currentSegment = new Segment(scanner.lineOffset, scanner.indexInLine,
+                                             ((startTime / timeSlice) * timeSlice) + timeSlice,
+                                             newGroupedTimingStatistics());
+                retVal.segments.add(currentSegment);
+            }
+            currentSegment.statistics.addStopWatch(stopWatch);
+        }
+        return retVal;
+    }
+
+    /**
+     * Helper method parses the StopWatches from the first position up to, but not including, the second position
+     * into a single GroupedTimingStatistics. A position is the offset of a line and the index of a StopWatch on it.
+     */
+    private GroupedTimingStatistics parseTimeSlice(long fromOffset, int fromIndex, long toOffset, int toIndex)
+            throws IOException {
+        GroupedTimingStatistics retVal = newGroupedTimingStatistics();
+        LineScanner scanner = new LineScanner(fromOffset, (toOffset == Long.MAX_VALUE) ? toOffset : toOffset + 1);
+        StopWatch stopWatch;
+        while ((stopWatch = scanner.next()) != null) {
+            if (scanner.lineOffset == fromOffset && scanner.indexInLine < fromIndex) {
+                continue;
+            }
+            if (scanner.lineOffset > toOffset || (scanner.lineOffset == toOffset && scanner.indexInLine >= toIndex)) {
+                break;
+            }
+            retVal.addStopWatch(stopWatch);
+        }
+        return retVal;
+    }
+
+    /**
+     * Helper method stitches a parsed chunk onto the chunks before it. The leading segments of the chunk that fall in
+     * the open time slice belong to it; each of the following segments starts a new time slice.
+     */
+    private void stitchChunk(Chunk chunk) {
+        for (Segment segment : chunk.segments) {
+            if (openTimeSlice != null && segment.timeSliceEndTime <= openTimeSlice.timeSliceEndTime) {
+                //the open time slice spans chunks, so its statistics must be parsed again
+                openTimeSlice.statistics = null;
+            } else {
+                closeTimeSlice(segment.lineOffset, segment.indexInLine);
+                openTimeSlice = segment;
+            }
+        }
+    }
+
+    /**
+     * Helper method queues the open time slice, if any, now that the position after its last StopWatch is known.
+     */
+    private void closeTimeSlice(final long toOffset, final int toIndex) {
+        if (openTimeSlice == null) {
+            return;
+        }
+
+        final Segment segment = openTimeSlice;
+        openTimeSlice = null;
+        Callable<GroupedTimingStatistics> callable = new Callable<GroupedTimingStatistics>() {
+            public GroupedTimingStatistics call() throws Exception {
+                GroupedTimingStatistics retVal = (segment.statistics != null) ?
+                                                 segment.statistics :
+                                                 parseTimeSlice(segment.lineOffset, segment.indexInLine,
+                                                                toOffset, toIndex);
+                retVal.setStartTime(segment.timeSliceEndTime - timeSlice);
+                retVal.setStopTime(segment.timeSliceEndTime);
+                return retVal.flush();
+            }
+        };
+
+        if (segment.statistics != null) {
+            FutureTask<GroupedTimingStatistics> done = new FutureTask<GroupedTimingStatistics>(callable);
+            done.run();
+            timeSlices.add(done);
+        } else {
+            timeSlices.add(executor.submit(callable));
+        }
+    }
+
+    private StopWatchParser newFilteredStopWatchParser() {
+        StopWatchParser retVal = newStopWatchParser();
+        retVal.setFilter(filter);
+        return retVal;
+    }
+
+    private GroupedTimingStatistics newGroupedTimingStatistics() {
+        GroupedTimingStatistics retVal = new GroupedTimingStatistics();
+        retVal.setCreateRollupStatistics(createRollupStatistics);
+        retVal.setTimeUnit(timeUnit);
+        return retVal;
+    }
+
+    private <T> T get(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while parsing " + logFile, ie);
+        } catch (ExecutionException ee) {
+            throw new IllegalStateException("Could not parse " + logFile, ee.getCause());
+        }
+    }
+
+    /**
+     * The result of parsing a chunk: one Segment for each time slice, in file order.
+     */
+    private static class Chunk {
+        final List<Segment> segments = new ArrayList<Segment>();
+    }
+
+    /**
+     * A run of StopWatches in the same time slice. The position is that of the first StopWatch of the run.
+     */
+    private static class Segment {
+        final long lineOffset;
+        final int indexInLine;
+        final long timeSliceEndTime;
+        /**
+         * The statistics of the run, or null if they must be parsed again.
+         */
+        GroupedTimingStatistics statistics;
+
+        Segment(long lineOffset, int indexInLine, long timeSliceEndTime, GroupedTimingStatistics statistics) {
+            this.lineOffset = lineOffset;
+            this.indexInLine = indexInLine;
+            this.timeSliceEndTime = timeSliceEndTime;
+            this.statistics = statistics;
+        }
+    }
+
+    /**
+     * Returns the StopWatches on the lines that start in a range of the file, in order, along with the position of
+     * each. Every StopWatch on a line is returned, as StopWatchLogIterator does. The file is mapped a window at a
+     * time, so a range may be larger than a MappedByteBuffer can be.
+     */
+    private class LineScanner {
+        /**
+         * The number of bytes mapped past the end of the range, for the last line.
+         */
+        private static final int MAPPING_SLACK = 64 * 1024;
+
+        private final StopWatchParser stopWatchParser = newFilteredStopWatchParser();
+        private final boolean scannable = stopWatchParser.isScannable();
+        /**
+         * The offset at or past which no line is read.
+         */
+        private final long endOffset;
+        private MappedByteBuffer buffer;
+        /**
+         * The file offset of the first mapped byte, and the position in the buffer of the next line.
+         */
+        private long baseOffset;
+        private int position;
+        private byte[] lineBytes = new byte[256];
+        private String currentLine;
+        private final int[] currentLineIndex = new int[1];
+        private Matcher currentMatcher;
+        /**
+         * The offset of the line of the last StopWatch returned, and its index on that line.
+         */
+        long lineOffset;
+        int indexInLine;
+
+        /**
+         * Creates a LineScanner for the lines that start at or after the start offset and before the end offset.
+         */
+        LineScanner(long start, long end) throws IOException {
+            endOffset = Math.min(end, rangeEndOffset);
+            //map from the byte before the start to see if a line starts there
+            map(Math.max(0L, start - 1));
+            position = (int) (start - baseOffset);
+            while (!isLineStart()) {
+                //the range starts in the middle of a line, which belongs to the previous range
+                position++;
+            }
+        }
+
+        StopWatch next() throws IOException {
+            while (true) {
+                if (currentLine == null) {
+                    if (baseOffset + position >= endOffset) {
+                        return null;
+                    }
+                    readLine();
+                }
+
+                StopWatch retVal;
+                if (scannable) {
+                    retVal = stopWatchParser.scanStopWatch(currentLine, currentLineIndex[0], currentLineIndex);
+                } else if (currentMatcher.find(currentLineIndex[0])) {
+                    retVal = stopWatchParser.parseStopWatchFromLogMatch(currentMatcher);
+                    currentLineIndex[0] = currentMatcher.end();
+                    if (!stopWatchParser.accepts(retVal)) {
+                        continue;
+                    }
+                } else {
+                    retVal = null;
+                }
+                if (retVal != null) {
+                    indexInLine++;
+                    return retVal;
+                }
+                currentLine = null;
+            }
+        }
+
+        private void map(long offset) throws IOException {
+            baseOffset = offset;
+            long length = Math.min(fileLength - offset,
+                                   Math.min(Math.max(endOffset - offset, 0L) + MAPPING_SLACK, Integer.MAX_VALUE));
+            buffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        }
+
+        /**
+         * Helper method returns whether a line starts at the current position, either at the start or the end of
+         * the file or after a line terminator. The \r of a \r\n terminator does not start a line.
+         */
+        private boolean isLineStart() throws IOException {
+            long offset = baseOffset + position;
+            if (offset == 0L || offset >= fileLength) {
+                return true;
+            }
+            if (position + 1 > buffer.limit()) {
+                map(offset - 1);
+                position = 1;
+            }
+            byte previous = buffer.get(position - 1);
+            return previous == '\n' ||
+                   (previous == '\r' && (position == buffer.limit() || buffer.get(position) != '\n'));
+        }
+
+        private void readLine() throws IOException {
+            lineOffset = baseOffset + position;
+            indexInLine = -1;
+            int length = 0;
+            byte b = 0;
+            while (true) {
+                //find the end of the line in the mapped window, then copy the line out in bulk
+                int lineEnd = position;
+                int bufferLimit = buffer.limit();
+                while (lineEnd < bufferLimit && (b = buffer.get(lineEnd)) != '\n' && b != '\r') {
+                    lineEnd++;
+                }
+                if (length + (lineEnd - position) > lineBytes.length) {
+                    byte[] newLineBytes = new byte[Math.max(lineBytes.length * 2, length + (lineEnd - position))];
+                    System.arraycopy(lineBytes, 0, newLineBytes, 0, length);
+                    lineBytes = newLineBytes;
+                }
+                buffer.position(position);
+                buffer.get(lineBytes, length, lineEnd - position);
+                length += lineEnd - position;
+                position = lineEnd;
+
+                if (position < bufferLimit || baseOffset + position == fileLength) {
+                    break;
+                }
+                //the line continues past the mapped window
+                b = 0;
+                map(baseOffset + position);
+                position = 0;
+            }
+            //skip the line terminator, treating \r\n as a single one
+            if (baseOffset + position < fileLength) {
+                position++;
+                if (b == '\r' && baseOffset + position < fileLength) {
+                    if (position == buffer.limit()) {
+                        map(baseOffset + position);
+                        position = 0;
+                    }
+                    if (buffer.get(position) == '\n') {
+                        position++;
+                    }
+                }
+            }
+
+            currentLine = new String(lineBytes, 0, length, charset);
+            currentLineIndex[0] = 0;
+            if (!scannable) {
+                currentMatcher = stopWatchParser.getPattern().matcher(currentLine);
+            }
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import net.jperf.GroupedTimingStatistics;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The RollupStatisticsAggregator derives coarser time windows from the GroupedTimingStatistics produced for a fine
+ * time slice, without looking at the underlying StopWatches again. For example, given 10 second statistics it can
+ * produce 1 minute and 1 hour statistics. Each coarser window is built by merging the completed windows of the next
+ * finer resolution, so the 1 hour window is merged from 60 1 minute windows rather than 360 10 second windows.
+ * <p/>
+ * Windows are aligned in the same way as the {@link GroupingStatisticsIterator} aligns time slices, i.e. a window of
+ * length L starts at a multiple of L. A window is complete, and is sent to the RollupHandler, as soon as a finer
+ * window that ends on or after the window's end time is added.
+ * <p/>
+ * This class is not thread safe; it is intended to be called by the single thread that creates the fine statistics.
+ */
+public class RollupStatisticsAggregator {
+
+    /**
+     * A RollupHandler is notified each time a rollup window completes.
+     */
+    public interface RollupHandler {
+        /**
+         * Called for each completed rollup window.
+         *
+         * @param statistics The statistics for the rollup window. The start and stop times are the window boundaries.
+         * @param timeSlice  The rollup time slice, in milliseconds, that this window belongs to.
+         */
+        void handleRollup(GroupedTimingStatistics statistics, long timeSlice);
+    }
+
+    /**
+     * The rollup time slices, in increasing order.
+     */
+    private final long[] rollupTimeSlices;
+    /**
+     * The windows currently being built for each rollup time slice; null means no window has been started.
+     */
+    private final GroupedTimingStatistics[] currentWindows;
+    /**
+     * Completed windows are passed to this handler.
+     */
+    private final RollupHandler handler;
+
+    /**
+     * Creates a new RollupStatisticsAggregator.
+     *
+     * @param baseTimeSlice    The time slice, in milliseconds, of the statistics that will be passed to
+     *                         {@link #add(GroupedTimingStatistics)}.
+     * @param rollupTimeSlices The rollup time slices, in milliseconds. Each one must be a multiple of the base time
+     *                         slice and of all smaller rollup time slices.
+     * @param handler          The handler notified of each completed rollup window.
+     * @throws IllegalArgumentException if the rollup time slices are not valid.
+     */
+    public RollupStatisticsAggregator(long baseTimeSlice, long[] rollupTimeSlices, RollupHandler handler) {
+        long[] sortedTimeSlices = rollupTimeSlices.clone();
+        Arrays.sort(sortedTimeSlices);
+
+        long previousTimeSlice = baseTimeSlice;
+        for (long rollupTimeSlice : sortedTimeSlices) {
+            if (rollupTimeSlice <= previousTimeSlice || rollupTimeSlice % previousTimeSlice != 0) {
+                throw new IllegalArgumentException("Rollup time slice " + rollupTimeSlice
+                                                   + " must be a larger multiple of " + previousTimeSlice);
+            }
+            previousTimeSlice = rollupTimeSlice;
+        }
+
+        this.rollupTimeSlices = sortedTimeSlices;
+        this.currentWindows = new GroupedTimingStatistics[sortedTimeSlices.length];
+        this.handler = handler;
+    }
+
+    /**
+     * Parses a comma-separated list of rollup time slices, such as "60000, 3600000".
+     *
+     * @param rollupTimeSlices The comma-separated list of time slices in milliseconds. May be null or empty.
+     * @return The parsed time slices.
+     * @throws IllegalArgumentException if an element is not a positive number.
+     */
+    public static long[] parseTimeSlices(String rollupTimeSlices) {
+        if (rollupTimeSlices == null || rollupTimeSlices.trim().length() == 0) {
+            return new long[0];
+        }
+        String[] elements = MiscUtils.splitAndTrim(rollupTimeSlices, ",");
+        long[] retVal = new long[elements.length];
+        for (int i = 0; i < elements.length; i++) {
+            retVal[i] = parseTimeSlice(elements[i]);
+        }
+        return retVal;
+    }
+
+    /**
+     * Formats time slices as a comma-separated list that can be read by {@link #parseTimeSlices(String)}.
+     *
+     * @param timeSlices The time slices in milliseconds.
+     * @return The comma-separated list.
+     */
+    public static String formatTimeSlices(Collection<Long> timeSlices) {
+        StringBuilder retVal = new StringBuilder();
+        for (Long timeSlice : timeSlices) {
+            if (retVal.length() > 0) {
+                retVal.append(',');
+            }
+            retVal.append(timeSlice);
+        }
+        return retVal.toString();
+    }
+
+    /**
+     * Parses a rollup routing configuration, used by the logging framework appenders to send each resolution to
+     * different downstream appenders. The format is a semicolon-separated list of
+     * <tt>timeSlice:appenderName,appenderName</tt> elements, for example
+     * <tt>60000:jmxAppender;3600000:hourlyFileAppender,hourlyGraphAppender</tt>.
+     *
+     * @param rollupAppenders The routing configuration. May be null or empty.
+     * @return A Map of time slice to the names of the appenders that should receive statistics for that time slice.
+     * @throws IllegalArgumentException if the configuration can not be parsed.
+     */
+    public static SortedMap<Long, Set<String>> parseRoutes(String rollupAppenders) {
+        SortedMap<Long, Set<String>> retVal = new TreeMap<Long, Set<String>>();
+        if (rollupAppenders == null || rollupAppenders.trim().length() == 0) {
+            return retVal;
+        }
+
+        for (String route : MiscUtils.splitAndTrim(rollupAppenders, ";")) {
+            int indexOfColon = route.indexOf(':');
+            if (indexOfColon < 0) {
+                throw new IllegalArgumentException("Rollup route " + route
+                                                   + " must be of the form timeSlice:appenderName,appenderName");
+            }
+            Long timeSlice = parseTimeSlice(route.substring(0, indexOfColon).trim());
+            Set<String> appenderNames = retVal.get(timeSlice);
+            if (appenderNames == null) {
+                retVal.put(timeSlice, appenderNames = new LinkedHashSet<String>());
+            }
+            Collections.addAll(appenderNames, MiscUtils.splitAndTrim(route.substring(indexOfColon + 1), ","));
+        }
+        return retVal;
+    }
+
+    // --- Utility Methods ---
+
+    /**
+     * Adds a completed window of fine statistics. Any rollup windows that are completed as a result are sent to the
+     * handler, finest first.
+     *
+     * @param statistics The fine statistics. They are not modified.
+     */
+    public void add(GroupedTimingStatistics statistics) {
+        addToLevel(0, statistics);
+    }
+
+    /**
+     * Sends any partially complete rollup windows to the handler, finest first, and resets this aggregator. This
+     * should be called when no more statistics will be added, for example when an appender is closed.
+     */
+    public void flush() {
+        for (int level = 0; level < currentWindows.length; level++) {
+            GroupedTimingStatistics window = currentWindows[level];
+            if (window != null) {
+                currentWindows[level] = null;
+                handler.handleRollup(window, rollupTimeSlices[level]);
+                if (level + 1 < currentWindows.length) {
+                    mergeIntoLevel(level + 1, window);
+                }
+            }
+        }
+    }
+
+    // --- Helper Methods ---
+
+    private void addToLevel(int level, GroupedTimingStatistics statistics) {
+        if (level >= currentWindows.length) {
+            return;
+        }
+
+        long timeSlice = rollupTimeSlices[level];
+        GroupedTimingStatistics window = currentWindows[level];
+
+        //if the statistics start after the current window, the current window is complete
+        if (window != null && statistics.getStartTime() >= window.getStopTime()) {
+            currentWindows[level] = null;
+            handler.handleRollup(window, timeSlice);
+            addToLevel(level + 1, window);
+        }
+
+        mergeIntoLevel(level, statistics);
+
+        //if the statistics end on the window boundary the window is complete now, no need to wait for more
+        window = currentWindows[level];
+        if (statistics.getStopTime() >= window.getStopTime()) {
+            currentWindows[level] = null;
+            handler.handleRollup(window, timeSlice);
+            addToLevel(level + 1, window);
+        }
+    }
+
+    private void mergeIntoLevel(int level, GroupedTimingStatistics statistics) {
+        GroupedTimingStatistics window = currentWindows[level];
+        if (window == null) {
+            long timeSlice = rollupTimeSlices[level];
+            long windowStartTime = (statistics.getStartTime() / timeSlice) * timeSlice;
+            window = new GroupedTimingStatistics();
+            window.setCreateRollupStatistics(statistics.isCreateRollupStatistics());
+            window.setStartTime(windowStartTime);
+            window.setStopTime(windowStartTime + timeSlice);
+            currentWindows[level] = window;
+        }
+        window.merge(statistics);
+    }
+
+    private static long parseTimeSlice(String timeSlice) {
+        try {
+            long retVal = Long.parseLong(timeSlice);
+            if (retVal > 0) {
+                return retVal;
+            }
+        } catch (NumberFormatException nfe) {
+            //fall through to the exception below
+        }
+        throw new IllegalArgumentException("Invalid rollup time slice: " + timeSlice);
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import net.jperf.GroupedTimingStatistics;
+import net.jperf.StopWatch;
+
+/**
+ * SlidingWindowStatistics keep the timing statistics for a window of time that moves forward continuously, such as
+ * "the last 60 seconds", rather than for fixed, back-to-back time slices. The window is divided into a ring of
+ * equal-length buckets, each of which holds the statistics for the StopWatches (or GroupedTimingStatistics) that
+ * started in that bucket. Reading the window merges the buckets that are still inside it, so the cost of a read
+ * depends only on the number of buckets and tags, not on the number of samples, and as time moves on the oldest
+ * bucket simply drops out of the window.
+ * <p/>
+ * More buckets make the window slide more smoothly, at the cost of slightly more work per read. When StopWatches are
+ * added as they are logged the window is always up to date, whatever the bucket length. When the statistics are
+ * instead fed a time slice at a time, for example by an AsyncCoalescingStatisticsAppender, the window can only move
+ * a time slice at a time, so the bucket length (the window length divided by the bucket count) should be the same
+ * as the appender's TimeSlice.
+ * <p/>
+ * This class is thread safe: statistics may be added by one thread while other threads read the window.
+ */
+public class SlidingWindowStatistics {
+    /**
+     * The length of the window, in milliseconds.
+     */
+    private final long windowLength;
+    /**
+     * The length of each bucket, in milliseconds.
+     */
+    private final long bucketLength;
+    /**
+     * The ring of buckets. The bucket for a time t is at index (t / bucketLength) % buckets.length; a null entry
+     * means the bucket has never been used.
+     */
+    private final GroupedTimingStatistics[] buckets;
+    /**
+     * The start time of the bucket currently held in each slot of the ring.
+     */
+    private final long[] bucketStartTimes;
+    /**
+     * Whether or not the buckets create "rollup" statistics for the StopWatches added to them.
+     */
+    private boolean createRollupStatistics;
+    /**
+     * The end time of the most recent bucket that has been added to.
+     */
+    private long latestBucketStopTime;
+
+    /**
+     * Creates a new, empty SlidingWindowStatistics.
+     *
+     * @param windowLength The length of the sliding window, in milliseconds.
+     * @param bucketCount  The number of buckets the window is divided into. The window length must be a multiple of
+     *                     the bucket count.
+     */
+    public SlidingWindowStatistics(long windowLength, int bucketCount) {
+        if (bucketCount < 1) {
+            throw new IllegalArgumentException("bucketCount must be at least 1: " + bucketCount);
+        }
+        if (windowLength < bucketCount || windowLength % bucketCount != 0) {
+            throw new IllegalArgumentException("windowLength " + windowLength
+                                               + " must be a positive multiple of bucketCount " + bucketCount);
+        }
+
+        this.windowLength = windowLength;
+        this.bucketLength = windowLength / bucketCount;
+        this.buckets = new GroupedTimingStatistics[bucketCount];
+        this.bucketStartTimes = new long[bucketCount];
+    }
+
+    // --- Utility Methods ---
+
+    /**
+     * Adds a single StopWatch to the bucket for its start time. StopWatches that started before the window currently
+     * held in the ring are ignored.
+     *
+     * @param stopWatch The StopWatch to add.
+     * @return this instance, for method chaining.
+     */
+    public synchronized SlidingWindowStatistics addStopWatch(StopWatch stopWatch) {
+        GroupedTimingStatistics bucket = getBucket(stopWatch.getStartTime());
+        if (bucket != null) {
+            bucket.addStopWatch(stopWatch);
+        }
+        return this;
+    }
+
+    /**
+     * Adds all of the statistics from a GroupedTimingStatistics to the bucket for its start time. Statistics that
+     * are empty still move the window forward.
+     *
+     * @param statistics The statistics to add, which are flushed but not otherwise modified.
+     * @return this instance, for method chaining.
+     */
+    public synchronized SlidingWindowStatistics addStatistics(GroupedTimingStatistics statistics) {
+        GroupedTimingStatistics bucket = getBucket(statistics.getStartTime());
+        if (bucket != null) {
+            bucket.merge(statistics);
+        }
+        return this;
+    }
+
+    /**
+     * Gets the statistics for the window ending at the specified time. The window normally covers the bucket
+     * containing currentTime, up to currentTime, plus the preceding buckets. However, if statistics are added a whole
+     * bucket at a time and the statistics for the current bucket have not arrived yet, the window instead ends at
+     * the end of the most recently filled bucket, so that the not-yet-filled bucket doesn't dilute the results.
+     *
+     * @param currentTime The time, in milliseconds since the epoch, at which the window ends.
+     * @return A new GroupedTimingStatistics whose start and stop times are the boundaries of the window.
+     */
+    public synchronized GroupedTimingStatistics getStatistics(long currentTime) {
+        long windowStopTime = currentTime;
+        if (currentTime >= latestBucketStopTime && currentTime - latestBucketStopTime < bucketLength) {
+            windowStopTime = latestBucketStopTime;
+        }
+        //the oldest bucket that starts inside the window
+        long windowStartTime = windowStopTime - windowLength;
+        long firstBucketStartTime = windowStartTime - (windowStartTime % bucketLength);
+        if (firstBucketStartTime < windowStartTime) {
+            firstBucketStartTime += bucketLength;
+        }
+
+        GroupedTimingStatistics retVal = new GroupedTimingStatistics();
+        retVal.setCreateRollupStatistics(createRollupStatistics);
+        for (int i = 0; i < buckets.length; i++) {
+            if (buckets[i] != null
+                && bucketStartTimes[i] >= firstBucketStartTime
+                && bucketStartTimes[i] < windowStopTime) {
+                retVal.merge(buckets[i].flush());
+            }
+        }
+        retVal.setStartTime(firstBucketStartTime);
+        retVal.setStopTime(windowStopTime);
+        return retVal;
+    }
+
+    // --- Bean Properties ---
+
+    public long getWindowLength() {
+        return windowLength;
+    }
+
+    public int getBucketCount() {
+        return buckets.length;
+    }
+
+    public long getBucketLength() {
+        return bucketLength;
+    }
+
+    public synchronized boolean isCreateRollupStatistics() {
+        return createRollupStatistics;
+    }
+
+    public synchronized void setCreateRollupStatistics(boolean createRollupStatistics) {
+        this.createRollupStatistics = createRollupStatistics;
+    }
+
+    // --- Helper Methods ---
+
+    /**
+     * Helper method gets the bucket for the specified time, starting a new bucket if the slot in the ring holds a
+     * bucket that is now outside the window. This method should only be called when the lock on this object's
+     * monitor is held.
+     *
+     * @param time The time, in milliseconds since the epoch.
+     * @return The bucket, or null if the time is too old to be held in the ring.
+     */
+    private GroupedTimingStatistics getBucket(long time) {
+        long bucketStartTime = time - (time % bucketLength);
+        int index = (int) ((bucketStartTime / bucketLength) % buckets.length);
+
+        if (buckets[index] == null || bucketStartTimes[index] < bucketStartTime) {
+            GroupedTimingStatistics bucket = new GroupedTimingStatistics();
+            bucket.setCreateRollupStatistics(createRollupStatistics);
+            bucket.setStartTime(bucketStartTime);
+            bucket.setStopTime(bucketStartTime + bucketLength);
+            buckets[index] = bucket;
+            bucketStartTimes[index] = bucketStartTime;
+        } else if (bucketStartTimes[index] > bucketStartTime) {
+            //the slot has already been reused for a newer bucket
+            return null;
+        }
+
+        latestBucketStopTime = Math.max(latestBucketStopTime, bucketStartTime + bucketLength);
+        return buckets[index];
+    }
+}
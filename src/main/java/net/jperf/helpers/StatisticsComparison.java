@@ -0,0 +1,364 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import net.jperf.GroupedTimingStatistics;
+import net.jperf.TimingStatistics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * A StatisticsComparison compares the timing statistics of a baseline, such as a log from the current release or an
+ * earlier load test, with those of a candidate, tag by tag. For each tag it gives the relative change of the mean and
+ * of some percentiles, and whether the difference is statistically significant. Significance is tested with a
+ * Mann-Whitney U test on the histograms of the sample times when both sides have one (see
+ * {@link net.jperf.TimingHistogram#getRankSumZScore}), or else with Welch's t-test on the means, approximated by a
+ * normal distribution.
+ * <p>
+ * A tag is a regression if its sample times are significantly larger in the candidate and its mean or one of its
+ * percentiles grew by more than the regression threshold; it is an improvement if its sample times are
+ * significantly smaller and its mean shrank by more than the threshold. Requiring both keeps tiny but significant
+ * differences, which large logs always show, from being reported, as well as large differences that are just noise.
+ */
+public class StatisticsComparison {
+    /**
+     * The default regression threshold: a 10% increase.
+     */
+    public static final double DEFAULT_REGRESSION_THRESHOLD = 10.0;
+    /**
+     * The default significance level of the test.
+     */
+    public static final double DEFAULT_SIGNIFICANCE_LEVEL = 0.05;
+    /**
+     * The percentiles whose changes are compared, which are whole numbers so that they label the columns.
+     */
+    public static final double[] PERCENTILES = {50.0, 90.0, 99.0};
+
+    private final double regressionThreshold;
+    private final double significanceLevel;
+    private final SortedMap<String, TagComparison> comparisonsByTag = new TreeMap<String, TagComparison>();
+
+    /**
+     * Compares the statistics of a baseline and a candidate.
+     *
+     * @param baseline            The statistics of the baseline, by tag.
+     * @param candidate           The statistics of the candidate, by tag.
+     * @param regressionThreshold The relative change, in percent, beyond which a significant change is reported.
+     * @param significanceLevel   The probability, between 0 and 1, below which a difference is significant.
+     */
+    public StatisticsComparison(Map<String, TimingStatistics> baseline, Map<String, TimingStatistics> candidate,
+                                double regressionThreshold, double significanceLevel) {
+        if (!(regressionThreshold >= 0.0)) {
+            throw new IllegalArgumentException("regressionThreshold can't be negative: " + regressionThreshold);
+        }
+        if (!(significanceLevel > 0.0 && significanceLevel < 1.0)) {
+            throw new IllegalArgumentException("significanceLevel must be between 0 and 1: " + significanceLevel);
+        }
+        this.regressionThreshold = regressionThreshold;
+        this.significanceLevel = significanceLevel;
+
+        TreeSet<String> tags = new TreeSet<String>(baseline.keySet());
+        tags.addAll(candidate.keySet());
+        for (String tag : tags) {
+            comparisonsByTag.put(tag, new TagComparison(tag, baseline.get(tag), candidate.get(tag)));
+        }
+    }
+
+    /**
+     * Merges the statistics of every timeslice by tag, to get the statistics of a whole log.
+     *
+     * @param statsIter The statistics of each timeslice.
+     * @return The statistics of each tag over all the timeslices.
+     */
+    public static SortedMap<String, TimingStatistics> aggregate(Iterator<GroupedTimingStatistics> statsIter) {
+        SortedMap<String, TimingStatistics> retVal = new TreeMap<String, TimingStatistics>();
+        while (statsIter.hasNext()) {
+            for (Map.Entry<String, TimingStatistics> tagAndStats : statsIter.next().getStatisticsByTag().entrySet()) {
+                TimingStatistics timingStats = retVal.get(tagAndStats.getKey());
+                if (timingStats == null) {
+                    retVal.put(tagAndStats.getKey(), tagAndStats.getValue().clone());
+                } else {
+                    timingStats.merge(tagAndStats.getValue());
+                }
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Gets the two-sided probability that a standard normal variable is at least as far from 0 as the specified
+     * score, using the complementary error function approximation from Numerical Recipes, which has a relative error
+     * below 1.2e-7.
+     *
+     * @param zScore The standard score.
+     * @return The two-sided p-value.
+     */
+    public static double getTwoSidedPValue(double zScore) {
+        double x = Math.abs(zScore) / Math.sqrt(2.0);
+        double t = 1.0 / (1.0 + 0.5 * x);
+        return t * Math.exp(-x * x - 1.26551223 +
+                            t * (1.00002368 + t * (0.37409196 + t * (0.09678418 + t * (-0.18628806 +
+                            t * (0.27886807 + t * (-1.13520398 + t * (1.48851587 + t * (-0.82215223 +
+                            t * 0.17087277)))))))));
+    }
+
+    // --- Bean Properties ---
+
+    public double getRegressionThreshold() {
+        return regressionThreshold;
+    }
+
+    public double getSignificanceLevel() {
+        return significanceLevel;
+    }
+
+    /**
+     * Gets the comparison of each tag found in the baseline or the candidate.
+     *
+     * @return The comparisons, sorted by tag.
+     */
+    public SortedMap<String, TagComparison> getComparisonsByTag() {
+        return Collections.unmodifiableSortedMap(comparisonsByTag);
+    }
+
+    /**
+     * Gets the tags that regressed.
+     *
+     * @return The tags that regressed, in order.
+     */
+    public List<String> getRegressions() {
+        List<String> retVal = new ArrayList<String>();
+        for (TagComparison comparison : comparisonsByTag.values()) {
+            if (comparison.isRegression()) {
+                retVal.add(comparison.getTag());
+            }
+        }
+        return retVal;
+    }
+
+    // --- Object Methods ---
+
+    /**
+     * Formats the comparison as a table with a row for each tag, in the style of the text output of the
+     * GroupedTimingStatistics.
+     *
+     * @return The comparison table.
+     */
+    public String toString() {
+        StringBuilder retVal = new StringBuilder();
+        int tagWidth = "Tag".length();
+        for (String tag : comparisonsByTag.keySet()) {
+            tagWidth = Math.max(tagWidth, tag.length());
+        }
+
+        retVal.append(String.format("Performance Comparison   regression threshold %.1f%%, significance level %s%n",
+                                    regressionThreshold, significanceLevel));
+        retVal.append(String.format("%-" + tagWidth + "s%12s%12s%12s%12s%12s", "Tag", "Base Count", "Cand Count",
+                                    "Base Avg", "Cand Avg", "Avg Chg"));
+        for (double percentile : PERCENTILES) {
+            retVal.append(String.format("%12s", "p" + (long) percentile + " Chg"));
+        }
+        retVal.append(String.format("%12s  %s%n", "P-Value", "Result"));
+
+        for (TagComparison comparison : comparisonsByTag.values()) {
+            TimingStatistics baseline = comparison.getBaseline();
+            TimingStatistics candidate = comparison.getCandidate();
+            retVal.append(String.format("%-" + tagWidth + "s%12s%12s%12s%12s%12s",
+                                        comparison.getTag(),
+                                        (baseline == null) ? "-" : String.valueOf(baseline.getCount()),
+                                        (candidate == null) ? "-" : String.valueOf(candidate.getCount()),
+                                        (baseline == null) ? "-" : String.format("%.1f", baseline.getMean()),
+                                        (candidate == null) ? "-" : String.format("%.1f", candidate.getMean()),
+                                        formatChange(comparison.getMeanChange())));
+            for (double percentile : PERCENTILES) {
+                retVal.append(String.format("%12s", formatChange(comparison.getPercentileChange(percentile))));
+            }
+            double pValue = comparison.getPValue();
+            retVal.append(String.format("%12s", Double.isNaN(pValue) ? "-" : String.format("%.4f", pValue)));
+            String result = comparison.getResult();
+            retVal.append(result.length() > 0 ? "  " + result : "").append(MiscUtils.NEWLINE);
+        }
+
+        return retVal.toString();
+    }
+
+    // --- Helper Methods ---
+
+    private static String formatChange(double change) {
+        return Double.isNaN(change) ? "-" : String.format("%+.1f%%", change);
+    }
+
+    /**
+     * Helper method gets the relative change from a baseline value to a candidate value, in percent.
+     */
+    private static double getChange(double baselineValue, double candidateValue) {
+        if (baselineValue == candidateValue) {
+            return 0.0;
+        }
+        return (baselineValue == 0.0) ? Double.NaN : (candidateValue - baselineValue) * 100.0 / baselineValue;
+    }
+
+    // --- Helper Classes ---
+
+    /**
+     * The comparison of the statistics of a single tag.
+     */
+    public class TagComparison {
+        private final String tag;
+        private final TimingStatistics baseline;
+        private final TimingStatistics candidate;
+        private final double zScore;
+
+        TagComparison(String tag, TimingStatistics baseline, TimingStatistics candidate) {
+            this.tag = tag;
+            this.baseline = baseline;
+            this.candidate = candidate;
+            this.zScore = (baseline == null || candidate == null) ? Double.NaN : computeZScore();
+        }
+
+        public String getTag() {
+            return tag;
+        }
+
+        /**
+         * Gets the statistics of the tag in the baseline.
+         *
+         * @return The statistics, or null if the tag is only in the candidate.
+         */
+        public TimingStatistics getBaseline() {
+            return baseline;
+        }
+
+        /**
+         * Gets the statistics of the tag in the candidate.
+         *
+         * @return The statistics, or null if the tag is only in the baseline.
+         */
+        public TimingStatistics getCandidate() {
+            return candidate;
+        }
+
+        /**
+         * Gets the relative change of the mean.
+         *
+         * @return The change in percent, positive if the candidate is slower, or NaN if the tag isn't in both.
+         */
+        public double getMeanChange() {
+            return (baseline == null || candidate == null) ?
+                   Double.NaN :
+                   getChange(baseline.getMean(), candidate.getMean());
+        }
+
+        /**
+         * Gets the relative change of a percentile.
+         *
+         * @param percentile The percentile, between 0.0 and 100.0.
+         * @return The change in percent, positive if the candidate is slower, or NaN if the tag isn't in both or
+         *         if either side has no histogram.
+         */
+        public double getPercentileChange(double percentile) {
+            return (baseline == null || candidate == null ||
+                    baseline.getHistogram() == null || candidate.getHistogram() == null) ?
+                   Double.NaN :
+                   getChange(baseline.getPercentile(percentile), candidate.getPercentile(percentile));
+        }
+
+        /**
+         * Gets the standard score of the significance test.
+         *
+         * @return The score, positive if the candidate tends to be slower, or NaN if the tag isn't in both.
+         */
+        public double getZScore() {
+            return zScore;
+        }
+
+        /**
+         * Gets the probability of a difference at least as large as the one observed if the baseline and the
+         * candidate had the same distribution.
+         *
+         * @return The two-sided p-value, or NaN if the tag isn't in both.
+         */
+        public double getPValue() {
+            return Double.isNaN(zScore) ? Double.NaN : getTwoSidedPValue(zScore);
+        }
+
+        public boolean isSignificant() {
+            return getPValue() < significanceLevel;
+        }
+
+        public boolean isRegression() {
+            if (!isSignificant() || zScore <= 0.0) {
+                return false;
+            }
+            if (getMeanChange() > regressionThreshold) {
+                return true;
+            }
+            for (double percentile : PERCENTILES) {
+                if (getPercentileChange(percentile) > regressionThreshold) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public boolean isImprovement() {
+            return isSignificant() && zScore < 0.0 && getMeanChange() < -regressionThreshold;
+        }
+
+        /**
+         * Gets the verdict shown in the comparison table.
+         *
+         * @return REGRESSION, improvement, baseline only, candidate only, or an empty String.
+         */
+        public String getResult() {
+            if (candidate == null) {
+                return "baseline only";
+            } else if (baseline == null) {
+                return "candidate only";
+            } else if (isRegression()) {
+                return "REGRESSION";
+            } else if (isImprovement()) {
+                return "improvement";
+            }
+            return "";
+        }
+
+        /**
+         * Helper method runs the Mann-Whitney U test if both sides have a histogram, or else Welch's t-test.
+         */
+        private double computeZScore() {
+            if (baseline.getHistogram() != null && candidate.getHistogram() != null) {
+                return candidate.getHistogram().getRankSumZScore(baseline.getHistogram());
+            }
+            double meanDifference = candidate.getMean() - baseline.getMean();
+            double standardError = Math.sqrt(
+                    candidate.getStandardDeviation() * candidate.getStandardDeviation() / candidate.getCount() +
+                    baseline.getStandardDeviation() * baseline.getStandardDeviation() / baseline.getCount());
+            if (standardError == 0.0) {
+                return (meanDifference == 0.0) ? 0.0 : Math.signum(meanDifference) * Double.POSITIVE_INFINITY;
+            }
+            return meanDifference / standardError;
+        }
+    }
+}
@@ -17,6 +17,7 @@
 package net.jperf.helpers;
 
 import net.jperf.GroupedTimingStatistics;
+import net.jperf.StopWatch;
 import net.jperf.TimingStatistics;
 
 import javax.management.*;
@@ -58,6 +59,10 @@ public class StatisticsExposingMBean extends NotificationBroadcasterSupport impl
      * When mbean was deployed multi-times, ignore the new one, still using the old one.
      */
     public static final String COLLISION_IGNORE = "IGNORE";
+    /**
+     * The name of the attribute holding the symbol of the time unit of the exposed times: "ms", "us" or "ns".
+     */
+    public static final String TIME_UNIT_ATTRIBUTE = "TimeUnit";
 
     /**
      * The name under which this MBean is registered in the MBean server.
@@ -95,10 +100,20 @@ public class StatisticsExposingMBean extends NotificationBroadcasterSupport impl
      * The current underlying timing statistics whose values are exposed as MBean attributes.
      */
     protected GroupedTimingStatistics currentTimingStatistics;
+    /**
+     * If not null, the exposed attributes are read from this sliding window instead of from the
+     * currentTimingStatistics, and each update is added to the window.
+     */
+    protected SlidingWindowStatistics slidingWindowStatistics;
+    /**
+     * Whether or not StopWatches are being added to the sliding window as they arrive, in which case the time slices
+     * passed to updateCurrentTimingStatistics are not added to the window, as they hold the same StopWatches.
+     */
+    protected boolean receivingStopWatches;
     /**
      * Pattern used to parse requested attribute names into the tag name and the statistic name
      */
-    protected Pattern attributeNamePattern = Pattern.compile("(.*)(Mean|StdDev|Min|Max|Count|TPS)");
+    protected Pattern attributeNamePattern = Pattern.compile("(.*)(Mean|StdDev|Min|Max|Count|TPS|P50|P90|P95|P99|P999)");
 
     /**
      * Creates a new StatisticsExposingMBean whose management interface exposes performance attributes for the tags
@@ -106,14 +121,37 @@ public class StatisticsExposingMBean extends NotificationBroadcasterSupport impl
      *
      * @param mBeanName        The name under which this MBean is registered in the MBean server
      * @param tagsToExpose     The names of the tags whose statistics should exposed. For each tag specified there will
-     *                         be 6 attributes whose getters are exposed: tagNameMean, tagNameStdDev, tagNameMin,
-     *                         tagNameMax, and tagNameCount and tagNameTPS
+     *                         be 11 attributes whose getters are exposed: tagNameMean, tagNameStdDev, tagNameMin,
+     *                         tagNameMax, tagNameCount, tagNameTPS and the percentiles tagNameP50, tagNameP90,
+     *                         tagNameP95, tagNameP99 and tagNameP999. The {@link #TIME_UNIT_ATTRIBUTE} gives
+     *                         the time unit of the times.
      * @param acceptableRanges These acceptable ranges are used to send notifications if any of the monitored
      *                         attributes go outside of the range.
      */
     public StatisticsExposingMBean(String mBeanName,
                                    Collection<String> tagsToExpose,
                                    Collection<AcceptableRangeConfiguration> acceptableRanges) {
+        this(mBeanName, tagsToExpose, acceptableRanges, null);
+    }
+
+    /**
+     * Creates a new StatisticsExposingMBean whose attributes are read from a sliding window. Each call to
+     * {@link #updateCurrentTimingStatistics} adds the statistics to the window, and attribute values (including those
+     * checked against the acceptable ranges) are calculated from the window as it stands when they are read, so they
+     * change smoothly instead of jumping at the end of each time slice. If StopWatches are instead passed to
+     * {@link #addStopWatch} as they are logged, the window, and the acceptable ranges, are updated with each one.
+     *
+     * @param mBeanName               The name under which this MBean is registered in the MBean server
+     * @param tagsToExpose            The names of the tags whose statistics should exposed.
+     * @param acceptableRanges        These acceptable ranges are used to send notifications if any of the monitored
+     *                                attributes go outside of the range.
+     * @param slidingWindowStatistics The sliding window from which attribute values are read. If null, the attribute
+     *                                values are those of the most recently updated timing statistics.
+     */
+    public StatisticsExposingMBean(String mBeanName,
+                                   Collection<String> tagsToExpose,
+                                   Collection<AcceptableRangeConfiguration> acceptableRanges,
+                                   SlidingWindowStatistics slidingWindowStatistics) {
         //set mBeanName
         if (mBeanName == null) {
             mBeanName = DEFAULT_MBEAN_NAME;
@@ -148,6 +186,8 @@ public class StatisticsExposingMBean extends NotificationBroadcasterSupport impl
         this.managementInterface = createMBeanInfoFromTagNames(tagsToExpose);
 
         this.currentTimingStatistics = new GroupedTimingStatistics(); //just set empty so it's never null
+
+        this.slidingWindowStatistics = slidingWindowStatistics;
     }
 
     /**
@@ -161,10 +201,37 @@ public class StatisticsExposingMBean extends NotificationBroadcasterSupport impl
             throw new IllegalArgumentException("timing statistics may not be null");
         }
         this.currentTimingStatistics = currentTimingStatistics;
+        if (slidingWindowStatistics != null && !receivingStopWatches) {
+            slidingWindowStatistics.addStatistics(currentTimingStatistics);
+        }
 
         sendNotificationsIfValuesNotAcceptable();
     }
 
+    /**
+     * This method may be called with each StopWatch as it is logged to add it to the sliding window straight away,
+     * so that the exposed attributes, and the checks against the acceptable ranges, don't have to wait for the end of
+     * the time slice. Once a StopWatch has been added, the time slices passed to
+     * {@link #updateCurrentTimingStatistics} are no longer added to the window, so that the StopWatches are not
+     * counted twice. This method has no effect if this MBean has no sliding window.
+     *
+     * @param stopWatch The StopWatch to add, may not be null
+     */
+    public synchronized void addStopWatch(StopWatch stopWatch) {
+        if (stopWatch == null) {
+            throw new IllegalArgumentException("stop watch may not be null");
+        }
+        if (slidingWindowStatistics == null) {
+            return;
+        }
+        receivingStopWatches = true;
+        slidingWindowStatistics.addStopWatch(stopWatch);
+
+        if (!acceptableRanges.isEmpty()) {
+            sendNotificationsIfValuesNotAcceptable();
+        }
+    }
+
     /**
      * This MBean operation method allows the caller to add a tag whose statistics should be exposed as attributes
      * at runtime.
@@ -190,19 +257,7 @@ public class StatisticsExposingMBean extends NotificationBroadcasterSupport impl
 
     public synchronized Object getAttribute(String attribute)
             throws AttributeNotFoundException, MBeanException, ReflectionException {
-        Matcher matcher = attributeNamePattern.matcher(attribute);
-        if (matcher.matches()) {
-            String tagName = matcher.group(1);
-            String statisticName = matcher.group(2);
-
-            TimingStatistics timingStats = currentTimingStatistics.getStatisticsByTag().get(tagName);
-            long windowLength = currentTimingStatistics.getWindowLength();
-
-            return getStatsValueRetrievers().get(statisticName).getStatsValue(timingStats, windowLength);
-        } else {
-            throw new AttributeNotFoundException("No attribute named " + attribute);
-        }
-
+        return getAttribute(attribute, getExposedTimingStatistics());
     }
 
     public void setAttribute(Attribute attribute)
@@ -212,9 +267,10 @@ public class StatisticsExposingMBean extends NotificationBroadcasterSupport impl
 
     public synchronized AttributeList getAttributes(String[] attributeNames) {
         AttributeList retVal = new AttributeList();
+        GroupedTimingStatistics exposedTimingStatistics = getExposedTimingStatistics();
         for (String attributeName : attributeNames) {
             try {
-                retVal.add(new Attribute(attributeName, getAttribute(attributeName)));
+                retVal.add(new Attribute(attributeName, getAttribute(attributeName, exposedTimingStatistics)));
             } catch (Exception e) {
                 //ignore - the absence of the attribute in the return list indicates there was an error
             }
@@ -258,16 +314,64 @@ public class StatisticsExposingMBean extends NotificationBroadcasterSupport impl
     }
 
     /**
-     * Helper method creates an MBeanInfo object that contains 6 read only attributes for each tag name, each
-     * attribute representing a different statistic.
+     * Helper method gets the timing statistics from which attribute values are currently read. This method should
+     * only be called when the lock on this object's monitor is held.
+     *
+     * @return The statistics of the sliding window as of now if there is one, otherwise the current timing statistics.
+     */
+    protected GroupedTimingStatistics getExposedTimingStatistics() {
+        if (slidingWindowStatistics != null) {
+            return slidingWindowStatistics.getStatistics(System.currentTimeMillis());
+        }
+        return currentTimingStatistics;
+    }
+
+    /**
+     * Helper method gets the value of an attribute from the specified timing statistics.
+     *
+     * @param attribute        The name of the attribute, such as tagNameMean.
+     * @param timingStatistics The statistics from which the value is read.
+     * @return The attribute value.
+     * @throws AttributeNotFoundException if the attribute name is not valid.
+     */
+    protected Object getAttribute(String attribute, GroupedTimingStatistics timingStatistics)
+            throws AttributeNotFoundException {
+        if (TIME_UNIT_ATTRIBUTE.equals(attribute)) {
+            return MiscUtils.timeUnitSymbol(timingStatistics.getTimeUnit());
+        }
+        Matcher matcher = attributeNamePattern.matcher(attribute);
+        if (matcher.matches()) {
+            String tagName = matcher.group(1);
+            String statisticName = matcher.group(2);
+
+            TimingStatistics timingStats = timingStatistics.getStatisticsByTag().get(tagName);
+            long windowLength = timingStatistics.getWindowLength();
+
+            return getStatsValueRetrievers().get(statisticName).getStatsValue(timingStats, windowLength);
+        } else {
+            throw new AttributeNotFoundException("No attribute named " + attribute);
+        }
+    }
+
+    /**
+     * Helper method creates an MBeanInfo object that contains a read only attribute for each statistic returned by
+     * {@link #getStatsValueRetrievers()} for each tag name, each attribute representing a different statistic, and
+     * the {@link #TIME_UNIT_ATTRIBUTE}.
      *
      * @param tagNames The name of the tags whose statistics should be exposed as MBeanAttributes.
      * @return The MBeanInfo that represents the management interface for this MBean.
      */
     protected MBeanInfo createMBeanInfoFromTagNames(Collection<String> tagNames) {
-        MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[tagNames.size() * getStatsValueRetrievers().size()];
+        MBeanAttributeInfo[] attributes =
+                new MBeanAttributeInfo[tagNames.size() * getStatsValueRetrievers().size() + 1];
 
         int i = 0;
+        attributes[i++] = new MBeanAttributeInfo(TIME_UNIT_ATTRIBUTE,
+                                                 String.class.getName(),
+                                                 "Returns the time unit of the times: ms, us or ns",
+                                                 true /* readable */,
+                                                 false /* not writable */,
+                                                 false /* not "is" getter */);
         for (String tagName : tagNames) {
             for (Map.Entry<String, StatsValueRetriever> statNameAndValueRetriever :
                     getStatsValueRetrievers().entrySet()) {
@@ -331,13 +435,15 @@ public class StatisticsExposingMBean extends NotificationBroadcasterSupport impl
      */
     protected void sendNotificationsIfValuesNotAcceptable() {
         //send notifications if any values are outside the acceptable range, but only if the LAST check was good
+        GroupedTimingStatistics exposedTimingStatistics = getExposedTimingStatistics();
         for (Map.Entry<AcceptableRangeConfiguration, Boolean> acceptableRangeAndWasGood : acceptableRanges.entrySet()) {
             AcceptableRangeConfiguration acceptableRange = acceptableRangeAndWasGood.getKey();
             boolean lastCheckWasGood = acceptableRangeAndWasGood.getValue();
 
             double attributeValue;
             try {
-                attributeValue = ((Number) getAttribute(acceptableRange.getAttributeName())).doubleValue();
+                attributeValue = ((Number) getAttribute(acceptableRange.getAttributeName(),
+                                                        exposedTimingStatistics)).doubleValue();
             } catch (Exception e) {
                 //shouldn't happen
                 continue;
@@ -24,7 +24,7 @@ import java.util.LinkedHashMap;
 
 /**
  * The StatsValueRetriever is used to enable retrieval of any of the statistics on the TimingStatistics object
- * by name. In addition, retrieval of a transactions per second statistic is supported.
+ * by name. In addition, retrieval of a transactions per second statistic and of percentiles is supported.
  *
  * @author Alex Devine
  */
@@ -91,9 +91,19 @@ public abstract class StatsValueRetriever {
         public String getValueName() { return "TPS"; }
     };
 
+    public static final StatsValueRetriever P50_VALUE_RETRIEVER = new PercentileValueRetriever("P50", 50.0);
+
+    public static final StatsValueRetriever P90_VALUE_RETRIEVER = new PercentileValueRetriever("P90", 90.0);
+
+    public static final StatsValueRetriever P95_VALUE_RETRIEVER = new PercentileValueRetriever("P95", 95.0);
+
+    public static final StatsValueRetriever P99_VALUE_RETRIEVER = new PercentileValueRetriever("P99", 99.0);
+
+    public static final StatsValueRetriever P999_VALUE_RETRIEVER = new PercentileValueRetriever("P999", 99.9);
+
     /**
      * Default unmodifiable Map of statistic name to the corresponding StatsValueRetriever object that retrieves that
-     * statistic. Statistic names are Mean, StdDev, Min, Max, Count and TPS.
+     * statistic. Statistic names are Mean, StdDev, Min, Max, Count, TPS, P50, P90, P95, P99 and P999.
      */
     public static final Map<String, StatsValueRetriever> DEFAULT_RETRIEVERS;
     static {
@@ -104,6 +114,11 @@ public abstract class StatsValueRetriever {
         defaultRetrievers.put(MAX_VALUE_RETRIEVER.getValueName(), MAX_VALUE_RETRIEVER);
         defaultRetrievers.put(COUNT_VALUE_RETRIEVER.getValueName(), COUNT_VALUE_RETRIEVER);
         defaultRetrievers.put(TPS_VALUE_RETRIEVER.getValueName(), TPS_VALUE_RETRIEVER);
+        defaultRetrievers.put(P50_VALUE_RETRIEVER.getValueName(), P50_VALUE_RETRIEVER);
+        defaultRetrievers.put(P90_VALUE_RETRIEVER.getValueName(), P90_VALUE_RETRIEVER);
+        defaultRetrievers.put(P95_VALUE_RETRIEVER.getValueName(), P95_VALUE_RETRIEVER);
+        defaultRetrievers.put(P99_VALUE_RETRIEVER.getValueName(), P99_VALUE_RETRIEVER);
+        defaultRetrievers.put(P999_VALUE_RETRIEVER.getValueName(), P999_VALUE_RETRIEVER);
         DEFAULT_RETRIEVERS = Collections.unmodifiableMap(defaultRetrievers);
     }
 
@@ -130,4 +145,34 @@ public abstract class StatsValueRetriever {
      * @return The name of the value retrieved.
      */
     public abstract String getValueName();
+
+    /**
+     * A StatsValueRetriever that returns the sample time at a given percentile, as calculated by
+     * {@link TimingStatistics#getPercentile(double)}.
+     */
+    public static class PercentileValueRetriever extends StatsValueRetriever {
+        private final String valueName;
+        private final double percentile;
+
+        /**
+         * Creates a retriever for the specified percentile.
+         *
+         * @param valueName  The name of the value, such as "P99".
+         * @param percentile The percentile, between 0.0 and 100.0.
+         */
+        public PercentileValueRetriever(String valueName, double percentile) {
+            this.valueName = valueName;
+            this.percentile = percentile;
+        }
+
+        public Number getStatsValue(TimingStatistics timingStats, long windowLength) {
+            return (timingStats == null) ? 0L : timingStats.getPercentile(percentile);
+        }
+
+        public Class<Long> getValueClass() { return Long.class; }
+
+        public String getValueName() { return valueName; }
+
+        public double getPercentile() { return percentile; }
+    }
 }
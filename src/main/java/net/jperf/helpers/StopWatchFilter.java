@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import net.jperf.StopWatch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A StopWatchFilter restricts the StopWatches parsed from a log to a range of start times and a set of tags. It is
+ * given to a {@link StopWatchParser}, which applies it while scanning a log message: a StopWatch outside the time range
+ * is rejected as soon as its start time is parsed, and a StopWatch with an unmatched tag as soon as its tag is found,
+ * so rejected StopWatches are never created. Instances are immutable and may be shared between threads.
+ * <p>
+ * Tags are matched against a comma-separated list of patterns, any of which may match the whole tag. A pattern is a
+ * glob, where <tt>*</tt> matches any characters and <tt>?</tt> any single character, unless it is enclosed in slashes,
+ * as in <tt>/db\.(get|put)/</tt>, in which case it is a regular expression. Commas within a regular expression, or
+ * within the braces of a <tt>{a,b}</tt> glob, don't separate patterns.
+ */
+public class StopWatchFilter {
+    private final long fromTime;
+    private final long toTime;
+    private final String tagPatterns;
+    /**
+     * The patterns matched against tags, combined into one, or null if all tags are accepted.
+     */
+    private final Pattern tagPattern;
+
+    /**
+     * Creates a StopWatchFilter.
+     *
+     * @param fromTime    The earliest start time accepted, inclusive, or Long.MIN_VALUE for no lower bound.
+     * @param toTime      The latest start time accepted, exclusive, or Long.MAX_VALUE for no upper bound.
+     * @param tagPatterns The comma-separated tag patterns, or null to accept all tags.
+     * @throws java.util.regex.PatternSyntaxException Thrown if a regular expression is invalid.
+     */
+    public StopWatchFilter(long fromTime, long toTime, String tagPatterns) {
+        this.fromTime = fromTime;
+        this.toTime = toTime;
+        this.tagPatterns = tagPatterns;
+        this.tagPattern = (tagPatterns == null) ? null : compileTagPatterns(tagPatterns);
+    }
+
+    // --- Bean Properties ---
+
+    public long getFromTime() {
+        return fromTime;
+    }
+
+    public long getToTime() {
+        return toTime;
+    }
+
+    public String getTagPatterns() {
+        return tagPatterns;
+    }
+
+    // --- Instance Methods ---
+
+    /**
+     * Returns whether this filter restricts start times, in which case a {@link LogTimeIndex} can be used to read only
+     * part of a log.
+     *
+     * @return true if there is a lower or an upper bound on start times.
+     */
+    public boolean isTimeRestricted() {
+        return fromTime != Long.MIN_VALUE || toTime != Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns whether a start time is in the time range of this filter.
+     *
+     * @param startTime The start time of a StopWatch.
+     * @return true if fromTime &lt;= startTime &lt; toTime.
+     */
+    public boolean acceptsStartTime(long startTime) {
+        return startTime >= fromTime && startTime < toTime;
+    }
+
+    /**
+     * Returns whether a tag is matched by the tag patterns of this filter. StopWatchParsers cache the result for the
+     * tags they parse, so this is normally called once for each distinct tag.
+     *
+     * @param tag The tag of a StopWatch.
+     * @return true if there are no tag patterns, or one of them matches the whole tag.
+     */
+    public boolean acceptsTag(String tag) {
+        return tagPattern == null || tagPattern.matcher(tag).matches();
+    }
+
+    /**
+     * Returns whether a StopWatch passes this filter.
+     *
+     * @param stopWatch The StopWatch to check.
+     * @return true if both the start time and the tag of the StopWatch are accepted.
+     */
+    public boolean accepts(StopWatch stopWatch) {
+        return acceptsStartTime(stopWatch.getStartTime()) && acceptsTag(stopWatch.getTag());
+    }
+
+    public String toString() {
+        return "StopWatchFilter[from=" + fromTime + ", to=" + toTime + ", tags=" + tagPatterns + "]";
+    }
+
+    // --- Helper Methods ---
+
+    private static Pattern compileTagPatterns(String tagPatterns) {
+        StringBuilder regex = new StringBuilder();
+        for (String tagPattern : splitTagPatterns(tagPatterns)) {
+            if (regex.length() > 0) {
+                regex.append('|');
+            }
+            if (tagPattern.length() > 1 && tagPattern.startsWith("/") && tagPattern.endsWith("/")) {
+                regex.append("(?:").append(tagPattern.substring(1, tagPattern.length() - 1)).append(')');
+            } else {
+                regex.append("(?:").append(LogFiles.globToPattern(tagPattern).pattern()).append(')');
+            }
+        }
+        if (regex.length() == 0) {
+            throw new IllegalArgumentException("No tag patterns in " + tagPatterns);
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    /**
+     * Helper method splits the tag patterns at the commas that are not within a regular expression or a {a,b} glob.
+     */
+    private static List<String> splitTagPatterns(String tagPatterns) {
+        List<String> retVal = new ArrayList<String>();
+        int patternStart = 0;
+        boolean inRegex = false;
+        int braceDepth = 0;
+        for (int i = 0; i <= tagPatterns.length(); i++) {
+            char c = (i < tagPatterns.length()) ? tagPatterns.charAt(i) : ',';
+            if (c == '/' && (inRegex || tagPatterns.substring(patternStart, i).trim().length() == 0)) {
+                inRegex = !inRegex;
+            } else if (!inRegex && c == '{') {
+                braceDepth++;
+            } else if (!inRegex && c == '}') {
+                braceDepth--;
+            } else if (c == ',' && ((!inRegex && braceDepth <= 0) || i == tagPatterns.length())) {
+                String tagPattern = tagPatterns.substring(patternStart, i).trim();
+                if (tagPattern.length() > 0) {
+                    retVal.add(tagPattern);
+                }
+                patternStart = i + 1;
+                braceDepth = 0;
+                inRegex = false;
+            }
+        }
+        return retVal;
+    }
+}
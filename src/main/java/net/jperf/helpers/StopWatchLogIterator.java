@@ -18,6 +18,9 @@ package net.jperf.helpers;
 
 import net.jperf.StopWatch;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.Scanner;
@@ -25,14 +28,35 @@ import java.util.Scanner;
 /**
  * The StopWatchLogIterator class takes input from a Reader and parses it so that deserialized StopWatch instances can
  * be returned with each call to next(). Log messages that are not recognized as StopWatch calls are just ignored.
+ * <p>
+ * If the StopWatchParser can scan messages without its regex, the log is read a line at a time, from a BufferedReader
+ * if the log is a Reader or else from a Scanner, and each line is scanned directly. Otherwise a Scanner is used to
+ * find the StopWatch pattern in each line.
  *
  * @author Alex Devine
  */
 public class StopWatchLogIterator implements Iterator<StopWatch> {
     /**
-     * The input scanner that pulls from the input stream.
+     * The input scanner that pulls from the input stream, or null if the lines are read from the inputReader.
      */
     private Scanner inputScanner;
+    /**
+     * Whether the lines of the input are scanned by the StopWatchParser, rather than matched with its pattern.
+     */
+    private boolean scanningLines;
+    /**
+     * The reader that lines are read from when the StopWatchParser can scan lines without its regex.
+     */
+    private BufferedReader inputReader;
+    /**
+     * The line currently being scanned, if the lines are scanned, or null if the next line must be read.
+     */
+    private String currentLine;
+    /**
+     * The index in the currentLine where the scan for the next StopWatch starts. The first element of the array is
+     * set by StopWatchParser.scanStopWatch.
+     */
+    private final int[] currentLineIndex = new int[1];
     /**
      * This StopWatchParser is used to pull out StopWatches from the input stream.
      */
@@ -53,8 +77,25 @@ public class StopWatchLogIterator implements Iterator<StopWatch> {
      * @param log The log containing the data to be parsed.
      */
     public StopWatchLogIterator(Readable log) {
-        inputScanner = new Scanner(log);
+        this(log, null);
+    }
+
+    /**
+     * Creates a new StopWatchLogIterator to parse input from the specified Readable instance, returning only the
+     * StopWatches that pass the specified filter.
+     *
+     * @param log    The log containing the data to be parsed.
+     * @param filter The filter StopWatches must pass, or null to return all StopWatches.
+     */
+    public StopWatchLogIterator(Readable log, StopWatchFilter filter) {
         stopWatchParser = newStopWatchParser();
+        stopWatchParser.setFilter(filter);
+        scanningLines = stopWatchParser.isScannable();
+        if (log instanceof Reader && scanningLines) {
+            inputReader = (log instanceof BufferedReader) ? (BufferedReader) log : new BufferedReader((Reader) log);
+        } else {
+            inputScanner = new Scanner(log);
+        }
     }
 
     public boolean hasNext() {
@@ -116,13 +157,57 @@ public class StopWatchLogIterator implements Iterator<StopWatch> {
      * @return The next parsed StopWatch from the input stream, or null if there are no more StopWatches.
      */
     private StopWatch getNext() {
-        String line;
-        while ((line = inputScanner.findInLine(stopWatchParser.getPattern())) == null && inputScanner.hasNextLine()) {
-            inputScanner.nextLine();
+        if (scanningLines) {
+            return scanNext();
         }
 
-        return (line != null) ?
-               stopWatchParser.parseStopWatchFromLogMatch(inputScanner.match()) :
-               null; //there are no more lines to read if line is null
+        while (true) {
+            String line;
+            while ((line = inputScanner.findInLine(stopWatchParser.getPattern())) == null &&
+                   inputScanner.hasNextLine()) {
+                inputScanner.nextLine();
+            }
+
+            if (line == null) {
+                return null; //there are no more lines to read if line is null
+            }
+            StopWatch retVal = stopWatchParser.parseStopWatchFromLogMatch(inputScanner.match());
+            if (stopWatchParser.accepts(retVal)) {
+                return retVal;
+            }
+        }
+    }
+
+    /**
+     * Helper method reads lines from the input until the next StopWatch is found. Like Scanner.findInLine, this
+     * continues scanning the current line after the previous StopWatch, so every StopWatch on a line is returned.
+     *
+     * @return The next parsed StopWatch from the input stream, or null if there are no more StopWatches.
+     */
+    private StopWatch scanNext() {
+        try {
+            while (true) {
+                if (currentLine == null) {
+                    if (inputReader != null) {
+                        currentLine = inputReader.readLine();
+                    } else {
+                        currentLine = inputScanner.hasNextLine() ? inputScanner.nextLine() : null;
+                    }
+                    if (currentLine == null) {
+                        return null;
+                    }
+                    currentLineIndex[0] = 0;
+                }
+
+                StopWatch retVal = stopWatchParser.scanStopWatch(currentLine, currentLineIndex[0], currentLineIndex);
+                if (retVal != null) {
+                    return retVal;
+                }
+                currentLine = null;
+            }
+        } catch (IOException ioe) {
+            //Scanner also treats an IOException from the underlying input like the end of the input
+            return null;
+        }
     }
 }
\ No newline at end of file
@@ -18,12 +18,23 @@ package net.jperf.helpers;
 
 import net.jperf.StopWatch;
 
+import java.util.concurrent.TimeUnit;
 import java.util.regex.MatchResult;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
  * This helper class is used to parse StopWatches from log message.
+ * <p>
+ * When the {@link #DEFAULT_MATCH_PATTERN} is used, and a subclass doesn't override the methods that use the pattern,
+ * messages are parsed by a hand-written scanner instead of the regex. The scanner finds the start[, time[, tag[,
+ * message[ and unit[ fields with index arithmetic, parses the numbers without creating substrings, and reuses tag
+ * Strings from a small cache, because the same few tags are usually logged over and over. It accepts exactly the
+ * same messages as the regex, and returns the same StopWatches.
+ * <p>
+ * A {@link StopWatchFilter} may be set to skip StopWatches outside a time range or with unwanted tags. The scanner
+ * checks the start time as soon as it is parsed and the tag as soon as it is found, so no objects are created for
+ * rejected StopWatches, and the result of the tag check is cached along with the tag.
  *
  * @author Alex Devine
  */
@@ -34,18 +45,56 @@ public class StopWatchParser {
      * capturing groups of this pattern:
      * <ol>
      * <li> The start time in milliseconds, parseable as a long
-     * <li> The elapsed time in milliseconds, parseable as a long
+     * <li> The elapsed time, parseable as a long
      * <li> The tag name
      * <li> Optional, if not null the message text.
+     * <li> Optional, if not null the symbol of the time unit of the elapsed time, "ns", "us" or "ms". If null, the
+     *      elapsed time is in milliseconds.
      * </ol>
+     * The first 4 groups are those of the patterns of earlier versions, which still match StopWatches written with a
+     * unit, as the unit comes last. Custom patterns with a unit group must say which group it is with
+     * {@link #StopWatchParser(String, int)}.
      */
     public static final String DEFAULT_MATCH_PATTERN =
-            "start\\[(\\d+)\\] time\\[(\\d+)\\] tag\\[(.*?)\\](?: message\\[(.*?)\\])?";
+            "start\\[(\\d+)\\] time\\[(\\d+)\\] tag\\[(.*?)\\](?: message\\[(.*?)\\])?(?: unit\\[(ns|us|ms)\\])?";
+
+    /**
+     * The capturing group of the DEFAULT_MATCH_PATTERN that holds the symbol of the time unit.
+     */
+    public static final int DEFAULT_UNIT_GROUP = 5;
+
+    /**
+     * The number of tag Strings kept by each parser for reuse, must be a power of 2.
+     */
+    private static final int TAG_CACHE_SIZE = 1024;
 
     /**
      * The regex Pattern object used to parse Strings.
      */
     private Pattern pattern;
+    /**
+     * The capturing group of the pattern holding the symbol of the time unit, or 0 if it has none.
+     */
+    private final int unitGroup;
+    /**
+     * Whether messages can be parsed by the hand-written scanner instead of the regex.
+     */
+    private final boolean scannable;
+    /**
+     * Recently parsed tags, indexed by hash code. Races between threads sharing a parser can at worst cause a tag to
+     * be parsed into a new String.
+     */
+    private final String[] tagCache = new String[TAG_CACHE_SIZE];
+    /**
+     * The filter StopWatches must pass, or null if all StopWatches are returned.
+     */
+    private StopWatchFilter filter;
+    /**
+     * The tags the filter was last found to accept and reject, indexed like the tagCache. As tags are compared by
+     * identity, a race between threads sharing a parser can at worst cause a tag to be checked again.
+     */
+    private final String[] acceptedTags = new String[TAG_CACHE_SIZE];
+    private final String[] rejectedTags = new String[TAG_CACHE_SIZE];
 
     /**
      * Creates a StopWatchParser that uses the DEFAULT_MATCH_PATTERN to parse StopWatch message strings.
@@ -55,14 +104,38 @@ public class StopWatchParser {
     }
 
     /**
-     * Creates a StopWatchParser that uses the specified regex pattern string to parse StopWatch message strings.
+     * Creates a StopWatchParser that uses the specified regex pattern string to parse StopWatch message strings. The
+     * capturing groups of the pattern must be laid out like the first 4 groups of the DEFAULT_MATCH_PATTERN; unless
+     * the pattern is the DEFAULT_MATCH_PATTERN itself, it has no unit group, so the elapsed times are in milliseconds.
      *
      * @param matchPattern The regex pattern String to use to parse log messages
      * @throws java.util.regex.PatternSyntaxException
      *          Thrown if matchPattern is not a valid regex pattern.
      */
     public StopWatchParser(String matchPattern) {
+        this(matchPattern, DEFAULT_MATCH_PATTERN.equals(matchPattern) ? DEFAULT_UNIT_GROUP : 0);
+    }
+
+    /**
+     * Creates a StopWatchParser that uses the specified regex pattern string to parse StopWatch message strings, with
+     * the time unit of the elapsed times in a capturing group of its own.
+     *
+     * @param matchPattern The regex pattern String to use to parse log messages, with its first 4 capturing groups
+     *                     laid out like those of the DEFAULT_MATCH_PATTERN.
+     * @param unitGroup    The capturing group holding the symbol of the time unit, "ns", "us" or "ms", or 0 if the
+     *                     pattern has none. The elapsed time is in milliseconds when the group doesn't match.
+     * @throws java.util.regex.PatternSyntaxException
+     *          Thrown if matchPattern is not a valid regex pattern.
+     * @throws IllegalArgumentException Thrown if the pattern has no capturing group unitGroup.
+     */
+    public StopWatchParser(String matchPattern, int unitGroup) {
         pattern = Pattern.compile(matchPattern);
+        if (unitGroup < 0 || unitGroup > pattern.matcher("").groupCount()) {
+            throw new IllegalArgumentException("The pattern " + matchPattern + " has no capturing group " + unitGroup);
+        }
+        this.unitGroup = unitGroup;
+        scannable = DEFAULT_MATCH_PATTERN.equals(matchPattern) && unitGroup == DEFAULT_UNIT_GROUP &&
+                    !overridesPatternMethods();
     }
 
     /**
@@ -74,15 +147,56 @@ public class StopWatchParser {
         return pattern;
     }
 
+    /**
+     * Gets the capturing group of the pattern that holds the symbol of the time unit.
+     *
+     * @return The unit group, or 0 if the pattern has none.
+     */
+    public int getUnitGroup() {
+        return unitGroup;
+    }
+
+    /**
+     * Gets the filter StopWatches must pass to be returned by this parser.
+     *
+     * @return The filter, or null if all StopWatches are returned.
+     */
+    public StopWatchFilter getFilter() {
+        return filter;
+    }
+
+    /**
+     * Sets the filter StopWatches must pass to be returned by this parser. Parsing then skips StopWatches the filter
+     * rejects: {@link #parseStopWatch(String)} returns the first StopWatch in a message that is accepted.
+     *
+     * @param filter The filter, or null to return all StopWatches.
+     */
+    public void setFilter(StopWatchFilter filter) {
+        this.filter = filter;
+    }
+
     /**
      * This method parses a StopWatch from the given message string.
      *
      * @param message The message to parse, which was likely created with the StopWatch stop, lap or toString methods.
-     * @return The parsed StopWatch, or null if the StopWatch couldn't be parsed.
+     * @return The parsed StopWatch, or null if the StopWatch couldn't be parsed or was rejected by the filter.
      */
     public StopWatch parseStopWatch(String message) {
-        MatchResult result = match(message);
-        return (result != null) ? parseStopWatchFromLogMatch(result) : null;
+        if (isScannable()) {
+            return scanStopWatch(message, 0, null);
+        }
+        if (filter == null) {
+            MatchResult result = match(message);
+            return (result != null) ? parseStopWatchFromLogMatch(result) : null;
+        }
+        Matcher matcher = getPattern().matcher(message);
+        while (matcher.find()) {
+            StopWatch retVal = parseStopWatchFromLogMatch(matcher);
+            if (accepts(retVal)) {
+                return retVal;
+            }
+        }
+        return null;
     }
 
     /**
@@ -103,10 +217,12 @@ public class StopWatchParser {
      * @return A new StopWatch that reflects the data from the match result.
      */
     public StopWatch parseStopWatchFromLogMatch(MatchResult matchResult) {
+        String timeUnit = (unitGroup > 0) ? matchResult.group(unitGroup) : null;
         return new StopWatch(Long.parseLong(matchResult.group(1)) /*start time*/,
                              Long.parseLong(matchResult.group(2)) /*elapsed time*/,
                              matchResult.group(3) /*tag*/,
-                             matchResult.group(4) /*message, may be null*/);
+                             matchResult.group(4) /*message, may be null*/,
+                             (timeUnit == null) ? TimeUnit.MILLISECONDS : MiscUtils.parseTimeUnit(timeUnit));
     }
 
     /**
@@ -122,4 +238,229 @@ public class StopWatchParser {
     public boolean isPotentiallyValid(String message) {
         return message.startsWith("start");
     }
+
+    /**
+     * Returns whether a StopWatch parsed with the Pattern passes the filter. The scanner applies the filter itself,
+     * but StopWatches parsed with {@link #parseStopWatchFromLogMatch(MatchResult)} must be checked with this method.
+     *
+     * @param stopWatch The parsed StopWatch.
+     * @return true if there is no filter or the filter accepts the StopWatch.
+     */
+    public boolean accepts(StopWatch stopWatch) {
+        return filter == null || (filter.acceptsStartTime(stopWatch.getStartTime()) && acceptsTag(stopWatch.getTag()));
+    }
+
+    // --- Scanner Methods ---
+
+    /**
+     * Returns true if this parser parses messages with a hand-written scanner, in which case
+     * {@link #scanStopWatch(String, int, int[])} may be used instead of the Pattern. The
+     * {@link StructuredStopWatchParser}s always scan their messages.
+     *
+     * @return Whether this parser uses the DEFAULT_MATCH_PATTERN, and the methods that use the pattern are not
+     *         overridden.
+     */
+    boolean isScannable() {
+        return scannable;
+    }
+
+    /**
+     * Finds and parses the first StopWatch in the text at or after the specified index, as <tt>find()</tt> on a
+     * Matcher for the DEFAULT_MATCH_PATTERN would, skipping StopWatches rejected by the filter. May only be called if
+     * {@link #isScannable()} is true.
+     *
+     * @param text      The text to scan.
+     * @param fromIndex The index at which to start looking for a StopWatch.
+     * @param endIndex  If not null, the index just past the parsed StopWatch is stored in the first element.
+     * @return The parsed StopWatch, or null if none was found.
+     */
+    StopWatch scanStopWatch(String text, int fromIndex, int[] endIndex) {
+        int start = text.indexOf("start[", fromIndex);
+        while (start >= 0) {
+            int index = start + "start[".length();
+            int startTimeEnd = skipDigits(text, index);
+            if (startTimeEnd == index || !text.startsWith("] time[", startTimeEnd)) {
+                start = text.indexOf("start[", start + 1);
+                continue;
+            }
+            int elapsedTimeStart = startTimeEnd + "] time[".length();
+            int elapsedTimeEnd = skipDigits(text, elapsedTimeStart);
+            if (elapsedTimeEnd == elapsedTimeStart || !text.startsWith("] tag[", elapsedTimeEnd)) {
+                start = text.indexOf("start[", start + 1);
+                continue;
+            }
+            int tagStart = elapsedTimeEnd + "] tag[".length();
+            int tagEnd = findClosingBracket(text, tagStart);
+            if (tagEnd < 0) {
+                start = text.indexOf("start[", start + 1);
+                continue;
+            }
+
+            //a StopWatch outside the time range is rejected before its tag is even looked at
+            long startTime = parseLong(text, index, startTimeEnd);
+            boolean rejected = (filter != null) && !filter.acceptsStartTime(startTime);
+            String tag = null;
+            if (!rejected) {
+                tag = cachedTag(text, tagStart, tagEnd);
+                rejected = (filter != null) && !acceptsTag(tag);
+            }
+
+            //the message is optional, so if it's not terminated the StopWatch just ends after the tag
+            int messageStart = -1;
+            int messageEnd = -1;
+            int end = tagEnd + 1;
+            if (text.startsWith(" message[", end)) {
+                messageStart = end + " message[".length();
+                messageEnd = findClosingBracket(text, messageStart);
+                if (messageEnd >= 0) {
+                    end = messageEnd + 1;
+                }
+            }
+
+            //the optional unit is only part of the StopWatch if it is one of the symbols the regex allows
+            TimeUnit timeUnit = TimeUnit.MILLISECONDS;
+            if (text.startsWith(" unit[", end)) {
+                int unitStart = end + " unit[".length();
+                TimeUnit parsedTimeUnit = scanTimeUnit(text, unitStart);
+                if (parsedTimeUnit != null && text.startsWith("]", unitStart + 2)) {
+                    timeUnit = parsedTimeUnit;
+                    end = unitStart + 3;
+                }
+            }
+
+            if (rejected) {
+                //the scan goes on after the rejected StopWatch, just as it would after a returned one
+                start = text.indexOf("start[", end);
+                continue;
+            }
+            if (endIndex != null) {
+                endIndex[0] = end;
+            }
+            return new StopWatch(startTime,
+                                 parseLong(text, elapsedTimeStart, elapsedTimeEnd),
+                                 tag,
+                                 (messageEnd >= 0) ? text.substring(messageStart, messageEnd) : null,
+                                 timeUnit);
+        }
+        return null;
+    }
+
+    // --- Helper Methods ---
+
+    /**
+     * Helper method checks whether a subclass changes how the pattern is used, in which case the regex must be used.
+     */
+    private boolean overridesPatternMethods() {
+        try {
+            Class<?> clazz = getClass();
+            return clazz.getMethod("getPattern").getDeclaringClass() != StopWatchParser.class
+                   || clazz.getMethod("match", String.class).getDeclaringClass() != StopWatchParser.class
+                   || clazz.getMethod("parseStopWatchFromLogMatch", MatchResult.class).getDeclaringClass()
+                      != StopWatchParser.class;
+        } catch (Exception e) {
+            return true;
+        }
+    }
+
+    /**
+     * Returns the index of the first character at or after index that is not a digit matched by the regex \d.
+     */
+    private static int skipDigits(String text, int index) {
+        int length = text.length();
+        while (index < length) {
+            char c = text.charAt(index);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Returns the time unit whose symbol, "ns", "us" or "ms", is at index, or null if there is none.
+     */
+    private static TimeUnit scanTimeUnit(String text, int index) {
+        if (!text.startsWith("s", index + 1)) {
+            return null;
+        }
+        switch (text.charAt(index)) {
+            case 'n':
+                return TimeUnit.NANOSECONDS;
+            case 'u':
+                return TimeUnit.MICROSECONDS;
+            case 'm':
+                return TimeUnit.MILLISECONDS;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Returns the index of the first ']' at or after index, or -1 if a line terminator, which the regex . doesn't
+     * match, or the end of the text comes first.
+     */
+    private static int findClosingBracket(String text, int index) {
+        int length = text.length();
+        for (; index < length; index++) {
+            char c = text.charAt(index);
+            if (c == ']') {
+                return index;
+            }
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parses the digits between start and end, which can't overflow a long if there are at most 18 of them. Longer
+     * numbers are left to Long.parseLong so they fail just as they did when parsed from the regex groups.
+     */
+    private static long parseLong(String text, int start, int end) {
+        if (end - start > 18) {
+            return Long.parseLong(text.substring(start, end));
+        }
+        long retVal = 0L;
+        for (int i = start; i < end; i++) {
+            retVal = retVal * 10 + (text.charAt(i) - '0');
+        }
+        return retVal;
+    }
+
+    /**
+     * Returns whether the filter accepts a tag, caching the result for tags from the tagCache.
+     */
+    boolean acceptsTag(String tag) {
+        int hash = tag.hashCode();
+        int cacheIndex = (hash ^ (hash >>> 16)) & (TAG_CACHE_SIZE - 1);
+        if (acceptedTags[cacheIndex] == tag) {
+            return true;
+        }
+        if (rejectedTags[cacheIndex] == tag) {
+            return false;
+        }
+        boolean retVal = filter.acceptsTag(tag);
+        (retVal ? acceptedTags : rejectedTags)[cacheIndex] = tag;
+        return retVal;
+    }
+
+    /**
+     * Returns the tag between start and end, reusing the String from a previous call if possible.
+     */
+    String cachedTag(String text, int start, int end) {
+        int length = end - start;
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + text.charAt(i);
+        }
+        int cacheIndex = (hash ^ (hash >>> 16)) & (TAG_CACHE_SIZE - 1);
+
+        String tag = tagCache[cacheIndex];
+        if (tag == null || tag.length() != length || !text.regionMatches(start, tag, 0, length)) {
+            tagCache[cacheIndex] = tag = text.substring(start, end);
+        }
+        return tag;
+    }
 }
@@ -0,0 +1,460 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import net.jperf.StopWatch;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.MatchResult;
+
+/**
+ * A StructuredStopWatchParser parses StopWatches from structured log records, such as JSON objects or logfmt lines,
+ * rather than from the format of {@link StopWatch#toString()}. Subclasses only find the key and value of each field
+ * of a record; this class maps the keys to the start time, elapsed time, tag, message and time unit of the
+ * StopWatch. No document tree is built: the record is scanned once, keys are compared in place with the mapped keys,
+ * numbers are parsed without creating substrings, and tags are reused as by the StopWatchParser, so the only objects
+ * created for a record are the StopWatch and its message.
+ * <p>
+ * Each StopWatch field can be mapped to several keys, the first of which found in the record with a valid value is
+ * used. The mapping is given as comma-separated <tt>field=key</tt> pairs, with alternative keys separated by
+ * <tt>|</tt>, for example <tt>start=ts,time=elapsed|duration</tt>; fields that are not mapped keep their keys from
+ * {@link #DEFAULT_FIELDS}. The start and elapsed times must be non-negative numbers, optionally quoted, and may have
+ * a fraction, which is truncated, and an exponent, as in <tt>1.9e2</tt>. A null value, such as a JSON <tt>null</tt>,
+ * counts as no value at all. The start time is in milliseconds, and so is the elapsed time unless the record has a
+ * unit of "us" or "ns". A record without a valid start time, elapsed time and tag is not a StopWatch, and is skipped.
+ * <p>
+ * The filter is applied as by the StopWatchParser: no objects are created for rejected StopWatches.
+ */
+public abstract class StructuredStopWatchParser extends StopWatchParser {
+    /**
+     * The keys of each StopWatch field when no others are mapped: the names used by {@link StopWatch#toString()},
+     * along with common alternatives.
+     */
+    public static final String DEFAULT_FIELDS =
+            "start=start|ts|timestamp,time=time|elapsed|duration,tag=tag,message=message|msg,unit=unit";
+
+    /**
+     * The pattern of these parsers matches a whole line, which {@link #parseStopWatchFromLogMatch(MatchResult)} then
+     * scans for records, for code that matches the pattern of a parser rather than scanning lines.
+     */
+    private static final String LINE_PATTERN = "[^\\n\\r\\u0085\\u2028\\u2029]+";
+
+    /**
+     * Numbers of milliseconds must be less than this, as they may have at most 18 digits.
+     */
+    private static final BigDecimal MAX_MILLIS = BigDecimal.TEN.pow(18);
+
+    private static final String[] FIELD_NAMES = {"start", "time", "tag", "message", "unit"};
+    private static final int START = 0;
+    private static final int TIME = 1;
+    private static final int TAG = 2;
+    private static final int MESSAGE = 3;
+    private static final int UNIT = 4;
+
+    /**
+     * The keys mapped to each StopWatch field, indexed like the FIELD_NAMES.
+     */
+    private String[][] keys;
+
+    /**
+     * Creates a StructuredStopWatchParser that maps the {@link #DEFAULT_FIELDS}.
+     */
+    protected StructuredStopWatchParser() {
+        this(DEFAULT_FIELDS);
+    }
+
+    /**
+     * Creates a StructuredStopWatchParser that maps the specified keys to the StopWatch fields.
+     *
+     * @param fields The field mapping, as described above.
+     * @throws IllegalArgumentException Thrown if the mapping names an unknown field or has no keys for a field.
+     */
+    protected StructuredStopWatchParser(String fields) {
+        super(LINE_PATTERN);
+        setFields(fields);
+    }
+
+    // --- Bean Properties ---
+
+    /**
+     * Gets the keys mapped to the StopWatch fields.
+     *
+     * @return The field mapping of every field, in the format accepted by {@link #setFields(String)}.
+     */
+    public String getFields() {
+        StringBuilder retVal = new StringBuilder();
+        for (int field = 0; field < FIELD_NAMES.length; field++) {
+            retVal.append((field > 0) ? "," : "").append(FIELD_NAMES[field]).append('=');
+            for (int i = 0; i < keys[field].length; i++) {
+                retVal.append((i > 0) ? "|" : "").append(keys[field][i]);
+            }
+        }
+        return retVal.toString();
+    }
+
+    /**
+     * Sets the keys mapped to the StopWatch fields. Fields not in the mapping keep their keys from the
+     * {@link #DEFAULT_FIELDS}.
+     *
+     * @param fields The field mapping, for example <tt>start=ts,time=elapsed|duration</tt>.
+     * @throws IllegalArgumentException Thrown if the mapping names an unknown field or has no keys for a field.
+     */
+    public void setFields(String fields) {
+        keys = parseFields(fields, parseFields(DEFAULT_FIELDS, new String[FIELD_NAMES.length][]));
+    }
+
+    // --- StopWatchParser Methods ---
+
+    /**
+     * Returns whether the message could be a record, without scanning it.
+     *
+     * @param message The message to test
+     * @return false if the message is DEFINITELY not a StopWatch record.
+     */
+    public abstract boolean isPotentiallyValid(String message);
+
+    /**
+     * Parses the StopWatch from a match of the line pattern of this parser, which is the whole line.
+     *
+     * @param matchResult The match of a line.
+     * @return The StopWatch of the first record on the line, or null if no record is a StopWatch that passes the
+     *         filter.
+     */
+    public StopWatch parseStopWatchFromLogMatch(MatchResult matchResult) {
+        return scanStopWatch(matchResult.group(), 0, null);
+    }
+
+    boolean isScannable() {
+        return true;
+    }
+
+    /**
+     * Finds and parses the first record at or after the specified index that is a StopWatch passing the filter.
+     *
+     * @param text      The text to scan.
+     * @param fromIndex The index at which to start looking for a record.
+     * @param endIndex  If not null, the index just past the parsed record is stored in the first element.
+     * @return The parsed StopWatch, or null if none was found.
+     */
+    StopWatch scanStopWatch(String text, int fromIndex, int[] endIndex) {
+        StopWatchFilter filter = getFilter();
+        int[] bounds = new int[5];
+        int index = startRecord(text, fromIndex);
+        while (index >= 0) {
+            long startTime = -1L;
+            long elapsedTime = -1L;
+            int tagStart = -1;
+            int tagEnd = -1;
+            boolean tagEscaped = false;
+            int messageStart = -1;
+            int messageEnd = -1;
+            boolean messageEscaped = false;
+            TimeUnit timeUnit = null;
+
+            int next;
+            while ((next = nextField(text, index, bounds)) >= 0) {
+                index = next;
+                switch (fieldOf(text, bounds[0], bounds[1])) {
+                    case START:
+                        if (startTime < 0L) {
+                            startTime = parseMillis(text, bounds[2], bounds[3]);
+                        }
+                        break;
+                    case TIME:
+                        if (elapsedTime < 0L) {
+                            elapsedTime = parseMillis(text, bounds[2], bounds[3]);
+                        }
+                        break;
+                    case TAG:
+                        if (tagStart < 0 && bounds[4] >= 0) {
+                            tagStart = bounds[2];
+                            tagEnd = bounds[3];
+                            tagEscaped = (bounds[4] != 0);
+                        }
+                        break;
+                    case MESSAGE:
+                        if (messageStart < 0 && bounds[4] >= 0) {
+                            messageStart = bounds[2];
+                            messageEnd = bounds[3];
+                            messageEscaped = (bounds[4] != 0);
+                        }
+                        break;
+                    case UNIT:
+                        if (timeUnit == null) {
+                            timeUnit = parseTimeUnit(text, bounds[2], bounds[3]);
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+            //the end of the record is always past its start, so the scan can't get stuck
+            int recordEnd = Math.max(bounds[0], index + 1);
+            index = (recordEnd < text.length()) ? startRecord(text, recordEnd) : -1;
+
+            if (startTime < 0L || elapsedTime < 0L || tagStart < 0) {
+                continue;
+            }
+            //as with the StopWatchParser, a StopWatch outside the time range is rejected before its tag is looked at
+            if (filter != null && !filter.acceptsStartTime(startTime)) {
+                continue;
+            }
+            String tag = tagEscaped ? unescape(text, tagStart, tagEnd) : cachedTag(text, tagStart, tagEnd);
+            if (filter != null && !acceptsTag(tag)) {
+                continue;
+            }
+
+            if (endIndex != null) {
+                endIndex[0] = Math.min(recordEnd, text.length());
+            }
+            String message = null;
+            if (messageStart >= 0) {
+                message = messageEscaped ?
+                          unescape(text, messageStart, messageEnd) :
+                          text.substring(messageStart, messageEnd);
+            }
+            return new StopWatch(startTime, elapsedTime, tag, message,
+                                 (timeUnit == null) ? TimeUnit.MILLISECONDS : timeUnit);
+        }
+        return null;
+    }
+
+    // --- Record Methods ---
+
+    /**
+     * Finds the start of the first record at or after the specified index.
+     *
+     * @param text      The text to scan.
+     * @param fromIndex The index at which to start looking for a record.
+     * @return The index of the first field of the record, to be passed to {@link #nextField(String, int, int[])}, or
+     *         -1 if there is no record.
+     */
+    protected abstract int startRecord(String text, int fromIndex);
+
+    /**
+     * Finds the next field of a record. Only the top level fields of a record are returned; a value that is itself a
+     * structure is returned as a whole.
+     *
+     * @param text   The text to scan.
+     * @param index  The index returned by {@link #startRecord(String, int)} or by the previous call of this method.
+     * @param bounds Receives the start and end indexes of the key in its first two elements and of the value in the
+     *               next two, excluding any quotes, and in its fifth element 1 if the value contains escape
+     *               sequences, -1 if the value is null, such as an unquoted JSON <tt>null</tt>, and 0 otherwise. If
+     *               the record has no more fields, the index just past the record is stored in the first element
+     *               instead.
+     * @return The index just past the field, or -1 if the record has no more fields.
+     */
+    protected abstract int nextField(String text, int index, int[] bounds);
+
+    // --- Helper Methods ---
+
+    /**
+     * Returns the index of the closing double quote of a string whose contents start at index, skipping escaped
+     * characters, and sets the fifth element of bounds to 1 if the string has escape sequences, or 0 otherwise.
+     *
+     * @param text   The text to scan.
+     * @param index  The index just past the opening quote.
+     * @param bounds The bounds passed to {@link #nextField(String, int, int[])}.
+     * @return The index of the closing quote, or -1 if the string isn't terminated.
+     */
+    protected static int indexOfClosingQuote(String text, int index, int[] bounds) {
+        bounds[4] = 0;
+        int length = text.length();
+        while (index < length) {
+            char c = text.charAt(index);
+            if (c == '"') {
+                return index;
+            }
+            if (c == '\\') {
+                bounds[4] = 1;
+                index++;
+            }
+            index++;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the text between start and end with the escape sequences of JSON strings, which logfmt also uses,
+     * replaced by the characters they stand for.
+     */
+    static String unescape(String text, int start, int end) {
+        StringBuilder retVal = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c != '\\' || i + 1 >= end) {
+                retVal.append(c);
+                continue;
+            }
+            c = text.charAt(++i);
+            switch (c) {
+                case 'b':
+                    retVal.append('\b');
+                    break;
+                case 'f':
+                    retVal.append('\f');
+                    break;
+                case 'n':
+                    retVal.append('\n');
+                    break;
+                case 'r':
+                    retVal.append('\r');
+                    break;
+                case 't':
+                    retVal.append('\t');
+                    break;
+                case 'u':
+                    int codePoint = (i + 4 < end) ? parseHex(text, i + 1, i + 5) : -1;
+                    if (codePoint >= 0) {
+                        retVal.append((char) codePoint);
+                        i += 4;
+                    } else {
+                        retVal.append('\\').append(c);
+                    }
+                    break;
+                default:
+                    //\" \\ and \/ stand for the escaped character itself
+                    retVal.append(c);
+                    break;
+            }
+        }
+        return retVal.toString();
+    }
+
+    /**
+     * Returns the index of the StopWatch field the key between start and end is mapped to, or -1 if it isn't mapped.
+     */
+    private int fieldOf(String text, int start, int end) {
+        int length = end - start;
+        for (int field = 0; field < keys.length; field++) {
+            for (String key : keys[field]) {
+                if (key.length() == length && text.regionMatches(start, key, 0, length)) {
+                    return field;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parses a whole number of milliseconds, truncating any fraction, without creating a substring unless the number
+     * has an exponent.
+     *
+     * @return The number, or -1 if the value isn't a non-negative number whose whole part has at most 18 digits.
+     */
+    private static long parseMillis(String text, int start, int end) {
+        long retVal = 0L;
+        int i = start;
+        for (; i < end && i - start < 18; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            retVal = retVal * 10 + (c - '0');
+        }
+        if (i == start) {
+            return -1L;
+        }
+        if (i < end && text.charAt(i) == '.') {
+            for (i++; i < end; i++) {
+                char c = text.charAt(i);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+            }
+        }
+        if (i < end && (text.charAt(i) == 'e' || text.charAt(i) == 'E')) {
+            return parseExponentMillis(text, start, end);
+        }
+        return (i == end) ? retVal : -1L;
+    }
+
+    /**
+     * Helper method parses a number of milliseconds written with an exponent, such as 1.9e2, which is rare enough
+     * that it is parsed from a substring.
+     */
+    private static long parseExponentMillis(String text, int start, int end) {
+        try {
+            BigDecimal value = new BigDecimal(text.substring(start, end));
+            if (value.signum() < 0 || value.compareTo(MAX_MILLIS) >= 0) {
+                return -1L;
+            }
+            return value.longValue();
+        } catch (NumberFormatException nfe) {
+            return -1L;
+        }
+    }
+
+    /**
+     * Helper method parses a time unit symbol, returning null if the value isn't "ms", "us" or "ns".
+     */
+    private static TimeUnit parseTimeUnit(String text, int start, int end) {
+        if (end - start == 2 && text.charAt(start + 1) == 's') {
+            switch (text.charAt(start)) {
+                case 'm':
+                    return TimeUnit.MILLISECONDS;
+                case 'u':
+                    return TimeUnit.MICROSECONDS;
+                case 'n':
+                    return TimeUnit.NANOSECONDS;
+                default:
+                    break;
+            }
+        }
+        return null;
+    }
+
+    private static int parseHex(String text, int start, int end) {
+        int retVal = 0;
+        for (int i = start; i < end; i++) {
+            int digit = Character.digit(text.charAt(i), 16);
+            if (digit < 0) {
+                return -1;
+            }
+            retVal = retVal * 16 + digit;
+        }
+        return retVal;
+    }
+
+    /**
+     * Helper method parses a field mapping into the keys of each field, starting from the specified keys.
+     */
+    private static String[][] parseFields(String fields, String[][] retVal) {
+        for (String mapping : MiscUtils.splitAndTrim(fields, ",")) {
+            int indexOfEquals = mapping.indexOf('=');
+            int field = -1;
+            for (int i = 0; indexOfEquals > 0 && i < FIELD_NAMES.length; i++) {
+                if (FIELD_NAMES[i].equals(mapping.substring(0, indexOfEquals).trim())) {
+                    field = i;
+                }
+            }
+            if (field < 0) {
+                throw new IllegalArgumentException(
+                        "Expected start, time, tag, message or unit=keys in field mapping: " + mapping);
+            }
+            String[] fieldKeys = MiscUtils.splitAndTrim(mapping.substring(indexOfEquals + 1), "\\|");
+            if (Arrays.asList(fieldKeys).contains("")) {
+                throw new IllegalArgumentException("No keys for " + FIELD_NAMES[field] + " in field mapping: " +
+                                                   mapping);
+            }
+            retVal[field] = fieldKeys;
+        }
+        return retVal;
+    }
+}
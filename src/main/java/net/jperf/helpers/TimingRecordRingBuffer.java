@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import net.jperf.StopWatch;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded, lock-free, multi-producer/single-consumer ring buffer of timing records, which works like the
+ * {@link MpscRingBuffer} but stores the tag, start time, elapsed time and time unit of each record in preallocated
+ * arrays, so that offering a record doesn't allocate any objects. Since a primitive slot can't be null, each slot
+ * has a published sequence instead: a producer claims a sequence, writes the record into its slot and then publishes
+ * it by setting the slot's published sequence. The consumer creates the StopWatches as it drains the records.
+ */
+class TimingRecordRingBuffer {
+    private final String[] tags;
+    private final long[] startTimes;
+    private final long[] elapsedTimes;
+    private final TimeUnit[] timeUnits;
+    /**
+     * For each slot, one more than the sequence of the record published in it, or 0 if none was ever published.
+     */
+    private final AtomicLongArray publishedSequences;
+    private final int mask;
+    private final MpscRingBuffer.PaddedAtomicLong producerSequence = new MpscRingBuffer.PaddedAtomicLong();
+    private final MpscRingBuffer.PaddedAtomicLong consumerSequence = new MpscRingBuffer.PaddedAtomicLong();
+    private final MpscRingBuffer.PaddedAtomicLong consumerSequenceCache = new MpscRingBuffer.PaddedAtomicLong();
+
+    /**
+     * Creates a new ring buffer.
+     *
+     * @param minimumCapacity The minimum number of records that can be held. The actual capacity is rounded up to
+     *                        the next power of 2.
+     */
+    public TimingRecordRingBuffer(int minimumCapacity) {
+        if (minimumCapacity <= 0 || minimumCapacity > (1 << 30)) {
+            throw new IllegalArgumentException("Invalid ring buffer capacity: " + minimumCapacity);
+        }
+        int capacity = 1;
+        while (capacity < minimumCapacity) {
+            capacity <<= 1;
+        }
+        this.tags = new String[capacity];
+        this.startTimes = new long[capacity];
+        this.elapsedTimes = new long[capacity];
+        this.timeUnits = new TimeUnit[capacity];
+        this.publishedSequences = new AtomicLongArray(capacity);
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Gets the approximate number of records in this buffer.
+     *
+     * @return The approximate number of records held, including claimed but not yet published slots.
+     */
+    public int size() {
+        long size = producerSequence.get() - consumerSequence.get();
+        return (int) Math.max(0L, Math.min(size, mask + 1));
+    }
+
+    /**
+     * Adds a record to this buffer if there is room. This method may be called concurrently from any thread, and it
+     * never blocks or allocates.
+     *
+     * @param tag         The grouping tag of the record.
+     * @param startTime   The start time, in milliseconds since the epoch.
+     * @param elapsedTime The elapsed time, in the specified time unit.
+     * @param timeUnit    The time unit of the elapsed time.
+     * @return true if the record was added, false if the buffer was full.
+     */
+    public boolean offer(String tag, long startTime, long elapsedTime, TimeUnit timeUnit) {
+        int capacity = mask + 1;
+        long sequence;
+        do {
+            sequence = producerSequence.get();
+            if (sequence - capacity >= consumerSequenceCache.get()) {
+                long consumed = consumerSequence.get();
+                consumerSequenceCache.lazySet(consumed);
+                if (sequence - capacity >= consumed) {
+                    return false;
+                }
+            }
+        } while (!producerSequence.compareAndSet(sequence, sequence + 1));
+
+        int index = (int) sequence & mask;
+        tags[index] = tag;
+        startTimes[index] = startTime;
+        elapsedTimes[index] = elapsedTime;
+        timeUnits[index] = timeUnit;
+        //publish: the ordered write makes the fields above visible to the consumer once it sees the new sequence
+        publishedSequences.lazySet(index, sequence + 1);
+        return true;
+    }
+
+    /**
+     * Removes up to maxRecords published records from this buffer and adds them to the collection as StopWatches.
+     * This method does not wait. Only the single consumer thread may call this method.
+     *
+     * @param collection The collection to which the StopWatches are added.
+     * @param maxRecords The maximum number of records to transfer.
+     * @return The number of records transferred.
+     */
+    public int drainTo(Collection<? super StopWatch> collection, int maxRecords) {
+        long sequence = consumerSequence.get();
+        int drained = 0;
+        while (drained < maxRecords) {
+            long recordSequence = sequence + drained;
+            int index = (int) recordSequence & mask;
+            if (publishedSequences.get(index) != recordSequence + 1) {
+                break;
+            }
+            collection.add(new StopWatch(startTimes[index], elapsedTimes[index], tags[index], null, timeUnits[index]));
+            tags[index] = null;
+            drained++;
+        }
+        if (drained > 0) {
+            consumerSequence.lazySet(sequence + drained);
+        }
+        return drained;
+    }
+
+    /**
+     * Removes all published records from this buffer. Only the single consumer thread may call this method, or any
+     * thread once the consumer has stopped.
+     */
+    public void clear() {
+        long sequence = consumerSequence.get();
+        while (publishedSequences.get((int) sequence & mask) == sequence + 1) {
+            tags[(int) sequence & mask] = null;
+            sequence++;
+        }
+        consumerSequence.lazySet(sequence);
+    }
+}
@@ -21,8 +21,10 @@ import net.jperf.LoggingStopWatch;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 import java.util.logging.Level;
+import java.util.logging.LogRecord;
 
 /**
  * This LoggingStopWatch uses a java.util.logging Logger to persist the StopWatch messages. The various constructors
@@ -314,6 +316,12 @@ public class JavaLogStopWatch extends LoggingStopWatch {
         super.setMessage(message);
         return this;
     }
+
+    // Just overridden to make use of covariant return types
+    public JavaLogStopWatch setTimeUnit(TimeUnit timeUnit) {
+        super.setTimeUnit(timeUnit);
+        return this;
+    }
     
     // Just overridden to make use of covariant return types
     public JavaLogStopWatch setNormalAndSlowSuffixesEnabled(boolean normalAndSlowSuffixesEnabled) {
@@ -345,14 +353,23 @@ public class JavaLogStopWatch extends LoggingStopWatch {
     }
 
     /**
-     * The log message is overridden to use the java.util.logging Logger to persist the stop watch.
+     * The log message is overridden to use the java.util.logging Logger to persist the stop watch. A
+     * {@link StopWatchLogRecord} is logged, whose message is stopWatchAsString and which carries a detached copy of
+     * this StopWatch (see {@link #newLoggedStopWatch()}), so Handlers that understand StopWatches can read the timing
+     * data without parsing the message. The record has no parameters, so Formatters leave the message as is.
      *
      * @param stopWatchAsString The stringified view of the stop watch for logging.
      * @param exception         An exception, if any, that was passed to the stop or lap method. If this is null then
      *                          logging will occur at normalPriority, if non-null it will occur at exceptionPriority.
      */
     protected void log(String stopWatchAsString, Throwable exception) {
-        logger.log((exception == null) ? normalPriority : exceptionPriority, stopWatchAsString, exception);
+        Level level = (exception == null) ? normalPriority : exceptionPriority;
+        if (logger.isLoggable(level)) {
+            LogRecord record = new StopWatchLogRecord(level, stopWatchAsString, newLoggedStopWatch());
+            record.setLoggerName(logger.getName());
+            record.setThrown(exception);
+            logger.log(record);
+        }
     }
 
     // --- Static Utility Methods ---
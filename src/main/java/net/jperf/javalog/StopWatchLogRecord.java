@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.javalog;
+
+import net.jperf.StopWatch;
+
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * The LogRecord published by a {@link JavaLogStopWatch}. Its message is the stringified StopWatch, and the StopWatch
+ * itself is carried in a field rather than as a message parameter, so that Formatters don't pass the message through
+ * MessageFormat, which would mangle the braces it may contain. Handlers that understand StopWatches can read the
+ * timing data with {@link #getStopWatch()} without parsing the message.
+ */
+public class StopWatchLogRecord extends LogRecord {
+    private static final long serialVersionUID = 1L;
+
+    private final StopWatch stopWatch;
+
+    /**
+     * Creates a new StopWatchLogRecord.
+     *
+     * @param level     The level of the record.
+     * @param message   The stringified view of the StopWatch.
+     * @param stopWatch The logged StopWatch, which should not be modified once the record is created.
+     */
+    public StopWatchLogRecord(Level level, String message, StopWatch stopWatch) {
+        super(level, message);
+        this.stopWatch = stopWatch;
+    }
+
+    /**
+     * Gets the StopWatch that was logged.
+     *
+     * @return The logged StopWatch.
+     */
+    public StopWatch getStopWatch() {
+        return stopWatch;
+    }
+}
@@ -17,18 +17,27 @@
 package net.jperf.log4j;
 
 import net.jperf.StopWatch;
+import net.jperf.TimingRecordSink;
 import net.jperf.helpers.GenericAsyncCoalescingStatisticsAppender;
+import net.jperf.helpers.RollupStatisticsAggregator;
 import org.apache.log4j.Appender;
 import org.apache.log4j.AppenderSkeleton;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 import org.apache.log4j.helpers.AppenderAttachableImpl;
+import org.apache.log4j.helpers.LogLog;
 import org.apache.log4j.spi.AppenderAttachable;
 import org.apache.log4j.spi.LoggingEvent;
 import net.jperf.GroupedTimingStatistics;
 
 import java.util.Enumeration;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.io.Flushable;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This log4j Appender groups StopWatch log messages together to form GroupedTimingStatistics. At a scheduled interval
@@ -39,10 +48,13 @@ import java.io.Flushable;
  * messages in a bounded buffer before sending those messages to downstream appenders. If the buffer becomes full then
  * subsequent logs will be discarded until the buffer has time to clear. You can access the number of discarded
  * messages using the getNumDiscardedMessages() method.
+ * <p/>
+ * This appender is also a {@link TimingRecordSink}: the records of {@link net.jperf.TimingScope}s stopped with it as
+ * their sink are aggregated together with the logged StopWatches, without going through the log4j framework.
  *
  * @author Alex Devine
  */
-public class AsyncCoalescingStatisticsAppender extends AppenderSkeleton implements AppenderAttachable {
+public class AsyncCoalescingStatisticsAppender extends AppenderSkeleton implements AppenderAttachable, TimingRecordSink {
 
     protected static class ShutdownHook extends Thread {
 
@@ -78,6 +90,14 @@ public class AsyncCoalescingStatisticsAppender extends AppenderSkeleton implemen
      * DownstreamLogLevel option, converted to a Level object
      */
     private Level downstreamLogLevel = Level.INFO;
+    /**
+     * RollupAppenders option
+     */
+    private String rollupAppenders = "";
+    /**
+     * The parsed RollupAppenders option, a Map of time slice to the names of the appenders that receive it
+     */
+    private SortedMap<Long, Set<String>> rollupRoutes = new TreeMap<Long, Set<String>>();
 
     // --- contained objects ---
     /**
@@ -191,11 +211,52 @@ public class AsyncCoalescingStatisticsAppender extends AppenderSkeleton implemen
         baseImplementation.setCreateRollupStatistics(createRollupStatistics);
     }
 
+    /**
+     * The <b>MaxTags</b> option bounds the number of tags for which separate statistics are kept in each time slice.
+     * This protects against tags that are generated from unbounded data such as user IDs or URLs. The most frequent
+     * tags are kept, and the statistics for the rest are folded into the OverflowTag. Rollup tags count towards the
+     * budget. The number of evicted tags can be accessed using the {@link #getNumEvictedTags()} method. Defaults to 0,
+     * meaning the number of tags is not bounded.
+     *
+     * @return The MaxTags option.
+     */
+    public int getMaxTags() {
+        return baseImplementation.getMaxTags();
+    }
+
+    /**
+     * Sets the value of the <b>MaxTags</b> option.
+     *
+     * @param maxTags The new MaxTags option, or 0 to keep statistics for every tag.
+     */
+    public void setMaxTags(int maxTags) {
+        baseImplementation.setMaxTags(maxTags);
+    }
+
+    /**
+     * The <b>OverflowTag</b> option is the tag under which the statistics for tags evicted because of the MaxTags
+     * option are reported. Defaults to "__other__".
+     *
+     * @return The OverflowTag option.
+     */
+    public String getOverflowTag() {
+        return baseImplementation.getOverflowTag();
+    }
+
+    /**
+     * Sets the value of the <b>OverflowTag</b> option.
+     *
+     * @param overflowTag The new OverflowTag option.
+     */
+    public void setOverflowTag(String overflowTag) {
+        baseImplementation.setOverflowTag(overflowTag);
+    }
+
     /**
      * The <b>QueueSize</b> option is used to control the size of the internal queue used by this appender to store
-     * logged messages before they are sent to downstream appenders. Defaults to 1024. If set too small and the queue
-     * fills up, then logged StopWatches will be discarded. The number of discarded messages can be accessed using the
-     * {@link #getNumDiscardedMessages()} method.
+     * logged messages before they are sent to downstream appenders. Defaults to 1024, and is rounded up to the next
+     * power of 2. If set too small and the queue fills up, then logged StopWatches will be discarded. The number of
+     * discarded messages can be accessed using the {@link #getNumDiscardedMessages()} method.
      *
      * @return The QueueSize option.
      */
@@ -212,9 +273,80 @@ public class AsyncCoalescingStatisticsAppender extends AppenderSkeleton implemen
         baseImplementation.setQueueSize(queueSize);
     }
 
+    /**
+     * The <b>WaitStrategy</b> option determines how the internal draining thread waits for new messages when the
+     * queue is empty: one of park (the default), yield or spin. The spin strategy gives the lowest latency but uses a
+     * full CPU core at all times.
+     *
+     * @return The WaitStrategy option.
+     */
+    public String getWaitStrategy() {
+        return baseImplementation.getWaitStrategy();
+    }
+
+    /**
+     * Sets the value of the <b>WaitStrategy</b> option.
+     *
+     * @param waitStrategy The new WaitStrategy option, one of park, yield or spin.
+     */
+    public void setWaitStrategy(String waitStrategy) {
+        baseImplementation.setWaitStrategy(waitStrategy);
+    }
+
+    /**
+     * The <b>RollupTimeSlices</b> option is a comma-separated list of time slices, in milliseconds, that are longer
+     * than the TimeSlice, for example "60000,3600000". For each one, the GroupedTimingStatistics created for each
+     * TimeSlice are merged into GroupedTimingStatistics for the longer window, so several resolutions are produced
+     * from a single pass over the logged StopWatches. The rollup statistics are only sent to the attached appenders
+     * listed under their time slice in the RollupAppenders option, so a time slice that no appender is listed under is
+     * ignored, with a warning, rather than computed and thrown away. Defaults to empty, meaning no rollups are
+     * created.
+     *
+     * @return The RollupTimeSlices option.
+     */
+    public String getRollupTimeSlices() {
+        return baseImplementation.getRollupTimeSlices();
+    }
+
+    /**
+     * Sets the value of the <b>RollupTimeSlices</b> option.
+     *
+     * @param rollupTimeSlices The new RollupTimeSlices option.
+     */
+    public void setRollupTimeSlices(String rollupTimeSlices) {
+        baseImplementation.setRollupTimeSlices(rollupTimeSlices);
+    }
+
+    /**
+     * The <b>RollupAppenders</b> option routes the statistics for each resolution to specific attached appenders. It
+     * is a semicolon-separated list of <tt>timeSlice:appenderName,appenderName</tt> elements, for example
+     * "30000:fileAppender;3600000:hourlyGraphAppender". An appender named in this option only receives the statistics
+     * for the time slices it is listed under; attached appenders that are not named only receive the statistics for
+     * the TimeSlice. Any time slice listed here other than the TimeSlice is added to the RollupTimeSlices. Defaults to
+     * empty, meaning all attached appenders receive only the statistics for the TimeSlice.
+     *
+     * @return The RollupAppenders option.
+     */
+    public String getRollupAppenders() {
+        return rollupAppenders;
+    }
+
+    /**
+     * Sets the value of the <b>RollupAppenders</b> option.
+     *
+     * @param rollupAppenders The new RollupAppenders option.
+     */
+    public void setRollupAppenders(String rollupAppenders) {
+        this.rollupRoutes = RollupStatisticsAggregator.parseRoutes(rollupAppenders);
+        this.rollupAppenders = (rollupAppenders == null) ? "" : rollupAppenders;
+    }
+
     /**
      * The <b>StopWatchParserClassName</b> option is used to determine the class used to parse stop watch messages
-     * into StopWatch instances. This defaults to the standard "StopWatchParser" class.
+     * into StopWatch instances. This defaults to the standard "StopWatchParser" class. Set it to
+     * net.jperf.helpers.JsonStopWatchParser or net.jperf.helpers.LogfmtStopWatchParser to aggregate StopWatches logged
+     * as JSON objects or logfmt lines with the keys of the StructuredStopWatchParser DEFAULT_FIELDS; other keys can be
+     * mapped by a subclass whose no-arg constructor passes them to its superclass.
      *
      * @return The StopWatchParserClassName option.
      */
@@ -237,9 +369,24 @@ public class AsyncCoalescingStatisticsAppender extends AppenderSkeleton implemen
     }
 
     public synchronized void activateOptions() {
+        //any time slice that has appenders routed to it must be created, but the others would be thrown away
+        SortedSet<Long> rollupTimeSlices = new TreeSet<Long>(rollupRoutes.keySet());
+        rollupTimeSlices.remove(getTimeSlice());
+        for (long rollupTimeSlice : RollupStatisticsAggregator.parseTimeSlices(getRollupTimeSlices())) {
+            if (!rollupTimeSlices.contains(rollupTimeSlice)) {
+                LogLog.warn("RollupTimeSlice " + rollupTimeSlice + " of appender " + getName()
+                            + " ignored, no appender is routed to it by the RollupAppenders option");
+            }
+        }
+        baseImplementation.setRollupTimeSlices(RollupStatisticsAggregator.formatTimeSlices(rollupTimeSlices));
+
         //Start the underlying generic appender with a handler object that pumps statistics to the downstream appenders
-        baseImplementation.start(new GenericAsyncCoalescingStatisticsAppender.GroupedTimingStatisticsHandler() {
+        baseImplementation.start(new GenericAsyncCoalescingStatisticsAppender.RollupStatisticsHandler() {
             public void handle(GroupedTimingStatistics statistics) {
+                handleRollup(statistics, getTimeSlice());
+            }
+
+            public void handleRollup(GroupedTimingStatistics statistics, long timeSlice) {
                 LoggingEvent coalescedLoggingEvent =
                         new LoggingEvent(Logger.class.getName(),
                                          Logger.getLogger(StopWatch.DEFAULT_LOGGER_NAME),
@@ -248,9 +395,7 @@ public class AsyncCoalescingStatisticsAppender extends AppenderSkeleton implemen
                                          statistics,
                                          null);
                 try {
-                    synchronized (downstreamAppenders) {
-                        downstreamAppenders.appendLoopOnAppenders(coalescedLoggingEvent);
-                    }
+                    appendToDownstreamAppenders(coalescedLoggingEvent, timeSlice);
                 } catch (Exception e) {
                     getErrorHandler().error(
                             "Exception calling append with GroupedTimingStatistics on downstream appender",
@@ -282,6 +427,15 @@ public class AsyncCoalescingStatisticsAppender extends AppenderSkeleton implemen
         return baseImplementation.getNumDiscardedMessages();
     }
 
+    /**
+     * Returns the total number of tags that have been evicted from time slices because of the MaxTags option.
+     *
+     * @return The number of evicted tags.
+     */
+    public long getNumEvictedTags() {
+        return baseImplementation.getNumEvictedTags();
+    }
+
     // --- appender attachable methods ---
 
     public void addAppender(Appender appender) {
@@ -329,7 +483,25 @@ public class AsyncCoalescingStatisticsAppender extends AppenderSkeleton implemen
 
     // --- appender methods ---
     protected void append(LoggingEvent event) {
-        baseImplementation.append(String.valueOf(event.getMessage()));
+        Object message = event.getMessage();
+        if (message instanceof StopWatch) {
+            //logged by a Log4JStopWatch, so there's no need to go through the String form
+            baseImplementation.append((StopWatch) message);
+        } else {
+            baseImplementation.append(String.valueOf(message));
+        }
+    }
+
+    /**
+     * Aggregates a timing record directly, bypassing the log4j framework and without allocating any objects.
+     *
+     * @param tag         The grouping tag of the timed block.
+     * @param startTime   The start time of the block, in milliseconds since the epoch.
+     * @param elapsedTime The elapsed time of the block, in the specified time unit.
+     * @param timeUnit    The time unit of the elapsed time, one of NANOSECONDS, MICROSECONDS or MILLISECONDS.
+     */
+    public void record(String tag, long startTime, long elapsedTime, TimeUnit timeUnit) {
+        baseImplementation.record(tag, startTime, elapsedTime, timeUnit);
     }
 
     public boolean requiresLayout() {
@@ -381,6 +553,55 @@ public class AsyncCoalescingStatisticsAppender extends AppenderSkeleton implemen
     }
 
     // --- helper methods ---
+    /**
+     * Sends the statistics for a time slice to the downstream appenders that should receive them, as determined by
+     * the RollupAppenders option.
+     *
+     * @param coalescedLoggingEvent The LoggingEvent containing the GroupedTimingStatistics.
+     * @param timeSlice             The time slice of the GroupedTimingStatistics.
+     */
+    @SuppressWarnings("rawtypes")
+    protected void appendToDownstreamAppenders(LoggingEvent coalescedLoggingEvent, long timeSlice) {
+        synchronized (downstreamAppenders) {
+            if (rollupRoutes.isEmpty()) {
+                //no appender has opted in to a rollup resolution, so they all get just the TimeSlice statistics
+                if (timeSlice == getTimeSlice()) {
+                    downstreamAppenders.appendLoopOnAppenders(coalescedLoggingEvent);
+                }
+                return;
+            }
+
+            for (Enumeration enumer = downstreamAppenders.getAllAppenders();
+                    enumer != null && enumer.hasMoreElements();) {
+                Appender appender = (Appender) enumer.nextElement();
+                if (isRoutedTo(appender.getName(), timeSlice)) {
+                    appender.doAppend(coalescedLoggingEvent);
+                }
+            }
+        }
+    }
+
+    /**
+     * Helper method determines whether the statistics for a time slice should be sent to the named appender.
+     *
+     * @param appenderName The name of the downstream appender.
+     * @param timeSlice    The time slice of the statistics.
+     * @return true if the appender is listed under the time slice in the RollupAppenders option, or if the appender is
+     *         not listed at all and the time slice is the TimeSlice.
+     */
+    private boolean isRoutedTo(String appenderName, long timeSlice) {
+        Set<String> appenderNames = rollupRoutes.get(timeSlice);
+        if (appenderNames != null && appenderNames.contains(appenderName)) {
+            return true;
+        }
+        for (Set<String> routedAppenderNames : rollupRoutes.values()) {
+            if (routedAppenderNames.contains(appenderName)) {
+                return false;
+            }
+        }
+        return timeSlice == getTimeSlice();
+    }
+
     /**
      * Creates the new GenericAsyncCoalescingStatisticsAppender that this instance will wrap.
      *
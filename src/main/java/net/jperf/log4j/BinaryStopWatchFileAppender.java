@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.log4j;
+
+import net.jperf.StopWatch;
+import net.jperf.helpers.BinaryStopWatchLogWriter;
+import net.jperf.helpers.StopWatchParser;
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.spi.ErrorCode;
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+
+/**
+ * This log4j Appender writes the StopWatches logged to it to a file in the binary stop watch log format of the
+ * {@link BinaryStopWatchLogWriter}, which takes a fraction of the space of the text form and which the
+ * {@link net.jperf.LogParser} reads without any parsing. StopWatches logged by a {@link Log4JStopWatch} are written
+ * directly; other messages are parsed with a StopWatchParser, and any LoggingEvents which do NOT contain StopWatches
+ * are discarded. This appender needs no layout.
+ * <p>
+ * The file is set with the <b>File</b> option. By default new StopWatches are appended to an existing file, and each
+ * StopWatch is written out as soon as it is logged; setting <b>ImmediateFlush</b> to false lets StopWatches be
+ * buffered and written out several kilobytes at a time, at the risk of losing the buffered ones if the JVM crashes.
+ */
+public class BinaryStopWatchFileAppender extends AppenderSkeleton implements Flushable {
+    // --- configuration options ---
+    /**
+     * File option
+     */
+    private String file;
+    /**
+     * Append option
+     */
+    private boolean append = true;
+    /**
+     * ImmediateFlush option
+     */
+    private boolean immediateFlush = true;
+
+    // --- contained objects ---
+    /**
+     * The writer is created in the {@link #activateOptions} method.
+     */
+    private BinaryStopWatchLogWriter writer;
+    /**
+     * Parses messages that were logged as Strings rather than StopWatches.
+     */
+    private final StopWatchParser stopWatchParser = new StopWatchParser();
+
+    // --- options ---
+    /**
+     * The <b>File</b> option is the path of the binary log file.
+     *
+     * @return the File option.
+     */
+    public String getFile() {
+        return file;
+    }
+
+    /**
+     * Sets the value of the <b>File</b> option.
+     *
+     * @param file The new File option.
+     */
+    public void setFile(String file) {
+        this.file = file;
+    }
+
+    /**
+     * The <b>Append</b> option determines whether StopWatches are appended to an existing file, rather than replacing
+     * it. Defaults to true.
+     *
+     * @return the Append option.
+     */
+    public boolean isAppend() {
+        return append;
+    }
+
+    /**
+     * Sets the value of the <b>Append</b> option.
+     *
+     * @param append The new Append option.
+     */
+    public void setAppend(boolean append) {
+        this.append = append;
+    }
+
+    /**
+     * The <b>ImmediateFlush</b> option determines whether each StopWatch is written to the file as soon as it is
+     * logged. Defaults to true.
+     *
+     * @return the ImmediateFlush option.
+     */
+    public boolean isImmediateFlush() {
+        return immediateFlush;
+    }
+
+    /**
+     * Sets the value of the <b>ImmediateFlush</b> option.
+     *
+     * @param immediateFlush The new ImmediateFlush option.
+     */
+    public void setImmediateFlush(boolean immediateFlush) {
+        this.immediateFlush = immediateFlush;
+    }
+
+    // --- appender interface methods ---
+
+    public void activateOptions() {
+        if (file == null) {
+            throw new RuntimeException("You must set the File option before activating this appender");
+        }
+        try {
+            writer = new BinaryStopWatchLogWriter(new FileOutputStream(file, append));
+        } catch (IOException ioe) {
+            errorHandler.error("Could not open binary stop watch log " + file, ioe, ErrorCode.FILE_OPEN_FAILURE);
+        }
+    }
+
+    protected void append(LoggingEvent event) {
+        if (writer == null) {
+            return;
+        }
+
+        Object message = event.getMessage();
+        StopWatch stopWatch = (message instanceof StopWatch) ?
+                              (StopWatch) message :
+                              stopWatchParser.parseStopWatch(String.valueOf(message));
+        if (stopWatch != null) {
+            try {
+                writer.write(stopWatch);
+                if (immediateFlush) {
+                    writer.flush();
+                }
+            } catch (IOException ioe) {
+                errorHandler.error("Could not write to binary stop watch log " + file, ioe, ErrorCode.WRITE_FAILURE);
+            }
+        }
+    }
+
+    public boolean requiresLayout() {
+        return false;
+    }
+
+    public void close() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException ioe) {
+                errorHandler.error("Could not close binary stop watch log " + file, ioe, ErrorCode.CLOSE_FAILURE);
+            }
+            writer = null;
+        }
+        closed = true;
+    }
+
+    // --- Flushable method ---
+    /**
+     * Writes out any buffered StopWatches.
+     */
+    public void flush() {
+        BinaryStopWatchLogWriter toFlush = writer;
+        if (toFlush != null) {
+            try {
+                toFlush.flush();
+            } catch (IOException ioe) {
+                errorHandler.error("Could not flush binary stop watch log " + file, ioe, ErrorCode.FLUSH_FAILURE);
+            }
+        }
+    }
+}
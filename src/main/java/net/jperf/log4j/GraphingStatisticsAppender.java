@@ -55,7 +55,7 @@ public class GraphingStatisticsAppender extends AppenderSkeleton implements Appe
     /**
      * The type of data to display on the graph. Defaults to "Mean" to display mean values. Acceptable values are any
      * constant name from the {@link net.jperf.helpers.StatsValueRetriever} class, such as Mean, Min, Max, Count,
-     * StdDev or TPS.
+     * StdDev, TPS or P99.
      */
     private String graphType = StatsValueRetriever.MEAN_VALUE_RETRIEVER.getValueName();
     /**
@@ -98,8 +98,8 @@ public class GraphingStatisticsAppender extends AppenderSkeleton implements Appe
 
     /**
      * The <b>GraphType</b> option is used to specify the data that should be displayed on the graph. Acceptable
-     * values are Mean, Min, Max, Count, StdDev and TPS (for transactions per second). Defaults to Mean if not
-     * explicitly set.
+     * values are Mean, Min, Max, Count, StdDev, TPS (for transactions per second) and the percentiles P50, P90,
+     * P95, P99 and P999. Defaults to Mean if not explicitly set.
      *
      * @return The value of the GraphType option
      */
@@ -109,7 +109,7 @@ public class GraphingStatisticsAppender extends AppenderSkeleton implements Appe
 
     /**
      * Sets the value of the <b>GraphType</b> option. This must be a valid type, one of
-     * Mean, Min, Max, Count, StdDev or TPS (for transactions per second).
+     * Mean, Min, Max, Count, StdDev, TPS (for transactions per second), P50, P90, P95, P99 or P999.
      *
      * @param graphType The new value for the GraphType option.
      */
@@ -19,6 +19,7 @@ package net.jperf.log4j;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
 
 import net.jperf.LoggingStopWatch;
 import org.apache.log4j.Level;
@@ -313,6 +314,12 @@ public class Log4JStopWatch extends LoggingStopWatch {
         super.setMessage(message);
         return this;
     }
+
+    // Just overridden to make use of covariant return types
+    public Log4JStopWatch setTimeUnit(TimeUnit timeUnit) {
+        super.setTimeUnit(timeUnit);
+        return this;
+    }
     
     // Just overridden to make use of covariant return types
     public Log4JStopWatch setNormalAndSlowSuffixesEnabled(boolean normalAndSlowSuffixesEnabled) {
@@ -344,14 +351,26 @@ public class Log4JStopWatch extends LoggingStopWatch {
     }
 
     /**
-     * The log message is overridden to use the log4j Logger to persist the stop watch.
+     * The log message is overridden to use the log4j Logger to persist the stop watch. The message object of the
+     * LoggingEvent is a detached copy of this StopWatch (see {@link #newLoggedStopWatch()}) rather than the String,
+     * which allows the {@link AsyncCoalescingStatisticsAppender} to aggregate it without parsing. Layouts render the
+     * copy to the same text as stopWatchAsString.
      *
      * @param stopWatchAsString The stringified view of the stop watch for logging.
      * @param exception         An exception, if any, that was passed to the stop or lap method. If this is null then
      *                          logging will occur at normalPriority, if non-null it will occur at exceptionPriority.
      */
     protected void log(String stopWatchAsString, Throwable exception) {
-        logger.log((exception == null) ? normalPriority : exceptionPriority, stopWatchAsString, exception);
+        logger.log((exception == null) ? normalPriority : exceptionPriority, newLoggedStopWatch(), exception);
+    }
+
+    /**
+     * Overridden to log the detached copy of this StopWatch directly, as the String is not needed.
+     *
+     * @param exception An exception, if any, that was passed to the stopTiming method.
+     */
+    protected void logStopWatch(Throwable exception) {
+        logger.log((exception == null) ? normalPriority : exceptionPriority, newLoggedStopWatch(), exception);
     }
 
     // --- Object Methods ---
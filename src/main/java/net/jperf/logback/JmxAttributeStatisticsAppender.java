@@ -27,8 +27,11 @@ import ch.qos.logback.core.AppenderBase;
 import ch.qos.logback.classic.spi.LoggingEvent;
 import net.jperf.helpers.StatisticsExposingMBean;
 import net.jperf.GroupedTimingStatistics;
+import net.jperf.StopWatch;
 import net.jperf.helpers.AcceptableRangeConfiguration;
 import net.jperf.helpers.MiscUtils;
+import net.jperf.helpers.SlidingWindowStatistics;
+import net.jperf.helpers.StopWatchParser;
 
 /**
  * This appender is designed to be attached to an {@link AsyncCoalescingStatisticsAppender}. It takes the incoming
@@ -36,6 +39,11 @@ import net.jperf.helpers.MiscUtils;
  * MBean can then be monitored by external tools. In addition, this class allows you to specify notification thresholds
  * so that a JMX notification is sent if one of the attributes falls outside an acceptable range (for example, if
  * the mean time for a specific value is too high).
+ * <p/>
+ * If the SlidingWindowLength option is set, this appender may also be attached directly to the logger the
+ * StopWatches are logged to, as well as to the AsyncCoalescingStatisticsAppender. It then adds each StopWatch to the
+ * sliding window as it is logged, so that notifications are sent as soon as a threshold is crossed rather than at the
+ * end of the time slice.
  *
  * @author Alex Devine
  * @author Xu Huisheng
@@ -63,12 +71,27 @@ public class JmxAttributeStatisticsAppender extends AppenderBase<LoggingEvent> {
      */
     private String collision = StatisticsExposingMBean.COLLISION_DONOTHING;
 
+    /**
+     * The length, in milliseconds, of the sliding window from which attribute values are read, or 0 for none.
+     */
+    private long slidingWindowLength = 0L;
+
+    /**
+     * The number of buckets the sliding window is divided into.
+     */
+    private int slidingWindowBuckets = 12;
+
     // --- state variables ---
     /**
      * This is the MBean that is registered with the MBeanServer
      */
     protected StatisticsExposingMBean mBean;
 
+    /**
+     * Parses the StopWatches logged directly to this appender, which are only used if there is a sliding window.
+     */
+    private final StopWatchParser stopWatchParser = new StopWatchParser();
+
     // --- options ---
     /**
      * The <b>MBeanName</b> option is used to specify the ObjectName under which the StatisticsExposingMBean in the
@@ -152,6 +175,50 @@ public class JmxAttributeStatisticsAppender extends AppenderBase<LoggingEvent> {
         this.notificationThresholds = notificationThresholds;
     }
 
+    /**
+     * The <b>SlidingWindowLength</b> option, if set, causes the attribute values to be calculated over a window of
+     * this many milliseconds that ends at the time the attribute is read, instead of being the values for the most
+     * recent time slice received. The NotificationThresholds are then also checked against the sliding window, each
+     * time a new time slice is received, or, if this appender is also attached to the logger the StopWatches are
+     * logged to, each time a StopWatch is logged. Defaults to 0, meaning no sliding window is used.
+     *
+     * @return The value of the SlidingWindowLength option
+     */
+    public long getSlidingWindowLength() {
+        return slidingWindowLength;
+    }
+
+    /**
+     * Sets the value of the SlidingWindowLength option.
+     *
+     * @param slidingWindowLength The new value for the SlidingWindowLength option, in milliseconds.
+     */
+    public void setSlidingWindowLength(long slidingWindowLength) {
+        this.slidingWindowLength = slidingWindowLength;
+    }
+
+    /**
+     * The <b>SlidingWindowBuckets</b> option is the number of buckets the sliding window is divided into. If the
+     * window is only fed time slices, the SlidingWindowLength divided by this value should be the TimeSlice of the
+     * AsyncCoalescingStatisticsAppender this appender is attached to; if it is fed the StopWatches as they are logged,
+     * the buckets may be shorter than the TimeSlice. Defaults to 12, which suits a 60 second window fed with 5 second
+     * time slices.
+     *
+     * @return The value of the SlidingWindowBuckets option
+     */
+    public int getSlidingWindowBuckets() {
+        return slidingWindowBuckets;
+    }
+
+    /**
+     * Sets the value of the SlidingWindowBuckets option.
+     *
+     * @param slidingWindowBuckets The new value for the SlidingWindowBuckets option.
+     */
+    public void setSlidingWindowBuckets(int slidingWindowBuckets) {
+        this.slidingWindowBuckets = slidingWindowBuckets;
+    }
+
     /**
      * the way to resolve mbean collision.
      *
@@ -191,7 +258,13 @@ public class JmxAttributeStatisticsAppender extends AppenderBase<LoggingEvent> {
             }
         }
 
-        this.mBean = new StatisticsExposingMBean(mBeanName, Arrays.asList(tagNames), rangeConfigs);
+        SlidingWindowStatistics slidingWindowStatistics = null;
+        if (slidingWindowLength > 0L) {
+            slidingWindowStatistics = new SlidingWindowStatistics(slidingWindowLength, slidingWindowBuckets);
+        }
+
+        this.mBean = new StatisticsExposingMBean(mBeanName, Arrays.asList(tagNames), rangeConfigs,
+                                                 slidingWindowStatistics);
 
         this.checkAndRegisterMBean();
     }
@@ -211,12 +284,23 @@ public class JmxAttributeStatisticsAppender extends AppenderBase<LoggingEvent> {
     // --- appender interface methods ---
     @Override
     protected void append(LoggingEvent event) {
+        Object logMessage = null;
         if ((event.getArgumentArray() != null)
                 && (event.getArgumentArray().length > 0)) {
-            Object logMessage = event.getArgumentArray()[0];
+            logMessage = event.getArgumentArray()[0];
             if (logMessage instanceof GroupedTimingStatistics
                     && (mBean != null)) {
                 mBean.updateCurrentTimingStatistics((GroupedTimingStatistics) logMessage);
+                return;
+            }
+        }
+        if (slidingWindowLength > 0L && mBean != null) {
+            //attached to the timing logger, so add the StopWatch to the window without waiting for the time slice
+            StopWatch stopWatch = (logMessage instanceof StopWatch) ?
+                                  (StopWatch) logMessage :
+                                  stopWatchParser.parseStopWatch(event.getFormattedMessage());
+            if (stopWatch != null) {
+                mBean.addStopWatch(stopWatch);
             }
         }
     }
@@ -32,7 +32,10 @@
  * are using the Log4J or java.util.logging frameworks, you can set up helper appenders or handlers which will perform
  * the real-time aggregation and graph generation for you (<b>IMPORTANT</b> custom java.util.logging Handlers are not
  * yet available, to be completed in the next revision of Perf4J). See the {@link net.jperf.log4j} and
- * {@link net.jperf.javalog} packages for more information.
+ * {@link net.jperf.javalog} packages for more information. Applications that only need the statistics can skip the
+ * logging framework altogether by reporting {@link net.jperf.RegistryStopWatch}es to a
+ * {@link net.jperf.TimingRegistry}, which aggregates them in-process and passes the statistics to consumers such as
+ * the JMX MBean.
  * <p>
  * In addition, many developers will find it most useful to use Perf4J's profiling annotations in the
  * {@link net.jperf.aop} package instead of inserting timing statements directly in code.
@@ -19,8 +19,10 @@ package net.jperf.slf4j;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
 
 import net.jperf.LoggingStopWatch;
+import net.jperf.StopWatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -52,6 +54,11 @@ public class Slf4JStopWatch extends LoggingStopWatch {
      */
     public static final int ERROR_LEVEL = 40000;
 
+    /**
+     * The message format used when the StopWatch is passed to the Logger as an argument instead of as a String.
+     */
+    private static final String STOP_WATCH_FORMAT = "{}";
+
     private transient Logger logger;
     private int normalPriority;
     private int exceptionPriority;
@@ -337,6 +344,12 @@ public class Slf4JStopWatch extends LoggingStopWatch {
         super.setMessage(message);
         return this;
     }
+
+    // Just overridden to make use of covariant return types
+    public Slf4JStopWatch setTimeUnit(TimeUnit timeUnit) {
+        super.setTimeUnit(timeUnit);
+        return this;
+    }
     
     // Just overridden to make use of covariant return types
     public Slf4JStopWatch setNormalAndSlowSuffixesEnabled(boolean normalAndSlowSuffixesEnabled) {
@@ -376,7 +389,25 @@ public class Slf4JStopWatch extends LoggingStopWatch {
      *                          logging will occur at normalPriority, if non-null it will occur at exceptionPriority.
      */
     protected void log(String stopWatchAsString, Throwable exception) {
-        log(stopWatchAsString, exception, (exception == null) ? normalPriority : exceptionPriority);
+        if (exception == null) {
+            log(newLoggedStopWatch(), normalPriority);
+        } else {
+            log(stopWatchAsString, exception, exceptionPriority);
+        }
+    }
+
+    /**
+     * Overridden so that the String is only built when an exception is logged, as otherwise the detached copy of
+     * this StopWatch is logged directly.
+     *
+     * @param exception An exception, if any, that was passed to the stopTiming method.
+     */
+    protected void logStopWatch(Throwable exception) {
+        if (exception == null) {
+            log(newLoggedStopWatch(), normalPriority);
+        } else {
+            log(toString(), exception, exceptionPriority);
+        }
     }
 
     /**
@@ -439,6 +470,40 @@ public class Slf4JStopWatch extends LoggingStopWatch {
         }
     }
 
+    /**
+     * Logs a detached copy of this StopWatch (see {@link #newLoggedStopWatch()}) as the single argument of a "{}"
+     * message, so that the StopWatch object itself travels with the logging event. With logback this allows the
+     * {@link net.jperf.logback.AsyncCoalescingStatisticsAppender} to aggregate it without parsing, and the message
+     * is only formatted if some other appender actually renders it. Since SLF4J has no way to pass both format
+     * arguments and a Throwable, this method is only used when no exception was passed to the stop or lap method.
+     *
+     * @param loggedStopWatch The StopWatch to log.
+     * @param atLevel         The level at which logging should occur.
+     */
+    protected void log(StopWatch loggedStopWatch, int atLevel) {
+        switch (atLevel) {
+        case TRACE_LEVEL:
+            logger.trace(STOP_WATCH_FORMAT, loggedStopWatch);
+            break;
+        case DEBUG_LEVEL:
+            logger.debug(STOP_WATCH_FORMAT, loggedStopWatch);
+            break;
+        case INFO_LEVEL:
+            logger.info(STOP_WATCH_FORMAT, loggedStopWatch);
+            break;
+        case WARN_LEVEL:
+            logger.warn(STOP_WATCH_FORMAT, loggedStopWatch);
+            break;
+        case ERROR_LEVEL:
+            logger.error(STOP_WATCH_FORMAT, loggedStopWatch);
+            break;
+        default:
+            // if here it means the level was set to a non-standard value.
+            // Only expend the time to find the closest known level if we need to.
+            log(loggedStopWatch, closestKnownLevel(atLevel));
+        }
+    }
+
     private int closestKnownLevel(int level) {
         if (level <= TRACE_LEVEL) {
             return TRACE_LEVEL;
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Tests the ConcurrentTimingStatistics class.
+ */
+public class ConcurrentTimingStatisticsTest extends TestCase {
+
+    public void testMatchesTimingStatistics() throws Exception {
+        ConcurrentTimingStatistics concurrentStatistics = new ConcurrentTimingStatistics();
+        assertEquals(new TimingStatistics(), concurrentStatistics.getSnapshot());
+
+        TimingStatistics statistics = new TimingStatistics();
+        Random random = new Random(42L);
+        for (int i = 0; i < 1000; i++) {
+            long sampleTime = random.nextInt(5000);
+            concurrentStatistics.addSampleTime(sampleTime);
+            statistics.addSampleTime(sampleTime);
+        }
+
+        TimingStatistics snapshot = concurrentStatistics.getSnapshot();
+        assertEquals(statistics.getCount(), snapshot.getCount());
+        assertEquals(statistics.getMin(), snapshot.getMin());
+        assertEquals(statistics.getMax(), snapshot.getMax());
+        assertEquals(statistics.getMean(), snapshot.getMean(), 0.000001);
+        assertEquals(statistics.getStandardDeviation(), snapshot.getStandardDeviation(), 0.000001);
+        assertNull(snapshot.getHistogram());
+    }
+
+    public void testExactMeanAndVariance() throws Exception {
+        //nanosecond times of around 16 minutes, where summing squares in a double would lose the variance entirely
+        ConcurrentTimingStatistics statistics = new ConcurrentTimingStatistics();
+        long base = 1000000000000L;
+        statistics.addSampleTime(base + 1L).addSampleTime(base + 2L).addSampleTime(base + 3L);
+        TimingStatistics snapshot = statistics.getSnapshot();
+        assertEquals(base + 2.0, snapshot.getMean(), 0.0);
+        assertEquals(Math.sqrt(2.0 / 3.0), snapshot.getStandardDeviation(), 1e-12);
+
+        //the squares of the largest times still fit in the 128-bit sums
+        statistics = new ConcurrentTimingStatistics();
+        statistics.addSampleTime(Long.MAX_VALUE).addSampleTime(Long.MAX_VALUE);
+        snapshot = statistics.getSnapshot();
+        assertEquals((double) Long.MAX_VALUE, snapshot.getMean(), 0.0);
+        assertEquals(0.0, snapshot.getStandardDeviation(), 0.0);
+        assertEquals(Long.MAX_VALUE, snapshot.getMin());
+        assertEquals(2, snapshot.getCount());
+    }
+
+    public void testConcurrentSamples() throws Exception {
+        final ConcurrentTimingStatistics statistics = new ConcurrentTimingStatistics();
+        final int threads = 16;
+        final int samplesPerThread = 100000;
+        final CountDownLatch startSignal = new CountDownLatch(1);
+        Thread[] samplers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final long sampleTime = i + 1;
+            samplers[i] = new Thread() {
+                public void run() {
+                    try {
+                        startSignal.await();
+                    } catch (InterruptedException ie) {
+                        return;
+                    }
+                    for (int j = 0; j < samplesPerThread; j++) {
+                        statistics.addSampleTime(sampleTime);
+                    }
+                }
+            };
+            samplers[i].start();
+        }
+
+        startSignal.countDown();
+        //snapshots taken while samples are added are consistent, so the mean stays between the min and max
+        while (samplers[threads - 1].isAlive()) {
+            TimingStatistics snapshot = statistics.getSnapshot();
+            if (snapshot.getCount() > 0) {
+                assertTrue(snapshot.getMean() >= snapshot.getMin() && snapshot.getMean() <= snapshot.getMax());
+            }
+        }
+        for (Thread sampler : samplers) {
+            sampler.join();
+        }
+
+        //each thread added samplesPerThread samples of its own time, 1 to 16
+        TimingStatistics snapshot = statistics.getSnapshot();
+        assertEquals(threads * samplesPerThread, snapshot.getCount());
+        assertEquals(1L, snapshot.getMin());
+        assertEquals(16L, snapshot.getMax());
+        assertEquals(8.5, snapshot.getMean(), 0.0);
+        //the variance of the uniform distribution over 1 to 16 is (16^2 - 1) / 12
+        assertEquals(Math.sqrt(255.0 / 12.0), snapshot.getStandardDeviation(), 1e-12);
+    }
+}
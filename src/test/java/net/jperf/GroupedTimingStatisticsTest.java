@@ -16,8 +16,14 @@
  */
 package net.jperf;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Random;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 
 import junit.framework.TestCase;
 
@@ -65,8 +71,181 @@ public class GroupedTimingStatisticsTest extends TestCase {
         assertOutputContains(groupStatistics.toString(), "a           1.1           4           3         0.2           5           6");
     }
 
+    public void testElapsedTimesAreConvertedToTheTimeUnit() throws Exception {
+        GroupedTimingStatistics groupStatistics = new GroupedTimingStatistics();
+        assertSame(TimeUnit.MILLISECONDS, groupStatistics.getTimeUnit());
+        groupStatistics.setTimeUnit(TimeUnit.MICROSECONDS);
+        groupStatistics.addStopWatch(new StopWatch(startTime, 3L, "a", null));
+        groupStatistics.addStopWatch(new StopWatch(startTime, 1500L, "a", null, TimeUnit.MICROSECONDS));
+        groupStatistics.addStopWatch(new StopWatch(startTime, 500999L, "a", null, TimeUnit.NANOSECONDS));
 
+        TimingStatistics stats = groupStatistics.getStatisticsByTag().get("a");
+        assertEquals(3, stats.getCount());
+        assertEquals(500L, stats.getMin());
+        assertEquals(3000L, stats.getMax());
+        assertEquals(5000.0 / 3, stats.getMean(), 0.0001);
+        //the histogram range is scaled to the unit, so times beyond an hour in ms are still tracked in us
+        assertEquals(1500L, stats.getPercentile(50.0), 15L);
+        assertOutputContains(groupStatistics.toString(), "Tag     Avg(us)         Min         Max");
 
+        try {
+            groupStatistics.setTimeUnit(TimeUnit.NANOSECONDS);
+            fail("The unit can't change once there are statistics");
+        } catch (IllegalStateException ise) {
+            //expected
+        }
+
+        //an empty instance takes the unit of the merged instance, otherwise the units must match
+        GroupedTimingStatistics merged = new GroupedTimingStatistics().merge(groupStatistics);
+        assertSame(TimeUnit.MICROSECONDS, merged.getTimeUnit());
+        assertEquals(groupStatistics.getStatisticsByTag(), merged.getStatisticsByTag());
+        GroupedTimingStatistics millis = new GroupedTimingStatistics();
+        millis.addStopWatch(new StopWatch(startTime, 3L, "a", null));
+        try {
+            millis.merge(groupStatistics);
+            fail("Statistics in different units can't be merged");
+        } catch (IllegalArgumentException iae) {
+            //expected
+        }
+    }
+
+    public void testTagBudgetKeepsFrequentTagsAndFoldsTheRestIntoTheOverflowTag() throws Exception {
+        GroupedTimingStatistics groupStatistics = new GroupedTimingStatistics();
+        groupStatistics.setMaxTags(4);
+        for (int i = 0; i < 500; i++) {
+            groupStatistics.addStopWatch(new StopWatch(startTime, 10, "hot1", null));
+            if (i < 400) {
+                groupStatistics.addStopWatch(new StopWatch(startTime, 20, "hot2", null));
+            }
+            groupStatistics.addStopWatch(new StopWatch(startTime, i, "user" + i, null));
+        }
+
+        SortedMap<String, TimingStatistics> result = groupStatistics.getStatisticsByTag();
+        assertTrue(result.size() <= 5);
+        assertEquals(500, result.get("hot1").getCount());
+        assertEquals(10.0, result.get("hot1").getMean());
+        assertEquals(400, result.get("hot2").getCount());
+        assertEquals(498, result.get(GroupedTimingStatistics.DEFAULT_OVERFLOW_TAG).getCount());
+        assertEquals(498, groupStatistics.getNumEvictedTags());
+        assertTrue(result.containsKey("user499"));
+
+        int totalCount = 0;
+        for (TimingStatistics stats : result.values()) {
+            totalCount += stats.getCount();
+        }
+        assertEquals(1400, totalCount);
+        assertOutputContains(groupStatistics.toString(), "498 evicted tags folded into __other__");
+    }
+
+    public void testMergeAdoptsAndEnforcesTagBudget() throws Exception {
+        GroupedTimingStatistics first = new GroupedTimingStatistics();
+        first.setMaxTags(2);
+        first.setOverflowTag("other");
+        first.addStopWatch(new StopWatch(startTime, 10, "a", null));
+        first.addStopWatch(new StopWatch(startTime, 10, "a", null));
+        first.addStopWatch(new StopWatch(startTime, 10, "b", null));
+        GroupedTimingStatistics second = first.clone();
+        second.getStatisticsByTag().clear();
+        second.setStatisticsByTag(second.getStatisticsByTag());
+        second.addStopWatch(new StopWatch(startTime, 10, "c", null));
+        second.addStopWatch(new StopWatch(startTime, 10, "c", null));
+        second.addStopWatch(new StopWatch(startTime, 10, "c", null));
+
+        GroupedTimingStatistics merged = new GroupedTimingStatistics().merge(first).merge(second);
+        assertEquals(2, merged.getMaxTags());
+        assertEquals("[a, c, other]", merged.getStatisticsByTag().keySet().toString());
+        assertEquals(1, merged.getStatisticsByTag().get("other").getCount());
+        assertEquals(1, merged.getNumEvictedTags());
+
+        //statistics without a budget are not bounded
+        GroupedTimingStatistics unbounded = new GroupedTimingStatistics();
+        for (int i = 0; i < 100; i++) {
+            unbounded.addStopWatch(new StopWatch(startTime, 10, "tag" + i, null));
+        }
+        assertEquals(100, unbounded.getStatisticsByTag().size());
+        assertEquals(0, unbounded.getNumEvictedTags());
+    }
+
+    public void testReadingStatisticsFlushesThem() throws Exception {
+        GroupedTimingStatistics groupStatistics = new GroupedTimingStatistics();
+        groupStatistics.setCreateRollupStatistics(true);
+        groupStatistics.addStopWatch(new StopWatch(startTime, 10L, "a.b", null));
+
+        //reading flushes the pending StopWatches into the map held by the instance
+        SortedMap<String, TimingStatistics> statisticsByTag = groupStatistics.getStatisticsByTag();
+        assertEquals(1, statisticsByTag.get("a").getCount());
+        assertSame(statisticsByTag, groupStatistics.getStatisticsByTag());
+        assertEquals(groupStatistics.clone(), groupStatistics);
+
+        //so StopWatches added later show up in the same map once it is read again
+        groupStatistics.addStopWatch(new StopWatch(startTime, 20L, "a.c", null));
+        assertTrue(groupStatistics.toString().contains("a.c"));
+        assertSame(statisticsByTag, groupStatistics.getStatisticsByTag());
+        assertEquals(2, statisticsByTag.get("a").getCount());
+        assertEquals(15.0, statisticsByTag.get("a").getMean(), 1e-9);
+        assertEquals(1, statisticsByTag.get("a.b").getCount());
+        assertEquals(1, statisticsByTag.get("a.c").getCount());
+
+        //and changes made through the returned map are kept
+        statisticsByTag.remove("a.b");
+        assertFalse(groupStatistics.getStatisticsByTag().containsKey("a.b"));
+        groupStatistics.addStopWatch(new StopWatch(startTime, 30L, "a.c", null));
+        assertFalse(groupStatistics.getStatisticsByTag().containsKey("a.b"));
+        assertEquals(2, groupStatistics.getStatisticsByTag().get("a.c").getCount());
+
+        //the unflushed StopWatches are serialized too
+        groupStatistics.addStopWatch(new StopWatch(startTime, 40L, "d", null));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(groupStatistics);
+        out.close();
+        GroupedTimingStatistics deserialized = (GroupedTimingStatistics)
+                new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        assertEquals(1, deserialized.getStatisticsByTag().get("d").getCount());
+    }
+
+    public void testRollupStatisticsMatchAddingEachStopWatchToEveryPrefix() throws Exception {
+        String[] tags = { "svc.db.orders.select.byId", "svc.db.orders.insert", "svc.db", "svc.cache.get", "svc",
+                          "other", "a..b", "a.", ".leading", "trailing.dot." };
+        Random random = new Random(11L);
+        GroupedTimingStatistics groupStatistics = new GroupedTimingStatistics();
+        groupStatistics.setCreateRollupStatistics(true);
+        SortedMap<String, TimingStatistics> expected = new TreeMap<String, TimingStatistics>();
+
+        for (int i = 0; i < 5000; i++) {
+            String tag = tags[random.nextInt(tags.length)];
+            long elapsedTime = random.nextInt(1000);
+            groupStatistics.addStopWatch(new StopWatch(startTime, elapsedTime, tag, null));
+
+            //this is how rollups used to be created, one update per prefix of every StopWatch
+            addExpectedSample(expected, tag, elapsedTime);
+            int indexOfDot = -1;
+            while ((indexOfDot = tag.indexOf('.', indexOfDot + 1)) >= 0) {
+                addExpectedSample(expected, tag.substring(0, indexOfDot), elapsedTime);
+            }
+        }
+
+        SortedMap<String, TimingStatistics> actual = groupStatistics.getStatisticsByTag();
+        assertEquals(expected.keySet(), actual.keySet());
+        for (String tag : expected.keySet()) {
+            TimingStatistics expectedStats = expected.get(tag);
+            TimingStatistics actualStats = actual.get(tag);
+            assertEquals(tag, expectedStats.getCount(), actualStats.getCount());
+            assertEquals(tag, expectedStats.getMin(), actualStats.getMin());
+            assertEquals(tag, expectedStats.getMax(), actualStats.getMax());
+            assertEquals(tag, expectedStats.getMean(), actualStats.getMean(), 1e-9);
+            assertEquals(tag, expectedStats.getStandardDeviation(), actualStats.getStandardDeviation(), 1e-9);
+            assertEquals(tag, expectedStats.getHistogram(), actualStats.getHistogram());
+        }
+    }
+
+    private void addExpectedSample(SortedMap<String, TimingStatistics> expected, String tag, long elapsedTime) {
+        TimingStatistics stats = expected.get(tag);
+        if (stats == null) {
+            expected.put(tag, stats = new TimingStatistics());
+        }
+        stats.addSampleTime(elapsedTime);
+    }
 
     private void assertOutputContains(String output, String expectedToContain) {
         String message = "Expected toString() output to contain the given string, matching formatting.\n" + expectedToContain +
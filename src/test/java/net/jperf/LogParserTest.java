@@ -16,9 +16,21 @@
  */
 package net.jperf;
 
+import net.jperf.helpers.BinaryStopWatchLogWriter;
+import net.jperf.helpers.LogStatisticsCache;
+import net.jperf.helpers.LogTimeIndex;
+import net.jperf.helpers.StopWatchFilter;
+import net.jperf.helpers.StopWatchLogIterator;
 import org.apache.commons.io.FileUtils;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Test the LogParser class, as well as the StopWatchLogIterator class and main method.
@@ -74,6 +86,16 @@ public class LogParserTest extends TimingTestCase {
                        fakeOut.toString().indexOf("\"tag3\",") >= 0);
             fakeOut.reset();
 
+            //time unit test, the default time unit of StopWatches is left alone
+            realOut.println("-- File in -> Std out Test in microseconds --");
+            TimeUnit defaultTimeUnit = StopWatch.getDefaultTimeUnit();
+            LogParser.runMain(new String[]{"--time-unit", "us", "-f", "json:list-objects",
+                                           "./target/logParserTest.log"});
+            realOut.println(fakeOut.toString());
+            assertTrue(fakeOut.toString().indexOf("unit:'us'") >= 0);
+            assertEquals(defaultTimeUnit, StopWatch.getDefaultTimeUnit());
+            fakeOut.reset();
+
             //log from file, write to file
             realOut.println("-- File in -> File out Test --");
             LogParser.runMain(new String[]{"-o", "./target/statistics.out", "./target/logParserTest.log"});
@@ -96,6 +118,9 @@ public class LogParserTest extends TimingTestCase {
             realOut.println("-- Missing param test --");
             assertEquals(1, LogParser.runMain(new String[]{"./target/logParserTest.log", "-o"}));
 
+            //follow needs a file
+            assertEquals(1, LogParser.runMain(new String[]{"--follow"}));
+
             //unknown arg test
             realOut.println("-- Unknown arg test --");
             assertEquals(1, LogParser.runMain(new String[]{"./target/logParserTest.log", "--foo"}));
@@ -116,4 +141,375 @@ public class LogParserTest extends TimingTestCase {
             System.setOut(realOut);
         }
     }
+
+    public void testParallelLogParserMatchesSequential() throws Exception {
+        String logFile = "./src/test/resources/net/jperf/dummyLog.txt";
+        for (String format : new String[]{"text", "csv", "json"}) {
+            assertEquals(0, LogParser.runMain(new String[]{"-f", format, "-r", "-t", "1000",
+                                                           "-o", "./target/sequential.out", logFile}));
+            assertEquals(0, LogParser.runMain(new String[]{"-f", format, "-r", "-t", "1000", "--parallel", "4",
+                                                           "-o", "./target/parallel.out", logFile}));
+            String sequentialOut = FileUtils.readFileToString(new File("./target/sequential.out"));
+            String parallelOut = FileUtils.readFileToString(new File("./target/parallel.out"));
+            assertTrue(sequentialOut.indexOf("tag") >= 0);
+            assertEquals(format, sequentialOut, parallelOut);
+        }
+
+        //the number of threads must be positive
+        assertEquals(1, LogParser.runMain(new String[]{"-p", "0", logFile}));
+    }
+
+    public void testFilters() throws Exception {
+        String logFile = "./src/test/resources/net/jperf/dummyLog.txt";
+        String[][] filterArgs = {{"--tags", "tag1,/tag[24]/"},
+                                 {"--from", "1230068880000", "--to", "1230068940000"},
+                                 {"--from", "1230068880000", "--tags", "tag3"}};
+        StopWatchFilter[] filters = {new StopWatchFilter(Long.MIN_VALUE, Long.MAX_VALUE, "tag1,/tag[24]/"),
+                                     new StopWatchFilter(1230068880000L, 1230068940000L, null),
+                                     new StopWatchFilter(1230068880000L, Long.MAX_VALUE, "tag3")};
+        for (int i = 0; i < filters.length; i++) {
+            //the filtered statistics are those of a log with only the accepted StopWatches
+            StringBuilder filteredLog = new StringBuilder();
+            Iterator<StopWatch> iter = new StopWatchLogIterator(new FileReader(logFile));
+            while (iter.hasNext()) {
+                StopWatch stopWatch = iter.next();
+                if (filters[i].accepts(stopWatch)) {
+                    filteredLog.append(stopWatch).append('\n');
+                }
+            }
+            FileUtils.writeStringToFile(new File("./target/filteredLog.log"), filteredLog.toString());
+            assertEquals(0, LogParser.runMain(new String[]{"-f", "csv", "-o", "./target/expected.out",
+                                                           "./target/filteredLog.log"}));
+            String expectedOut = FileUtils.readFileToString(new File("./target/expected.out"));
+            assertTrue(expectedOut.indexOf("tag") >= 0);
+
+            for (String parallelism : new String[]{"1", "2"}) {
+                List<String> args = new ArrayList<String>(Arrays.asList("-f", "csv", "-p", parallelism,
+                                                                        "-o", "./target/filtered.out", logFile));
+                args.addAll(Arrays.asList(filterArgs[i]));
+                assertEquals(0, LogParser.runMain(args.toArray(new String[args.size()])));
+                assertEquals(Arrays.toString(filterArgs[i]), expectedOut,
+                             FileUtils.readFileToString(new File("./target/filtered.out")));
+            }
+        }
+
+        //with a time index, only part of the log is read, but the statistics are the same
+        LogTimeIndex.getIndexFile(new File(logFile)).delete();
+        assertEquals(0, LogParser.runMain(new String[]{"-f", "csv", "--from", "1230068880000", "--to", "1230068940000",
+                                                       "-o", "./target/expected.out", logFile}));
+        String expectedOut = FileUtils.readFileToString(new File("./target/expected.out"));
+        String indexedLogFile = "./target/logParserIndexedLog.log";
+        FileUtils.writeStringToFile(new File(indexedLogFile),
+                                    FileUtils.readFileToString(new File(logFile)));
+        LogTimeIndex.getIndexFile(new File(indexedLogFile)).delete();
+        LogTimeIndex.update(new File(indexedLogFile), 256);
+        for (String parallelism : new String[]{"1", "2"}) {
+            assertEquals(0, LogParser.runMain(new String[]{"-f", "csv", "-p", parallelism, "--index",
+                                                           "--from", "1230068880000", "--to", "1230068940000",
+                                                           "-o", "./target/filtered.out", indexedLogFile}));
+            assertEquals(expectedOut, FileUtils.readFileToString(new File("./target/filtered.out")));
+        }
+        assertTrue(LogTimeIndex.read(new File(indexedLogFile)).getBlockCount() > 10);
+
+        //invalid ranges and dates are errors
+        assertEquals(1, LogParser.runMain(new String[]{"--from", "1000", "--to", "1000", logFile}));
+        assertEquals(1, LogParser.runMain(new String[]{"--from", "yesterday", logFile}));
+    }
+
+    public void testMultipleLogFilesMatchSingleLog() throws Exception {
+        File logDirectory = new File("./target/logParserMultipleFilesTest");
+        FileUtils.deleteDirectory(logDirectory);
+        assertTrue(logDirectory.mkdirs());
+
+        //the StopWatches are dealt to the files in turn, one of which is gzipped
+        Random random = new Random(3L);
+        StringBuilder singleLog = new StringBuilder();
+        Writer[] writers = new Writer[]{new FileWriter(new File(logDirectory, "part0.log")),
+                                        new OutputStreamWriter(new GZIPOutputStream(
+                                                new FileOutputStream(new File(logDirectory, "part1.log.gz")))),
+                                        new FileWriter(new File(logDirectory, "part2.log"))};
+        long startTime = 1230068856846L;
+        for (int i = 0; i < 3000; i++) {
+            startTime += 1 + random.nextInt(20);
+            String line = "INFO TimingLogger - " +
+                          new StopWatch(startTime, random.nextInt(500), "tag" + random.nextInt(4), null) + "\n";
+            singleLog.append(line);
+            writers[random.nextInt(writers.length)].write(line);
+        }
+        for (Writer writer : writers) {
+            writer.close();
+        }
+        FileUtils.writeStringToFile(new File("./target/logParserSingleLog.log"), singleLog.toString());
+
+        assertEquals(0, LogParser.runMain(new String[]{"-f", "csv", "-r", "-t", "1000",
+                                                       "-o", "./target/single.out", "./target/logParserSingleLog.log"}));
+        String singleOut = FileUtils.readFileToString(new File("./target/single.out"));
+        assertTrue(singleOut.indexOf("tag") >= 0);
+        for (String parallelism : new String[]{"1", "3"}) {
+            assertEquals(0, LogParser.runMain(new String[]{"-f", "csv", "-r", "-t", "1000", "-p", parallelism,
+                                                           "-o", "./target/merged.out",
+                                                           logDirectory.getPath() + "/part*"}));
+            assertEquals(singleOut, FileUtils.readFileToString(new File("./target/merged.out")));
+        }
+        //a directory is the same as all the files in it, and several arguments can be given
+        assertEquals(0, LogParser.runMain(new String[]{"-f", "csv", "-r", "-t", "1000", "-o", "./target/merged.out",
+                                                       logDirectory.getPath() + "/part0.log",
+                                                       logDirectory.getPath() + "/part[12]*"}));
+        assertEquals(singleOut, FileUtils.readFileToString(new File("./target/merged.out")));
+        assertEquals(0, LogParser.runMain(new String[]{"-f", "csv", "-r", "-t", "1000", "-o", "./target/merged.out",
+                                                       logDirectory.getPath()}));
+        assertEquals(singleOut, FileUtils.readFileToString(new File("./target/merged.out")));
+
+        //a glob that matches nothing is an error
+        assertEquals(1, LogParser.runMain(new String[]{logDirectory.getPath() + "/missing*"}));
+    }
+
+    public void testBinaryLogMatchesTextLog() throws Exception {
+        Random random = new Random(4L);
+        StringBuilder textLog = new StringBuilder();
+        BinaryStopWatchLogWriter binaryLog = new BinaryStopWatchLogWriter(
+                new FileOutputStream("./target/logParserBinaryLog.bin"));
+        long startTime = 1230068856846L;
+        for (int i = 0; i < 3000; i++) {
+            startTime += random.nextInt(20);
+            StopWatch stopWatch = new StopWatch(startTime, random.nextInt(500), "tag" + random.nextInt(4),
+                                                random.nextBoolean() ? "message " + i : null);
+            textLog.append("INFO TimingLogger - ").append(stopWatch).append("\n");
+            binaryLog.write(stopWatch);
+        }
+        binaryLog.close();
+        FileUtils.writeStringToFile(new File("./target/logParserTextLog.log"), textLog.toString());
+
+        String[][] options = {{"-f", "csv", "-r", "-t", "1000"},
+                              {"-f", "csv", "-t", "1000", "--tags", "tag1,tag2", "-p", "2"}};
+        for (String[] option : options) {
+            List<String> args = new ArrayList<String>(Arrays.asList(option));
+            args.addAll(Arrays.asList("-o", "./target/text.out", "./target/logParserTextLog.log"));
+            assertEquals(0, LogParser.runMain(args.toArray(new String[args.size()])));
+            args.set(args.size() - 2, "./target/binary.out");
+            args.set(args.size() - 1, "./target/logParserBinaryLog.bin");
+            assertEquals(0, LogParser.runMain(args.toArray(new String[args.size()])));
+            String textOut = FileUtils.readFileToString(new File("./target/text.out"));
+            assertTrue(textOut.indexOf("tag1") >= 0);
+            assertEquals(textOut, FileUtils.readFileToString(new File("./target/binary.out")));
+        }
+    }
+
+    public void testStructuredInputMatchesTextLog() throws Exception {
+        Random random = new Random(5L);
+        StringBuilder textLog = new StringBuilder();
+        StringBuilder jsonLog = new StringBuilder();
+        StringBuilder logfmtLog = new StringBuilder();
+        long startTime = 1230068856846L;
+        for (int i = 0; i < 3000; i++) {
+            startTime += random.nextInt(20);
+            StopWatch stopWatch = new StopWatch(startTime, random.nextInt(500), "tag" + random.nextInt(4), null);
+            textLog.append("INFO TimingLogger - ").append(stopWatch).append("\n");
+            jsonLog.append("{\"level\":\"INFO\",\"ts\":").append(stopWatch.getStartTime())
+                    .append(",\"elapsed\":").append(stopWatch.getElapsedTime())
+                    .append(",\"op\":\"").append(stopWatch.getTag()).append("\"}\n");
+            logfmtLog.append("level=info start=").append(stopWatch.getStartTime())
+                    .append(" time=").append(stopWatch.getElapsedTime())
+                    .append(" tag=").append(stopWatch.getTag()).append("\n");
+        }
+        FileUtils.writeStringToFile(new File("./target/logParserTextLog.log"), textLog.toString());
+        FileUtils.writeStringToFile(new File("./target/logParserJsonLog.log"), jsonLog.toString());
+        FileUtils.writeStringToFile(new File("./target/logParserLogfmtLog.log"), logfmtLog.toString());
+
+        String[][] options = {{"-f", "csv", "-r", "-t", "1000"},
+                              {"-f", "csv", "-t", "1000", "--tags", "tag1,tag2", "-p", "2"}};
+        for (String[] option : options) {
+            List<String> args = new ArrayList<String>(Arrays.asList(option));
+            args.addAll(Arrays.asList("-o", "./target/text.out", "./target/logParserTextLog.log"));
+            assertEquals(0, LogParser.runMain(args.toArray(new String[args.size()])));
+            String textOut = FileUtils.readFileToString(new File("./target/text.out"));
+            assertTrue(textOut.indexOf("tag1") >= 0);
+
+            args.set(args.size() - 2, "./target/structured.out");
+            args.set(args.size() - 1, "./target/logParserJsonLog.log");
+            args.addAll(Arrays.asList("--input-format", "json", "--input-fields", "tag=op"));
+            assertEquals(0, LogParser.runMain(args.toArray(new String[args.size()])));
+            assertEquals(textOut, FileUtils.readFileToString(new File("./target/structured.out")));
+
+            args.subList(args.size() - 5, args.size()).clear();
+            args.addAll(Arrays.asList("./target/logParserLogfmtLog.log", "--input-format", "logfmt"));
+            assertEquals(0, LogParser.runMain(args.toArray(new String[args.size()])));
+            assertEquals(textOut, FileUtils.readFileToString(new File("./target/structured.out")));
+        }
+
+        //without the field mapping, the JSON log has no tags
+        assertEquals(0, LogParser.runMain(new String[]{"-f", "csv", "--input-format", "json",
+                                                       "-o", "./target/structured.out",
+                                                       "./target/logParserJsonLog.log"}));
+        assertEquals(-1, FileUtils.readFileToString(new File("./target/structured.out")).indexOf("tag1"));
+        //fields can only be mapped by a structured parser
+        assertEquals(1, LogParser.runMain(new String[]{"--input-fields", "tag=op", "-o", "./target/structured.out",
+                                                       "./target/logParserJsonLog.log"}));
+    }
+
+    public void testStructuredMultipleLogFilesIgnoreTimeIndexes() throws Exception {
+        File logDirectory = new File("./target/logParserStructuredFilesTest");
+        FileUtils.deleteDirectory(logDirectory);
+        assertTrue(logDirectory.mkdirs());
+
+        //the StopWatches are dealt to two text logs and to the same two logs as JSON
+        Random random = new Random(6L);
+        StringBuilder[] textLogs = new StringBuilder[]{new StringBuilder(), new StringBuilder()};
+        StringBuilder[] jsonLogs = new StringBuilder[]{new StringBuilder(), new StringBuilder()};
+        long startTime = 1230068856846L;
+        for (int i = 0; i < 3000; i++) {
+            startTime += 1 + random.nextInt(20);
+            StopWatch stopWatch = new StopWatch(startTime, random.nextInt(500), "tag" + random.nextInt(4), null);
+            int part = random.nextInt(2);
+            textLogs[part].append("INFO TimingLogger - ").append(stopWatch).append("\n");
+            jsonLogs[part].append("{\"level\":\"INFO\",\"ts\":").append(stopWatch.getStartTime())
+                    .append(",\"elapsed\":").append(stopWatch.getElapsedTime())
+                    .append(",\"op\":\"").append(stopWatch.getTag()).append("\"}\n");
+        }
+        for (int part = 0; part < 2; part++) {
+            FileUtils.writeStringToFile(new File(logDirectory, "text" + part + ".log"), textLogs[part].toString());
+            File jsonLog = new File(logDirectory, "json" + part + ".log");
+            FileUtils.writeStringToFile(jsonLog, jsonLogs[part].toString());
+            //an index of the JSON logs made by the default parser finds no StopWatches in them, so must not be used
+            LogTimeIndex.update(jsonLog, 256);
+        }
+
+        String[] range = new String[]{"-f", "csv", "-t", "1000", "--from", "1230068880000", "--to", "1230068940000"};
+        List<String> args = new ArrayList<String>(Arrays.asList(range));
+        args.addAll(Arrays.asList("-o", "./target/text.out", logDirectory.getPath() + "/text*"));
+        assertEquals(0, LogParser.runMain(args.toArray(new String[args.size()])));
+        String textOut = FileUtils.readFileToString(new File("./target/text.out"));
+        assertTrue(textOut.indexOf("tag1") >= 0);
+
+        for (String parallelism : new String[]{"1", "2"}) {
+            args = new ArrayList<String>(Arrays.asList(range));
+            args.addAll(Arrays.asList("-p", parallelism, "--input-format", "json", "--input-fields", "tag=op",
+                                      "-o", "./target/structured.out", logDirectory.getPath() + "/json*.log"));
+            assertEquals(0, LogParser.runMain(args.toArray(new String[args.size()])));
+            assertEquals(textOut, FileUtils.readFileToString(new File("./target/structured.out")));
+        }
+    }
+
+    public void testExactPercentiles() throws Exception {
+        String logFile = "./src/test/resources/net/jperf/dummyLog.txt";
+        assertEquals(0, LogParser.runMain(new String[]{"-f", "csv", "-r", "-t", "1000", "--exact-percentiles",
+                                                       "-o", "./target/exact.out", logFile}));
+        String exactOut = FileUtils.readFileToString(new File("./target/exact.out"));
+        String[] lines = exactOut.split("\n");
+        assertTrue(lines.length > 1);
+        for (String line : lines) {
+            //every row has a value in each of the ten percentile columns
+            String[] columns = line.trim().split(",");
+            assertEquals(line, 18, columns.length);
+            assertTrue(line, Long.parseLong(columns[9]) <= Long.parseLong(columns[15]));
+        }
+
+        //the parallelism and the memory budget don't change the output
+        assertEquals(0, LogParser.runMain(new String[]{"-f", "csv", "-r", "-t", "1000", "--exact-percentiles",
+                                                       "--exact-percentiles-memory", "1", "-p", "4",
+                                                       "-o", "./target/exact2.out", logFile}));
+        assertEquals(exactOut, FileUtils.readFileToString(new File("./target/exact2.out")));
+
+        assertEquals(0, LogParser.runMain(new String[]{"-f", "json", "--exact-percentiles",
+                                                       "-o", "./target/exact.out", logFile}));
+        assertTrue(FileUtils.readFileToString(new File("./target/exact.out")).indexOf("null") < 0);
+
+        assertEquals(1, LogParser.runMain(new String[]{"--exact-percentiles-memory", "1", logFile}));
+        assertEquals(1, LogParser.runMain(new String[]{"--exact-percentiles", "--follow", logFile}));
+    }
+
+    public void testCompare() throws Exception {
+        Random random = new Random(5L);
+        StringBuilder baselineLog = new StringBuilder();
+        StringBuilder candidateLog = new StringBuilder();
+        long startTime = 1230068856846L;
+        for (int i = 0; i < 4000; i++) {
+            startTime += random.nextInt(20);
+            String tag = "tag" + random.nextInt(3);
+            long elapsedTime = 100 + random.nextInt(100);
+            baselineLog.append("INFO TimingLogger - ")
+                    .append(new StopWatch(startTime, elapsedTime, tag, null)).append("\n");
+            //tag2 is 40% slower in the candidate
+            candidateLog.append("INFO TimingLogger - ")
+                    .append(new StopWatch(startTime, tag.equals("tag2") ? elapsedTime * 7 / 5 : elapsedTime, tag, null))
+                    .append("\n");
+        }
+        FileUtils.writeStringToFile(new File("./target/baseline.log"), baselineLog.toString());
+        FileUtils.writeStringToFile(new File("./target/candidate.log"), candidateLog.toString());
+
+        assertEquals(2, LogParser.runMain(new String[]{"--compare", "./target/baseline.log", "./target/candidate.log",
+                                                       "-o", "./target/comparison.out"}));
+        String comparison = FileUtils.readFileToString(new File("./target/comparison.out"));
+        String[] lines = comparison.split("\\n");
+        assertEquals(5, lines.length);
+        assertTrue(lines[4], lines[4].startsWith("tag2") && lines[4].endsWith("REGRESSION"));
+        assertFalse(lines[2], lines[2].endsWith("REGRESSION"));
+
+        //the candidate is fine if its tag2 isn't compared, or with a higher threshold
+        assertEquals(0, LogParser.runMain(new String[]{"--compare", "./target/baseline.log", "./target/candidate.log",
+                                                       "--tags", "tag0,tag1", "-p", "2",
+                                                       "-o", "./target/comparison.out"}));
+        assertEquals(0, LogParser.runMain(new String[]{"--compare", "./target/baseline.log", "./target/candidate.log",
+                                                       "--threshold", "50", "-o", "./target/comparison.out"}));
+        assertEquals(0, LogParser.runMain(new String[]{"--compare", "./target/baseline.log", "./target/baseline.log",
+                                                       "-o", "./target/comparison.out"}));
+
+        assertEquals(1, LogParser.runMain(new String[]{"--compare", "./target/baseline.log"}));
+        assertEquals(1, LogParser.runMain(new String[]{"--threshold", "5", "./target/baseline.log"}));
+        assertEquals(1, LogParser.runMain(new String[]{"--compare", "./target/baseline.log", "./target/candidate.log",
+                                                       "--follow"}));
+    }
+
+    public void testCache() throws Exception {
+        File logDirectory = new File("./target/logParserCacheTest");
+        FileUtils.deleteDirectory(logDirectory);
+        logDirectory.mkdirs();
+        File logFile = new File(logDirectory, "timing.log");
+        FileUtils.copyFile(new File("./src/test/resources/net/jperf/dummyLog.txt"), logFile);
+
+        for (String[] options : new String[][]{{"-f", "csv", "-t", "1000"}, {"-f", "json", "-r", "-t", "1000"}}) {
+            List<String> args = new ArrayList<String>(Arrays.asList(options));
+            args.addAll(Arrays.asList("-o", "./target/uncached.out", logFile.getPath()));
+            assertEquals(0, LogParser.runMain(args.toArray(new String[args.size()])));
+            String expected = FileUtils.readFileToString(new File("./target/uncached.out"));
+
+            args.add("--cache");
+            args.set(args.indexOf("./target/uncached.out"), "./target/cached.out");
+            for (int run = 0; run < 2; run++) {
+                assertEquals(0, LogParser.runMain(args.toArray(new String[args.size()])));
+                assertEquals(expected, FileUtils.readFileToString(new File("./target/cached.out")));
+            }
+        }
+        assertTrue(LogStatisticsCache.getCacheFile(logFile).isFile());
+
+        //an unchanged log is not parsed again: a change the cache can't see doesn't show up
+        String log = FileUtils.readFileToString(logFile);
+        long lastModified = logFile.lastModified();
+        int lastTag = log.lastIndexOf("tag[");
+        FileUtils.writeStringToFile(logFile, log.substring(0, lastTag) + "tag[X" + log.substring(lastTag + 5));
+        logFile.setLastModified(lastModified);
+        assertEquals(0, LogParser.runMain(new String[]{"-f", "csv", "-t", "1000", "--cache",
+                                                       "-o", "./target/cached.out", logFile.getPath()}));
+        assertEquals(-1, FileUtils.readFileToString(new File("./target/cached.out")).indexOf("X"));
+        //but a filter bypasses the cache
+        assertEquals(0, LogParser.runMain(new String[]{"-f", "csv", "-t", "1000", "--cache", "--tags", "X*",
+                                                       "-o", "./target/cached.out", logFile.getPath()}));
+        assertTrue(FileUtils.readFileToString(new File("./target/cached.out")).indexOf("X") >= 0);
+
+        //several files have the same statistics as long as no StopWatch is out of order across files
+        FileUtils.writeStringToFile(logFile, log);
+        File otherLogFile = new File(logDirectory, "timing.log.1");
+        FileUtils.writeStringToFile(otherLogFile, "INFO TimingLogger - start[1230068856000] time[5] tag[tag0]\n");
+        String[] args = {"-f", "csv", "-t", "1000", "-o", "./target/uncached.out", logDirectory.getPath()};
+        assertEquals(0, LogParser.runMain(args));
+        args[5] = "./target/cached.out";
+        List<String> cachedArgs = new ArrayList<String>(Arrays.asList(args));
+        cachedArgs.add("--cache");
+        for (int run = 0; run < 2; run++) {
+            assertEquals(0, LogParser.runMain(cachedArgs.toArray(new String[cachedArgs.size()])));
+            assertEquals(FileUtils.readFileToString(new File("./target/uncached.out")),
+                         FileUtils.readFileToString(new File("./target/cached.out")));
+        }
+        assertTrue(LogStatisticsCache.getCacheFile(otherLogFile).isFile());
+    }
 }
@@ -95,6 +95,14 @@ public class LoggingStopWatchTest extends TestCase {
         checkExpectedLogWritten("tag[poo]", "java.lang.Exception: shoe");
         stopWatch.lap("new", "mar", new Exception("rue"));
         checkExpectedLogWritten("tag[new] message[mar]", "java.lang.Exception: rue");
+        stopWatch.stopTiming("ant");
+        checkExpectedLogWritten("tag[ant]");
+        stopWatch.stopTiming("bee", "hive");
+        checkExpectedLogWritten("tag[bee] message[hive]");
+        stopWatch.stopTiming("cat", new Exception("dog"));
+        checkExpectedLogWritten("tag[cat]", "java.lang.Exception: dog");
+        stopWatch.stopTiming("elk", "fox", new Exception("gnu"));
+        checkExpectedLogWritten("tag[elk] message[fox]", "java.lang.Exception: gnu");
 
         //test for PERFFORJ-30 - Add capability to set a time threshold in LoggingStopWatch and Profiled annotation
         stopWatch.stop();
@@ -108,6 +116,16 @@ public class LoggingStopWatchTest extends TestCase {
         Thread.sleep(110);
         stopWatch.stop();
         checkExpectedLogWritten("tag[timeThresholdCheck]");
+        //stopTiming honors the threshold the same way
+        fakeErrBefore = fakeErr.toString();
+        stopWatch.start();
+        Thread.sleep(10);
+        assertTrue(stopWatch.stopTiming() < 100);
+        assertEquals("Stopwatch log was set when it shouldn't have been", fakeErrBefore, fakeErr.toString());
+        stopWatch.start();
+        Thread.sleep(110);
+        assertTrue(stopWatch.stopTiming() >= 100);
+        checkExpectedLogWritten("tag[timeThresholdCheck]");
 
         customTests();
     }
@@ -123,6 +141,63 @@ public class LoggingStopWatchTest extends TestCase {
         assertEquals("message", stopWatch.getMessage());
 
         assertTrue(stopWatch.isLogging());
+
+        //stopTiming only renders the StopWatch if it's actually logged
+        final int[] renderCount = new int[1];
+        final boolean[] logging = {true};
+        stopWatch = new LoggingStopWatch("lazy") {
+            public String toString() {
+                renderCount[0]++;
+                return super.toString();
+            }
+
+            public boolean isLogging() {
+                return logging[0];
+            }
+        };
+        stopWatch.setTimeThreshold(Long.MAX_VALUE);
+        stopWatch.stopTiming();
+        stopWatch.stopTiming(new Exception("below threshold"));
+        stopWatch.setTimeThreshold(0L);
+        logging[0] = false;
+        stopWatch.stopTiming();
+        assertEquals(0, renderCount[0]);
+        stopWatch.stopTiming(new Exception("logged regardless of isLogging"));
+        assertEquals(1, renderCount[0]);
+        logging[0] = true;
+        stopWatch.stopTiming();
+        assertEquals(2, renderCount[0]);
+
+        //stopTiming calls a log override even if a superclass logs the StopWatch without calling log
+        ObjectLoggingStopWatch overridingStopWatch = new ObjectLoggingStopWatch() {
+            protected void log(String stopWatchAsString, Throwable exception) {
+                logged.append("overridden ").append(stopWatchAsString);
+            }
+        };
+        overridingStopWatch.stopTiming("override");
+        assertTrue(overridingStopWatch.logged.toString(),
+                   overridingStopWatch.logged.toString().startsWith("overridden start["));
+        assertTrue(overridingStopWatch.logged.toString().contains("tag[override]"));
+        //but not if the class that declares logStopWatch also overrides log
+        ObjectLoggingStopWatch objectLoggingStopWatch = new ObjectLoggingStopWatch();
+        objectLoggingStopWatch.stopTiming("direct");
+        assertEquals("object direct", objectLoggingStopWatch.logged.toString());
+    }
+
+    /**
+     * Logs StopWatches without going through log(String, Throwable) when they are stopped with stopTiming, like the
+     * Log4JStopWatch does.
+     */
+    protected static class ObjectLoggingStopWatch extends LoggingStopWatch {
+        public final StringBuilder logged = new StringBuilder();
+
+        protected void log(String stopWatchAsString, Throwable exception) {
+            logged.append("string ").append(stopWatchAsString);
+        }
+
+        protected void logStopWatch(Throwable exception) {
+            logged.append("object ").append(getTag());
+        }
     }
 
     /**
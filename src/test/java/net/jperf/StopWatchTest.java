@@ -18,6 +18,8 @@ package net.jperf;
 
 import junit.framework.TestCase;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * Tests the StopWatch
  */
@@ -103,4 +105,48 @@ public class StopWatchTest extends TestCase {
         clone.setTag("foo");
         assertFalse(stopWatch.equals(clone));
     }
+
+    public void testTimeUnit() throws Exception {
+        StopWatch stopWatch = new StopWatch("tag");
+        assertSame(TimeUnit.MILLISECONDS, stopWatch.getTimeUnit());
+        assertSame(stopWatch, stopWatch.setTimeUnit(TimeUnit.MICROSECONDS));
+        Thread.sleep(10);
+        long elapsedTime = stopWatch.stopTiming();
+        assertTrue(elapsedTime >= 10000L);
+        assertEquals(elapsedTime, stopWatch.getElapsedTime());
+        assertEquals(elapsedTime / 1000L, stopWatch.getElapsedTime(TimeUnit.MILLISECONDS));
+        assertEquals("start[" + stopWatch.getStartTime() + "] time[" + elapsedTime + "] tag[tag] unit[us]",
+                     stopWatch.toString());
+
+        //the unit is part of the StopWatch, and a stopped StopWatch is converted to a new unit
+        StopWatch clone = stopWatch.clone();
+        assertEquals(stopWatch, clone);
+        clone.setTimeUnit(TimeUnit.NANOSECONDS);
+        assertFalse(stopWatch.equals(clone));
+        assertEquals(elapsedTime * 1000L, clone.getElapsedTime());
+        assertEquals(new StopWatch(1L, 2L, "tag", null, TimeUnit.NANOSECONDS).setTimeUnit(TimeUnit.MICROSECONDS),
+                     new StopWatch(1L, 0L, "tag", null, TimeUnit.MICROSECONDS));
+
+        //millisecond StopWatches are written as they always were
+        assertEquals("start[1] time[2] tag[tag]",
+                     new StopWatch(1L, 2L, "tag", null, TimeUnit.MILLISECONDS).toString());
+
+        //the default unit applies to new running StopWatches only
+        TimeUnit defaultTimeUnit = StopWatch.getDefaultTimeUnit();
+        try {
+            StopWatch.setDefaultTimeUnit(TimeUnit.NANOSECONDS);
+            assertSame(TimeUnit.NANOSECONDS, new StopWatch().getTimeUnit());
+            assertSame(TimeUnit.NANOSECONDS, new LoggingStopWatch("tag").getTimeUnit());
+            assertSame(TimeUnit.MILLISECONDS, new StopWatch(1L, 2L, "tag", null).getTimeUnit());
+        } finally {
+            StopWatch.setDefaultTimeUnit(defaultTimeUnit);
+        }
+
+        try {
+            stopWatch.setTimeUnit(TimeUnit.SECONDS);
+            fail("Only ns, us and ms are supported");
+        } catch (IllegalArgumentException iae) {
+            //expected
+        }
+    }
 }
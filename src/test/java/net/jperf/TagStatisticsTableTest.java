@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf;
+
+import junit.framework.TestCase;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the TagStatisticsTable used by GroupedTimingStatistics while aggregating StopWatches.
+ */
+public class TagStatisticsTableTest extends TestCase {
+
+    public void testStatisticsMatchTimingStatistics() throws Exception {
+        Random random = new Random(42L);
+        TagStatisticsTable table = new TagStatisticsTable(0, GroupedTimingStatistics.DEFAULT_OVERFLOW_TAG,
+                                                          TimeUnit.MILLISECONDS);
+        Map<String, TimingStatistics> expected = new HashMap<String, TimingStatistics>();
+
+        //enough tags to force the table to grow several times
+        for (int i = 0; i < 20000; i++) {
+            String tag = "tag" + random.nextInt(500);
+            long elapsedTime = random.nextInt(2000);
+            table.addSampleTime(tag, elapsedTime);
+            TimingStatistics stats = expected.get(tag);
+            if (stats == null) {
+                expected.put(tag, stats = new TimingStatistics());
+            }
+            stats.addSampleTime(elapsedTime);
+        }
+
+        assertEquals(expected.size(), table.size());
+        for (int slot = 0; slot < table.size(); slot++) {
+            TimingStatistics expectedStats = expected.get(table.getTag(slot));
+            TimingStatistics actualStats = table.removeStatistics(slot);
+            assertEquals(expectedStats, actualStats);
+            assertEquals(expectedStats.getHistogram(), actualStats.getHistogram());
+        }
+        assertNull(table.getOverflowStatistics());
+    }
+
+    public void testTagBudgetEvictsIntoOverflowStatistics() throws Exception {
+        Random random = new Random(7L);
+        int maxTags = 50;
+        TagStatisticsTable table = new TagStatisticsTable(maxTags, "other", TimeUnit.MILLISECONDS);
+        int numSamples = 0;
+
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 10000; i++) {
+                //a few frequent tags mixed with a long tail of rare ones
+                String tag = random.nextBoolean() ? "hot" + random.nextInt(10) : "cold" + random.nextInt(100000);
+                table.addSampleTime(tag, i);
+                numSamples++;
+            }
+
+            assertEquals(maxTags, table.size());
+            Set<String> tags = new HashSet<String>();
+            int totalCount = table.getOverflowStatistics().getCount();
+            for (int slot = 0; slot < table.size(); slot++) {
+                assertTrue("Duplicate tag " + table.getTag(slot), tags.add(table.getTag(slot)));
+                totalCount += table.removeStatistics(slot).getCount();
+            }
+            for (int i = 0; i < 10; i++) {
+                assertTrue(tags.contains("hot" + i));
+            }
+            assertEquals(numSamples, totalCount);
+            assertTrue(table.getNumEvictedTags() > 0);
+
+            //the table can be reused once cleared
+            table.clear();
+            assertTrue(table.isEmpty());
+            numSamples = 0;
+        }
+    }
+}
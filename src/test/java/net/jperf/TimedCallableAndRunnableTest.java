@@ -56,6 +56,36 @@ public class TimedCallableAndRunnableTest extends TestCase {
         assertEquals(elapsedTime, timedCallable.getStopWatch().getElapsedTime());
     }
 
+    public void testOverriddenStopMethodsAreCalled() throws Exception {
+        //subclasses that override stop must still see their StopWatches stopped by the wrappers
+        StopCountingStopWatch stopWatch = new StopCountingStopWatch();
+        new TimedRunnable(new TestTask(), stopWatch).run();
+        assertEquals(1, stopWatch.stopCount);
+
+        stopWatch = new StopCountingStopWatch();
+        assertEquals(100L, (long) new TimedCallable<Long>(new TestTask(), stopWatch).call());
+        assertEquals(1, stopWatch.stopCount);
+        assertTrue(stopWatch.getElapsedTime() >= 100L);
+
+        //stopTiming with a tag and message goes through the stop methods that the StopWatch inherits
+        stopWatch = new StopCountingStopWatch();
+        assertEquals(stopWatch.getElapsedTime(), stopWatch.stopTiming("tag", "message"));
+        assertEquals(1, stopWatch.stopCount);
+        assertEquals("tag", stopWatch.getTag());
+        assertEquals("message", stopWatch.getMessage());
+    }
+
+    public static class StopCountingStopWatch extends LoggingStopWatch {
+        private static final long serialVersionUID = 1L;
+
+        public int stopCount = 0;
+
+        public String stop() {
+            stopCount++;
+            return super.stop();
+        }
+    }
+
     public static class TestTask implements Runnable, Callable<Long>, Serializable {
 
         private static final long serialVersionUID = 7370796726390725584L;
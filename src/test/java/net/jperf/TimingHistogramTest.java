@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf;
+
+import net.jperf.helpers.GroupedTimingStatisticsCsvFormatter;
+import net.jperf.helpers.StatsValueRetriever;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Tests the TimingHistogram and the percentiles it makes available on TimingStatistics.
+ */
+public class TimingHistogramTest extends TestCase {
+
+    public void testSmallValuesAreExact() {
+        TimingHistogram histogram = new TimingHistogram(2, 3600000L);
+        for (int i = 1; i <= 100; i++) {
+            histogram.recordValue(i);
+        }
+
+        assertEquals(100, histogram.getTotalCount());
+        assertEquals(50, histogram.getValueAtPercentile(50.0));
+        assertEquals(99, histogram.getValueAtPercentile(99.0));
+        assertEquals(100, histogram.getValueAtPercentile(99.9));
+        assertEquals(100, histogram.getValueAtPercentile(100.0));
+        assertEquals(1, histogram.getValueAtPercentile(0.0));
+        assertEquals(0, new TimingHistogram(2, 1000L).getValueAtPercentile(50.0));
+    }
+
+    public void testPercentilesWithinPrecision() {
+        Random random = new Random(1234L);
+        for (int significantDigits = 1; significantDigits <= 3; significantDigits++) {
+            TimingHistogram histogram = new TimingHistogram(significantDigits, 3600000L);
+            long[] values = new long[10000];
+            for (int i = 0; i < values.length; i++) {
+                //log-normal-ish distribution spanning several orders of magnitude
+                values[i] = (long) Math.exp(random.nextGaussian() * 2.0 + 5.0);
+                histogram.recordValue(values[i]);
+            }
+            Arrays.sort(values);
+
+            double maxRelativeError = Math.pow(10, -significantDigits);
+            for (double percentile : new double[] { 10.0, 50.0, 90.0, 95.0, 99.0, 99.9 }) {
+                long exact = values[(int) Math.ceil(percentile / 100.0 * values.length) - 1];
+                long reported = histogram.getValueAtPercentile(percentile);
+                assertTrue("p" + percentile + " reported " + reported + " but exact was " + exact,
+                           reported >= exact && reported <= exact + Math.max(1L, exact * maxRelativeError));
+            }
+        }
+    }
+
+    public void testClampingAndGrowth() {
+        TimingHistogram histogram = new TimingHistogram(2, 10000L);
+        histogram.recordValue(-5L);
+        histogram.recordValue(5L);
+        histogram.recordValue(1000000L);
+
+        assertEquals(3, histogram.getTotalCount());
+        assertEquals(0, histogram.getValueAtPercentile(1.0));
+        long highest = histogram.getValueAtPercentile(100.0);
+        assertTrue(highest >= 10000L && highest <= 10100L);
+    }
+
+    public void testAddAndClone() {
+        TimingHistogram first = new TimingHistogram(2, 3600000L);
+        TimingHistogram second = new TimingHistogram(2, 3600000L);
+        TimingHistogram all = new TimingHistogram(2, 3600000L);
+        for (int i = 0; i < 1000; i++) {
+            (i % 2 == 0 ? first : second).recordValue(i * 37L);
+            all.recordValue(i * 37L);
+        }
+
+        TimingHistogram copy = first.clone();
+        copy.add(second);
+        assertEquals(all, copy);
+        assertEquals(all.hashCode(), copy.hashCode());
+        assertEquals(500, first.getTotalCount());
+
+        try {
+            first.add(new TimingHistogram(3, 3600000L));
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException iae) {
+            //expected
+        }
+    }
+
+    public void testRankSumZScore() {
+        Random random = new Random(99L);
+        //small values are recorded exactly, so the histogram test must match a test on the values themselves
+        long[] values1 = new long[300];
+        long[] values2 = new long[200];
+        TimingHistogram histogram1 = new TimingHistogram(2, 3600000L);
+        TimingHistogram histogram2 = new TimingHistogram(2, 3600000L);
+        for (int i = 0; i < values1.length; i++) {
+            values1[i] = random.nextInt(100);
+            histogram1.recordValue(values1[i]);
+        }
+        for (int i = 0; i < values2.length; i++) {
+            values2[i] = random.nextInt(100) + 10;
+            histogram2.recordValue(values2[i]);
+        }
+
+        double u = 0.0;
+        for (long value1 : values1) {
+            for (long value2 : values2) {
+                u += (value1 > value2) ? 1.0 : (value1 == value2) ? 0.5 : 0.0;
+            }
+        }
+        long[] all = new long[values1.length + values2.length];
+        System.arraycopy(values1, 0, all, 0, values1.length);
+        System.arraycopy(values2, 0, all, values1.length, values2.length);
+        Arrays.sort(all);
+        double tieCorrection = 0.0;
+        for (int i = 0, j; i < all.length; i = j) {
+            for (j = i; j < all.length && all[j] == all[i]; j++) { }
+            tieCorrection += Math.pow(j - i, 3) - (j - i);
+        }
+        double n1 = values1.length, n2 = values2.length, n = n1 + n2;
+        double expected = (u - n1 * n2 / 2) / Math.sqrt(n1 * n2 / 12 * (n + 1 - tieCorrection / (n * (n - 1))));
+
+        assertTrue(expected < -2.0);
+        assertEquals(expected, histogram1.getRankSumZScore(histogram2), 1e-9);
+        assertEquals(-expected, histogram2.getRankSumZScore(histogram1), 1e-9);
+        assertEquals(0.0, histogram1.getRankSumZScore(histogram1.clone()), 1e-9);
+        assertEquals(0.0, histogram1.getRankSumZScore(new TimingHistogram(2, 1000L)), 0.0);
+    }
+
+    public void testTimingStatisticsPercentiles() {
+        TimingStatistics stats = new TimingStatistics();
+        for (int i = 1; i <= 1000; i++) {
+            stats.addSampleTime(i);
+        }
+
+        //2 significant digits, so values are accurate to within 1%
+        assertTrue(stats.getPercentile(50.0) >= 500L && stats.getPercentile(50.0) <= 505L);
+        assertEquals(1000L, stats.getPercentile(100.0));
+        assertEquals(stats.getPercentile(99.0), StatsValueRetriever.P99_VALUE_RETRIEVER.getStatsValue(stats, 1000L));
+        assertEquals(0L, StatsValueRetriever.P999_VALUE_RETRIEVER.getStatsValue(null, 1000L));
+        assertTrue(StatsValueRetriever.DEFAULT_RETRIEVERS.containsKey("P999"));
+
+        //summary-only statistics have no histogram
+        assertEquals(0L, new TimingStatistics(1.0, 1.0, 10, 1, 5).getPercentile(50.0));
+
+        //clones must not share the histogram
+        TimingStatistics clone = stats.clone();
+        clone.addSampleTime(100000L);
+        assertEquals(1000L, stats.getPercentile(100.0));
+
+        int oldDigits = TimingStatistics.getHistogramSignificantDigits();
+        try {
+            TimingStatistics.setHistogramSignificantDigits(0);
+            assertNull(new TimingStatistics().addSampleTime(10L).getHistogram());
+        } finally {
+            TimingStatistics.setHistogramSignificantDigits(oldDigits);
+        }
+    }
+
+    public void testCsvPercentiles() {
+        GroupedTimingStatistics stats = new GroupedTimingStatistics();
+        stats.setStartTime(0L);
+        stats.setStopTime(1000L);
+        for (int i = 1; i <= 100; i++) {
+            stats.addStopWatch(new StopWatch(0L, i, "tag", null));
+        }
+
+        assertEquals("\"tag\",50,99,100", new GroupedTimingStatisticsCsvFormatter(false, "tag,p50,p99,p999")
+                .format(stats).trim());
+        assertEquals("50,99,", new GroupedTimingStatisticsCsvFormatter(true, "tagP50,tagp99,missingP999")
+                .format(stats).trim());
+    }
+}
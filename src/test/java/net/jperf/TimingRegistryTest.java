@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf;
+
+import junit.framework.TestCase;
+import net.jperf.chart.GoogleChartGenerator;
+import net.jperf.helpers.GenericAsyncCoalescingStatisticsAppender;
+import net.jperf.helpers.GroupedTimingStatisticsCsvFormatter;
+import net.jperf.helpers.StatisticsExposingMBean;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the TimingRegistry and RegistryStopWatch classes.
+ */
+public class TimingRegistryTest extends TestCase {
+
+    /**
+     * A consumer that collects the statistics and rollups it is passed.
+     */
+    private static class CollectingConsumer
+            implements GenericAsyncCoalescingStatisticsAppender.RollupStatisticsHandler {
+        private final List<GroupedTimingStatistics> statistics = new ArrayList<GroupedTimingStatistics>();
+        private final List<GroupedTimingStatistics> rollups = new ArrayList<GroupedTimingStatistics>();
+
+        public synchronized void handle(GroupedTimingStatistics statistics) {
+            this.statistics.add(statistics);
+        }
+
+        public synchronized void handleRollup(GroupedTimingStatistics statistics, long timeSlice) {
+            rollups.add(statistics);
+        }
+
+        public void error(String errorMessage) { }
+
+        /**
+         * Merges the collected statistics, which may span more than one time slice.
+         */
+        public synchronized GroupedTimingStatistics getMergedStatistics() {
+            GroupedTimingStatistics merged = new GroupedTimingStatistics();
+            for (GroupedTimingStatistics slice : statistics) {
+                merged.merge(slice);
+            }
+            return merged;
+        }
+    }
+
+    public void testRecording() throws Exception {
+        TimingRegistry registry = new TimingRegistry("testRecording");
+        registry.getAggregator().setTimeSlice(3600000L);
+        CollectingConsumer consumer = new CollectingConsumer();
+        registry.addConsumer(consumer);
+        assertEquals(Collections.singletonList(consumer), registry.getConsumers());
+
+        //records are ignored until the registry is started
+        new RegistryStopWatch("ignored", registry).stop();
+        assertFalse(registry.isStarted());
+        registry.start();
+        assertTrue(registry.isStarted());
+
+        RegistryStopWatch stopWatch = new RegistryStopWatch("stopWatch", registry);
+        assertTrue(stopWatch.isLogging());
+        stopWatch.stopTiming();
+        stopWatch.lap("stopWatch");
+        new RegistryStopWatch("slow", registry).setTimeThreshold(60000L).stop();
+        registry.record(new StopWatch(System.currentTimeMillis(), 5L, "plain", null));
+        new TimingScopePool(registry).start("scope").stop();
+        new TimedCallable<String>(new Callable<String>() {
+            public String call() {
+                return "called";
+            }
+        }, "callable", registry).call();
+        registry.stop();
+        assertFalse(registry.isStarted());
+
+        GroupedTimingStatistics statistics = consumer.getMergedStatistics();
+        assertEquals(2, statistics.getStatisticsByTag().get("stopWatch").getCount());
+        assertEquals(5L, statistics.getStatisticsByTag().get("plain").getMax());
+        assertEquals(1, statistics.getStatisticsByTag().get("scope").getCount());
+        assertEquals(1, statistics.getStatisticsByTag().get("callable").getCount());
+        assertNull(statistics.getStatisticsByTag().get("slow"));
+        assertNull(statistics.getStatisticsByTag().get("ignored"));
+        assertEquals(0, registry.getNumDiscardedRecords());
+
+        //once removed, a consumer isn't passed any more statistics
+        assertTrue(registry.removeConsumer(consumer));
+        int handled = consumer.statistics.size();
+        registry.start();
+        registry.record("afterRemoval", System.currentTimeMillis(), 1L, TimeUnit.MILLISECONDS);
+        registry.stop();
+        assertEquals(handled, consumer.statistics.size());
+    }
+
+    public void testRollupsAndConsumers() throws Exception {
+        TimingRegistry registry = new TimingRegistry("testRollupsAndConsumers");
+        registry.getAggregator().setTimeSlice(60000L);
+        registry.getAggregator().setRollupTimeSlices("3600000");
+        CollectingConsumer consumer = new CollectingConsumer();
+        StatisticsExposingMBean mBean = new StatisticsExposingMBean(null, Collections.singletonList("tag"), null);
+        GoogleChartGenerator chart = new GoogleChartGenerator();
+        ByteArrayOutputStream csv = new ByteArrayOutputStream();
+        registry.addConsumer(consumer)
+                .addConsumer(TimingRegistry.newMBeanConsumer(mBean))
+                .addConsumer(TimingRegistry.newChartConsumer(chart))
+                .addConsumer(TimingRegistry.newFormattingConsumer(new GroupedTimingStatisticsCsvFormatter(),
+                                                                  new PrintStream(csv)));
+
+        registry.start();
+        //the elapsed time is converted to the milliseconds of the statistics
+        registry.record("tag", System.currentTimeMillis(), 42000000L, TimeUnit.NANOSECONDS);
+        registry.stop();
+
+        assertFalse(consumer.statistics.isEmpty());
+        assertFalse(consumer.rollups.isEmpty());
+        assertEquals(42.0, mBean.getAttribute("tagMean"));
+        assertFalse(chart.getData().isEmpty());
+        assertTrue(csv.toString(), csv.toString().startsWith("\"tag\","));
+    }
+
+    public void testNamedRegistries() throws Exception {
+        TimingRegistry registry = TimingRegistry.getRegistry("testNamedRegistries");
+        assertSame(registry, TimingRegistry.getRegistry("testNamedRegistries"));
+        assertNotSame(registry, TimingRegistry.getRegistry());
+        assertTrue(registry.isStarted());
+        assertEquals("testNamedRegistries", registry.getName());
+        assertEquals(30000L, registry.getAggregator().getTimeSlice());
+        assertSame(TimingRegistry.getRegistry(), new RegistryStopWatch("tag").getRegistry());
+        registry.stop();
+    }
+}
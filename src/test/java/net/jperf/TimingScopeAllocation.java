@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf;
+
+import net.jperf.helpers.GenericAsyncCoalescingStatisticsAppender;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures the bytes allocated by the timing thread for each timed operation, comparing a LoggingStopWatch created
+ * per operation with a pooled TimingScope. This is not run as part of the unit tests; run it from the command line
+ * with
+ * <pre>
+ * java -cp target/classes:target/test-classes net.jperf.TimingScopeAllocation [operationsPerRun]
+ * </pre>
+ * Both feed the same GenericAsyncCoalescingStatisticsAppender, the StopWatch through append(StopWatch) as the
+ * logging frameworks do, and the scope as its TimingRecordSink. The allocations are read from the HotSpot
+ * ThreadMXBean, so only the timing thread is measured, not the appender's draining thread. The timing thread
+ * yields now and then so that the appender's queue never overflows.
+ */
+public class TimingScopeAllocation {
+
+    private static final int RUNS = 5;
+    private static final int YIELD_INTERVAL = 256;
+    private static final String TAG = "codeBlock";
+
+    public static void main(String[] args) throws Exception {
+        int operations = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        final GenericAsyncCoalescingStatisticsAppender appender = new GenericAsyncCoalescingStatisticsAppender();
+        appender.setQueueSize(65536);
+        appender.start(new GenericAsyncCoalescingStatisticsAppender.GroupedTimingStatisticsHandler() {
+            public void handle(GroupedTimingStatistics statistics) { }
+
+            public void error(String errorMessage) { }
+        });
+        TimingScopePool pool = new TimingScopePool(appender);
+
+        System.out.println("run  LoggingStopWatch (bytes/op)  TimingScope (bytes/op)");
+        for (int run = 0; run < RUNS; run++) {
+            long before = threadBean.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < operations; i++) {
+                //a LoggingStopWatch that logs itself the way the log4j and logback StopWatches reach the appender
+                LoggingStopWatch stopWatch = new LoggingStopWatch(TAG) {
+                    protected void log(String stopWatchAsString, Throwable exception) {
+                        appender.append(this);
+                    }
+                };
+                stopWatch.stop();
+                pace(i);
+            }
+            long stopWatchBytes = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+            before = threadBean.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < operations; i++) {
+                TimingScope scope = pool.start(TAG);
+                scope.stop();
+                pace(i);
+            }
+            long scopeBytes = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+            System.out.println(String.format("%3d  %27.1f  %22.3f",
+                                             run, stopWatchBytes / (double) operations,
+                                             scopeBytes / (double) operations));
+        }
+        appender.stop();
+        System.out.println("Discarded records: " + appender.getNumDiscardedMessages());
+    }
+
+    private static void pace(int operation) {
+        if (operation % YIELD_INTERVAL == 0) {
+            Thread.yield();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the TimingScopePool and TimingScope classes.
+ */
+public class TimingScopeTest extends TestCase {
+
+    /**
+     * A TimingRecordSink that collects the records as StopWatches.
+     */
+    private static class CollectingSink implements TimingRecordSink {
+        private final List<StopWatch> records = new ArrayList<StopWatch>();
+
+        public synchronized void record(String tag, long startTime, long elapsedTime, TimeUnit timeUnit) {
+            records.add(new StopWatch(startTime, elapsedTime, tag, null, timeUnit));
+        }
+    }
+
+    public void testStartAndStop() throws Exception {
+        CollectingSink sink = new CollectingSink();
+        TimingScopePool pool = new TimingScopePool(sink);
+        assertSame(sink, pool.getSink());
+        assertEquals(0L, pool.getTimeThreshold());
+
+        long before = System.currentTimeMillis();
+        TimingScope scope = pool.start("outer");
+        assertTrue(scope.isRunning());
+        assertEquals("outer", scope.getTag());
+        Thread.sleep(20);
+        long elapsedTime = scope.stop();
+        assertTrue(elapsedTime >= 20);
+        assertFalse(scope.isRunning());
+        assertNull(scope.getTag());
+        //stopping again has no effect
+        assertEquals(-1L, scope.stop());
+        scope.close();
+
+        assertEquals(1, sink.records.size());
+        StopWatch record = sink.records.get(0);
+        assertEquals("outer", record.getTag());
+        //the sink is passed the elapsed nanoseconds, not the truncated milliseconds
+        assertEquals(TimeUnit.NANOSECONDS, record.getTimeUnit());
+        assertEquals(elapsedTime, record.getElapsedTime(TimeUnit.MILLISECONDS));
+        assertTrue(record.getStartTime() >= before);
+
+        //the stopped scope is reused
+        assertSame(scope, pool.start("again"));
+        scope.close();
+        assertEquals("again", sink.records.get(1).getTag());
+    }
+
+    public void testNesting() throws Exception {
+        CollectingSink sink = new CollectingSink();
+        TimingScopePool pool = new TimingScopePool(sink);
+
+        //nest deeper than the preallocated scopes
+        List<TimingScope> scopes = new ArrayList<TimingScope>();
+        for (int i = 0; i < 20; i++) {
+            TimingScope scope = pool.start("level" + i);
+            assertFalse(scopes.contains(scope));
+            scopes.add(scope);
+        }
+
+        try {
+            scopes.get(0).stop();
+            fail("Scopes must be stopped in reverse order");
+        } catch (IllegalStateException ise) {
+            //expected
+        }
+
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            scopes.get(i).stop();
+        }
+        assertEquals(20, sink.records.size());
+        assertEquals("level19", sink.records.get(0).getTag());
+        assertEquals("level0", sink.records.get(19).getTag());
+
+        //once grown, the same scopes are used again
+        for (int i = 0; i < 20; i++) {
+            assertSame(scopes.get(i), pool.start("level" + i));
+        }
+    }
+
+    public void testThreadConfinement() throws Exception {
+        CollectingSink sink = new CollectingSink();
+        final TimingScopePool pool = new TimingScopePool(sink);
+        final TimingScope scope = pool.start("main");
+        final TimingScope[] otherThreadScope = new TimingScope[1];
+        final Throwable[] otherThreadError = new Throwable[1];
+
+        Thread otherThread = new Thread() {
+            public void run() {
+                otherThreadScope[0] = pool.start("other");
+                otherThreadScope[0].stop();
+                try {
+                    scope.stop();
+                } catch (Throwable t) {
+                    otherThreadError[0] = t;
+                }
+            }
+        };
+        otherThread.start();
+        otherThread.join();
+
+        assertNotSame(scope, otherThreadScope[0]);
+        assertTrue(otherThreadError[0] instanceof IllegalStateException);
+        assertTrue(scope.isRunning());
+        scope.stop();
+        assertEquals(2, sink.records.size());
+    }
+
+    public void testTimeThreshold() throws Exception {
+        CollectingSink sink = new CollectingSink();
+        TimingScopePool pool = new TimingScopePool(sink, 1000L);
+        assertEquals(1000L, pool.getTimeThreshold());
+
+        pool.start("fast").stop();
+        assertEquals(0, sink.records.size());
+
+        TimingScope scope = pool.start("slow", 10L);
+        Thread.sleep(20);
+        scope.stop();
+        pool.start("unfiltered", 0L).stop();
+        assertEquals(2, sink.records.size());
+        assertEquals("slow", sink.records.get(0).getTag());
+        assertEquals("unfiltered", sink.records.get(1).getTag());
+    }
+}
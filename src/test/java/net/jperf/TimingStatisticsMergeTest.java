@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Property tests for merging TimingStatistics and GroupedTimingStatistics: for many random data sets, split into
+ * random partitions and merged in random orders, the merged result must match sequential accumulation.
+ */
+public class TimingStatisticsMergeTest extends TestCase {
+
+    private static final int TRIALS = 200;
+
+    private final Random random = new Random(20150101L);
+
+    public void testMergeMatchesSequentialAccumulation() {
+        for (int trial = 0; trial < TRIALS; trial++) {
+            long[] samples = randomSamples();
+
+            TimingStatistics sequential = new TimingStatistics();
+            for (long sample : samples) {
+                sequential.addSampleTime(sample);
+            }
+
+            List<TimingStatistics> partitions = randomPartitions(samples);
+            //merge the partitions in a random order, in a random tree shape
+            while (partitions.size() > 1) {
+                TimingStatistics left = partitions.remove(random.nextInt(partitions.size()));
+                TimingStatistics right = partitions.remove(random.nextInt(partitions.size()));
+                partitions.add(left.merge(right));
+            }
+
+            assertEquivalent("trial " + trial, sequential, partitions.get(0));
+        }
+    }
+
+    public void testMergeIsAssociative() {
+        for (int trial = 0; trial < TRIALS; trial++) {
+            TimingStatistics a = accumulate(randomSamples());
+            TimingStatistics b = accumulate(randomSamples());
+            TimingStatistics c = accumulate(randomSamples());
+
+            TimingStatistics leftFirst = a.clone().merge(b).merge(c);
+            TimingStatistics rightFirst = a.clone().merge(b.clone().merge(c));
+
+            assertEquivalent("trial " + trial, leftFirst, rightFirst);
+        }
+    }
+
+    public void testMergeWithEmpty() {
+        TimingStatistics stats = accumulate(new long[] { 5L, 10L, 15L });
+        TimingStatistics copy = stats.clone();
+
+        assertEquals(copy, stats.merge(new TimingStatistics()));
+        assertEquals(copy, new TimingStatistics().merge(stats));
+        assertEquals(3, stats.getCount());
+    }
+
+    public void testMergeWithoutHistogramDropsHistogram() {
+        TimingStatistics stats = accumulate(new long[] { 5L, 10L, 15L });
+        stats.merge(new TimingStatistics(10.0, 2.0, 12L, 8L, 4));
+
+        assertEquals(7, stats.getCount());
+        assertEquals(5L, stats.getMin());
+        assertEquals(15L, stats.getMax());
+        assertNull(stats.getHistogram());
+    }
+
+    public void testGroupedMergeMatchesSequentialAccumulation() {
+        String[] tags = { "a", "a.success", "a.failure", "b", "c.d.e" };
+        for (int trial = 0; trial < TRIALS / 10; trial++) {
+            GroupedTimingStatistics sequential = new GroupedTimingStatistics();
+            sequential.setCreateRollupStatistics(true);
+            List<GroupedTimingStatistics> windows = new ArrayList<GroupedTimingStatistics>();
+
+            for (int window = 0; window < 10; window++) {
+                GroupedTimingStatistics windowStats = new GroupedTimingStatistics();
+                windowStats.setCreateRollupStatistics(true);
+                windowStats.setStartTime(30000L * window);
+                windowStats.setStopTime(30000L * (window + 1));
+                int numStopWatches = random.nextInt(50);
+                for (int i = 0; i < numStopWatches; i++) {
+                    StopWatch stopWatch = new StopWatch(30000L * window + i, random.nextInt(5000),
+                                                        tags[random.nextInt(tags.length)], null);
+                    sequential.addStopWatch(stopWatch);
+                    windowStats.addStopWatch(stopWatch);
+                }
+                windows.add(windowStats);
+            }
+
+            GroupedTimingStatistics merged = new GroupedTimingStatistics();
+            while (!windows.isEmpty()) {
+                merged.merge(windows.remove(random.nextInt(windows.size())));
+            }
+
+            assertEquals(0L, merged.getStartTime());
+            assertEquals(300000L, merged.getStopTime());
+            assertEquals(sequential.getStatisticsByTag().keySet(), merged.getStatisticsByTag().keySet());
+            for (String tag : sequential.getStatisticsByTag().keySet()) {
+                assertEquivalent("trial " + trial + " tag " + tag,
+                                 sequential.getStatisticsByTag().get(tag),
+                                 merged.getStatisticsByTag().get(tag));
+            }
+        }
+    }
+
+    // --- Helper Methods ---
+
+    private long[] randomSamples() {
+        long[] samples = new long[1 + random.nextInt(500)];
+        //mix of a narrow and a very wide distribution to stress the variance combination
+        long scale = random.nextBoolean() ? 10L : 100000L;
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (long) (random.nextDouble() * scale) + (random.nextInt(20) == 0 ? 50000L : 0L);
+        }
+        return samples;
+    }
+
+    private List<TimingStatistics> randomPartitions(long[] samples) {
+        int numPartitions = 1 + random.nextInt(Math.min(samples.length, 16));
+        List<TimingStatistics> partitions = new ArrayList<TimingStatistics>();
+        for (int i = 0; i < numPartitions; i++) {
+            partitions.add(new TimingStatistics());
+        }
+        for (long sample : samples) {
+            partitions.get(random.nextInt(numPartitions)).addSampleTime(sample);
+        }
+        return partitions;
+    }
+
+    private TimingStatistics accumulate(long[] samples) {
+        TimingStatistics stats = new TimingStatistics();
+        for (long sample : samples) {
+            stats.addSampleTime(sample);
+        }
+        return stats;
+    }
+
+    private void assertEquivalent(String message, TimingStatistics expected, TimingStatistics actual) {
+        assertEquals(message, expected.getCount(), actual.getCount());
+        assertEquals(message, expected.getMin(), actual.getMin());
+        assertEquals(message, expected.getMax(), actual.getMax());
+        assertEquals(message, expected.getMean(), actual.getMean(), 1e-9 * Math.max(1.0, expected.getMean()));
+        assertEquals(message, expected.getStandardDeviation(), actual.getStandardDeviation(),
+                     1e-9 * Math.max(1.0, expected.getStandardDeviation()));
+        assertEquals(message, expected.getHistogram(), actual.getHistogram());
+        for (double percentile : new double[] { 50.0, 99.0, 99.9 }) {
+            assertEquals(message, expected.getPercentile(percentile), actual.getPercentile(percentile));
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import junit.framework.TestCase;
+import net.jperf.StopWatch;
+import org.apache.commons.io.FileUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Tests the BinaryStopWatchLogWriter and BinaryStopWatchLogIterator.
+ */
+public class BinaryStopWatchLogIteratorTest extends TestCase {
+
+    public void testRoundTrip() throws Exception {
+        List<StopWatch> stopWatches = randomStopWatches(5000, 1L);
+        byte[] log = write(stopWatches);
+        assertEquals(stopWatches, read(log, null));
+
+        //the binary form should be a small fraction of the text form
+        StringBuilder textLog = new StringBuilder();
+        for (StopWatch stopWatch : stopWatches) {
+            textLog.append(stopWatch).append('\n');
+        }
+        assertTrue(log.length + " bytes", log.length * 5 < textLog.length());
+
+        //edge cases: null tags and messages, empty and non-ASCII strings, huge and negative times
+        List<StopWatch> edgeCases = Arrays.asList(
+                new StopWatch(0L, 0L, null, null),
+                new StopWatch(Long.MAX_VALUE, Long.MAX_VALUE, "", ""),
+                new StopWatch(Long.MIN_VALUE, -5L, "t\u00e4g \u65e5\u672c", "m\u00e9ssage\nwith a newline"),
+                new StopWatch(1230068856846L, 5L, "tag", longString(20000)));
+        assertEquals(edgeCases, read(write(edgeCases), null));
+        assertEquals(new ArrayList<StopWatch>(), read(write(new ArrayList<StopWatch>()), null));
+    }
+
+    public void testFilter() throws Exception {
+        List<StopWatch> stopWatches = randomStopWatches(3000, 2L);
+        StopWatchFilter filter = new StopWatchFilter(stopWatches.get(1000).getStartTime(),
+                                                     stopWatches.get(2000).getStartTime(),
+                                                     "tag1*,/tag3\\.sub[01]/");
+        List<StopWatch> expected = new ArrayList<StopWatch>();
+        for (StopWatch stopWatch : stopWatches) {
+            if (filter.accepts(stopWatch)) {
+                expected.add(stopWatch);
+            }
+        }
+        assertTrue(expected.size() > 100);
+        assertEquals(expected, read(write(stopWatches), filter));
+
+        //a null tag is only accepted if the filter has no tag patterns
+        List<StopWatch> nullTag = Arrays.asList(new StopWatch(5L, 1L, null, "m"));
+        assertEquals(nullTag, read(write(nullTag), new StopWatchFilter(0L, 10L, null)));
+        assertTrue(read(write(nullTag), new StopWatchFilter(0L, 10L, "*")).isEmpty());
+    }
+
+    public void testConcatenatedAndTruncatedLogs() throws Exception {
+        List<StopWatch> first = randomStopWatches(500, 3L);
+        List<StopWatch> second = randomStopWatches(500, 4L);
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        log.write(write(first));
+        log.write(write(second));
+        List<StopWatch> expected = new ArrayList<StopWatch>(first);
+        expected.addAll(second);
+        assertEquals(expected, read(log.toByteArray(), null));
+
+        //a partial last record is ignored, and every cut leaves a prefix of the StopWatches
+        byte[] whole = write(first);
+        for (int length = 0; length < whole.length; length += 1 + length / 10) {
+            byte[] cut = new byte[length];
+            System.arraycopy(whole, 0, cut, 0, length);
+            List<StopWatch> actual = read(cut, null);
+            assertEquals(first.subList(0, actual.size()), actual);
+        }
+
+        try {
+            read("start[1230068856846] time[10] tag[tag]".getBytes(), null);
+            fail("A text log is not a binary log");
+        } catch (IllegalStateException ise) {
+            //expected
+        }
+    }
+
+    public void testTimeUnits() throws Exception {
+        List<StopWatch> stopWatches = Arrays.asList(
+                new StopWatch(1L, 2L, "tag", null),
+                new StopWatch(2L, 2000L, "tag", null, TimeUnit.MICROSECONDS),
+                new StopWatch(3L, 3000L, "tag", "m", TimeUnit.MICROSECONDS),
+                new StopWatch(4L, 4000000L, "tag", null, TimeUnit.NANOSECONDS),
+                new StopWatch(5L, 5L, "tag", null));
+        assertEquals(stopWatches, read(write(stopWatches), null));
+
+        //the unit starts over as milliseconds in a concatenated log
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        log.write(write(stopWatches.subList(1, 2)));
+        log.write(write(stopWatches.subList(0, 1)));
+        assertEquals(Arrays.asList(stopWatches.get(1), stopWatches.get(0)), read(log.toByteArray(), null));
+    }
+
+    public void testTagTableReset() throws Exception {
+        List<StopWatch> stopWatches = new ArrayList<StopWatch>();
+        for (int i = 0; i < BinaryStopWatchLogWriter.MAX_TAGS + 100; i++) {
+            stopWatches.add(new StopWatch(1000L + i, i % 7, "tag" + i, null));
+        }
+        stopWatches.add(new StopWatch(999L, 3L, "tag0", null));
+        assertEquals(stopWatches, read(write(stopWatches), null));
+    }
+
+    public void testBinaryLogFiles() throws Exception {
+        Comparator<StopWatch> startTimeOrder = new Comparator<StopWatch>() {
+            public int compare(StopWatch stopWatch1, StopWatch stopWatch2) {
+                return Long.valueOf(stopWatch1.getStartTime()).compareTo(stopWatch2.getStartTime());
+            }
+        };
+        List<StopWatch> stopWatches = randomStopWatches(1000, 5L);
+        Collections.sort(stopWatches, startTimeOrder);
+        File binaryFile = new File("./target/binaryStopWatchLogIteratorTest.bin");
+        FileOutputStream out = new FileOutputStream(binaryFile);
+        out.write(write(stopWatches));
+        out.close();
+        File gzippedFile = new File("./target/binaryStopWatchLogIteratorTest.bin.gz");
+        GZIPOutputStream gzipOut = new GZIPOutputStream(new FileOutputStream(gzippedFile));
+        gzipOut.write(write(stopWatches.subList(0, 500)));
+        gzipOut.close();
+        File textFile = new File("./target/binaryStopWatchLogIteratorTest.log");
+        FileUtils.writeStringToFile(textFile, "INFO TimingLogger - " + stopWatches.get(600) + "\n");
+
+        assertTrue(LogFiles.isBinaryStopWatchLog(binaryFile));
+        assertTrue(LogFiles.isBinaryStopWatchLog(gzippedFile));
+        assertFalse(LogFiles.isBinaryStopWatchLog(textFile));
+        //binary logs aren't indexed
+        assertNull(LogTimeIndex.update(binaryFile));
+
+        //text and binary files can be merged; StopWatches with the same start time come in the order of the files
+        List<StopWatch> expected = new ArrayList<StopWatch>(stopWatches);
+        expected.addAll(stopWatches.subList(0, 500));
+        expected.add(stopWatches.get(600));
+        Collections.sort(expected, startTimeOrder);
+        MergingStopWatchLogIterator merged = new MergingStopWatchLogIterator(
+                Arrays.asList(binaryFile, gzippedFile, textFile), 2, 100);
+        List<StopWatch> actual = new ArrayList<StopWatch>();
+        try {
+            while (merged.hasNext()) {
+                actual.add(merged.next());
+            }
+        } finally {
+            merged.close();
+        }
+        assertEquals(expected, actual);
+    }
+
+    // --- Helper Methods ---
+
+    /**
+     * Creates StopWatches whose start times are mostly, but not always, in order, some of them with messages.
+     */
+    static List<StopWatch> randomStopWatches(int count, long seed) {
+        Random random = new Random(seed);
+        List<StopWatch> retVal = new ArrayList<StopWatch>();
+        long startTime = 1230068856846L;
+        for (int i = 0; i < count; i++) {
+            startTime += random.nextInt(20);
+            long stopWatchStartTime = (random.nextInt(10) == 0) ? startTime - random.nextInt(3000) : startTime;
+            retVal.add(new StopWatch(stopWatchStartTime, random.nextInt(500),
+                                     "tag" + random.nextInt(5) + ".sub" + random.nextInt(3),
+                                     (random.nextInt(4) == 0) ? "msg " + i : null));
+        }
+        return retVal;
+    }
+
+    private byte[] write(List<StopWatch> stopWatches) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BinaryStopWatchLogWriter writer = new BinaryStopWatchLogWriter(bytes);
+        for (StopWatch stopWatch : stopWatches) {
+            writer.write(stopWatch);
+        }
+        writer.close();
+        return bytes.toByteArray();
+    }
+
+    private List<StopWatch> read(byte[] log, StopWatchFilter filter) {
+        List<StopWatch> retVal = new ArrayList<StopWatch>();
+        Iterator<StopWatch> iter = new BinaryStopWatchLogIterator(new ByteArrayInputStream(log), filter);
+        while (iter.hasNext()) {
+            retVal.add(iter.next());
+        }
+        return retVal;
+    }
+
+    private String longString(int length) {
+        StringBuilder retVal = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            retVal.append((char) ('a' + i % 26));
+        }
+        return retVal.toString();
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import junit.framework.TestCase;
+import net.jperf.GroupedTimingStatistics;
+import net.jperf.StopWatch;
+import net.jperf.TimingStatistics;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tests the ExactPercentileCollector.
+ */
+public class ExactPercentileCollectorTest extends TestCase {
+    private static final double[] PERCENTILES = {0.0, 1.0, 50.0, 90.0, 99.9, 100.0};
+
+    public void testPercentilesMatchSortedSamples() throws Exception {
+        //a large budget keeps everything in memory, a tiny one spills many runs
+        for (long memoryBudget : new long[]{ExactPercentileCollector.DEFAULT_MEMORY_BUDGET, 1024L}) {
+            ExactPercentileCollector collector = new ExactPercentileCollector(PERCENTILES, memoryBudget,
+                                                                              new File("./target"));
+            try {
+                for (int window = 0; window < 3; window++) {
+                    Random random = new Random(window);
+                    GroupedTimingStatistics statistics = new GroupedTimingStatistics();
+                    Map<String, List<Long>> samplesByTag = new HashMap<String, List<Long>>();
+                    for (int i = 0; i < 20000; i++) {
+                        String tag = "tag" + random.nextInt(4);
+                        long elapsedTime = (long) Math.abs(random.nextGaussian() * 1000 * (tag.hashCode() % 7 + 1));
+                        statistics.addStopWatch(new StopWatch(0L, elapsedTime, tag, null));
+                        collector.addSampleTime(tag, elapsedTime);
+                        if (!samplesByTag.containsKey(tag)) {
+                            samplesByTag.put(tag, new ArrayList<Long>());
+                        }
+                        samplesByTag.get(tag).add(elapsedTime);
+                    }
+                    collector.completeWindow(statistics);
+
+                    for (Map.Entry<String, List<Long>> tagAndSamples : samplesByTag.entrySet()) {
+                        TimingStatistics timingStats = statistics.getStatisticsByTag().get(tagAndSamples.getKey());
+                        assertExactPercentiles(tagAndSamples.getValue(), timingStats);
+                    }
+                }
+                if (memoryBudget == 1024L) {
+                    assertTrue(collector.getSpillCount() > 10);
+                } else {
+                    assertEquals(0, collector.getSpillCount());
+                }
+            } finally {
+                collector.close();
+            }
+        }
+    }
+
+    public void testRollupPercentiles() throws Exception {
+        ExactPercentileCollector collector = new ExactPercentileCollector(PERCENTILES, 512L, null);
+        GroupedTimingStatistics statistics = new GroupedTimingStatistics();
+        statistics.setCreateRollupStatistics(true);
+        Map<String, List<Long>> samplesByTag = new HashMap<String, List<Long>>();
+        Random random = new Random(7L);
+        String[] tags = {"db", "db.get", "db.get.cached", "db.put", "dbx", "web"};
+        for (int i = 0; i < 5000; i++) {
+            String tag = tags[random.nextInt(tags.length)];
+            long elapsedTime = random.nextInt(100000);
+            statistics.addStopWatch(new StopWatch(0L, elapsedTime, tag, null));
+            collector.addSampleTime(tag, elapsedTime);
+            //a rollup tag covers its own samples and those of the tags below it, but not "dbx"
+            for (String rollupTag : tags) {
+                if (tag.equals(rollupTag) || tag.startsWith(rollupTag + ".")) {
+                    if (!samplesByTag.containsKey(rollupTag)) {
+                        samplesByTag.put(rollupTag, new ArrayList<Long>());
+                    }
+                    samplesByTag.get(rollupTag).add(elapsedTime);
+                }
+            }
+        }
+        collector.completeWindow(statistics);
+        collector.close();
+
+        for (String tag : tags) {
+            assertExactPercentiles(samplesByTag.get(tag), statistics.getStatisticsByTag().get(tag));
+        }
+    }
+
+    public void testMissingSamples() throws Exception {
+        ExactPercentileCollector collector = new ExactPercentileCollector();
+        GroupedTimingStatistics statistics = new GroupedTimingStatistics();
+        statistics.addStopWatch(new StopWatch(0L, 10L, "collected", null));
+        statistics.addStopWatch(new StopWatch(0L, 20L, "notCollected", null));
+        statistics.addStopWatch(new StopWatch(0L, 30L, "partlyCollected", null));
+        statistics.addStopWatch(new StopWatch(0L, 40L, "partlyCollected", null));
+        collector.addSampleTime("collected", 10L);
+        collector.addSampleTime("partlyCollected", 30L);
+        collector.completeWindow(statistics);
+
+        Map<String, TimingStatistics> statsByTag = statistics.getStatisticsByTag();
+        assertEquals(10L, statsByTag.get("collected").getExactPercentile(99.9));
+        assertEquals(-1L, statsByTag.get("collected").getExactPercentile(42.0));
+        assertEquals(-1L, statsByTag.get("notCollected").getExactPercentile(50.0));
+        assertEquals(-1L, statsByTag.get("partlyCollected").getExactPercentile(50.0));
+
+        //the window was reset, and merged statistics have no exact percentiles
+        GroupedTimingStatistics next = new GroupedTimingStatistics();
+        next.addStopWatch(new StopWatch(0L, 50L, "collected", null));
+        collector.addSampleTime("collected", 50L);
+        collector.completeWindow(next);
+        assertEquals(50L, next.getStatisticsByTag().get("collected").getExactPercentile(50.0));
+        TimingStatistics merged = statsByTag.get("collected").clone().merge(next.getStatisticsByTag().get("collected"));
+        assertEquals(-1L, merged.getExactPercentile(50.0));
+        collector.close();
+
+        try {
+            new ExactPercentileCollector(new double[]{101.0}, 1024L, null);
+            fail("Percentiles must be between 0 and 100");
+        } catch (IllegalArgumentException iae) {
+            //expected
+        }
+    }
+
+    public void testGroupingStatisticsIterator() throws Exception {
+        List<StopWatch> stopWatches = BinaryStopWatchLogIteratorTest.randomStopWatches(5000, 8L);
+        ExactPercentileCollector collector = new ExactPercentileCollector(PERCENTILES, 2048L, null);
+        GroupingStatisticsIterator statsIter = new GroupingStatisticsIterator(stopWatches.iterator(), 10000L, true);
+        statsIter.setExactPercentileCollector(collector);
+        int windows = 0;
+        while (statsIter.hasNext()) {
+            GroupedTimingStatistics statistics = statsIter.next();
+            windows++;
+            for (Map.Entry<String, TimingStatistics> tagAndStats : statistics.getStatisticsByTag().entrySet()) {
+                //rollup tags included, every tag's exact extremes are its min and max
+                TimingStatistics timingStats = tagAndStats.getValue();
+                assertEquals(timingStats.getMin(), timingStats.getExactPercentile(0.0));
+                assertEquals(timingStats.getMax(), timingStats.getExactPercentile(100.0));
+                long p50 = timingStats.getExactPercentile(50.0);
+                assertTrue(p50 >= timingStats.getMin() && p50 <= timingStats.getMax());
+            }
+        }
+        collector.close();
+        assertTrue(windows > 3);
+    }
+
+    // --- Helper Methods ---
+
+    private void assertExactPercentiles(List<Long> samples, TimingStatistics timingStats) {
+        Long[] sorted = samples.toArray(new Long[samples.size()]);
+        Arrays.sort(sorted);
+        assertEquals(sorted.length, timingStats.getCount());
+        for (double percentile : PERCENTILES) {
+            int rank = Math.max((int) Math.ceil(percentile / 100.0 * sorted.length), 1);
+            assertEquals("p" + percentile, sorted[rank - 1].longValue(), timingStats.getExactPercentile(percentile));
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import junit.framework.TestCase;
+import net.jperf.GroupedTimingStatistics;
+import net.jperf.StopWatch;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.TreeSet;
+
+/**
+ * Tests the FollowingLogStatisticsIterator, along with the FollowingStopWatchLogIterator and LogCheckpoint.
+ */
+public class FollowingLogStatisticsIteratorTest extends TestCase {
+    private File logFile = new File("./target/followingLogStatisticsIteratorTest.log");
+    private File rotatedLogFile = new File("./target/followingLogStatisticsIteratorTest.log.1");
+    private File checkpointFile = new File("./target/followingLogStatisticsIteratorTest.checkpoint");
+
+    protected void setUp() throws Exception {
+        logFile.delete();
+        rotatedLogFile.delete();
+        checkpointFile.delete();
+    }
+
+    public void testFollowRotationAndTruncation() throws Exception {
+        append(logFile, System.currentTimeMillis(), "a");
+        //time slices are closed by the clock once no new StopWatch is written
+        FollowingLogStatisticsIterator iter = new FollowingLogStatisticsIterator(logFile, 200L, false, null, 10L);
+        try {
+            assertEquals(Collections.singleton("a"), iter.next().getStatisticsByTag().keySet());
+
+            append(logFile, System.currentTimeMillis(), "b");
+            assertEquals(Collections.singleton("b"), iter.next().getStatisticsByTag().keySet());
+
+            //rotation: the file is renamed and a new one is created
+            assertTrue(logFile.renameTo(rotatedLogFile));
+            append(logFile, System.currentTimeMillis(), "c");
+            assertEquals(Collections.singleton("c"), iter.next().getStatisticsByTag().keySet());
+
+            //truncation: the file is truncated in place and written again
+            RandomAccessFile file = new RandomAccessFile(logFile, "rw");
+            file.setLength(0L);
+            file.close();
+            append(logFile, System.currentTimeMillis(), "d");
+            assertEquals(Collections.singleton("d"), iter.next().getStatisticsByTag().keySet());
+        } finally {
+            iter.close();
+        }
+        assertFalse(iter.hasNext());
+    }
+
+    public void testResumeFromCheckpoint() throws Exception {
+        //with such long time slices, only StopWatches from a later time slice close a time slice
+        long timeSlice = 1000000000000L;
+        long now = System.currentTimeMillis();
+        append(logFile, 1000L, "a");
+        append(logFile, now, "b");
+
+        FollowingLogStatisticsIterator iter =
+                new FollowingLogStatisticsIterator(logFile, timeSlice, false, checkpointFile, 10L);
+        GroupedTimingStatistics statistics = iter.next();
+        assertEquals(Collections.singleton("a"), statistics.getStatisticsByTag().keySet());
+        assertEquals(0L, statistics.getStartTime());
+        iter.close();
+        assertTrue(checkpointFile.exists());
+
+        //the StopWatch for b read before the restart is kept in the checkpoint
+        append(logFile, now, "b");
+        append(logFile, 2500000000000L, "c");
+        iter = new FollowingLogStatisticsIterator(logFile, timeSlice, false, checkpointFile, 10L);
+        try {
+            statistics = iter.next();
+            assertEquals(Collections.singleton("b"), statistics.getStatisticsByTag().keySet());
+            assertEquals(2, statistics.getStatisticsByTag().get("b").getCount());
+            assertEquals(timeSlice, statistics.getStartTime());
+        } finally {
+            iter.close();
+        }
+
+        //after a rotation the new file is read from its start, into the time slice that was open
+        assertTrue(logFile.renameTo(rotatedLogFile));
+        append(logFile, 2600000000000L, "d");
+        append(logFile, 3500000000000L, "e");
+        iter = new FollowingLogStatisticsIterator(logFile, timeSlice, false, checkpointFile, 10L);
+        try {
+            statistics = iter.next();
+            assertEquals(new TreeSet<String>(Arrays.asList("c", "d")), statistics.getStatisticsByTag().keySet());
+        } finally {
+            iter.close();
+        }
+    }
+
+    private void append(File file, long startTime, String tag) throws Exception {
+        FileWriter writer = new FileWriter(file, true);
+        writer.write("INFO TimingLogger - " + new StopWatch(startTime, 10L, tag, null) + "\n");
+        writer.close();
+    }
+}
@@ -17,6 +17,12 @@
 package net.jperf.helpers;
 
 import net.jperf.GroupedTimingStatistics;
+import net.jperf.StopWatch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import junit.framework.TestCase;
 
@@ -71,4 +77,135 @@ public class GenericAsyncCoalescingStatisticsAppenderTest extends TestCase {
 
         assertTrue("Handler was not interrupted", handler.wasInterrupted);
     }
+
+    /**
+     * Test implementation of GroupedTimingStatisticsHandler that just collects the statistics it is handed.
+     */
+    private static class CollectingGroupedTimingStatisticsHandler
+            implements GenericAsyncCoalescingStatisticsAppender.GroupedTimingStatisticsHandler {
+
+        private final List<GroupedTimingStatistics> statistics = new ArrayList<GroupedTimingStatistics>();
+
+        public synchronized void handle(GroupedTimingStatistics statistics) {
+            this.statistics.add(statistics);
+        }
+
+        public void error(String errorMessage) {
+            System.err.println("Error logged: " + errorMessage);
+        }
+    }
+
+    /**
+     * Tests that StopWatch objects handed directly to the appender are aggregated together with parsed messages,
+     * and that the appender is not affected by the caller reusing the StopWatch after append returns.
+     */
+    public void testAppendStopWatchObjects() throws InterruptedException {
+        GenericAsyncCoalescingStatisticsAppender appender = new GenericAsyncCoalescingStatisticsAppender();
+        CollectingGroupedTimingStatisticsHandler handler = new CollectingGroupedTimingStatisticsHandler();
+        appender.setTimeSlice(60000L);
+        appender.start(handler);
+
+        StopWatch stopWatch = new StopWatch(1230068856846L, 10L, "tag1", null);
+        appender.append(stopWatch);
+        //modifying the StopWatch after it was appended should not change what was queued
+        stopWatch.setTag("tag2");
+        appender.append(new StopWatch(1230068856847L, 20L, "tag1", "message"));
+        appender.append("start[1230068856848] time[30] tag[tag1]");
+        appender.stop();
+
+        assertEquals(1, handler.statistics.size());
+        GroupedTimingStatistics stats = handler.statistics.get(0);
+        assertEquals(1, stats.getStatisticsByTag().size());
+        assertEquals(3, stats.getStatisticsByTag().get("tag1").getCount());
+        assertEquals(20.0, stats.getStatisticsByTag().get("tag1").getMean(), 0.0001);
+        assertEquals(0, appender.getNumDiscardedMessages());
+    }
+
+    /**
+     * Tests that timing records passed to the record method are aggregated together with appended StopWatches, also
+     * when many threads record at once, and that records queued before the appender is stopped are not lost.
+     */
+    public void testRecord() throws InterruptedException {
+        final GenericAsyncCoalescingStatisticsAppender appender = new GenericAsyncCoalescingStatisticsAppender();
+        CollectingGroupedTimingStatisticsHandler handler = new CollectingGroupedTimingStatisticsHandler();
+        appender.setTimeSlice(60000L);
+        appender.setQueueSize(16384);
+        appender.start(handler);
+
+        appender.append(new StopWatch(1230068856846L, 10L, "tag1", null));
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < 2500; j++) {
+                        appender.record((j % 2 == 0) ? "tag1" : "tag2", 1230068856847L, 20L,
+                                        TimeUnit.MILLISECONDS);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        appender.stop();
+
+        assertEquals(0, appender.getNumDiscardedMessages());
+        assertEquals(1, handler.statistics.size());
+        GroupedTimingStatistics stats = handler.statistics.get(0);
+        assertEquals(5001, stats.getStatisticsByTag().get("tag1").getCount());
+        assertEquals(5000, stats.getStatisticsByTag().get("tag2").getCount());
+        assertEquals(20.0, stats.getStatisticsByTag().get("tag2").getMean(), 0.0001);
+    }
+
+    /**
+     * Tests that rollup statistics are derived from the statistics for each time slice, and that the partial rollup
+     * window is sent when the appender is stopped.
+     */
+    public void testRollupTimeSlices() throws InterruptedException {
+        GenericAsyncCoalescingStatisticsAppender appender = new GenericAsyncCoalescingStatisticsAppender();
+        final List<Long> rollupTimeSlices = new ArrayList<Long>();
+        final List<GroupedTimingStatistics> rollups = new ArrayList<GroupedTimingStatistics>();
+        final CollectingGroupedTimingStatisticsHandler handler = new CollectingGroupedTimingStatisticsHandler();
+        appender.setTimeSlice(1000L);
+        appender.setRollupTimeSlices("10000");
+        appender.start(new GenericAsyncCoalescingStatisticsAppender.RollupStatisticsHandler() {
+            public void handle(GroupedTimingStatistics statistics) {
+                handler.handle(statistics);
+            }
+
+            public synchronized void handleRollup(GroupedTimingStatistics statistics, long timeSlice) {
+                rollups.add(statistics);
+                rollupTimeSlices.add(timeSlice);
+            }
+
+            public void error(String errorMessage) {
+                handler.error(errorMessage);
+            }
+        });
+
+        //three 1 second windows in the first 10 seconds, and one in the next 10
+        appender.append(new StopWatch(1230068850000L, 10L, "tag1", null));
+        appender.append(new StopWatch(1230068851000L, 20L, "tag1", null));
+        appender.append(new StopWatch(1230068852000L, 30L, "tag2", null));
+        appender.append(new StopWatch(1230068860000L, 40L, "tag1", null));
+        appender.stop();
+
+        assertEquals(4, handler.statistics.size());
+        assertEquals(Arrays.asList(10000L, 10000L), rollupTimeSlices);
+        GroupedTimingStatistics first = rollups.get(0);
+        assertEquals(1230068850000L, first.getStartTime());
+        assertEquals(1230068860000L, first.getStopTime());
+        assertEquals(2, first.getStatisticsByTag().get("tag1").getCount());
+        assertEquals(15.0, first.getStatisticsByTag().get("tag1").getMean(), 0.0001);
+        assertEquals(1, first.getStatisticsByTag().get("tag2").getCount());
+        assertEquals(1, rollups.get(1).getStatisticsByTag().get("tag1").getCount());
+
+        try {
+            appender.setRollupTimeSlices("ten seconds");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException iae) {
+            //expected
+        }
+    }
 }
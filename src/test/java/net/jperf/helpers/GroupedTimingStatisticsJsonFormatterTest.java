@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import junit.framework.TestCase;
+import net.jperf.GroupedTimingStatistics;
+import net.jperf.StopWatch;
+
+/**
+ * Tests the GroupedTimingStatisticsJsonFormatter class.
+ */
+public class GroupedTimingStatisticsJsonFormatterTest extends TestCase {
+
+    public void testListObjectsFormat() throws Exception {
+        GroupedTimingStatistics statistics = new GroupedTimingStatistics();
+        statistics.setStartTime(1000L);
+        statistics.setStopTime(2000L);
+        statistics.addStopWatch(new StopWatch(1000L, 10L, "tag1", null));
+        statistics.addStopWatch(new StopWatch(1500L, 30L, "tag1", null));
+        statistics.addStopWatch(new StopWatch(1500L, 5L, "tag2", null));
+
+        GroupedTimingStatisticsJsonFormatter formatter = new GroupedTimingStatisticsJsonFormatter("json:list-objects");
+        formatter.header();
+        String output = formatter.format(statistics);
+
+        //each tag is formatted once, as an object, without the array of the list format after it
+        String[] objects = output.split(MiscUtils.NEWLINE);
+        assertEquals(output, 2, objects.length);
+        assertTrue(objects[0], objects[0].startsWith("{tag:'tag1',startTime:new Date(1000),stopTime:new Date(2000),"
+                                                      + "mean:20.0,min:10,max:30,"));
+        assertTrue(objects[0], objects[0].endsWith("},"));
+        assertTrue(objects[1], objects[1].startsWith("{tag:'tag2',"));
+        assertTrue(objects[1], objects[1].endsWith("}"));
+        assertEquals(output, -1, output.indexOf('['));
+
+        //the list format is unchanged
+        formatter = new GroupedTimingStatisticsJsonFormatter("json:list");
+        formatter.header();
+        output = formatter.format(statistics);
+        assertTrue(output, output.startsWith("['tag1',new Date(1000),new Date(2000),20.0,10,30,"));
+        assertEquals(output, -1, output.indexOf('{'));
+    }
+}
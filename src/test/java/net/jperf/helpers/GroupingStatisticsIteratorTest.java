@@ -74,6 +74,10 @@ public class GroupingStatisticsIteratorTest extends TimingTestCase {
         assertEquals(100L, stats1.getStatisticsByTag().get("tag").getMax());
         assertEquals(200L, stats2.getStatisticsByTag().get("tag").getMin());
         assertEquals(stats1.getStopTime(), stats2.getStartTime());
+
+        //each time slice is flushed before it is returned, so reading it returns the same map every time
+        assertSame(stats1.getStatisticsByTag(), stats1.getStatisticsByTag());
+        assertSame(stats2.getStatisticsByTag(), stats2.getStatisticsByTag());
     }
 
     public void testNormalUsage() throws Exception {
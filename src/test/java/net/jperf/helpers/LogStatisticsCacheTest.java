@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import junit.framework.TestCase;
+import net.jperf.GroupedTimingStatistics;
+import net.jperf.StopWatch;
+import net.jperf.TimingStatistics;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests the LogStatisticsCache.
+ */
+public class LogStatisticsCacheTest extends TestCase {
+    private File logDirectory = new File("./target/logStatisticsCacheTest");
+    private File logFile = new File(logDirectory, "timing.log");
+
+    protected void setUp() throws Exception {
+        FileUtils.deleteDirectory(logDirectory);
+        logDirectory.mkdirs();
+        StringBuilder log = new StringBuilder();
+        for (StopWatch stopWatch : BinaryStopWatchLogIteratorTest.randomStopWatches(2000, 21L)) {
+            log.append("INFO TimingLogger - ").append(stopWatch).append("\n");
+        }
+        FileUtils.writeStringToFile(logFile, log.toString());
+    }
+
+    public void testCachedStatisticsMatchParse() throws Exception {
+        assertNull(LogStatisticsCache.read(logFile, 1000L, false));
+
+        List<GroupedTimingStatistics> statistics = parse(1000L, false);
+        LogStatisticsCache.write(logFile, 1000L, false, statistics);
+        assertEquals(statistics, LogStatisticsCache.read(logFile, 1000L, false));
+        assertTrue(LogStatisticsCache.getCacheFile(logFile).length() < logFile.length());
+
+        //the statistics computed with other options are cached next to these ones, and replaced when recomputed
+        List<GroupedTimingStatistics> rollupStatistics = parse(1000L, true);
+        LogStatisticsCache.write(logFile, 1000L, true, rollupStatistics);
+        List<GroupedTimingStatistics> longStatistics = parse(5000L, false);
+        LogStatisticsCache.write(logFile, 5000L, false, longStatistics);
+        LogStatisticsCache.write(logFile, 1000L, false, statistics);
+        assertEquals(statistics, LogStatisticsCache.read(logFile, 1000L, false));
+        assertEquals(rollupStatistics, LogStatisticsCache.read(logFile, 1000L, true));
+        assertEquals(longStatistics, LogStatisticsCache.read(logFile, 5000L, false));
+        assertFalse(rollupStatistics.equals(statistics));
+        assertNull(LogStatisticsCache.read(logFile, 2000L, false));
+
+        //statistics computed with other histogram settings are not returned
+        int significantDigits = TimingStatistics.getHistogramSignificantDigits();
+        TimingStatistics.setHistogramSignificantDigits(significantDigits + 1);
+        try {
+            assertNull(LogStatisticsCache.read(logFile, 1000L, false));
+        } finally {
+            TimingStatistics.setHistogramSignificantDigits(significantDigits);
+        }
+    }
+
+    public void testChangedLogInvalidatesCache() throws Exception {
+        LogStatisticsCache.write(logFile, 1000L, false, parse(1000L, false));
+        LogStatisticsCache.write(logFile, 1000L, true, parse(1000L, true));
+
+        FileWriter out = new FileWriter(logFile, true);
+        out.write("INFO TimingLogger - start[1230068999999] time[5] tag[late]\n");
+        out.close();
+        assertNull(LogStatisticsCache.read(logFile, 1000L, false));
+
+        //the entries of the old log are dropped
+        LogStatisticsCache.write(logFile, 1000L, false, parse(1000L, false));
+        assertNotNull(LogStatisticsCache.read(logFile, 1000L, false));
+        assertNull(LogStatisticsCache.read(logFile, 1000L, true));
+
+        //a log rewritten with the same length and time isn't recognized by its fingerprint
+        long lastModified = logFile.lastModified();
+        RandomAccessFile file = new RandomAccessFile(logFile, "rw");
+        file.seek(10);
+        file.write('X');
+        file.close();
+        logFile.setLastModified(lastModified);
+        assertNull(LogStatisticsCache.read(logFile, 1000L, false));
+    }
+
+    public void testCorruptCacheIsIgnored() throws Exception {
+        LogStatisticsCache.write(logFile, 1000L, false, parse(1000L, false));
+        File cacheFile = LogStatisticsCache.getCacheFile(logFile);
+        RandomAccessFile file = new RandomAccessFile(cacheFile, "rw");
+        file.seek(cacheFile.length() / 2);
+        file.write(new byte[64]);
+        file.close();
+        assertNull(LogStatisticsCache.read(logFile, 1000L, false));
+
+        file = new RandomAccessFile(cacheFile, "rw");
+        file.setLength(cacheFile.length() / 3);
+        file.close();
+        assertNull(LogStatisticsCache.read(logFile, 1000L, false));
+    }
+
+    public void testSidecarsAreNotLogFiles() throws Exception {
+        LogStatisticsCache.write(logFile, 1000L, false, parse(1000L, false));
+        LogTimeIndex.update(logFile);
+        assertEquals(Arrays.asList(logFile), LogFiles.expand(logDirectory.getPath()));
+        assertEquals(Arrays.asList(logFile), LogFiles.expand(logFile.getPath() + "*"));
+    }
+
+    // --- Helper Methods ---
+
+    private List<GroupedTimingStatistics> parse(long timeSlice, boolean createRollupStatistics) throws Exception {
+        List<GroupedTimingStatistics> retVal = new ArrayList<GroupedTimingStatistics>();
+        GroupingStatisticsIterator statsIter = new GroupingStatisticsIterator(
+                new StopWatchLogIterator(LogFiles.openReader(logFile)), timeSlice, createRollupStatistics);
+        while (statsIter.hasNext()) {
+            retVal.add(statsIter.next());
+        }
+        return retVal;
+    }
+}
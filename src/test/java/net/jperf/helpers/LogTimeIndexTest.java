@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import junit.framework.TestCase;
+import net.jperf.StopWatch;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests the LogTimeIndex.
+ */
+public class LogTimeIndexTest extends TestCase {
+    private static final long FIRST_START_TIME = 1230068856846L;
+
+    private File logFile = new File("./target/logTimeIndexTest.log");
+
+    protected void setUp() throws Exception {
+        logFile.delete();
+        LogTimeIndex.getIndexFile(logFile).delete();
+    }
+
+    public void testRangesFindEveryStopWatch() throws Exception {
+        long lastStartTime = writeLog(logFile, FIRST_START_TIME, 5000, new Random(1L), false);
+        assertNull(LogTimeIndex.read(logFile));
+        LogTimeIndex index = LogTimeIndex.update(logFile, 2048);
+        assertTrue(index.getBlockCount() > 50);
+        assertEquals(logFile.length(), index.getIndexedLength());
+        assertEquals(index.getBlockCount(), LogTimeIndex.read(logFile).getBlockCount());
+
+        Random random = new Random(2L);
+        for (int i = 0; i < 50; i++) {
+            long fromTime = FIRST_START_TIME - 5000 + random.nextInt((int) (lastStartTime - FIRST_START_TIME) + 10000);
+            long toTime = fromTime + random.nextInt(10000);
+            assertRangeMatchesFullScan(new StopWatchFilter(fromTime, toTime, null));
+        }
+        assertRangeMatchesFullScan(new StopWatchFilter(Long.MIN_VALUE, FIRST_START_TIME, null));
+        assertRangeMatchesFullScan(new StopWatchFilter(lastStartTime + 1, Long.MAX_VALUE, null));
+
+        //a short range only reads a small part of the log
+        long middle = (FIRST_START_TIME + lastStartTime) / 2;
+        long length = index.getEndOffset(middle + 1000) - index.getStartOffset(middle);
+        assertTrue(length > 0 && length < logFile.length() / 10);
+    }
+
+    public void testIncrementalUpdate() throws Exception {
+        Random random = new Random(3L);
+        long lastStartTime = writeLog(logFile, FIRST_START_TIME, 2000, random, false);
+        //a line still being written isn't indexed
+        appendToLog("INFO TimingLogger - start[" + (lastStartTime + 5));
+        LogTimeIndex index = LogTimeIndex.update(logFile, 2048);
+        int blockCount = index.getBlockCount();
+        long indexedLength = index.getIndexedLength();
+        assertTrue(indexedLength < logFile.length());
+        assertEquals(Long.MAX_VALUE, index.getEndOffset(FIRST_START_TIME));
+        assertRangeMatchesFullScan(new StopWatchFilter(lastStartTime - 500, lastStartTime + 500, null));
+
+        appendToLog("] time[10] tag[finished]\n");
+        lastStartTime = writeLog(logFile, lastStartTime + 10, 2000, random, true);
+        index = LogTimeIndex.update(logFile, 2048);
+        assertTrue(index.getBlockCount() > blockCount);
+        assertEquals(logFile.length(), index.getIndexedLength());
+        //only the new blocks were appended to the index file
+        assertEquals(24 + 32L * index.getBlockCount(), LogTimeIndex.getIndexFile(logFile).length());
+        assertRangeMatchesFullScan(new StopWatchFilter(lastStartTime - 20000, lastStartTime - 18000, null));
+        assertRangeMatchesFullScan(new StopWatchFilter(FIRST_START_TIME, FIRST_START_TIME + 3000, null));
+
+        //an update without new lines changes nothing
+        assertEquals(index.getBlockCount(), LogTimeIndex.update(logFile, 2048).getBlockCount());
+    }
+
+    public void testStaleIndexIsIgnored() throws Exception {
+        writeLog(logFile, FIRST_START_TIME, 1000, new Random(4L), false);
+        LogTimeIndex.update(logFile, 2048);
+        assertNotNull(LogTimeIndex.read(logFile));
+
+        //a rotated log starts with different lines
+        writeLog(logFile, FIRST_START_TIME + 100000, 500, new Random(5L), false);
+        assertNull(LogTimeIndex.read(logFile));
+        assertRangeMatchesFullScan(new StopWatchFilter(FIRST_START_TIME, FIRST_START_TIME + 3000, null));
+        LogTimeIndex index = LogTimeIndex.update(logFile, 2048);
+        assertEquals(logFile.length(), index.getIndexedLength());
+
+        //a truncated log is shorter than the index
+        String log = FileUtils.readFileToString(logFile);
+        FileUtils.writeStringToFile(logFile, log.substring(0, log.length() / 2));
+        assertNull(LogTimeIndex.read(logFile));
+    }
+
+    // --- Helper Methods ---
+
+    /**
+     * Writes a log whose start times are mostly, but not always, in order, with mixed line terminators and lines with
+     * several StopWatches.
+     *
+     * @return The largest start time in the log.
+     */
+    private long writeLog(File file, long startTime, int numLines, Random random, boolean append) throws Exception {
+        StringBuilder log = new StringBuilder();
+        long retVal = startTime;
+        for (int i = 0; i < numLines; i++) {
+            startTime += random.nextInt(20);
+            long lineStartTime = (random.nextInt(10) == 0) ? startTime - random.nextInt(3000) : startTime;
+            log.append("INFO TimingLogger - ").append(new StopWatch(lineStartTime, random.nextInt(500), "tag", null));
+            if (random.nextInt(8) == 0) {
+                log.append(" and ").append(new StopWatch(startTime + 1, 7L, "other", null));
+                retVal = Math.max(retVal, startTime + 1);
+            }
+            retVal = Math.max(retVal, lineStartTime);
+            log.append(random.nextBoolean() ? "\n" : (random.nextBoolean() ? "\r\n" : "\r"));
+        }
+        //the log ends with a complete line
+        log.append('\n');
+
+        FileWriter writer = new FileWriter(file, append);
+        writer.write(log.toString());
+        writer.close();
+        return retVal;
+    }
+
+    private void appendToLog(String text) throws Exception {
+        FileWriter writer = new FileWriter(logFile, true);
+        writer.write(text);
+        writer.close();
+    }
+
+    private void assertRangeMatchesFullScan(StopWatchFilter filter) throws Exception {
+        assertEquals(filter.toString(),
+                     readStopWatches(new FileReader(logFile), filter),
+                     readStopWatches(LogTimeIndex.openReader(logFile, filter), filter));
+    }
+
+    private List<String> readStopWatches(Reader reader, StopWatchFilter filter) throws Exception {
+        List<String> retVal = new ArrayList<String>();
+        try {
+            for (Iterator<StopWatch> iter = new StopWatchLogIterator(reader, filter); iter.hasNext();) {
+                retVal.add(iter.next().toString());
+            }
+        } finally {
+            reader.close();
+        }
+        return retVal;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import junit.framework.TestCase;
+import net.jperf.StopWatch;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Tests the MergingStopWatchLogIterator and LogFiles.
+ */
+public class MergingStopWatchLogIteratorTest extends TestCase {
+    private File logDirectory = new File("./target/mergingStopWatchLogIteratorTest");
+
+    protected void setUp() throws Exception {
+        FileUtils.deleteDirectory(logDirectory);
+        assertTrue(new File(logDirectory, "host1").mkdirs());
+        assertTrue(new File(logDirectory, "host2").mkdirs());
+    }
+
+    public void testMergesInStartTimeOrder() throws Exception {
+        Random random = new Random(1L);
+        List<File> logFiles = new ArrayList<File>();
+        List<StopWatch> expected = new ArrayList<StopWatch>();
+        for (int i = 0; i < 4; i++) {
+            List<StopWatch> stopWatches = new ArrayList<StopWatch>();
+            long startTime = 1230068856846L;
+            for (int j = 0; j < 500 + i * 100; j++) {
+                //some start times are the same in different files
+                startTime += random.nextInt(10);
+                stopWatches.add(new StopWatch(startTime, random.nextInt(100), "tag" + i, "file " + i + " #" + j));
+            }
+            File logFile = new File(logDirectory, "host" + (i % 2 + 1) + "/timing.log." + i + ((i == 1) ? ".gz" : ""));
+            writeLog(logFile, stopWatches, i == 1);
+            logFiles.add(logFile);
+            expected.addAll(stopWatches);
+        }
+        //a stable sort keeps StopWatches with the same start time in file order
+        Collections.sort(expected, new Comparator<StopWatch>() {
+            public int compare(StopWatch stopWatch1, StopWatch stopWatch2) {
+                long startTime1 = stopWatch1.getStartTime();
+                long startTime2 = stopWatch2.getStartTime();
+                return (startTime1 < startTime2) ? -1 : ((startTime1 == startTime2) ? 0 : 1);
+            }
+        });
+
+        for (int batchSize : new int[]{1, 7, MergingStopWatchLogIterator.DEFAULT_BATCH_SIZE}) {
+            for (int parallelism = 1; parallelism <= 8; parallelism *= 2) {
+                MergingStopWatchLogIterator iter = new MergingStopWatchLogIterator(logFiles, parallelism, batchSize);
+                try {
+                    for (StopWatch expectedStopWatch : expected) {
+                        assertTrue(iter.hasNext());
+                        assertEquals(expectedStopWatch.toString(), iter.next().toString());
+                    }
+                    assertFalse(iter.hasNext());
+                } finally {
+                    iter.close();
+                }
+            }
+        }
+    }
+
+    public void testOutOfOrderStopWatchesAreMergedByTheStopWatchBeforeThem() throws Exception {
+        //the StopWatch at 200 is logged after the one at 300, so the one at 250 from the other file is merged before it
+        File firstLog = new File(logDirectory, "host1/timing.log");
+        writeLog(firstLog, Arrays.asList(new StopWatch(100L, 1L, "tag", null),
+                                         new StopWatch(300L, 1L, "tag", null),
+                                         new StopWatch(200L, 1L, "tag", null)), false);
+        File secondLog = new File(logDirectory, "host2/timing.log");
+        writeLog(secondLog, Arrays.asList(new StopWatch(250L, 1L, "tag", null)), false);
+
+        MergingStopWatchLogIterator iter = new MergingStopWatchLogIterator(Arrays.asList(firstLog, secondLog), 2);
+        try {
+            for (long expectedStartTime : new long[]{100L, 250L, 300L, 200L}) {
+                assertTrue(iter.hasNext());
+                assertEquals(expectedStartTime, iter.next().getStartTime());
+            }
+            assertFalse(iter.hasNext());
+        } finally {
+            iter.close();
+        }
+    }
+
+    public void testEmptyAndMissingLogs() throws Exception {
+        File emptyLog = new File(logDirectory, "host1/empty.log");
+        FileUtils.writeStringToFile(emptyLog, "");
+        MergingStopWatchLogIterator iter = new MergingStopWatchLogIterator(Arrays.asList(emptyLog), 2);
+        assertFalse(iter.hasNext());
+        iter.close();
+
+        iter = new MergingStopWatchLogIterator(Arrays.asList(emptyLog, new File(logDirectory, "missing.log")), 1);
+        try {
+            iter.hasNext();
+            fail("A missing log should fail");
+        } catch (IllegalStateException ise) {
+            //expected
+        } finally {
+            iter.close();
+        }
+    }
+
+    public void testLogFiles() throws Exception {
+        for (String name : new String[]{"host1/timing.log", "host1/timing.log.1.gz", "host1/.timing.log.swp",
+                                        "host1/other.log", "host2/timing.log", "host2/timing.log.2"}) {
+            FileUtils.writeStringToFile(new File(logDirectory, name), "");
+        }
+        String directory = logDirectory.getPath();
+
+        assertEquals(Arrays.asList(new File(directory, "host1/other.log"),
+                                   new File(directory, "host1/timing.log"),
+                                   new File(directory, "host1/timing.log.1.gz")),
+                     LogFiles.expand(directory + "/host1"));
+        assertEquals(Arrays.asList(new File(directory, "host1/timing.log"),
+                                   new File(directory, "host1/timing.log.1.gz"),
+                                   new File(directory, "host2/timing.log"),
+                                   new File(directory, "host2/timing.log.2")),
+                     LogFiles.expand(directory + "/host*/timing.log*"));
+        assertEquals(Arrays.asList(new File(directory, "host1/timing.log.1.gz"),
+                                   new File(directory, "host2/timing.log.2")),
+                     LogFiles.expand(directory + "/host?/timing.log.[0-9]*"));
+        assertEquals(Arrays.asList(new File(directory, "host1/other.log"),
+                                   new File(directory, "host1/timing.log"),
+                                   new File(directory, "host2/timing.log")),
+                     LogFiles.expand(directory + "/host[!3]/{other,timing}.log"));
+        assertEquals(Arrays.asList(new File(directory, "host2/timing.log")),
+                     LogFiles.expand(directory + "/host2/timing.log"));
+        assertEquals(Arrays.asList(new File(directory, "missing.log")),
+                     LogFiles.expand(directory + "/missing.log"));
+        assertTrue(LogFiles.expand(directory + "/host*/missing*").isEmpty());
+
+        List<StopWatch> stopWatches = Arrays.asList(new StopWatch(1000L, 10L, "tag", "message"));
+        File gzippedLog = new File(logDirectory, "host1/timing.log.1.gz");
+        writeLog(gzippedLog, stopWatches, true);
+        assertTrue(LogFiles.isGzipped(gzippedLog));
+        assertFalse(LogFiles.isGzipped(new File(logDirectory, "host1/timing.log")));
+        assertEquals(stopWatches.get(0).toString(),
+                     new StopWatchLogIterator(LogFiles.openReader(gzippedLog)).next().toString());
+    }
+
+    private void writeLog(File logFile, List<StopWatch> stopWatches, boolean gzip) throws Exception {
+        Writer writer = new OutputStreamWriter(gzip ?
+                                               new GZIPOutputStream(new FileOutputStream(logFile)) :
+                                               new FileOutputStream(logFile));
+        try {
+            for (StopWatch stopWatch : stopWatches) {
+                writer.write("INFO TimingLogger - " + stopWatch + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+}
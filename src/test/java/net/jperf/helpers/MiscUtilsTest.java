@@ -20,6 +20,7 @@ import junit.framework.Assert;
 import junit.framework.TestCase;
 
 import java.util.GregorianCalendar;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Tests the helper methods of the MiscUtils class
@@ -46,4 +47,40 @@ public class MiscUtilsTest extends TestCase {
         Assert.assertEquals("2010-10-31 08:59:59",
                 MiscUtils.formatDateIso8601(new GregorianCalendar(2010, 9, 31, 8, 59, 59).getTimeInMillis()));
     }
+
+    public void testParseDateIso8601() throws Throwable {
+        long time = new GregorianCalendar(2010, 9, 31, 8, 59, 59).getTimeInMillis();
+        Assert.assertEquals(time, MiscUtils.parseDateIso8601(MiscUtils.formatDateIso8601(time)));
+        Assert.assertEquals(time, MiscUtils.parseDateIso8601("2010-10-31T08:59:59"));
+        Assert.assertEquals(time - 59000L, MiscUtils.parseDateIso8601("2010-10-31 08:59"));
+        Assert.assertEquals(new GregorianCalendar(2010, 9, 31).getTimeInMillis(),
+                            MiscUtils.parseDateIso8601("2010-10-31"));
+        try {
+            MiscUtils.parseDateIso8601("2010-10-31 8 o'clock");
+            Assert.fail();
+        } catch (IllegalArgumentException iae) {
+            //expected
+        }
+    }
+
+    public void testTimeUnits() throws Throwable {
+        for (TimeUnit timeUnit : new TimeUnit[]{TimeUnit.NANOSECONDS, TimeUnit.MICROSECONDS, TimeUnit.MILLISECONDS}) {
+            Assert.assertSame(timeUnit, MiscUtils.parseTimeUnit(MiscUtils.timeUnitSymbol(timeUnit)));
+            Assert.assertSame(timeUnit, MiscUtils.parseTimeUnit(timeUnit.name().toLowerCase()));
+        }
+        Assert.assertEquals("us", MiscUtils.timeUnitSymbol(TimeUnit.MICROSECONDS));
+        Assert.assertSame(TimeUnit.NANOSECONDS, MiscUtils.parseTimeUnit("NS"));
+        try {
+            MiscUtils.parseTimeUnit("s");
+            Assert.fail();
+        } catch (IllegalArgumentException iae) {
+            //expected
+        }
+        try {
+            MiscUtils.timeUnitSymbol(TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (IllegalArgumentException iae) {
+            //expected
+        }
+    }
 }
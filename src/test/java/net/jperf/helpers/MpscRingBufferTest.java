@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the MpscRingBuffer.
+ */
+public class MpscRingBufferTest extends TestCase {
+
+    public void testCapacityRoundedToPowerOfTwo() {
+        assertEquals(1, new MpscRingBuffer<String>(1).getCapacity());
+        assertEquals(8, new MpscRingBuffer<String>(5).getCapacity());
+        assertEquals(1024, new MpscRingBuffer<String>(1024).getCapacity());
+
+        try {
+            new MpscRingBuffer<String>(0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException iae) {
+            //expected
+        }
+    }
+
+    public void testOfferPollAndDrain() throws Exception {
+        MpscRingBuffer<String> buffer = new MpscRingBuffer<String>(4);
+        assertTrue(buffer.isEmpty());
+        assertNull(buffer.poll());
+
+        assertTrue(buffer.offer("a"));
+        assertTrue(buffer.offer("b"));
+        assertTrue(buffer.offer("c"));
+        assertTrue(buffer.offer("d"));
+        assertFalse("Buffer should be full", buffer.offer("e"));
+        assertEquals(4, buffer.size());
+
+        assertEquals("a", buffer.poll());
+        assertTrue(buffer.offer("e"));
+
+        List<String> drained = new ArrayList<String>();
+        assertEquals(2, buffer.drainTo(drained, 2));
+        assertEquals(2, buffer.drainTo(drained, 10));
+        assertEquals(0, buffer.drainTo(drained, 10));
+        assertEquals("[b, c, d, e]", drained.toString());
+
+        //wrap around the ring several times
+        for (int i = 0; i < 100; i++) {
+            assertTrue(buffer.offer("x" + i));
+            assertEquals("x" + i, buffer.poll(1, TimeUnit.SECONDS));
+        }
+
+        assertNull(buffer.poll(10, TimeUnit.MILLISECONDS));
+        assertTrue(buffer.isEmpty());
+    }
+
+    public void testWaitStrategyForName() {
+        assertSame(MpscRingBuffer.SPIN, MpscRingBuffer.waitStrategyForName("spin"));
+        assertSame(MpscRingBuffer.YIELD, MpscRingBuffer.waitStrategyForName("Yield"));
+        assertSame(MpscRingBuffer.PARK, MpscRingBuffer.waitStrategyForName("PARK"));
+
+        try {
+            MpscRingBuffer.waitStrategyForName("sleep");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException iae) {
+            //expected
+        }
+    }
+
+    public void testPollIsInterruptible() throws Exception {
+        MpscRingBuffer<String> buffer = new MpscRingBuffer<String>(4, MpscRingBuffer.SPIN);
+        Thread.currentThread().interrupt();
+        try {
+            buffer.poll(10, TimeUnit.SECONDS);
+            fail("Expected InterruptedException");
+        } catch (InterruptedException ie) {
+            //expected
+        }
+    }
+
+    public void testMultipleProducers() throws Exception {
+        for (MpscRingBuffer.WaitStrategy waitStrategy :
+                new MpscRingBuffer.WaitStrategy[] { MpscRingBuffer.SPIN, MpscRingBuffer.YIELD, MpscRingBuffer.PARK }) {
+            runMultipleProducers(new MpscRingBuffer<Integer>(64, waitStrategy));
+        }
+    }
+
+    protected void runMultipleProducers(final MpscRingBuffer<Integer> buffer) throws Exception {
+        final int numProducers = 4;
+        final int perProducer = 20000;
+        final CountDownLatch startLatch = new CountDownLatch(1);
+
+        for (int i = 0; i < numProducers; i++) {
+            final int producerId = i;
+            Thread producer = new Thread() {
+                public void run() {
+                    try {
+                        startLatch.await();
+                        for (int j = 0; j < perProducer; j++) {
+                            buffer.put(producerId * perProducer + j);
+                        }
+                    } catch (InterruptedException ie) {
+                        //test will fail
+                    }
+                }
+            };
+            producer.setDaemon(true);
+            producer.start();
+        }
+        startLatch.countDown();
+
+        //every element must be seen exactly once, and each producer's elements must be seen in order
+        boolean[] seen = new boolean[numProducers * perProducer];
+        int[] lastSeenByProducer = new int[numProducers];
+        java.util.Arrays.fill(lastSeenByProducer, -1);
+        List<Integer> batch = new ArrayList<Integer>();
+        int received = 0;
+        while (received < seen.length) {
+            batch.clear();
+            if (buffer.drainTo(batch, 32) == 0) {
+                Integer element = buffer.poll(10, TimeUnit.SECONDS);
+                assertNotNull("Timed out waiting for producers", element);
+                batch.add(element);
+            }
+            for (Integer element : batch) {
+                assertFalse("Duplicate element " + element, seen[element]);
+                seen[element] = true;
+                int producerId = element / perProducer;
+                assertTrue(element > lastSeenByProducer[producerId]);
+                lastSeenByProducer[producerId] = element;
+                received++;
+            }
+        }
+        assertTrue(buffer.isEmpty());
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the throughput of the MpscRingBuffer used by the GenericAsyncCoalescingStatisticsAppender with the
+ * ArrayBlockingQueue it replaced. This is not run as part of the unit tests; run it from the command line with
+ * <pre>
+ * java -cp target/classes:target/test-classes net.jperf.helpers.MpscRingBufferThroughput [millisPerRun]
+ * </pre>
+ * Each run has N producer threads offering messages as fast as possible to a queue with the default appender
+ * capacity of 1024, while a single consumer drains them in batches the way the appender's draining thread does.
+ * Messages that don't fit are discarded, just like in the appender. The reported throughput is the number of
+ * messages the consumer received per second.
+ */
+public class MpscRingBufferThroughput {
+
+    private static final int[] PRODUCER_COUNTS = { 1, 8, 32, 64 };
+    private static final int QUEUE_SIZE = 1024;
+    private static final int BATCH_SIZE = 256;
+    private static final Object MESSAGE = "start[1230068856846] time[2] tag[tag1]";
+
+    /**
+     * The minimal queue operations needed by a run, so both queue types are exercised by identical code.
+     */
+    private interface Queue {
+        boolean offer(Object message);
+        int drainTo(List<Object> batch, int maxElements);
+        Object poll(long timeout, TimeUnit unit) throws InterruptedException;
+    }
+
+    public static void main(String[] args) throws Exception {
+        long millisPerRun = (args.length > 0) ? Long.parseLong(args[0]) : 2000L;
+
+        System.out.println("Available processors: " + Runtime.getRuntime().availableProcessors());
+        System.out.println("producers  ArrayBlockingQueue (msgs/s)  MpscRingBuffer (msgs/s)  speedup");
+        for (int producers : PRODUCER_COUNTS) {
+            //warm up each implementation before measuring
+            run(newArrayBlockingQueue(), producers, millisPerRun / 4);
+            run(newRingBuffer(), producers, millisPerRun / 4);
+
+            double blockingQueueRate = run(newArrayBlockingQueue(), producers, millisPerRun);
+            double ringBufferRate = run(newRingBuffer(), producers, millisPerRun);
+            System.out.println(String.format("%9d  %27.0f  %23.0f  %6.2fx",
+                                             producers, blockingQueueRate, ringBufferRate,
+                                             ringBufferRate / blockingQueueRate));
+        }
+    }
+
+    private static Queue newArrayBlockingQueue() {
+        final ArrayBlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(QUEUE_SIZE);
+        return new Queue() {
+            public boolean offer(Object message) { return queue.offer(message); }
+            public int drainTo(List<Object> batch, int maxElements) { return queue.drainTo(batch, maxElements); }
+            public Object poll(long timeout, TimeUnit unit) throws InterruptedException {
+                return queue.poll(timeout, unit);
+            }
+        };
+    }
+
+    private static Queue newRingBuffer() {
+        final MpscRingBuffer<Object> queue = new MpscRingBuffer<Object>(QUEUE_SIZE);
+        return new Queue() {
+            public boolean offer(Object message) { return queue.offer(message); }
+            public int drainTo(List<Object> batch, int maxElements) { return queue.drainTo(batch, maxElements); }
+            public Object poll(long timeout, TimeUnit unit) throws InterruptedException {
+                return queue.poll(timeout, unit);
+            }
+        };
+    }
+
+    /**
+     * Runs the specified number of producers against the queue for the specified time.
+     *
+     * @return The number of messages received by the consumer per second.
+     */
+    private static double run(final Queue queue, int numProducers, long millis) throws Exception {
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        Thread[] producers = new Thread[numProducers];
+
+        for (int i = 0; i < numProducers; i++) {
+            producers[i] = new Thread() {
+                public void run() {
+                    try {
+                        startLatch.await();
+                    } catch (InterruptedException ie) {
+                        return;
+                    }
+                    while (!isInterrupted()) {
+                        queue.offer(MESSAGE);
+                    }
+                }
+            };
+            producers[i].start();
+        }
+
+        List<Object> batch = new ArrayList<Object>(BATCH_SIZE);
+        long received = 0;
+        startLatch.countDown();
+        long startTime = System.nanoTime();
+        long endTime = startTime + TimeUnit.MILLISECONDS.toNanos(millis);
+        while (System.nanoTime() < endTime) {
+            batch.clear();
+            int drained = queue.drainTo(batch, BATCH_SIZE);
+            if (drained == 0 && queue.poll(10, TimeUnit.MILLISECONDS) != null) {
+                drained = 1;
+            }
+            received += drained;
+        }
+        long elapsed = System.nanoTime() - startTime;
+
+        for (Thread producer : producers) {
+            producer.interrupt();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        return received * 1e9 / elapsed;
+    }
+}
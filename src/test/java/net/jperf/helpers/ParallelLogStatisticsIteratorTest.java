@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import junit.framework.TestCase;
+import net.jperf.GroupedTimingStatistics;
+import net.jperf.StopWatch;
+import org.apache.commons.io.FileUtils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests that the ParallelLogStatisticsIterator returns exactly the statistics of a sequential parse.
+ */
+public class ParallelLogStatisticsIteratorTest extends TestCase {
+
+    public void testMatchesSequentialParse() throws Exception {
+        File logFile = writeLog("parallelLogStatisticsIteratorTest.log", 5000, 1L);
+        for (boolean createRollupStatistics : new boolean[]{false, true}) {
+            List<GroupedTimingStatistics> expected = parseSequentially(logFile, 1000L, createRollupStatistics);
+            assertTrue(expected.size() > 10);
+
+            //tiny chunks put many time slices across chunk boundaries, and big ones put several in each chunk
+            for (long chunkSize : new long[]{50L, 333L, 4096L, 65536L, 1L << 20}) {
+                for (int parallelism = 1; parallelism <= 4; parallelism *= 2) {
+                    ParallelLogStatisticsIterator iter = new ParallelLogStatisticsIterator(
+                            logFile, 1000L, createRollupStatistics, parallelism, chunkSize);
+                    assertSameStatistics("chunkSize " + chunkSize + ", parallelism " + parallelism,
+                                         expected, iter);
+                }
+            }
+        }
+    }
+
+    public void testCustomParserMatchesSequentialParse() throws Exception {
+        File logFile = writeLog("parallelLogStatisticsIteratorRegexTest.log", 2000, 2L);
+        List<GroupedTimingStatistics> expected = parseSequentially(logFile, 1000L, false);
+
+        ParallelLogStatisticsIterator iter = new ParallelLogStatisticsIterator(logFile, 1000L, false, 3, 200L) {
+            protected StopWatchParser newStopWatchParser() {
+                return new StopWatchParserTest.RegexStopWatchParser();
+            }
+        };
+        assertSameStatistics("regex parser", expected, iter);
+    }
+
+    public void testLinesLongerThanMappedWindow() throws Exception {
+        StringBuilder padding = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            padding.append((char) ('a' + i % 26));
+        }
+        StringBuilder log = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            log.append(padding).append(' ').append(new StopWatch(1230068856846L + i * 400L, i, "tag" + i % 3, null));
+            log.append((i % 2 == 0) ? "\r\n" : "\n");
+        }
+        File logFile = new File("./target/parallelLogStatisticsIteratorLongLinesTest.log");
+        FileUtils.writeStringToFile(logFile, log.toString());
+
+        List<GroupedTimingStatistics> expected = parseSequentially(logFile, 1000L, false);
+        for (long chunkSize : new long[]{1000L, 150000L, 1L << 20}) {
+            assertSameStatistics("chunkSize " + chunkSize, expected,
+                                 new ParallelLogStatisticsIterator(logFile, 1000L, false, 2, chunkSize));
+        }
+    }
+
+    public void testEmptyLog() throws Exception {
+        File logFile = new File("./target/parallelLogStatisticsIteratorEmptyTest.log");
+        FileUtils.writeStringToFile(logFile, "");
+        ParallelLogStatisticsIterator iter = new ParallelLogStatisticsIterator(logFile, 1000L, false, 2);
+        assertFalse(iter.hasNext());
+        iter.close();
+
+        FileUtils.writeStringToFile(logFile, "no stopwatches here\nor here\n");
+        iter = new ParallelLogStatisticsIterator(logFile, 1000L, false, 2, 5L);
+        assertFalse(iter.hasNext());
+        iter.close();
+    }
+
+    // --- Helper Methods ---
+
+    /**
+     * Writes a log whose start times are mostly, but not always, in order, with mixed line terminators, lines that
+     * aren't StopWatches and lines with two StopWatches.
+     */
+    private File writeLog(String fileName, int numLines, long seed) throws Exception {
+        Random random = new Random(seed);
+        StringBuilder log = new StringBuilder();
+        long startTime = 1230068856846L;
+        for (int i = 0; i < numLines; i++) {
+            startTime += random.nextInt(20);
+            long lineStartTime = (random.nextInt(10) == 0) ? startTime - random.nextInt(3000) : startTime;
+            StopWatch stopWatch = new StopWatch(lineStartTime, random.nextInt(500),
+                                                "tag" + random.nextInt(5) + ".sub" + random.nextInt(3), "msg " + i);
+            switch (random.nextInt(8)) {
+                case 0:
+                    log.append("INFO some other log message\n");
+                    break;
+                case 1:
+                    log.append(stopWatch).append(" and ").append(new StopWatch(startTime + 1, 7L, "tag9", null));
+                    break;
+                default:
+                    log.append("INFO TimingLogger - ").append(stopWatch);
+            }
+            log.append(random.nextBoolean() ? "\n" : (random.nextBoolean() ? "\r\n" : "\r"));
+        }
+
+        File retVal = new File("./target/" + fileName);
+        FileUtils.writeStringToFile(retVal, log.toString());
+        return retVal;
+    }
+
+    private List<GroupedTimingStatistics> parseSequentially(File logFile, long timeSlice,
+                                                            boolean createRollupStatistics) throws Exception {
+        List<GroupedTimingStatistics> retVal = new ArrayList<GroupedTimingStatistics>();
+        Reader reader = new BufferedReader(new FileReader(logFile));
+        try {
+            Iterator<GroupedTimingStatistics> iter = new GroupingStatisticsIterator(new StopWatchLogIterator(reader),
+                                                                                    timeSlice,
+                                                                                    createRollupStatistics);
+            while (iter.hasNext()) {
+                retVal.add(iter.next());
+            }
+        } finally {
+            reader.close();
+        }
+        return retVal;
+    }
+
+    private void assertSameStatistics(String message, List<GroupedTimingStatistics> expected,
+                                      ParallelLogStatisticsIterator iter) throws Exception {
+        GroupedTimingStatisticsCsvFormatter csvFormatter = new GroupedTimingStatisticsCsvFormatter();
+        try {
+            for (GroupedTimingStatistics expectedStatistics : expected) {
+                assertTrue(message, iter.hasNext());
+                GroupedTimingStatistics actualStatistics = iter.next();
+                //equals compares the means and standard deviations exactly, as do the formatted values
+                assertEquals(message, expectedStatistics, actualStatistics);
+                assertEquals(message, csvFormatter.format(expectedStatistics), csvFormatter.format(actualStatistics));
+            }
+            assertFalse(message, iter.hasNext());
+        } finally {
+            iter.close();
+        }
+    }
+}
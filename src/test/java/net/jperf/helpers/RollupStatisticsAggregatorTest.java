@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import net.jperf.GroupedTimingStatistics;
+import net.jperf.StopWatch;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedMap;
+
+/**
+ * Tests the RollupStatisticsAggregator.
+ */
+public class RollupStatisticsAggregatorTest extends TestCase {
+
+    /**
+     * RollupHandler that records each window and its time slice.
+     */
+    private static class CollectingRollupHandler implements RollupStatisticsAggregator.RollupHandler {
+        private final List<GroupedTimingStatistics> windows = new ArrayList<GroupedTimingStatistics>();
+        private final List<Long> timeSlices = new ArrayList<Long>();
+
+        public void handleRollup(GroupedTimingStatistics statistics, long timeSlice) {
+            windows.add(statistics);
+            timeSlices.add(timeSlice);
+        }
+    }
+
+    public void testCascadingWindows() {
+        CollectingRollupHandler handler = new CollectingRollupHandler();
+        RollupStatisticsAggregator aggregator =
+                new RollupStatisticsAggregator(10000L, new long[] { 300000L, 60000L }, handler);
+
+        //10 minutes of 10 second windows, each with a single 100ms StopWatch
+        for (long start = 0L; start < 600000L; start += 10000L) {
+            aggregator.add(newStatistics(start, 10000L, "tag", 100L));
+        }
+
+        //every 1 minute window completes, and every 5 minute window completes after its last minute
+        assertEquals(12, handler.windows.size());
+        assertEquals(Long.valueOf(60000L), handler.timeSlices.get(0));
+        assertEquals(Long.valueOf(300000L), handler.timeSlices.get(5));
+        assertEquals(Long.valueOf(300000L), handler.timeSlices.get(11));
+
+        GroupedTimingStatistics minute = handler.windows.get(0);
+        assertEquals(0L, minute.getStartTime());
+        assertEquals(60000L, minute.getStopTime());
+        assertEquals(6, minute.getStatisticsByTag().get("tag").getCount());
+
+        GroupedTimingStatistics fiveMinutes = handler.windows.get(11);
+        assertEquals(300000L, fiveMinutes.getStartTime());
+        assertEquals(600000L, fiveMinutes.getStopTime());
+        assertEquals(30, fiveMinutes.getStatisticsByTag().get("tag").getCount());
+        assertEquals(100.0, fiveMinutes.getStatisticsByTag().get("tag").getMean(), 0.0001);
+
+        //nothing is left over
+        aggregator.flush();
+        assertEquals(12, handler.windows.size());
+    }
+
+    public void testGapsAndFlush() {
+        CollectingRollupHandler handler = new CollectingRollupHandler();
+        RollupStatisticsAggregator aggregator =
+                new RollupStatisticsAggregator(10000L, new long[] { 60000L, 3600000L }, handler);
+
+        aggregator.add(newStatistics(10000L, 10000L, "tag1", 10L));
+        aggregator.add(newStatistics(20000L, 10000L, "tag2", 20L));
+        //skip ahead a few minutes, the first minute should be completed with what it had
+        aggregator.add(newStatistics(250000L, 10000L, "tag1", 30L));
+        assertEquals(1, handler.windows.size());
+        GroupedTimingStatistics first = handler.windows.get(0);
+        assertEquals(0L, first.getStartTime());
+        assertEquals(60000L, first.getStopTime());
+        assertEquals(new LinkedHashSet<String>(Arrays.asList("tag1", "tag2")), first.getStatisticsByTag().keySet());
+
+        aggregator.flush();
+        assertEquals(3, handler.windows.size());
+        assertEquals(Long.valueOf(60000L), handler.timeSlices.get(1));
+        assertEquals(240000L, handler.windows.get(1).getStartTime());
+        assertEquals(Long.valueOf(3600000L), handler.timeSlices.get(2));
+        GroupedTimingStatistics hour = handler.windows.get(2);
+        assertEquals(0L, hour.getStartTime());
+        assertEquals(3600000L, hour.getStopTime());
+        assertEquals(2, hour.getStatisticsByTag().get("tag1").getCount());
+        assertEquals(1, hour.getStatisticsByTag().get("tag2").getCount());
+
+        //the aggregator starts fresh after a flush
+        aggregator.flush();
+        assertEquals(3, handler.windows.size());
+    }
+
+    public void testInvalidTimeSlices() {
+        CollectingRollupHandler handler = new CollectingRollupHandler();
+        for (long[] timeSlices : new long[][] { { 45000L }, { 10000L }, { 60000L, 90000L }, { 60000L, 60000L } }) {
+            try {
+                new RollupStatisticsAggregator(10000L, timeSlices, handler);
+                fail("Expected IllegalArgumentException for " + Arrays.toString(timeSlices));
+            } catch (IllegalArgumentException iae) {
+                //expected
+            }
+        }
+
+        assertTrue(Arrays.equals(new long[] { 60000L, 3600000L },
+                                 RollupStatisticsAggregator.parseTimeSlices(" 60000, 3600000 ")));
+        assertEquals(0, RollupStatisticsAggregator.parseTimeSlices("").length);
+        try {
+            RollupStatisticsAggregator.parseTimeSlices("60000,1m");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException iae) {
+            //expected
+        }
+    }
+
+    public void testParseRoutes() {
+        SortedMap<Long, Set<String>> routes =
+                RollupStatisticsAggregator.parseRoutes("3600000:hourly1, hourly2; 60000:minutely;3600000:hourly3");
+        assertEquals(Arrays.asList(60000L, 3600000L), new ArrayList<Long>(routes.keySet()));
+        assertEquals(Arrays.asList("minutely"), new ArrayList<String>(routes.get(60000L)));
+        assertEquals(Arrays.asList("hourly1", "hourly2", "hourly3"), new ArrayList<String>(routes.get(3600000L)));
+        assertEquals("60000,3600000", RollupStatisticsAggregator.formatTimeSlices(routes.keySet()));
+        assertTrue(RollupStatisticsAggregator.parseRoutes(null).isEmpty());
+
+        try {
+            RollupStatisticsAggregator.parseRoutes("60000=minutely");
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException iae) {
+            //expected
+        }
+    }
+
+    private GroupedTimingStatistics newStatistics(long startTime, long timeSlice, String tag, long elapsedTime) {
+        GroupedTimingStatistics retVal = new GroupedTimingStatistics();
+        retVal.setStartTime(startTime);
+        retVal.setStopTime(startTime + timeSlice);
+        retVal.addStopWatch(new StopWatch(startTime, elapsedTime, tag, null));
+        return retVal;
+    }
+}
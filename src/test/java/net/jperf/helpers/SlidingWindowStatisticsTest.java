@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import net.jperf.GroupedTimingStatistics;
+import net.jperf.StopWatch;
+import net.jperf.TimingStatistics;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+/**
+ * Tests the SlidingWindowStatistics.
+ */
+public class SlidingWindowStatisticsTest extends TestCase {
+
+    public void testWindowSlidesWithStopWatches() {
+        //a 60 second window in 6 buckets of 10 seconds
+        SlidingWindowStatistics window = new SlidingWindowStatistics(60000L, 6);
+        assertEquals(10000L, window.getBucketLength());
+
+        //one StopWatch per second for 2 minutes, each taking as many ms as its second
+        for (long second = 0; second < 120; second++) {
+            window.addStopWatch(new StopWatch(second * 1000L, second, "tag", null));
+        }
+
+        //at 119.5s the window covers the 5 full buckets from 60s plus the current bucket up to 119.5s
+        GroupedTimingStatistics stats = window.getStatistics(119500L);
+        assertEquals(60000L, stats.getStartTime());
+        assertEquals(119500L, stats.getStopTime());
+        TimingStatistics tagStats = stats.getStatisticsByTag().get("tag");
+        assertEquals(60, tagStats.getCount());
+        assertEquals(60L, tagStats.getMin());
+        assertEquals(119L, tagStats.getMax());
+        assertEquals(89.5, tagStats.getMean(), 0.0001);
+
+        //as time passes without new StopWatches the old buckets drop out one by one
+        assertEquals(50, window.getStatistics(130000L).getStatisticsByTag().get("tag").getCount());
+        assertEquals(10, window.getStatistics(165000L).getStatisticsByTag().get("tag").getCount());
+        assertTrue(window.getStatistics(190000L).getStatisticsByTag().isEmpty());
+
+        //StopWatches too old for the ring are dropped
+        window.addStopWatch(new StopWatch(5000L, 1L, "old", null));
+        assertNull(window.getStatistics(119500L).getStatisticsByTag().get("old"));
+    }
+
+    public void testWindowFedByTimeSlices() {
+        SlidingWindowStatistics window = new SlidingWindowStatistics(30000L, 3);
+        for (long start = 0; start < 50000L; start += 10000L) {
+            GroupedTimingStatistics slice = new GroupedTimingStatistics();
+            slice.setStartTime(start);
+            slice.setStopTime(start + 10000L);
+            slice.addStopWatch(new StopWatch(start, 10L, "tag", null));
+            slice.addStopWatch(new StopWatch(start + 1L, 20L, "tag", null));
+            window.addStatistics(slice);
+        }
+
+        //the slice for 50-60s hasn't arrived yet, so the window ends at 50s rather than diluting the rate
+        GroupedTimingStatistics stats = window.getStatistics(52000L);
+        assertEquals(20000L, stats.getStartTime());
+        assertEquals(50000L, stats.getStopTime());
+        assertEquals(6, stats.getStatisticsByTag().get("tag").getCount());
+        Number tps = StatsValueRetriever.TPS_VALUE_RETRIEVER.getStatsValue(stats.getStatisticsByTag().get("tag"),
+                                                                           stats.getWindowLength());
+        assertEquals(0.2, tps.doubleValue(), 0.0001);
+        //but once the slice is late the window moves on regardless
+        assertEquals(2, window.getStatistics(65000L).getStatisticsByTag().get("tag").getCount());
+
+        //reading the window does not change the buckets
+        assertEquals(6, window.getStatistics(52000L).getStatisticsByTag().get("tag").getCount());
+    }
+
+    public void testInvalidConfiguration() {
+        for (long[] config : new long[][] { { 60000L, 0L }, { 60000L, 7L }, { 5L, 10L } }) {
+            try {
+                new SlidingWindowStatistics(config[0], (int) config[1]);
+                fail("Expected IllegalArgumentException for " + Arrays.toString(config));
+            } catch (IllegalArgumentException iae) {
+                //expected
+            }
+        }
+    }
+}
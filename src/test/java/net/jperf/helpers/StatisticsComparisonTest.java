@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import junit.framework.TestCase;
+import net.jperf.GroupedTimingStatistics;
+import net.jperf.StopWatch;
+import net.jperf.TimingStatistics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Tests the StatisticsComparison.
+ */
+public class StatisticsComparisonTest extends TestCase {
+
+    public void testPValue() {
+        assertEquals(1.0, StatisticsComparison.getTwoSidedPValue(0.0), 1e-6);
+        assertEquals(0.05, StatisticsComparison.getTwoSidedPValue(1.959964), 1e-6);
+        assertEquals(0.05, StatisticsComparison.getTwoSidedPValue(-1.959964), 1e-6);
+        assertEquals(0.01, StatisticsComparison.getTwoSidedPValue(2.575829), 1e-6);
+        assertEquals(0.0, StatisticsComparison.getTwoSidedPValue(Double.POSITIVE_INFINITY), 0.0);
+    }
+
+    public void testComparison() {
+        Random random = new Random(11L);
+        Map<String, TimingStatistics> baseline = new TreeMap<String, TimingStatistics>();
+        Map<String, TimingStatistics> candidate = new TreeMap<String, TimingStatistics>();
+        for (int i = 0; i < 2000; i++) {
+            addSample(baseline, "same", 100 + random.nextInt(50));
+            addSample(candidate, "same", 100 + random.nextInt(50));
+            addSample(baseline, "slower", 100 + random.nextInt(50));
+            addSample(candidate, "slower", 130 + random.nextInt(50));
+            //significant, but below the threshold
+            addSample(baseline, "slightlySlower", 100 + random.nextInt(50));
+            addSample(candidate, "slightlySlower", 105 + random.nextInt(50));
+            addSample(baseline, "faster", 200 + random.nextInt(50));
+            addSample(candidate, "faster", 100 + random.nextInt(50));
+            addSample(baseline, "removed", 10);
+        }
+        //above the threshold, but too few samples to be significant
+        addSample(baseline, "rare", 100);
+        addSample(baseline, "rare", 200);
+        addSample(candidate, "rare", 150);
+        addSample(candidate, "rare", 250);
+        addSample(candidate, "added", 10);
+
+        StatisticsComparison comparison = new StatisticsComparison(baseline, candidate, 10.0, 0.01);
+        Map<String, StatisticsComparison.TagComparison> comparisons = comparison.getComparisonsByTag();
+        assertEquals(Arrays.asList("added", "faster", "rare", "removed", "same", "slightlySlower", "slower"),
+                     new ArrayList<String>(comparisons.keySet()));
+        assertEquals(Arrays.asList("slower"), comparison.getRegressions());
+
+        StatisticsComparison.TagComparison slower = comparisons.get("slower");
+        assertTrue(slower.getZScore() > 0.0);
+        assertTrue(slower.getPValue() < 1e-9);
+        assertEquals(24.1, slower.getMeanChange(), 1.5);
+        assertEquals(24.1, slower.getPercentileChange(50.0), 3.0);
+        assertEquals("REGRESSION", slower.getResult());
+
+        assertTrue(comparisons.get("slightlySlower").isSignificant());
+        assertFalse(comparisons.get("slightlySlower").isRegression());
+        assertFalse(comparisons.get("same").isRegression());
+        assertFalse(comparisons.get("rare").isSignificant());
+        assertEquals("improvement", comparisons.get("faster").getResult());
+        assertTrue(comparisons.get("faster").getZScore() < 0.0);
+        assertEquals("baseline only", comparisons.get("removed").getResult());
+        assertEquals("candidate only", comparisons.get("added").getResult());
+        assertTrue(Double.isNaN(comparisons.get("added").getPValue()));
+
+        String table = comparison.toString();
+        assertTrue(table, table.indexOf("REGRESSION") > 0);
+        assertEquals(table.split("\\n").length, comparisons.size() + 2);
+    }
+
+    public void testWelchTestWithoutHistograms() {
+        Map<String, TimingStatistics> baseline = new TreeMap<String, TimingStatistics>();
+        Map<String, TimingStatistics> candidate = new TreeMap<String, TimingStatistics>();
+        baseline.put("tag", new TimingStatistics(100.0, 10.0, 150L, 50L, 100));
+        candidate.put("tag", new TimingStatistics(120.0, 10.0, 170L, 70L, 100));
+        StatisticsComparison.TagComparison comparison =
+                new StatisticsComparison(baseline, candidate, 10.0, 0.05).getComparisonsByTag().get("tag");
+        assertEquals(20.0 / Math.sqrt(2.0), comparison.getZScore(), 1e-9);
+        assertTrue(Double.isNaN(comparison.getPercentileChange(50.0)));
+        assertTrue(comparison.isRegression());
+    }
+
+    public void testAggregate() {
+        List<StopWatch> stopWatches = BinaryStopWatchLogIteratorTest.randomStopWatches(3000, 12L);
+        GroupedTimingStatistics all = new GroupedTimingStatistics();
+        for (StopWatch stopWatch : stopWatches) {
+            all.addStopWatch(stopWatch);
+        }
+        Map<String, TimingStatistics> aggregated =
+                StatisticsComparison.aggregate(new GroupingStatisticsIterator(stopWatches.iterator(), 1000L, false));
+        assertEquals(all.getStatisticsByTag().keySet(), aggregated.keySet());
+        for (Map.Entry<String, TimingStatistics> tagAndStats : all.getStatisticsByTag().entrySet()) {
+            TimingStatistics expected = tagAndStats.getValue();
+            TimingStatistics actual = aggregated.get(tagAndStats.getKey());
+            assertEquals(expected.getCount(), actual.getCount());
+            assertEquals(expected.getMean(), actual.getMean(), 1e-6);
+            assertEquals(expected.getHistogram(), actual.getHistogram());
+        }
+    }
+
+    // --- Helper Methods ---
+
+    private void addSample(Map<String, TimingStatistics> statisticsByTag, String tag, long elapsedTime) {
+        TimingStatistics timingStats = statisticsByTag.get(tag);
+        if (timingStats == null) {
+            timingStats = new TimingStatistics();
+            statisticsByTag.put(tag, timingStats);
+        }
+        timingStats.addSampleTime(elapsedTime);
+    }
+}
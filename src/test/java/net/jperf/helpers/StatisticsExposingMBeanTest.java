@@ -44,7 +44,8 @@ public class StatisticsExposingMBeanTest extends TimingTestCase {
 
         MBeanInfo mBeanInfo = mBean.getMBeanInfo();
         MBeanAttributeInfo[] attributeInfos = mBeanInfo.getAttributes();
-        assertEquals(mBean.getStatsValueRetrievers().size() * 2, attributeInfos.length);
+        assertEquals(mBean.getStatsValueRetrievers().size() * 2 + 1, attributeInfos.length);
+        assertEquals("ms", mBean.getAttribute(StatisticsExposingMBean.TIME_UNIT_ATTRIBUTE));
 
         assertEquals(groupedTimingStats.getStatisticsByTag().get("tag").getMean(),
                      mBean.getAttribute("tagMean"));
@@ -109,6 +110,73 @@ public class StatisticsExposingMBeanTest extends TimingTestCase {
         //TODO - more tests - update current statistics, check for unsupported ops.
     }
 
+    public void testSlidingWindow() throws Exception {
+        //one minute window of 1 second buckets, fed with the last 3 seconds of time slices
+        StatisticsExposingMBean mBean =
+                new StatisticsExposingMBean(StatisticsExposingMBean.DEFAULT_MBEAN_NAME,
+                                            Arrays.asList("tag"),
+                                            Arrays.asList(new AcceptableRangeConfiguration("tagMax(<1000)")),
+                                            new SlidingWindowStatistics(60000L, 60));
+        DummyNotificationListener notificationListener = new DummyNotificationListener();
+        mBean.addNotificationListener(notificationListener, null, null);
+
+        long sliceStartTime = (System.currentTimeMillis() / 1000L) * 1000L - 3000L;
+        for (long elapsedTime : new long[] { 100L, 200L, 3000L }) {
+            GroupedTimingStatistics slice = new GroupedTimingStatistics();
+            slice.setStartTime(sliceStartTime);
+            slice.setStopTime(sliceStartTime + 1000L);
+            slice.addStopWatch(new StopWatch(sliceStartTime, elapsedTime, "tag", null));
+            mBean.updateCurrentTimingStatistics(slice);
+            sliceStartTime += 1000L;
+        }
+
+        //the attributes cover all the slices, not just the last one
+        assertEquals(3, mBean.getAttribute("tagCount"));
+        assertEquals(100L, mBean.getAttribute("tagMin"));
+        assertEquals(1100.0, mBean.getAttribute("tagMean"));
+        assertEquals(2, mBean.getAttributes(new String[] { "tagMin", "tagMax" }).size());
+
+        //the threshold is checked against the window
+        Thread.sleep(50);
+        assertEquals(StatisticsExposingMBean.OUT_OF_RANGE_NOTIFICATION_TYPE,
+                     notificationListener.lastReceivedNotification.getType());
+    }
+
+    public void testSlidingWindowFedWithStopWatches() throws Exception {
+        //a one minute window with a 5 second time slice, fed with each StopWatch as it is logged
+        StatisticsExposingMBean mBean =
+                new StatisticsExposingMBean(StatisticsExposingMBean.DEFAULT_MBEAN_NAME,
+                                            Arrays.asList("tag"),
+                                            Arrays.asList(new AcceptableRangeConfiguration("tagMax(<1000)")),
+                                            new SlidingWindowStatistics(60000L, 60));
+        DummyNotificationListener notificationListener = new DummyNotificationListener();
+        mBean.addNotificationListener(notificationListener, null, null);
+
+        long sliceStartTime = System.currentTimeMillis();
+        StopWatch goodStopWatch = new StopWatch(sliceStartTime, 100L, "tag", null);
+        mBean.addStopWatch(goodStopWatch);
+        assertEquals(1, mBean.getAttribute("tagCount"));
+        Thread.sleep(50);
+        assertNull(notificationListener.lastReceivedNotification);
+
+        //the notification is sent as soon as the slow StopWatch is added, long before the time slice ends
+        StopWatch slowStopWatch = new StopWatch(sliceStartTime, 3000L, "tag", null);
+        mBean.addStopWatch(slowStopWatch);
+        assertEquals(3000L, mBean.getAttribute("tagMax"));
+        Thread.sleep(50);
+        assertEquals(StatisticsExposingMBean.OUT_OF_RANGE_NOTIFICATION_TYPE,
+                     notificationListener.lastReceivedNotification.getType());
+
+        //when the time slice holding the same StopWatches arrives it doesn't count them again
+        GroupedTimingStatistics slice = new GroupedTimingStatistics();
+        slice.setStartTime(sliceStartTime);
+        slice.setStopTime(sliceStartTime + 5000L);
+        slice.addStopWatch(goodStopWatch);
+        slice.addStopWatch(slowStopWatch);
+        mBean.updateCurrentTimingStatistics(slice);
+        assertEquals(2, mBean.getAttribute("tagCount"));
+    }
+
     protected static class DummyNotificationListener implements NotificationListener {
         public Notification lastReceivedNotification;
         
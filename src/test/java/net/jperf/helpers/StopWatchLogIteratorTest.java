@@ -86,6 +86,32 @@ public class StopWatchLogIteratorTest extends TimingTestCase {
         }
     }
 
+    public void testScannedLogMatchesRegexLog() throws Exception {
+        String log = "start[1] time[2] tag[a] start[3] time[4] tag[b] message[m]\r\n"
+                     + "garbage line\n"
+                     + "\n"
+                     + "INFO start[5] time[6] tag[c\n"
+                     + "] start[7] time[8] tag[d] message[\rstart[9] time[10] tag[e]\n"
+                     + "start[11] time[12] tag[no newline at end]";
+
+        List<StopWatch> scanned = new ArrayList<StopWatch>();
+        for (StopWatchLogIterator iter = new StopWatchLogIterator(new StringReader(log)); iter.hasNext();) {
+            scanned.add(iter.next());
+        }
+        List<StopWatch> matched = new ArrayList<StopWatch>();
+        for (StopWatchLogIterator iter = new StopWatchLogIterator(new StringReader(log)) {
+                protected StopWatchParser newStopWatchParser() {
+                    return new StopWatchParserTest.RegexStopWatchParser();
+                }
+             };
+             iter.hasNext();) {
+            matched.add(iter.next());
+        }
+
+        assertEquals(5, scanned.size());
+        assertEquals(matched, scanned);
+    }
+
     public void testEmptyIterator() throws Exception {
         assertFalse(new StopWatchLogIterator(new StringReader("")).hasNext());
     }
@@ -19,6 +19,12 @@ package net.jperf.helpers;
 import junit.framework.TestCase;
 import net.jperf.StopWatch;
 
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Tests the StopWatchParser class.
  */
@@ -37,4 +43,167 @@ public class StopWatchParserTest extends TestCase {
 
         assertNull(parser.match("not a stop watch string"));
     }
+
+    public void testScannerMatchesRegex() throws Exception {
+        StopWatchParser scanningParser = new StopWatchParser();
+        StopWatchParser regexParser = new RegexStopWatchParser();
+        assertTrue(scanningParser.isScannable());
+        assertFalse(regexParser.isScannable());
+
+        String[] messages = {
+                "start[1230068856846] time[2] tag[tag1]",
+                "start[1230068856846] time[2] tag[tag1] message[some message]",
+                "INFO 2008-12-23 TimingLogger - start[1230068856846] time[2] tag[tag1] message[msg] trailing text",
+                "start[1] time[2] tag[] message[]",
+                "start[1] time[2] tag[a[b]c] message[x[y]z]",
+                "start[1] time[2] tag[tag] message[unterminated",
+                "start[1] time[2] tag[tag]message[no space]",
+                "start[1] time[2] tag[unterminated",
+                "start[1] time[2] tag[split\nacross lines] start[3] time[4] tag[second]",
+                "start[1] time[2] tag[tag] message[split\rline]",
+                "start[abc] time[2] tag[bad] start[5] time[6] tag[good]",
+                "start[] time[2] tag[tag]",
+                "start[1] time[] tag[tag]",
+                "start[1]  time[2] tag[tag]",
+                "start[0001] time[0002] tag[leading zeros]",
+                "start[9223372036854775807] time[2] tag[max long]",
+                "start[1] time[2] tag[unicode \u2028 separator]",
+                "start[1] time[2] tag[unicode \u00e9 tag] message[\u4e2d\u6587]",
+                "start[1] time[\u0661] tag[arabic digit]",
+                "start[start[1] time[2] tag[nested]",
+                "start[1] time[2] tag[micros] unit[us]",
+                "start[1] time[2] tag[nanos] message[m] unit[ns]",
+                "start[1] time[2] tag[millis] unit[ms]",
+                "start[1] time[2] tag[unknown unit] unit[xs]",
+                "start[1] time[2] tag[no space]unit[us]",
+                "start[1] time[2] tag[unterminated unit] unit[us",
+                "start[1] time[2] tag[unit] message[unterminated unit[us]",
+                "start[1] time[2] tag[t] unit[u",
+                "start[1] time[2] tag[t] unit[us] start[3] time[4] tag[second] unit[ns]",
+                "start[1] time[] tag[no time] unit[us]",
+                "start[1] time[2] unit[us] tag[unit before tag]",
+                "not a stop watch string",
+                ""
+        };
+        for (String message : messages) {
+            assertEquals(message, regexParser.parseStopWatch(message), scanningParser.parseStopWatch(message));
+            StopWatch stopWatch = scanningParser.parseStopWatch(message);
+            if (stopWatch != null) {
+                assertEquals(message, regexParser.parseStopWatch(message).getMessage(), stopWatch.getMessage());
+                assertSame(message, regexParser.parseStopWatch(message).getTimeUnit(), stopWatch.getTimeUnit());
+            }
+        }
+
+        //both fail the same way on numbers that don't fit in a long
+        String overflow = "start[99999999999999999999] time[2] tag[tag]";
+        try {
+            scanningParser.parseStopWatch(overflow);
+            fail();
+        } catch (NumberFormatException nfe) {
+            //expected
+        }
+    }
+
+    public void testTimeUnit() throws Exception {
+        StopWatchParser parser = new StopWatchParser();
+        StopWatch stopWatch = new StopWatch(123L, 456L, "tag", "message", TimeUnit.MICROSECONDS);
+        assertEquals(stopWatch, parser.parseStopWatch(stopWatch.toString()));
+        assertEquals(stopWatch, new RegexStopWatchParser().parseStopWatch(stopWatch.toString()));
+        assertSame(TimeUnit.NANOSECONDS, parser.parseStopWatch("start[1] time[2] tag[t] unit[ns]").getTimeUnit());
+        assertSame(TimeUnit.MILLISECONDS, parser.parseStopWatch("start[1] time[2] tag[t]").getTimeUnit());
+        assertSame(TimeUnit.MILLISECONDS, parser.parseStopWatch("start[1] time[2] tag[t] unit[s]").getTimeUnit());
+
+        //the patterns of earlier versions still match StopWatches written with a unit, which they read as ms
+        StopWatchParser oldParser =
+                new StopWatchParser("start\\[(\\d+)\\] time\\[(\\d+)\\] tag\\[(.*?)\\](?: message\\[(.*?)\\])?");
+        assertEquals(0, oldParser.getUnitGroup());
+        assertEquals(new StopWatch(123L, 456L, "tag", "message"), oldParser.parseStopWatch(stopWatch.toString()));
+
+        //a custom pattern with more groups only has a unit group if it says which one it is
+        String customPattern = "start\\[(\\d+)\\] time\\[(\\d+)\\] tag\\[(.*?)\\] message\\[(.*?)\\] thread\\[(.*?)\\]";
+        parser = new StopWatchParser(customPattern);
+        assertEquals(0, parser.getUnitGroup());
+        assertEquals(new StopWatch(1L, 2L, "t", "m"),
+                     parser.parseStopWatch("start[1] time[2] tag[t] message[m] thread[main]"));
+        parser = new StopWatchParser(customPattern + "(?: unit\\[(ns|us|ms)\\])?", 6);
+        assertEquals(new StopWatch(1L, 2L, "t", "m", TimeUnit.MICROSECONDS),
+                     parser.parseStopWatch("start[1] time[2] tag[t] message[m] thread[main] unit[us]"));
+        try {
+            new StopWatchParser(customPattern, 6);
+            fail();
+        } catch (IllegalArgumentException iae) {
+            //expected
+        }
+    }
+
+    public void testTagsAreReused() throws Exception {
+        StopWatchParser parser = new StopWatchParser();
+        StopWatch first = parser.parseStopWatch("start[1] time[2] tag[reused.tag] message[first]");
+        StopWatch second = parser.parseStopWatch("start[3] time[4] tag[reused.tag] message[second]");
+        assertSame(first.getTag(), second.getTag());
+    }
+
+    public void testCustomPatternUsesRegex() throws Exception {
+        StopWatchParser parser = new StopWatchParser("begin\\[(\\d+)\\] took\\[(\\d+)\\] tag\\[(.*?)\\]()");
+        assertFalse(parser.isScannable());
+        assertEquals(new StopWatch(1, 2, "tag", ""), parser.parseStopWatch("begin[1] took[2] tag[tag]"));
+        assertNull(parser.parseStopWatch("start[1] time[2] tag[tag]"));
+    }
+
+    public void testFilter() throws Exception {
+        StopWatchFilter filter = new StopWatchFilter(100L, 200L, "db.*, /cache\\.(get|put)/, web.{home,login}");
+        assertTrue(filter.acceptsTag("db.query"));
+        assertTrue(filter.acceptsTag("cache.put"));
+        assertTrue(filter.acceptsTag("web.login"));
+        assertFalse(filter.acceptsTag("cache.remove"));
+        assertFalse(filter.acceptsTag("web.logout"));
+        assertFalse(filter.acceptsTag("mydb.query"));
+        assertTrue(filter.acceptsStartTime(100L));
+        assertFalse(filter.acceptsStartTime(200L));
+
+        //rejected StopWatches are skipped, including one whose message looks like the start of another StopWatch
+        String log = "start[50] time[1] tag[db.early] message[start[150] time[1] tag[db.hidden]] " +
+                     "start[150] time[2] tag[db.query] start[160] time[3] tag[cache.remove]\n" +
+                     "start[170] time[4] tag[web.home] message[home page]\n" +
+                     "start[250] time[5] tag[db.late]\n" +
+                     "start[180] time[6] tag[cache.get] start[190] time[7] tag[db.query]\n";
+        List<StopWatch> expected = new ArrayList<StopWatch>();
+        for (Iterator<StopWatch> iter = new StopWatchLogIterator(new StringReader(log)); iter.hasNext();) {
+            StopWatch stopWatch = iter.next();
+            if (filter.accepts(stopWatch)) {
+                expected.add(stopWatch);
+            }
+        }
+        assertEquals(4, expected.size());
+        assertEquals(expected, toList(new StopWatchLogIterator(new StringReader(log), filter)));
+        assertEquals(expected, toList(new StopWatchLogIterator(new StringReader(log), filter) {
+            protected StopWatchParser newStopWatchParser() {
+                return new RegexStopWatchParser();
+            }
+        }));
+
+        StopWatchParser parser = new StopWatchParser();
+        parser.setFilter(filter);
+        assertEquals(new StopWatch(150, 2, "db.query", null), parser.parseStopWatch(log));
+        assertNull(parser.parseStopWatch("start[250] time[5] tag[db.late]"));
+    }
+
+    private List<StopWatch> toList(Iterator<StopWatch> iter) {
+        List<StopWatch> retVal = new ArrayList<StopWatch>();
+        while (iter.hasNext()) {
+            retVal.add(iter.next());
+        }
+        return retVal;
+    }
+
+    /**
+     * Overriding getPattern forces the regex to be used, so this parser behaves like the parser did before it had a
+     * hand-written scanner.
+     */
+    static class RegexStopWatchParser extends StopWatchParser {
+        @Override
+        public java.util.regex.Pattern getPattern() {
+            return super.getPattern();
+        }
+    }
 }
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import net.jperf.StopWatch;
+
+import java.io.StringReader;
+import java.util.Random;
+
+/**
+ * Compares the throughput of the hand-written StopWatchParser scanner with the regex it replaced, both for single
+ * messages, as parsed by the GenericAsyncCoalescingStatisticsAppender, and for whole logs, as parsed by the
+ * StopWatchLogIterator used by LogParser. This is not run as part of the unit tests; run it from the command line with
+ * <pre>
+ * java -cp target/classes:target/test-classes net.jperf.helpers.StopWatchParserThroughput [numLines]
+ * </pre>
+ * The log lines look like those written by a PatternLayout of "%d %-5p %c - %m%n", with 200 distinct tags and a
+ * message on every other line.
+ */
+public class StopWatchParserThroughput {
+
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int numLines = (args.length > 0) ? Integer.parseInt(args[0]) : 500000;
+        String[] lines = newLogLines(numLines);
+        StringBuilder log = new StringBuilder();
+        for (String line : lines) {
+            log.append(line).append('\n');
+        }
+
+        StopWatchParser regexParser = new RegexStopWatchParser();
+        StopWatchParser scanningParser = new StopWatchParser();
+
+        System.out.println("                              regex (lines/s)   scanner (lines/s)   speedup");
+        for (int run = 0; run < RUNS; run++) {
+            //the first run warms up the JIT and isn't reported
+            double regexRate = parseMessages(regexParser, lines);
+            double scanningRate = parseMessages(scanningParser, lines);
+            if (run > 0) {
+                print("StopWatchParser.parseStopWatch", regexRate, scanningRate);
+            }
+        }
+        for (int run = 0; run < RUNS; run++) {
+            double regexRate = iterateLog(new StopWatchLogIterator(new StringReader(log.toString())) {
+                protected StopWatchParser newStopWatchParser() {
+                    return new RegexStopWatchParser();
+                }
+            }, numLines);
+            double scanningRate = iterateLog(new StopWatchLogIterator(new StringReader(log.toString())), numLines);
+            if (run > 0) {
+                print("StopWatchLogIterator", regexRate, scanningRate);
+            }
+        }
+    }
+
+    private static String[] newLogLines(int numLines) {
+        Random random = new Random(1L);
+        String[] retVal = new String[numLines];
+        long startTime = 1230068856846L;
+        for (int i = 0; i < numLines; i++) {
+            StopWatch stopWatch = new StopWatch(startTime + i,
+                                                random.nextInt(5000),
+                                                "service" + random.nextInt(20) + ".method" + random.nextInt(10),
+                                                (i % 2 == 0) ? null : "request " + i);
+            retVal[i] = "2008-12-23 14:47:36,846 INFO  net.jperf.TimingLogger - " + stopWatch;
+        }
+        return retVal;
+    }
+
+    private static double parseMessages(StopWatchParser parser, String[] lines) {
+        long checksum = 0L;
+        long startNanos = System.nanoTime();
+        for (String line : lines) {
+            checksum += parser.parseStopWatch(line).getElapsedTime();
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        if (checksum == 42L) {
+            System.out.println(); //keeps the JIT from removing the loop
+        }
+        return lines.length * 1e9 / elapsedNanos;
+    }
+
+    private static double iterateLog(StopWatchLogIterator iterator, int numLines) {
+        int count = 0;
+        long startNanos = System.nanoTime();
+        while (iterator.hasNext()) {
+            iterator.next();
+            count++;
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        if (count != numLines) {
+            throw new IllegalStateException("Parsed " + count + " of " + numLines + " lines");
+        }
+        return numLines * 1e9 / elapsedNanos;
+    }
+
+    private static void print(String name, double regexRate, double scanningRate) {
+        System.out.println(String.format("%-30s%16.0f%20.0f%9.1fx",
+                                         name, regexRate, scanningRate, scanningRate / regexRate));
+    }
+
+    /**
+     * Overriding getPattern makes the parser fall back to the regex, as it worked before the scanner was added.
+     */
+    private static class RegexStopWatchParser extends StopWatchParser {
+        @Override
+        public java.util.regex.Pattern getPattern() {
+            return super.getPattern();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2008-2015 JPerf
+ * All rights reserved.  http://www.jperf.net
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.jperf.helpers;
+
+import junit.framework.TestCase;
+import net.jperf.StopWatch;
+
+import java.io.StringReader;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Tests the JsonStopWatchParser and LogfmtStopWatchParser classes.
+ */
+public class StructuredStopWatchParserTest extends TestCase {
+
+    public void testJsonStopWatchParser() throws Exception {
+        JsonStopWatchParser parser = new JsonStopWatchParser();
+        assertTrue(parser.isScannable());
+
+        assertEquals(new StopWatch(123L, 456L, "db.get", "cache miss"),
+                     parser.parseStopWatch("{\"start\":123,\"time\":456,\"tag\":\"db.get\",\"message\":\"cache miss\"}"));
+        assertEquals(new StopWatch(123L, 456L, "db.get", null),
+                     parser.parseStopWatch("{\"ts\":123,\"elapsed\":456,\"tag\":\"db.get\"}"));
+        //keys in any order, whitespace, a layout prefix, quoted numbers, fractions and fields that aren't mapped
+        assertEquals(new StopWatch(123L, 456L, "db.get", "m"),
+                     parser.parseStopWatch("INFO perf - { \"level\" : \"info\", \"msg\" : \"m\", \"tag\" : \"db.get\"," +
+                                           " \"duration\" : 456.75, \"timestamp\" : \"123\", \"ok\" : true }"));
+        //nested structures are skipped, even if they contain mapped keys
+        assertEquals(new StopWatch(1L, 2L, "outer", null),
+                     parser.parseStopWatch("{\"ctx\":{\"tag\":\"inner\",\"a\":[1,{\"b\":\"}\"}]},\"tag\":\"outer\"," +
+                                           "\"start\":1,\"time\":2,\"list\":[\"tag\",3]}"));
+        //escape sequences
+        assertEquals(new StopWatch(1L, 2L, "a\"b", "line\nnext \u00e9\\/"),
+                     parser.parseStopWatch("{\"start\":1,\"time\":2,\"tag\":\"a\\\"b\"," +
+                                           "\"message\":\"line\\nnext \\u00e9\\\\\\/\"}"));
+        //the first alternative key with a valid value is used
+        assertEquals(new StopWatch(5L, 2L, "tag", null),
+                     parser.parseStopWatch("{\"ts\":\"2008-12-23T00:00:00Z\",\"start\":5,\"time\":2,\"tag\":\"tag\"}"));
+
+        //numbers with exponents
+        assertEquals(new StopWatch(1000L, 190L, "exp", null),
+                     parser.parseStopWatch("{\"start\":1E3,\"time\":1.9e2,\"tag\":\"exp\"}"));
+        assertEquals(new StopWatch(1L, 2L, "exp", null),
+                     parser.parseStopWatch("{\"start\":1,\"time\":\"2.5e+0\",\"tag\":\"exp\"}"));
+        //an unquoted null is no value, so the message is absent, or taken from the next key mapped to it
+        assertEquals(new StopWatch(1L, 5L, "t", null),
+                     parser.parseStopWatch("{\"ts\":1,\"elapsed\":5,\"tag\":\"t\",\"msg\":null}"));
+        assertEquals(new StopWatch(1L, 5L, "null", "null"),
+                     parser.parseStopWatch("{\"ts\":1,\"elapsed\":5,\"tag\":\"null\",\"msg\":\"null\"}"));
+        assertEquals(new StopWatch(1L, 5L, "t", "m"),
+                     parser.parseStopWatch("{\"ts\":1,\"elapsed\":5,\"message\":null,\"msg\":\"m\",\"tag\":\"t\"}"));
+
+        //records that aren't StopWatches
+        assertNull(parser.parseStopWatch("{\"ts\":1,\"elapsed\":5,\"tag\":null}"));
+        assertNull(parser.parseStopWatch("{\"start\":1,\"time\":-1e2,\"tag\":\"negative exponent\"}"));
+        assertNull(parser.parseStopWatch("{\"start\":1,\"time\":1e,\"tag\":\"bad exponent\"}"));
+        assertNull(parser.parseStopWatch("{\"start\":1,\"time\":1e18,\"tag\":\"too large\"}"));
+        assertNull(parser.parseStopWatch("{\"time\":2,\"tag\":\"no start\"}"));
+        assertNull(parser.parseStopWatch("{\"start\":-1,\"time\":2,\"tag\":\"negative\"}"));
+        assertNull(parser.parseStopWatch("{\"start\":1,\"time\":\"x\",\"tag\":\"not a number\"}"));
+        assertNull(parser.parseStopWatch("{\"start\":1,\"time\":2,\"tag\":\"unterminated"));
+        assertNull(parser.parseStopWatch("start[1] time[2] tag[text format]"));
+        assertNull(parser.parseStopWatch(""));
+        assertFalse(parser.isPotentiallyValid("start[1] time[2] tag[text format]"));
+        assertTrue(parser.isPotentiallyValid("{\"start\":1}"));
+    }
+
+    public void testLogfmtStopWatchParser() throws Exception {
+        LogfmtStopWatchParser parser = new LogfmtStopWatchParser();
+        assertTrue(parser.isScannable());
+
+        assertEquals(new StopWatch(123L, 456L, "db.get", "cache miss"),
+                     parser.parseStopWatch("level=info ts=123 elapsed=456 tag=db.get msg=\"cache miss\""));
+        assertEquals(new StopWatch(123L, 456L, "db get", null),
+                     parser.parseStopWatch("2008-12-23 INFO [main] start=123 time=456 debug tag=\"db get\" x="));
+        assertEquals(new StopWatch(1L, 2L, "a\"b", "tab\there"),
+                     parser.parseStopWatch("start=1 time=2 tag=\"a\\\"b\" message=\"tab\\there\""));
+        assertEquals(new StopWatch(1L, 2L, "tag", "unterminated"),
+                     parser.parseStopWatch("start=1 time=2 tag=tag message=\"unterminated"));
+
+        assertNull(parser.parseStopWatch("start=1 time=2"));
+        assertNull(parser.parseStopWatch("start=1 time=2 =tag"));
+        assertNull(parser.parseStopWatch("not a stop watch"));
+        assertFalse(parser.isPotentiallyValid("not a stop watch"));
+    }
+
+    public void testFields() throws Exception {
+        JsonStopWatchParser parser = new JsonStopWatchParser("start=at, time = latency|took, tag=op");
+        assertEquals("start=at,time=latency|took,tag=op,message=message|msg,unit=unit", parser.getFields());
+        assertEquals(new StopWatch(1L, 2L, "get", "m"),
+                     parser.parseStopWatch("{\"at\":1,\"took\":2,\"op\":\"get\",\"msg\":\"m\",\"tag\":\"ignored\"}"));
+        assertNull(parser.parseStopWatch("{\"start\":1,\"time\":2,\"tag\":\"default keys\"}"));
+
+        parser.setFields("tag=name");
+        assertEquals(StructuredStopWatchParser.DEFAULT_FIELDS.replace("tag=tag", "tag=name"), parser.getFields());
+
+        for (String fields : new String[]{"elapsed=took", "time", "time=", "time=a||b", ""}) {
+            try {
+                parser.setFields(fields);
+                fail("Expected an IllegalArgumentException for " + fields);
+            } catch (IllegalArgumentException iae) {
+                //expected
+            }
+        }
+    }
+
+    public void testFilter() throws Exception {
+        for (StructuredStopWatchParser parser : new StructuredStopWatchParser[]{new JsonStopWatchParser(),
+                                                                                new LogfmtStopWatchParser()}) {
+            parser.setFilter(new StopWatchFilter(10L, 20L, "db.*"));
+            boolean json = parser instanceof JsonStopWatchParser;
+            assertNotNull(parser.parseStopWatch(record(json, 10L, "db.get")));
+            assertNull(parser.parseStopWatch(record(json, 20L, "db.get")));
+            assertNull(parser.parseStopWatch(record(json, 15L, "web.get")));
+        }
+    }
+
+    public void testStopWatchLogIterator() throws Exception {
+        //every JSON object on a line is parsed, and lines are parsed alike with a Reader and with a Scanner
+        String log = "{\"start\":1,\"time\":2,\"tag\":\"a\"} {\"start\":3,\"time\":4,\"tag\":\"b\"}\n" +
+                     "not a record\n" +
+                     "{\"ts\":5,\"elapsed\":6,\"tag\":\"c\",\"msg\":\"m\"}\r\n" +
+                     "{\"start\":7,\"time\":8}\n" +
+                     "{\"start\":9,\"time\":10,\"tag\":\"d\"}";
+        List<StopWatch> expected = new ArrayList<StopWatch>();
+        expected.add(new StopWatch(1L, 2L, "a", null));
+        expected.add(new StopWatch(3L, 4L, "b", null));
+        expected.add(new StopWatch(5L, 6L, "c", "m"));
+        expected.add(new StopWatch(9L, 10L, "d", null));
+
+        assertEquals(expected, parse(new StringReader(log)));
+        assertEquals(expected, parse(CharBuffer.wrap(log)));
+    }
+
+    private static String record(boolean json, long startTime, String tag) {
+        return json ?
+               "{\"start\":" + startTime + ",\"time\":1,\"tag\":\"" + tag + "\"}" :
+               "start=" + startTime + " time=1 tag=" + tag;
+    }
+
+    private static List<StopWatch> parse(Readable log) {
+        List<StopWatch> retVal = new ArrayList<StopWatch>();
+        for (Iterator<StopWatch> iter = new StopWatchLogIterator(log) {
+            protected StopWatchParser newStopWatchParser() {
+                return new JsonStopWatchParser();
+            }
+        }; iter.hasNext();) {
+            retVal.add(iter.next());
+        }
+        return retVal;
+    }
+}
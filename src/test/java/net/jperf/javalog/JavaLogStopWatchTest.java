@@ -16,13 +16,19 @@
  */
 package net.jperf.javalog;
 
+import net.jperf.DetachedStopWatch;
 import net.jperf.LoggingStopWatchTest;
 import net.jperf.StopWatch;
 import net.jperf.LoggingStopWatch;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.ConsoleHandler;
+import java.util.logging.Handler;
 import java.util.logging.Level;
+import java.util.logging.LogRecord;
 import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
 
 /**
  * Tests the JavaLogStopWatch. See the superclass for the test method that is run.
@@ -122,6 +128,27 @@ public class JavaLogStopWatchTest extends LoggingStopWatchTest {
         assertTrue(stopWatch.isLogging());
         Logger.getLogger("net.jperf.AnotherTestLogger").setLevel(Level.INFO);
         assertFalse(stopWatch.isLogging());
+
+        //the StopWatch is passed in the record, not as a parameter that would make braces in the message be formatted
+        final List<LogRecord> records = new ArrayList<LogRecord>();
+        Logger recordLogger = Logger.getLogger("net.jperf.RecordTestLogger");
+        recordLogger.setUseParentHandlers(false);
+        recordLogger.addHandler(new Handler() {
+            public void publish(LogRecord record) { records.add(record); }
+            public void flush() { }
+            public void close() { }
+        });
+        JavaLogStopWatch braceStopWatch = new JavaLogStopWatch("tag", "message {0", recordLogger);
+        braceStopWatch.stop();
+        assertEquals(1, records.size());
+        LogRecord record = records.get(0);
+        assertNull(record.getParameters());
+        assertTrue(new SimpleFormatter().formatMessage(record).contains("message[message {0]"));
+        StopWatch loggedStopWatch = ((StopWatchLogRecord) record).getStopWatch();
+        assertTrue(loggedStopWatch instanceof DetachedStopWatch);
+        assertEquals("tag", loggedStopWatch.getTag());
+        assertEquals("message {0", loggedStopWatch.getMessage());
+        assertEquals(braceStopWatch.getElapsedTime(), loggedStopWatch.getElapsedTime());
     }
 
     protected void checkProperties(LoggingStopWatch stopWatch,
@@ -110,7 +110,7 @@ public class JmxAppenderTest extends TestCase {
         initJmxMBean();
         assertTrue(server.isRegistered(statisticsMBeanName));
         MBeanInfo mbeanInfo = server.getMBeanInfo(statisticsMBeanName);
-        assertTrue(mbeanInfo.toString(), mbeanInfo.getAttributes().length == 1 * 6);
+        assertTrue(mbeanInfo.toString(), mbeanInfo.getAttributes().length == 1 * 11 + 1);
 
         try {
             JmxAttributeStatisticsAppender appender = new JmxAttributeStatisticsAppender();
@@ -122,8 +122,8 @@ public class JmxAppenderTest extends TestCase {
         }
 
         mbeanInfo = server.getMBeanInfo(statisticsMBeanName);
-        // if mbean had bean replaced, the count of attrs should be 18.
-        assertTrue(mbeanInfo.toString(), mbeanInfo.getAttributes().length == 1 * 6);
+        // if mbean had bean replaced, the count of attrs should be 34.
+        assertTrue(mbeanInfo.toString(), mbeanInfo.getAttributes().length == 1 * 11 + 1);
     }
 
     public void testCollisionReplace() throws Exception {
@@ -132,7 +132,7 @@ public class JmxAppenderTest extends TestCase {
         initJmxMBean();
         assertTrue(server.isRegistered(statisticsMBeanName));
         MBeanInfo mbeanInfo = server.getMBeanInfo(statisticsMBeanName);
-        assertTrue(mbeanInfo.toString(), mbeanInfo.getAttributes().length == 1 * 6);
+        assertTrue(mbeanInfo.toString(), mbeanInfo.getAttributes().length == 1 * 11 + 1);
 
         JmxAttributeStatisticsAppender appender = new JmxAttributeStatisticsAppender();
         appender.setTagNamesToExpose("replace1,replace2,replace3,replace4");
@@ -140,8 +140,8 @@ public class JmxAppenderTest extends TestCase {
         appender.start();
 
         mbeanInfo = server.getMBeanInfo(statisticsMBeanName);
-        // if mbean had bean replaced, the count of attrs should be 24.
-        assertTrue(mbeanInfo.toString(), mbeanInfo.getAttributes().length == 4 * 6);
+        // if mbean had bean replaced, the count of attrs should be 45.
+        assertTrue(mbeanInfo.toString(), mbeanInfo.getAttributes().length == 4 * 11 + 1);
     }
 
     public void testCollisionIgnore() throws Exception {
@@ -150,7 +150,7 @@ public class JmxAppenderTest extends TestCase {
         initJmxMBean();
         assertTrue(server.isRegistered(statisticsMBeanName));
         MBeanInfo mbeanInfo = server.getMBeanInfo(statisticsMBeanName);
-        assertTrue(mbeanInfo.toString(), mbeanInfo.getAttributes().length == 1 * 6);
+        assertTrue(mbeanInfo.toString(), mbeanInfo.getAttributes().length == 1 * 11 + 1);
 
         JmxAttributeStatisticsAppender appender = new JmxAttributeStatisticsAppender();
         appender.setTagNamesToExpose("ignore1,ignore2,ignore3,ignore4,ignore5");
@@ -158,8 +158,8 @@ public class JmxAppenderTest extends TestCase {
         appender.start();
 
         mbeanInfo = server.getMBeanInfo(statisticsMBeanName);
-        // if mbean had bean replaced, the count of attrs should be 30.
-        assertTrue(mbeanInfo.toString(), mbeanInfo.getAttributes().length == 1 * 6);
+        // if mbean had bean replaced, the count of attrs should be 56.
+        assertTrue(mbeanInfo.toString(), mbeanInfo.getAttributes().length == 1 * 11 + 1);
     }
 
     protected void initJmxMBean() {